@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to the first trust report in a fresh JVM: one verification of the
+ * intel-host PLATFORM flavor from JSON strings, as a service receives them,
+ * including serializing the report. Every measurement runs in its own fork.
+ *
+ * The verifier is created in setup and either not warmed up, warmed up on a
+ * background thread started by its constructor (the measurement begins
+ * immediately, so it overlaps with the warm-up), or warmed up before the
+ * measurement. Loading the fixture and signing the flavor in setup already
+ * uses Jackson and the JCA providers, so the differences understate the gain
+ * in a service that verifies first; the fixture has no measurement XMLs, so
+ * the JAXB warm-up is not measured.
+ *
+ * Run with, for example:
+ *   java -jar target/benchmarks.jar ColdStartBenchmark -f 20
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class ColdStartBenchmark {
+
+    @Param({"NONE", "BACKGROUND", "EAGER"})
+    public String warmUp;
+
+    private HostFixture fixture;
+    private Verifier verifier;
+    private String hostManifest;
+    private String flavor;
+    private String signature;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new HostFixture("intel-host");
+        SignedFlavor signedFlavor = fixture.createFlavors(fixture.newHostManifest(), "PLATFORM").get(0);
+        hostManifest = fixture.getHostManifestJson();
+        flavor = Flavor.serialize(signedFlavor.getFlavor());
+        signature = signedFlavor.getSignature();
+        verifier = fixture.newVerifier("BACKGROUND".equals(warmUp));
+        if ("EAGER".equals(warmUp)) {
+            verifier.warmUp();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public String timeToFirstReport() throws Exception {
+        TrustReport report = verifier.verify(hostManifest, flavor, signature, false);
+        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+        return mapper.writeValueAsString(report);
+    }
+}
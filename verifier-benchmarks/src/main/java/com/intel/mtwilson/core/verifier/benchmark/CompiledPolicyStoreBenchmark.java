@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.benchmark;
+
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.policy.HostTrustPolicyManager;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.store.CompiledPolicyStore;
+import com.intel.mtwilson.core.verifier.store.CompiledPolicyStoreWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Verifies the intel-host PLATFORM flavor with a verifier that compiles the
+ * flavor and with one that finds it in a compiled policy store, and times the
+ * store lookup and the key it is found by on their own. The same SignedFlavor
+ * instance is verified on every call, as in a service that keeps the flavors
+ * of a host between verifications.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledPolicyStoreBenchmark {
+    private static final byte[] STORE_KEY = "compiled policy store benchmark key".getBytes(StandardCharsets.UTF_8);
+
+    private HostFixture fixture;
+    private Verifier compilingVerifier;
+    private Verifier storeVerifier;
+    private CompiledPolicyStore store;
+    private File storeFile;
+    private HostManifest hostManifest;
+    private SignedFlavor signedFlavor;
+    private String vendorKey;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new HostFixture("intel-host");
+        hostManifest = fixture.newHostManifest();
+        signedFlavor = fixture.createFlavors(hostManifest, "PLATFORM").get(0);
+        compilingVerifier = fixture.newVerifier();
+        storeVerifier = fixture.newVerifier();
+        CompiledPolicyStoreWriter writer = new CompiledPolicyStoreWriter(storeVerifier.getCertificateFingerprint(), STORE_KEY);
+        storeVerifier.compile(hostManifest, signedFlavor, false, writer);
+        storeFile = File.createTempFile("compiled-policies", ".bin");
+        writer.write(storeFile);
+        store = CompiledPolicyStore.open(storeFile, STORE_KEY);
+        storeVerifier.setCompiledPolicyStore(store);
+        vendorKey = new HostTrustPolicyManager(signedFlavor, hostManifest, null, null, fixture.getFlavorSigningCertPath(), fixture.getFlavorCaCertPath(), false).getVendorKey();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+        storeFile.delete();
+    }
+
+    @Benchmark
+    public TrustReport verifyCompiling() {
+        return compilingVerifier.verify(hostManifest, signedFlavor, false);
+    }
+
+    @Benchmark
+    public TrustReport verifyFromStore() {
+        return storeVerifier.verify(hostManifest, signedFlavor, false);
+    }
+
+    @Benchmark
+    public Policy lookupStoredPolicy() throws Exception {
+        return store.getPolicy(vendorKey, signedFlavor, false, fixture.getFlavorSigningCertPath(), fixture.getFlavorCaCertPath());
+    }
+
+    @Benchmark
+    public byte[] keyOf() throws Exception {
+        return CompiledPolicyStore.keyOf(vendorKey, signedFlavor, false);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.benchmark;
+
+import com.intel.mtwilson.core.verifier.crypto.CryptoProvider;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JCA providers available to the verifier for the operations
+ * it runs per host: extending a PCR with one event log entry in the SHA1,
+ * SHA256 and SHA384 banks, and verifying an RSA flavor signature. Each
+ * operation acquires its instance from a CryptoProvider and releases it, as
+ * the rules do.
+ *
+ * "default" uses the most preferred provider of each algorithm. BouncyCastle
+ * is registered if it is on the class path; providers that do not implement
+ * an algorithm fail in setup and are reported by JMH as errors.
+ *
+ * Run with, for example:
+ *   java -jar target/benchmarks.jar CryptoProviderBenchmark -p provider=default,BC
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoProviderBenchmark {
+    private static final String BOUNCY_CASTLE = "org.bouncycastle.jce.provider.BouncyCastleProvider";
+
+    @State(Scope.Thread)
+    public static class DigestState {
+        @Param({"default", "SUN", "BC"})
+        public String provider;
+
+        @Param({"SHA-1", "SHA-256", "SHA-384"})
+        public String algorithm;
+
+        CryptoProvider crypto;
+        byte[] pcr;
+        byte[] measurement;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            crypto = cryptoProvider(provider);
+            MessageDigest digest = crypto.acquireMessageDigest(algorithm);
+            pcr = new byte[digest.getDigestLength()];
+            measurement = digest.digest("measurement".getBytes(StandardCharsets.UTF_8));
+            crypto.release(digest);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SignatureState {
+        @Param({"default", "SunRsaSign", "BC"})
+        public String provider;
+
+        CryptoProvider crypto;
+        KeyPair keyPair;
+        byte[] flavor;
+        byte[] signature;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            crypto = cryptoProvider(provider);
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(3072);
+            keyPair = generator.generateKeyPair();
+            flavor = new byte[4096];
+            Signature signer = Signature.getInstance("SHA384withRSA");
+            signer.initSign(keyPair.getPrivate());
+            signer.update(flavor);
+            signature = signer.sign();
+            // fail in setup if the provider does not implement the algorithm
+            crypto.release(crypto.acquireSignature("SHA384withRSA"));
+        }
+    }
+
+    private static CryptoProvider cryptoProvider(String name) throws Exception {
+        if ("default".equals(name)) {
+            return new CryptoProvider();
+        }
+        if ("BC".equals(name) && Security.getProvider(name) == null) {
+            Security.addProvider((Provider) Class.forName(BOUNCY_CASTLE).newInstance());
+        }
+        return CryptoProvider.forName(name);
+    }
+
+    @Benchmark
+    public byte[] extend(DigestState state) throws Exception {
+        MessageDigest digest = state.crypto.acquireMessageDigest(state.algorithm);
+        try {
+            digest.update(state.pcr);
+            digest.update(state.measurement);
+            digest.digest(state.pcr, 0, state.pcr.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            state.crypto.release(digest);
+        }
+        return state.pcr;
+    }
+
+    @Benchmark
+    public boolean rsaVerify(SignatureState state) throws Exception {
+        Signature signature = state.crypto.acquireSignature("SHA384withRSA");
+        try {
+            signature.initVerify(state.keyPair.getPublic());
+            signature.update(state.flavor);
+            return signature.verify(state.signature);
+        } finally {
+            state.crypto.release(signature);
+        }
+    }
+}
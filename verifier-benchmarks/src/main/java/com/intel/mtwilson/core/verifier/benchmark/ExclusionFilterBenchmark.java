@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.benchmark;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrEventLogFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEqualsExcluding;
+import com.intel.mtwilson.core.verifier.policy.utils.ModuleExclusionFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Applies the PcrEventLogEqualsExcluding rule of PCR 19 to the event log of
+ * the esxi-host fixture, which has host specific command line entries and
+ * dynamic modules, with the default exclusion filter and with a filter that
+ * excludes every command line by prefix. The flavor log is the host log
+ * without the excluded entries, so the rule passes.
+ *
+ * Run with, for example:
+ *   java -jar target/benchmarks.jar ExclusionFilterBenchmark -p eventLogScale=1,100
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExclusionFilterBenchmark {
+    private static final PcrIndex PCR_INDEX = PcrIndex.PCR19;
+
+    @Param({"HOST_SPECIFIC", "PREFIX"})
+    public String filter;
+
+    /**
+     * Multiplier for the number of event log entries in the host manifest.
+     */
+    @Param({"1", "10", "100"})
+    public int eventLogScale;
+
+    private HostFixture fixture;
+    private HostManifest hostManifest;
+    private PcrEventLogEqualsExcluding rule;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new HostFixture("esxi-host");
+        hostManifest = fixture.newHostManifest();
+        HostFixture.scaleEventLogs(hostManifest, eventLogScale);
+        ModuleExclusionFilter exclusionFilter = "PREFIX".equals(filter)
+                ? ModuleExclusionFilter.compile(Arrays.asList("commandLine.*", "LCP_CONTROL_HASH", "initrd", "vmlinuz", "componentName.imgdb.tgz", "componentName.onetime.tgz"))
+                : ModuleExclusionFilter.HOST_SPECIFIC;
+        PcrEventLog hostEventLog = hostManifest.getPcrManifest().getPcrEventLog(DigestAlgorithm.SHA1, PCR_INDEX);
+        ArrayList<Measurement> expected = new ArrayList<>();
+        for (Measurement measurement : hostEventLog.getEventLog()) {
+            if (!isExcluded(measurement, exclusionFilter)) {
+                expected.add(measurement);
+            }
+        }
+        rule = new PcrEventLogEqualsExcluding(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA1, PCR_INDEX, expected));
+        rule.setExclusionFilter(exclusionFilter);
+        if (!rule.apply(hostManifest).isTrusted()) {
+            throw new IllegalStateException("PcrEventLogEqualsExcluding fails on the esxi-host fixture");
+        }
+    }
+
+    private static boolean isExcluded(Measurement measurement, ModuleExclusionFilter exclusionFilter) {
+        Map<String, String> info = measurement.getInfo();
+        if (info == null) {
+            return false;
+        }
+        return exclusionFilter.matches(info.get("ComponentName"))
+                || ("".equals(info.get("PackageName")) && "".equals(info.get("PackageVendor")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public RuleResult pcrEventLogEqualsExcluding() {
+        return rule.apply(hostManifest);
+    }
+}
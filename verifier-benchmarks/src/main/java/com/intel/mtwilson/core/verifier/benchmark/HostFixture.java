@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.benchmark;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.dcsg.cpg.extensions.Extensions;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.MeasurementSha1;
+import com.intel.mtwilson.core.common.model.MeasurementSha256;
+import com.intel.mtwilson.core.common.model.Pcr;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrEventLogFactory;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
+import com.intel.mtwilson.core.flavor.PlatformFlavor;
+import com.intel.mtwilson.core.flavor.PlatformFlavorFactory;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.jackson.bouncycastle.BouncyCastleModule;
+import com.intel.mtwilson.jackson.validation.ValidationModule;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import com.intel.mtwilson.util.crypto.keystore.PrivateKeyStore;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Loads one of the lib-verifier test fixtures (intel-host, esxi-host) from the
+ * test jar: the host manifest, the tag certificate, the flavor signing key and
+ * the CA certificates, which the Verifier reads from files.
+ */
+public class HostFixture implements Closeable {
+    private static final String KEYSTORE_PASSWORD = "H6mpW8iKFOzytOFoAquvbw==";
+    private static final String SIGNING_KEY_ALIAS = "flavor-signing-key";
+
+    private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+    private final String pathPrefix;
+    private final File privacyCa;
+    private final File tagCa;
+    private final File flavorSigningCert;
+    private final File flavorCaCert;
+    private final PrivateKey flavorSigningKey;
+    private final X509AttributeCertificate tagCertificate;
+    private final String hostManifestAsJson;
+
+    static {
+        Extensions.register(Module.class, BouncyCastleModule.class);
+        Extensions.register(Module.class, ValidationModule.class);
+    }
+
+    public HostFixture(String pathPrefix) throws Exception {
+        this.pathPrefix = pathPrefix;
+        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        privacyCa = copyToTempFile("PrivacyCA.pem");
+        tagCa = copyToTempFile("tag-cacerts.pem");
+        flavorSigningCert = copyToTempFile("flavor-signer.crt.pem");
+        flavorCaCert = copyToTempFile("cms-ca.crt.pem");
+        File keystore = copyToTempFile("mtwilson-flavor-signing-cert.p12");
+        try {
+            PrivateKeyStore privateKeyStore = new PrivateKeyStore("PKCS12", keystore, KEYSTORE_PASSWORD.toCharArray());
+            flavorSigningKey = privateKeyStore.getPrivateKey(SIGNING_KEY_ALIAS);
+        } finally {
+            keystore.delete();
+        }
+        tagCertificate = mapper.readValue(Resources.toString(Resources.getResource(pathPrefix + "/tagcer.json"), Charsets.UTF_8), X509AttributeCertificate.class);
+        // intel-host keeps the manifest used by TestVerifierIntelHost in RHEL_Manifest.json
+        String manifestName = HostFixture.class.getClassLoader().getResource(pathPrefix + "/RHEL_Manifest.json") != null ? "RHEL_Manifest.json" : "hostmanifest.json";
+        hostManifestAsJson = Resources.toString(Resources.getResource(pathPrefix + "/" + manifestName), Charsets.UTF_8);
+    }
+
+    public Verifier newVerifier() {
+        return newVerifier(false);
+    }
+
+    /**
+     * @param warmUp  true to start the verifier warm-up in the background
+     */
+    public Verifier newVerifier(boolean warmUp) {
+        return new Verifier(privacyCa.getPath(), tagCa.getPath(), flavorSigningCert.getPath(), flavorCaCert.getPath(), warmUp);
+    }
+
+    /**
+     * @return a new copy of the fixture host manifest, which the caller may
+     * modify
+     */
+    public HostManifest newHostManifest() throws IOException {
+        return mapper.readValue(hostManifestAsJson, HostManifest.class);
+    }
+
+    /**
+     * @return the fixture host manifest as read from the test jar
+     */
+    public String getHostManifestJson() {
+        return hostManifestAsJson;
+    }
+
+    public String getFlavorSigningCertPath() {
+        return flavorSigningCert.getPath();
+    }
+
+    public String getFlavorCaCertPath() {
+        return flavorCaCert.getPath();
+    }
+
+    public X509AttributeCertificate getTagCertificate() {
+        return tagCertificate;
+    }
+
+    public PrivateKey getFlavorSigningKey() {
+        return flavorSigningKey;
+    }
+
+    /**
+     * Create signed flavors for one flavor part from the given host manifest,
+     * the same way the flavor service would.
+     *
+     * @return the signed flavors, never empty
+     * @throws IllegalArgumentException if the flavor library does not create
+     * the flavor part for this host
+     */
+    public List<SignedFlavor> createFlavors(HostManifest hostManifest, String flavorPart) throws Exception {
+        PlatformFlavor platformFlavor = new PlatformFlavorFactory().getPlatformFlavor(hostManifest, tagCertificate);
+        if (!platformFlavor.getFlavorPartNames().contains(flavorPart)) {
+            throw new IllegalArgumentException(String.format("Fixture %s has no %s flavor", pathPrefix, flavorPart));
+        }
+        List<SignedFlavor> signedFlavors = platformFlavor.getFlavorPartWithSignature(flavorPart, flavorSigningKey);
+        if (signedFlavors == null || signedFlavors.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Fixture %s has no %s flavor", pathPrefix, flavorPart));
+        }
+        return signedFlavors;
+    }
+
+    /**
+     * Scale up the host manifest by appending synthetic entries to every PCR
+     * event log, so each log has about scale times as many entries as the
+     * fixture. The PCR values are extended with the new entries so the event
+     * logs still replay to the reported PCR values.
+     *
+     * @param hostManifest  host manifest to modify
+     * @param scale  1 to leave the manifest unchanged
+     */
+    public static void scaleEventLogs(HostManifest hostManifest, int scale) {
+        PcrManifest pcrManifest = hostManifest.getPcrManifest();
+        if (scale <= 1 || pcrManifest == null) {
+            return;
+        }
+        for (DigestAlgorithm pcrBank : new DigestAlgorithm[] { DigestAlgorithm.SHA1, DigestAlgorithm.SHA256 }) {
+            for (PcrIndex pcrIndex : PcrIndex.values()) {
+                PcrEventLog eventLog = pcrManifest.getPcrEventLog(pcrBank, pcrIndex);
+                Pcr pcr = pcrManifest.getPcr(pcrBank, pcrIndex);
+                if (eventLog == null || eventLog.getEventLog() == null || eventLog.getEventLog().isEmpty() || pcr == null) {
+                    continue;
+                }
+                ArrayList<Measurement> measurements = new ArrayList<>(eventLog.getEventLog());
+                int extra = measurements.size() * (scale - 1);
+                byte[] value = pcr.getValue().toByteArray();
+                for (int i = 0; i < extra; i++) {
+                    String label = String.format("synthetic-%s-%d-%d", pcrBank.name(), pcrIndex.toInteger(), i);
+                    byte[] data = label.getBytes(StandardCharsets.UTF_8);
+                    if (pcrBank == DigestAlgorithm.SHA256) {
+                        Sha256Digest digest = Sha256Digest.digestOf(data);
+                        measurements.add(new MeasurementSha256(digest, label));
+                        value = new Sha256Digest(value).extend(digest.toByteArray()).toByteArray();
+                    } else {
+                        Sha1Digest digest = Sha1Digest.digestOf(data);
+                        measurements.add(new MeasurementSha1(digest, label));
+                        value = new Sha1Digest(value).extend(digest.toByteArray()).toByteArray();
+                    }
+                }
+                pcrManifest.setPcrEventLog(PcrEventLogFactory.newInstance(pcrBank, pcrIndex, measurements));
+                pcrManifest.setPcr(PcrFactory.newInstance(pcrBank, pcrIndex, Hex.encodeHexString(value)));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        privacyCa.delete();
+        tagCa.delete();
+        flavorSigningCert.delete();
+        flavorCaCert.delete();
+    }
+
+    private File copyToTempFile(String name) throws IOException {
+        try (InputStream in = HostFixture.class.getClassLoader().getResourceAsStream(pathPrefix + "/" + name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + pathPrefix + "/" + name);
+            }
+            File file = File.createTempFile("verifier_benchmark_", "");
+            Files.copy(in, file.toPath(), REPLACE_EXISTING);
+            file.deleteOnExit();
+            return file;
+        }
+    }
+}
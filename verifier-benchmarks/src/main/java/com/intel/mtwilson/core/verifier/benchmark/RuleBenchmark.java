@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.benchmark;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.mtwilson.core.common.model.HostInfo;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.MeasurementSha1;
+import com.intel.mtwilson.core.common.model.MeasurementSha256;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrEventLogFactory;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEquals;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEqualsExcluding;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIncludes;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.rule.XmlMeasurementLogEquals;
+import com.intel.mtwilson.core.verifier.policy.rule.XmlMeasurementLogIntegrity;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Applies single event log and XML measurement rules to synthetic logs of
+ * increasing size, to show how each rule scales with the number of entries.
+ *
+ * The PCR rules check an SHA256 event log of PCR 17. In the mismatch
+ * scenarios the reported PCR value is the one of the flavor log, so
+ * PcrEventLogIntegrity fails as it would for a tampered log. The XML rules
+ * check a software flavor with size file measurements on a TPM 1.2 host.
+ *
+ * Rules with quadratic behavior take minutes per operation at 100000
+ * entries; select sizes with, for example, -p size=10,100,1000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleBenchmark {
+    private static final PcrIndex PCR_INDEX = PcrIndex.PCR17;
+    private static final String FLAVOR_ID = "8f5b3a4e-7c1d-4e2a-9b6f-0a1b2c3d4e5f";
+    private static final String FLAVOR_LABEL = "ISecL_Default_Application_Flavor_v1";
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int size;
+
+    @Param({"MATCH", "SINGLE_MISMATCH", "ALL_MISMATCH"})
+    public Scenario scenario;
+
+    private HostManifest hostManifest;
+    private PcrEventLogEquals pcrEventLogEquals;
+    private PcrEventLogEqualsExcluding pcrEventLogEqualsExcluding;
+    private PcrEventLogIncludes pcrEventLogIncludes;
+    private PcrEventLogIntegrity pcrEventLogIntegrity;
+    private XmlMeasurementLogEquals xmlMeasurementLogEquals;
+    private XmlMeasurementLogIntegrity xmlMeasurementLogIntegrity;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ArrayList<Measurement> expected = new ArrayList<>(size);
+        ArrayList<Measurement> actual = new ArrayList<>(size);
+        byte[] expectedPcr = new byte[32];
+        for (int i = 0; i < size; i++) {
+            String label = "module-" + i;
+            Measurement measurement = newMeasurement(label, label);
+            expected.add(measurement);
+            actual.add(scenario.isModified(i, size) ? newMeasurement(label, "modified-" + i) : measurement);
+            expectedPcr = extend("SHA-256", expectedPcr, measurement.getValue().toByteArray());
+        }
+        PcrEventLog expectedEventLog = PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PCR_INDEX, expected);
+
+        HostInfo hostInfo = new HostInfo();
+        hostInfo.setTpmVersion("1.2");
+        PcrManifest pcrManifest = new PcrManifest();
+        pcrManifest.setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA256, PCR_INDEX, Hex.encodeHexString(expectedPcr)));
+        pcrManifest.setPcrEventLog(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PCR_INDEX, actual));
+
+        Flavor flavor = Flavor.deserialize(softwareFlavor());
+        String hostMeasurementXml = measurementXml();
+        byte[] cumulativeHash = cumulativeHash(false);
+        ArrayList<Measurement> pcr15 = new ArrayList<>(1);
+        pcr15.add(new MeasurementSha1(Sha1Digest.digestOf(cumulativeHash), FLAVOR_LABEL + "-" + FLAVOR_ID));
+        pcrManifest.setPcrEventLog(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR15, pcr15));
+
+        hostManifest = new HostManifest();
+        hostManifest.setHostInfo(hostInfo);
+        hostManifest.setPcrManifest(pcrManifest);
+        hostManifest.setMeasurementXmls(Collections.singletonList(hostMeasurementXml));
+
+        pcrEventLogEquals = new PcrEventLogEquals(expectedEventLog);
+        pcrEventLogEqualsExcluding = new PcrEventLogEqualsExcluding(expectedEventLog);
+        pcrEventLogIncludes = new PcrEventLogIncludes(DigestAlgorithm.SHA256, PCR_INDEX, new HashSet<>(expected));
+        pcrEventLogIntegrity = new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA256, PCR_INDEX, Hex.encodeHexString(expectedPcr)));
+        xmlMeasurementLogEquals = new XmlMeasurementLogEquals(flavor);
+        xmlMeasurementLogIntegrity = new XmlMeasurementLogIntegrity(flavor);
+    }
+
+    @Benchmark
+    public RuleResult pcrEventLogEquals() {
+        return pcrEventLogEquals.apply(hostManifest);
+    }
+
+    @Benchmark
+    public RuleResult pcrEventLogEqualsExcluding() {
+        return pcrEventLogEqualsExcluding.apply(hostManifest);
+    }
+
+    @Benchmark
+    public RuleResult pcrEventLogIncludes() {
+        return pcrEventLogIncludes.apply(hostManifest);
+    }
+
+    @Benchmark
+    public RuleResult pcrEventLogIntegrity() {
+        return pcrEventLogIntegrity.apply(hostManifest);
+    }
+
+    @Benchmark
+    public RuleResult xmlMeasurementLogEquals() {
+        return xmlMeasurementLogEquals.apply(hostManifest);
+    }
+
+    @Benchmark
+    public RuleResult xmlMeasurementLogIntegrity() {
+        return xmlMeasurementLogIntegrity.apply(hostManifest);
+    }
+
+    private static Measurement newMeasurement(String label, String content) {
+        Map<String, String> info = new HashMap<>();
+        info.put("ComponentName", label);
+        info.put("PackageName", "package");
+        info.put("PackageVendor", "vendor");
+        return new MeasurementSha256(Sha256Digest.digestOf(content.getBytes(StandardCharsets.UTF_8)), label, info);
+    }
+
+    private static byte[] fileDigest(int index, boolean modified) throws NoSuchAlgorithmException {
+        String content = (modified ? "modified-" : "file-") + index;
+        return MessageDigest.getInstance("SHA-384").digest(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] extend(String algorithm, byte[] current, byte[] value) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(algorithm);
+        digest.update(current);
+        digest.update(value);
+        return digest.digest();
+    }
+
+    /**
+     * @param host  true for the host view of the measurements, which differs
+     * from the flavor according to the scenario
+     * @return the cumulative SHA384 hash of the file measurements
+     */
+    private byte[] cumulativeHash(boolean host) throws NoSuchAlgorithmException {
+        byte[] cumulative = new byte[48];
+        for (int i = 0; i < size; i++) {
+            cumulative = extend("SHA-384", cumulative, fileDigest(i, host && scenario.isModified(i, size)));
+        }
+        return cumulative;
+    }
+
+    private String softwareFlavor() throws NoSuchAlgorithmException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"meta\":{\"schema\":{\"uri\":\"lib:wml:measurements:1.0\"},\"id\":\"").append(FLAVOR_ID)
+                .append("\",\"description\":{\"flavor_part\":\"SOFTWARE\",\"label\":\"").append(FLAVOR_LABEL)
+                .append("\",\"digest_algorithm\":\"SHA384\"}},\"software\":{\"measurements\":{");
+        for (int i = 0; i < size; i++) {
+            String path = "/opt/benchmark/file-" + i;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(path).append("\":{\"type\":\"fileMeasurementType\",\"value\":\"")
+                    .append(Hex.encodeHexString(fileDigest(i, false))).append("\",\"Path\":\"").append(path).append("\"}");
+        }
+        json.append("},\"cumulative_hash\":\"").append(Hex.encodeHexString(cumulativeHash(false))).append("\"}}");
+        return json.toString();
+    }
+
+    private String measurementXml() throws NoSuchAlgorithmException {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version='1.0'?><Measurement xmlns='lib:wml:measurements:1.0' Label='").append(FLAVOR_LABEL)
+                .append("' Uuid='").append(FLAVOR_ID).append("' DigestAlg='SHA384'>");
+        for (int i = 0; i < size; i++) {
+            xml.append("<File Path='/opt/benchmark/file-").append(i).append("'>")
+                    .append(Hex.encodeHexString(fileDigest(i, scenario.isModified(i, size)))).append("</File>");
+        }
+        xml.append("<CumulativeHash>").append(Hex.encodeHexString(cumulativeHash(true))).append("</CumulativeHash></Measurement>");
+        return xml.toString();
+    }
+}
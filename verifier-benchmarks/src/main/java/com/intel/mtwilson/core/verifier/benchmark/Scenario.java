@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.benchmark;
+
+/**
+ * How the host log differs from the flavor in a rule benchmark.
+ */
+public enum Scenario {
+    /** the host log equals the flavor */
+    MATCH,
+    /** one entry in the middle of the host log has a different digest */
+    SINGLE_MISMATCH,
+    /** every entry in the host log has a different digest */
+    ALL_MISMATCH;
+
+    public boolean isModified(int index, int size) {
+        switch (this) {
+            case SINGLE_MISMATCH:
+                return index == size / 2;
+            case ALL_MISMATCH:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.benchmark;
+
+import com.intel.mtwilson.core.common.model.HostInfo;
+import com.intel.mtwilson.core.common.model.HostManifest;
+
+/**
+ * Host variants used to exercise each vendor policy reader. The Verifier
+ * selects the reader from the OS name and TPM version of the host manifest,
+ * so each profile starts from one of the test fixtures and overrides those
+ * two fields.
+ */
+public enum VendorProfile {
+    INTEL_TPM12("intel-host", null, "1.2"),
+    INTEL_TPM20("intel-host", null, "2.0"),
+    VMWARE("esxi-host", "VMware ESXi", "1.2"),
+    VMWARE_DA("esxi-host", "VMware ESXi", "2.0"),
+    MICROSOFT("intel-host", "Microsoft Windows Server 2016 Datacenter", "2.0");
+
+    private final String fixture;
+    private final String osName;
+    private final String tpmVersion;
+
+    VendorProfile(String fixture, String osName, String tpmVersion) {
+        this.fixture = fixture;
+        this.osName = osName;
+        this.tpmVersion = tpmVersion;
+    }
+
+    /**
+     * @return the test resource directory with the host manifest and
+     * certificates for this profile
+     */
+    public String getFixture() {
+        return fixture;
+    }
+
+    public void apply(HostManifest hostManifest) {
+        HostInfo hostInfo = hostManifest.getHostInfo();
+        if (osName != null) {
+            hostInfo.setOsName(osName);
+        }
+        hostInfo.setTpmVersion(tpmVersion);
+    }
+}
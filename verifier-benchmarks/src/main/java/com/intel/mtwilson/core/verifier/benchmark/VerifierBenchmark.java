@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.benchmark;
+
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.policy.HostTrustPolicyManager;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end Verifier.verify for each vendor policy reader and flavor part.
+ *
+ * The vendor profile is applied to the (optionally scaled) fixture manifest
+ * before the flavors are created from it, so the flavor names the same vendor
+ * and TPM version as the host and is verified by the policy reader of the
+ * profile. Combinations for which the flavor library does not create the
+ * flavor part, or creates a flavor for another policy reader, fail in setup
+ * and are reported by JMH as errors.
+ *
+ * Run with, for example:
+ *   java -jar target/benchmarks.jar VerifierBenchmark -prof gc
+ *   java -jar target/benchmarks.jar VerifierBenchmark -p vendor=INTEL_TPM20 -p flavorPart=PLATFORM
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerifierBenchmark {
+
+    @Param({"INTEL_TPM12", "INTEL_TPM20", "VMWARE", "VMWARE_DA", "MICROSOFT"})
+    public VendorProfile vendor;
+
+    @Param({"PLATFORM", "OS", "HOST_UNIQUE", "ASSET_TAG", "SOFTWARE"})
+    public String flavorPart;
+
+    /**
+     * Multiplier for the number of event log entries in the host manifest.
+     */
+    @Param({"1", "10", "100"})
+    public int eventLogScale;
+
+    private HostFixture fixture;
+    private Verifier verifier;
+    private HostManifest hostManifest;
+    private SignedFlavor signedFlavor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new HostFixture(vendor.getFixture());
+        verifier = fixture.newVerifier();
+        hostManifest = fixture.newHostManifest();
+        HostFixture.scaleEventLogs(hostManifest, eventLogScale);
+        vendor.apply(hostManifest);
+        signedFlavor = fixture.createFlavors(hostManifest, flavorPart).get(0);
+        // the flavor metadata selects the policy reader before the host does
+        String vendorKey = new HostTrustPolicyManager(signedFlavor, hostManifest, null, null, fixture.getFlavorSigningCertPath(), fixture.getFlavorCaCertPath(), false).getVendorKey();
+        if (!vendorKey.equals(HostTrustPolicyManager.getVendorKey(hostManifest))) {
+            throw new IllegalStateException(String.format("%s %s flavor is verified by the %s policy reader", vendor, flavorPart, vendorKey));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TrustReport verify() {
+        return verifier.verify(hostManifest, signedFlavor, false);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public TrustReport verifyConcurrent() {
+        return verifier.verify(hostManifest, signedFlavor, false);
+    }
+}
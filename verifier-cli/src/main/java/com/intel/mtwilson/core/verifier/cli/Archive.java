@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The JSON documents of a directory or a tar stream, read one at a time in a
+ * stable order, so a run can be resumed by skipping the documents it already
+ * processed. Like a tar stream, an archive is positioned on one entry at a
+ * time; the content of an entry that is not read is skipped.
+ */
+public abstract class Archive implements Closeable {
+
+    /**
+     * @param path  a directory, searched recursively for .json files; a .tar,
+     * .tar.gz or .tgz file; or - for a tar stream on standard input
+     */
+    public static Archive open(String path) throws IOException {
+        if ("-".equals(path)) {
+            return new TarArchive(new BufferedInputStream(System.in));
+        }
+        File file = new File(path);
+        if (file.isDirectory()) {
+            return new DirectoryArchive(file);
+        }
+        if (!file.isFile()) {
+            throw new FileNotFoundException(path);
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        if (path.endsWith(".gz") || path.endsWith(".tgz")) {
+            in = new GZIPInputStream(in, 65536);
+        }
+        return new TarArchive(in);
+    }
+
+    /**
+     * Move to the next JSON document.
+     *
+     * @return name of the document, or null at the end of the archive
+     */
+    public abstract String next() throws IOException;
+
+    /**
+     * @return content of the current document
+     */
+    public abstract byte[] read() throws IOException;
+
+    static boolean isJson(String name) {
+        return name.endsWith(".json");
+    }
+}
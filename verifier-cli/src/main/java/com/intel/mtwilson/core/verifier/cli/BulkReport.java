@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+/**
+ * Result of one BulkVerifier run. Documents skipped because an earlier run
+ * already processed them are not included in the throughput.
+ */
+public class BulkReport {
+    private final long documents;
+    private final long skipped;
+    private final long verifications;
+    private final long untrusted;
+    private final long errors;
+    private final long outputBytes;
+    private final long elapsedNanos;
+
+    public BulkReport(long documents, long skipped, long verifications, long untrusted, long errors, long outputBytes, long elapsedNanos) {
+        this.documents = documents;
+        this.skipped = skipped;
+        this.verifications = verifications;
+        this.untrusted = untrusted;
+        this.errors = errors;
+        this.outputBytes = outputBytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return number of host manifests processed by this run
+     */
+    public long getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return number of host manifests skipped because of a checkpoint
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return number of trust reports, one per host manifest and flavor
+     */
+    public long getVerifications() {
+        return verifications;
+    }
+
+    /**
+     * @return number of host manifests with no flavor, or with a flavor part
+     * none of whose flavors trusts the host
+     */
+    public long getUntrusted() {
+        return untrusted;
+    }
+
+    /**
+     * @return number of host manifests that could not be read or verified
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return length of the output after the run, including the output of
+     * earlier runs that were resumed
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * @return host manifests processed per second
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : documents * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("manifests:        %d (%d skipped from checkpoint)%n", documents, skipped));
+        text.append(String.format("throughput:       %.1f/s (%.1f s)%n", getThroughput(), elapsedNanos / 1e9));
+        text.append(String.format("trust reports:    %d (%.1f/s)%n", verifications, elapsedNanos == 0 ? 0.0 : verifications * 1e9 / elapsedNanos));
+        text.append(String.format("untrusted:        %d%n", untrusted));
+        text.append(String.format("errors:           %d%n", errors));
+        text.append(String.format("output:           %d MB%n", outputBytes / (1024 * 1024)));
+        return text.toString();
+    }
+}
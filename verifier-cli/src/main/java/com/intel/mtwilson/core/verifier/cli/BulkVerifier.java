@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.index.FlavorIndex;
+import com.intel.mtwilson.core.verifier.policy.HostTrustPolicyManager;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleResultMemo;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.store.CompiledPolicyStore;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies archived host manifests against a set of signed flavors offline,
+ * for example to re-evaluate months of attestations after a policy change.
+ * <p>
+ * Manifests are read from a directory tree or a tar stream, verified by a
+ * pool of workers sized to the cores, and written as NDJSON: one compact line
+ * per manifest, in input order, with the trust report of each flavor that
+ * applies to the host. Flavors that name their vendor and TPM version are
+ * matched to hosts through a FlavorIndex; other flavors are verified against
+ * every host. A manifest that cannot be read or verified is written as a line
+ * with an error.
+ * <p>
+ * A line reports trust per flavor part: a part is trusted if the host is
+ * trusted for any of the flavors of that part that apply to it, such as one
+ * of several PLATFORM flavors for different BIOS versions. The host is
+ * trusted if it was verified against at least one flavor and every flavor
+ * part it was verified against is trusted. Flavor parts without a flavor
+ * that applies to the host are not reported.
+ * <p>
+ * When the output is a file, a checkpoint is written next to it every
+ * --checkpoint-every manifests. Running the same command again resumes after
+ * the last checkpoint. Throughput is printed to standard error while running.
+ * <p>
+ * Run from the command line with, for example:
+ * <pre>
+ * java -jar verifier-cli-with-dependencies.jar --manifests=archive.tar.gz --flavors=flavors/ \
+ *     --output=results.ndjson --ca-dir=/opt/verifier/certs
+ * </pre>
+ * The CA certificates are read from --ca-dir, by default /root, with the same
+ * file names as TestVerifierIntegration.
+ */
+public class BulkVerifier {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BulkVerifier.class);
+    private static final byte[] NEWLINE = { '\n' };
+    // the line of a manifest whose worker failed; stops the output
+    static final byte[] FAILED = new byte[0];
+
+    private final Verifier verifier;
+    private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+    private final ObjectWriter writer = mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    private final FlavorIndex index;
+    private final List<SignedFlavor> unindexed = new ArrayList<>();
+    private int flavorCount;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueSize = 0;
+    private boolean skipFlavorSignatureVerification;
+    private boolean useIndex = true;
+    private boolean faultsOnly;
+    private long checkpointInterval = 10000;
+    private long progressMillis = TimeUnit.SECONDS.toMillis(10);
+    private PrintStream progress = System.err;
+
+    public BulkVerifier(Verifier verifier) {
+        this.verifier = verifier;
+        this.index = new FlavorIndex(verifier.getPcrBankSelection());
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param queueSize  manifests read ahead of the one written last, 0 for 64
+     * per thread
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setSkipFlavorSignatureVerification(boolean skipFlavorSignatureVerification) {
+        this.skipFlavorSignatureVerification = skipFlavorSignatureVerification;
+    }
+
+    /**
+     * @param useIndex  false to verify every host against every flavor; must
+     * be set before flavors are added
+     */
+    public void setUseIndex(boolean useIndex) {
+        this.useIndex = useIndex;
+    }
+
+    /**
+     * @param faultsOnly  true to write only the rule results with faults
+     */
+    public void setFaultsOnly(boolean faultsOnly) {
+        this.faultsOnly = faultsOnly;
+    }
+
+    /**
+     * @param checkpointInterval  manifests between checkpoints
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @param progressMillis  time between progress lines, 0 for none
+     * @param progress  stream for progress lines
+     */
+    public void setProgress(long progressMillis, PrintStream progress) {
+        this.progressMillis = progressMillis;
+        this.progress = progress;
+    }
+
+    public void addFlavor(SignedFlavor signedFlavor) {
+        if (useIndex && HostTrustPolicyManager.getVendorKey(signedFlavor.getFlavor()) != null) {
+            verifier.index(signedFlavor, index);
+        } else {
+            unindexed.add(signedFlavor);
+        }
+        flavorCount++;
+    }
+
+    /**
+     * Add the flavors of an archive. A document is a signed flavor with
+     * "flavor" and "signature", a collection with "signed_flavors", an array
+     * of signed flavors, or an unsigned flavor.
+     *
+     * @return number of flavors added
+     */
+    public int addFlavors(Archive archive) throws IOException {
+        int count = 0;
+        String name;
+        while ((name = archive.next()) != null) {
+            JsonNode document = mapper.readTree(archive.read());
+            JsonNode list = document.isArray() ? document : document.get("signed_flavors");
+            if (list != null) {
+                for (JsonNode element : list) {
+                    addFlavor(toSignedFlavor(element));
+                    count++;
+                }
+            } else {
+                addFlavor(toSignedFlavor(document));
+                count++;
+            }
+            log.debug("Read flavors from {}", name);
+        }
+        return count;
+    }
+
+    private SignedFlavor toSignedFlavor(JsonNode node) throws IOException {
+        if (node.has("flavor")) {
+            JsonNode signature = node.get("signature");
+            return new SignedFlavor(mapper.treeToValue(node.get("flavor"), Flavor.class), signature == null || signature.isNull() ? null : signature.asText());
+        }
+        return new SignedFlavor(mapper.treeToValue(node, Flavor.class), null);
+    }
+
+    public int getFlavorCount() {
+        return flavorCount;
+    }
+
+    /**
+     * Verify all manifests of the archive and write the results to a stream,
+     * without checkpoints.
+     */
+    public BulkReport run(Archive manifests, OutputStream output) throws IOException, InterruptedException {
+        return run(manifests, new Sink(output, null, null, null, 0, 0, checkpointInterval), 0);
+    }
+
+    /**
+     * Verify the manifests of the archive and write the results to a file,
+     * resuming after the checkpoint if there is one. Without a checkpoint the
+     * file is overwritten.
+     *
+     * @param input  name of the input, recorded in the checkpoint so a
+     * checkpoint is not used with another input
+     * @throws IllegalArgumentException if the checkpoint was written for
+     * another input
+     */
+    public BulkReport run(Archive manifests, String input, File output, File checkpointFile) throws IOException, InterruptedException {
+        Checkpoint checkpoint = new Checkpoint(checkpointFile);
+        long skip = 0;
+        long length = 0;
+        if (checkpoint.load()) {
+            if (!input.equals(checkpoint.getInput())) {
+                throw new IllegalArgumentException("Checkpoint " + checkpointFile + " was written for " + checkpoint.getInput());
+            }
+            skip = checkpoint.getCompleted();
+            length = checkpoint.getOutputLength();
+            log.info("Resuming after {} manifests", skip);
+        }
+        try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() < length) {
+                throw new IllegalStateException("Output " + output + " is shorter than its checkpoint");
+            }
+            channel.truncate(length);
+            channel.position(length);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            return run(manifests, new Sink(out, channel, checkpoint, input, skip, length, checkpointInterval), skip);
+        }
+    }
+
+    private BulkReport run(Archive manifests, final Sink sink, long skip) throws IOException, InterruptedException {
+        final Counters counters = new Counters();
+        final long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ScheduledExecutorService reporter = null;
+        if (progressMillis > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor();
+            reporter.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    long documents = counters.documents.get();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    progress.println(String.format("%d manifests, %.1f/s, %d untrusted, %d errors",
+                            documents, documents / seconds, counters.untrusted.get(), counters.errors.get()));
+                }
+            }, progressMillis, progressMillis, TimeUnit.MILLISECONDS);
+        }
+        final Semaphore inFlight = new Semaphore(queueSize > 0 ? queueSize : 64 * threads);
+        sink.setInFlight(inFlight);
+        long sequence = 0;
+        try {
+            String name;
+            while ((name = manifests.next()) != null) {
+                if (sequence < skip) {
+                    sequence++;
+                    continue;
+                }
+                sink.checkFailure();
+                inFlight.acquire();
+                final String source = name;
+                final byte[] content = manifests.read();
+                final long position = sequence++;
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        byte[] line = FAILED;
+                        try {
+                            line = verify(source, content, counters);
+                        } finally {
+                            // written even if verify threw, so later lines are not held back
+                            sink.write(position, line);
+                        }
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+        }
+        sink.finish();
+        return new BulkReport(counters.documents.get(), Math.min(skip, sequence), counters.verifications.get(), counters.untrusted.get(),
+                counters.errors.get(), sink.getLength(), System.nanoTime() - start);
+    }
+
+    /**
+     * @return the NDJSON line of one host manifest
+     */
+    private byte[] verify(String source, byte[] content, Counters counters) {
+        ObjectNode line = mapper.createObjectNode();
+        line.put("source", source);
+        try {
+            HostManifest hostManifest = mapper.readValue(content, HostManifest.class);
+            if (hostManifest.getHostInfo() != null) {
+                line.put("host_name", hostManifest.getHostInfo().getHostName());
+                line.put("hardware_uuid", hostManifest.getHostInfo().getHardwareUuid());
+            }
+            List<SignedFlavor> signedFlavors = getFlavors(hostManifest);
+            RuleResultMemo memo = new RuleResultMemo(hostManifest);
+            ArrayNode reports = mapper.createArrayNode();
+            // a flavor part is trusted if any of its flavors is trusted
+            Map<String, Boolean> parts = new TreeMap<>();
+            for (SignedFlavor signedFlavor : signedFlavors) {
+                TrustReport report = verifier.verify(hostManifest, signedFlavor, skipFlavorSignatureVerification, memo);
+                String flavorPart = signedFlavor.getFlavor().getMeta().getDescription().getFlavorPart();
+                ObjectNode node = reports.addObject();
+                node.put("flavor_id", signedFlavor.getFlavor().getMeta().getId());
+                node.put("flavor_part", flavorPart);
+                node.put("trusted", report.isTrusted());
+                node.set("results", mapper.valueToTree(faultsOnly ? getFaulted(report) : report.getResults()));
+                String part = String.valueOf(flavorPart);
+                parts.put(part, Boolean.TRUE.equals(parts.get(part)) || report.isTrusted());
+            }
+            counters.verifications.addAndGet(signedFlavors.size());
+            boolean trusted = isTrusted(parts);
+            if (!trusted) {
+                counters.untrusted.incrementAndGet();
+            }
+            line.put("trusted", trusted);
+            line.set("flavor_parts", mapper.valueToTree(parts));
+            line.set("reports", reports);
+        } catch (Exception e) {
+            log.debug("Cannot verify {}", source, e);
+            counters.errors.incrementAndGet();
+            line.put("error", String.valueOf(e.getMessage()));
+        }
+        counters.documents.incrementAndGet();
+        try {
+            return writer.writeValueAsBytes(line);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot serialize result of " + source, e);
+        }
+    }
+
+    /**
+     * @param parts  trust of each flavor part the host was verified against
+     * @return true if the host was verified against at least one flavor part
+     * and every flavor part is trusted
+     */
+    static boolean isTrusted(Map<String, Boolean> parts) {
+        if (parts.isEmpty()) {
+            return false;
+        }
+        for (Boolean trusted : parts.values()) {
+            if (!trusted) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<SignedFlavor> getFlavors(HostManifest hostManifest) {
+        if (!useIndex || hostManifest.getHostInfo() == null) {
+            return unindexed;
+        }
+        List<SignedFlavor> candidates = index.getCandidates(hostManifest);
+        candidates.addAll(unindexed);
+        return candidates;
+    }
+
+    private static List<RuleResult> getFaulted(TrustReport report) {
+        List<RuleResult> faulted = new ArrayList<>();
+        for (RuleResult result : report.getResults()) {
+            if (!result.getFaults().isEmpty()) {
+                faulted.add(result);
+            }
+        }
+        return faulted;
+    }
+
+    private static class Counters {
+        private final AtomicLong documents = new AtomicLong();
+        private final AtomicLong verifications = new AtomicLong();
+        private final AtomicLong untrusted = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+    }
+
+    /**
+     * Writes the lines in input order as workers complete them, and writes a
+     * checkpoint every checkpointInterval lines. A line is only counted in a
+     * checkpoint once it and all lines before it were flushed to the file.
+     */
+    static class Sink {
+        private final OutputStream out;
+        private final FileChannel channel;
+        private final Checkpoint checkpoint;
+        private final String input;
+        private final long checkpointInterval;
+        private final Map<Long, byte[]> pending = new HashMap<>();
+        private Semaphore inFlight;
+        private long next;
+        private long length;
+        private long lastCheckpoint;
+        private IOException failure;
+
+        /**
+         * @param channel  channel of the output file, forced before each
+         * checkpoint, or null without checkpoints
+         * @param next  position of the first line to write
+         * @param length  length of the output before the first line
+         */
+        Sink(OutputStream out, FileChannel channel, Checkpoint checkpoint, String input, long next, long length, long checkpointInterval) {
+            this.out = out;
+            this.channel = channel;
+            this.checkpoint = checkpoint;
+            this.input = input;
+            this.checkpointInterval = checkpointInterval;
+            this.next = next;
+            this.length = length;
+            this.lastCheckpoint = next;
+        }
+
+        void setInFlight(Semaphore inFlight) {
+            this.inFlight = inFlight;
+        }
+
+        synchronized void write(long position, byte[] line) {
+            pending.put(position, line);
+            byte[] ready;
+            while ((ready = pending.remove(next)) != null) {
+                next++;
+                inFlight.release();
+                if (ready == FAILED && failure == null) {
+                    failure = new IOException("Verification of manifest " + (next - 1) + " failed");
+                }
+                if (failure != null) {
+                    continue;
+                }
+                try {
+                    out.write(ready);
+                    out.write(NEWLINE);
+                    length += ready.length + 1;
+                    if (checkpoint != null && next - lastCheckpoint >= checkpointInterval) {
+                        saveCheckpoint();
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        synchronized void checkFailure() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        synchronized void finish() throws IOException {
+            checkFailure();
+            if (!pending.isEmpty()) {
+                throw new IllegalStateException(pending.size() + " results were not written");
+            }
+            if (checkpoint != null) {
+                saveCheckpoint();
+            } else {
+                out.flush();
+            }
+        }
+
+        synchronized long getLength() {
+            return length;
+        }
+
+        private void saveCheckpoint() throws IOException {
+            out.flush();
+            channel.force(false);
+            checkpoint.save(input, next, length);
+            lastCheckpoint = next;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        if (!options.containsKey("manifests") || !options.containsKey("flavors")) {
+            throw new IllegalArgumentException("Use --manifests=dir|file.tar|- and --flavors=dir|file.tar");
+        }
+        String caDir = getOption(options, "ca-dir", "/root");
+        Verifier verifier = new Verifier(new File(caDir, "PrivacyCA.pem").getPath(), new File(caDir, "tag-cacerts.pem").getPath(),
+                new File(caDir, "flavor-signer.crt.pem").getPath(), new File(caDir, "cms-ca.crt.pem").getPath());
+        if (options.containsKey("compiled-policies")) {
+            if (!options.containsKey("compiled-policies-key")) {
+                throw new IllegalArgumentException("Use --compiled-policies-key=file with the key the store was written with");
+            }
+            byte[] storeKey = Files.readAllBytes(Paths.get(options.get("compiled-policies-key")));
+            verifier.setCompiledPolicyStore(CompiledPolicyStore.open(new File(options.get("compiled-policies")), storeKey));
+        }
+        BulkVerifier bulkVerifier = new BulkVerifier(verifier);
+        bulkVerifier.setThreads(Integer.parseInt(getOption(options, "threads", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        bulkVerifier.setSkipFlavorSignatureVerification(options.containsKey("skip-signature"));
+        bulkVerifier.setUseIndex(!options.containsKey("all-flavors"));
+        bulkVerifier.setFaultsOnly(options.containsKey("faults-only"));
+        bulkVerifier.setCheckpointInterval(Long.parseLong(getOption(options, "checkpoint-every", "10000")));
+        bulkVerifier.setProgress(TimeUnit.SECONDS.toMillis(Long.parseLong(getOption(options, "progress", "10"))), System.err);
+        try (Archive flavors = Archive.open(options.get("flavors"))) {
+            bulkVerifier.addFlavors(flavors);
+        }
+        log.info("Verifying against {} flavors", bulkVerifier.getFlavorCount());
+
+        String input = options.get("manifests");
+        BulkReport report;
+        try (Archive manifests = Archive.open(input)) {
+            if (options.containsKey("output")) {
+                File output = new File(options.get("output"));
+                File checkpoint = new File(getOption(options, "checkpoint", output.getPath() + ".checkpoint"));
+                if (options.containsKey("restart")) {
+                    checkpoint.delete();
+                }
+                if (!"-".equals(input)) {
+                    input = new File(input).getCanonicalPath();
+                }
+                report = bulkVerifier.run(manifests, input, output, checkpoint);
+            } else {
+                report = bulkVerifier.run(manifests, new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16));
+            }
+        }
+        System.err.print(report);
+    }
+
+    private static String getOption(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+}
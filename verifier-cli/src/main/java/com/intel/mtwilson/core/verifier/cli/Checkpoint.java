@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Progress of a bulk verification: the number of input documents whose
+ * results were written and the length of the output at that point. A resumed
+ * run skips that many documents and truncates the output to that length,
+ * dropping lines written after the checkpoint. The file is replaced
+ * atomically, so a crash leaves either the old or the new checkpoint.
+ */
+class Checkpoint {
+    private final File file;
+    private String input;
+    private long completed;
+    private long outputLength;
+
+    Checkpoint(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return true if a checkpoint was read
+     */
+    boolean load() throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        input = properties.getProperty("input");
+        completed = Long.parseLong(properties.getProperty("completed", "0"));
+        outputLength = Long.parseLong(properties.getProperty("output_length", "0"));
+        return true;
+    }
+
+    void save(String input, long completed, long outputLength) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("input", input);
+        properties.setProperty("completed", String.valueOf(completed));
+        properties.setProperty("output_length", String.valueOf(outputLength));
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            properties.store((OutputStream) out, "bulk verification checkpoint");
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.input = input;
+        this.completed = completed;
+        this.outputLength = outputLength;
+    }
+
+    String getInput() {
+        return input;
+    }
+
+    long getCompleted() {
+        return completed;
+    }
+
+    long getOutputLength() {
+        return outputLength;
+    }
+}
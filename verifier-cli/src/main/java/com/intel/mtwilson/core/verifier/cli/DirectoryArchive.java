@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * The .json files of a directory tree, in order of their relative paths. Only
+ * the directories on the way to the current file are listed, so a tree of
+ * millions of files is not held in memory.
+ */
+class DirectoryArchive extends Archive {
+    private final String root;
+    private final Deque<File> pending = new ArrayDeque<>();
+    private File current;
+
+    DirectoryArchive(File directory) throws IOException {
+        this.root = directory.getCanonicalPath();
+        push(directory);
+    }
+
+    @Override
+    public String next() throws IOException {
+        while (!pending.isEmpty()) {
+            File file = pending.pop();
+            if (file.isDirectory()) {
+                push(file);
+            } else if (isJson(file.getName())) {
+                current = file;
+                String path = file.getCanonicalPath();
+                return path.startsWith(root) ? path.substring(root.length() + 1) : path;
+            }
+        }
+        current = null;
+        return null;
+    }
+
+    @Override
+    public byte[] read() throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("No current file");
+        }
+        return Files.readAllBytes(current.toPath());
+    }
+
+    private void push(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + directory.getPath());
+        }
+        Arrays.sort(files);
+        for (int i = files.length - 1; i >= 0; i--) {
+            pending.push(files[i]);
+        }
+    }
+
+    @Override
+    public void close() {
+        pending.clear();
+        current = null;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The .json files of a tar stream, in the order they are stored. Reads ustar
+ * archives, including GNU long names and the path of pax extended headers, as
+ * written by GNU tar and bsdtar. Entries other than regular files are skipped.
+ */
+class TarArchive extends Archive {
+    private static final int BLOCK = 512;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+    private long remaining;
+    private long padding;
+    private boolean end;
+
+    TarArchive(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public String next() throws IOException {
+        skipCurrent();
+        String longName = null;
+        while (!end) {
+            if (!readHeader()) {
+                end = true;
+                break;
+            }
+            long size = parseSize();
+            char type = (char) header[156];
+            String name = longName != null ? longName : parseName();
+            longName = null;
+            setCurrent(size);
+            if (type == 'L') {
+                longName = trimNul(new String(read(), StandardCharsets.UTF_8));
+            } else if (type == 'x') {
+                longName = parsePaxPath(read());
+            } else if ((type == '0' || type == '\0') && isJson(name)) {
+                return name;
+            } else {
+                skipCurrent();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] read() throws IOException {
+        if (remaining > Integer.MAX_VALUE - BLOCK) {
+            throw new IOException("Entry too large: " + remaining + " bytes");
+        }
+        byte[] content = new byte[(int) remaining];
+        readFully(content, content.length);
+        remaining = 0;
+        skip(padding);
+        padding = 0;
+        return content;
+    }
+
+    private void setCurrent(long size) {
+        remaining = size;
+        padding = (BLOCK - size % BLOCK) % BLOCK;
+    }
+
+    private void skipCurrent() throws IOException {
+        skip(remaining + padding);
+        remaining = 0;
+        padding = 0;
+    }
+
+    /**
+     * @return false at the end of the archive
+     */
+    private boolean readHeader() throws IOException {
+        int count = 0;
+        while (count < BLOCK) {
+            int n = in.read(header, count, BLOCK - count);
+            if (n < 0) {
+                if (count == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated tar header");
+            }
+            count += n;
+        }
+        for (byte b : header) {
+            if (b != 0) {
+                return true;
+            }
+        }
+        return false; // a zero block ends the archive
+    }
+
+    private String parseName() {
+        String name = field(0, 100);
+        if ("ustar".equals(field(257, 6).trim())) {
+            String prefix = field(345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private long parseSize() throws IOException {
+        if ((header[124] & 0x80) != 0) {
+            // base-256 encoding of GNU tar for sizes over 8 GB
+            long size = 0;
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header[i] & 0xff);
+            }
+            return size;
+        }
+        String octal = field(124, 12).trim();
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid tar entry size: " + octal);
+        }
+    }
+
+    private String field(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the path record of a pax extended header, or null
+     */
+    private static String parsePaxPath(byte[] records) {
+        String text = new String(records, StandardCharsets.UTF_8);
+        for (String record : text.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 6);
+            }
+        }
+        return null;
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return nul < 0 ? value : value.substring(0, nul);
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            int n = in.read(buffer, count, length - count);
+            if (n < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            count += n;
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long n = in.skip(count);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Truncated tar entry");
+                }
+                n = 1;
+            }
+            count -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes small tar archives in the formats TarArchive reads, so tests do not
+ * depend on a tar tool.
+ */
+class TarWriter {
+    private static final int BLOCK = 512;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /**
+     * Add a regular file with the name in the name field.
+     */
+    TarWriter file(String name, String content) {
+        return entry(name, null, '0', content.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    /**
+     * Add a regular file whose name is split between the prefix and name
+     * fields of the ustar header.
+     */
+    TarWriter ustarFile(String prefix, String name, String content) {
+        return entry(name, prefix, '0', content.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    /**
+     * Add a regular file with its size in the base-256 encoding GNU tar uses
+     * for sizes over 8 GB.
+     */
+    TarWriter base256File(String name, String content) {
+        return entry(name, null, '0', content.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    /**
+     * Add a regular file preceded by a GNU long name entry, with the name
+     * truncated to 100 bytes in its own header, as GNU tar writes it.
+     */
+    TarWriter gnuLongNameFile(String name, String content) {
+        byte[] longName = (name + "\0").getBytes(StandardCharsets.UTF_8);
+        entry("././@LongLink", null, 'L', longName, false);
+        return entry(name.substring(0, Math.min(100, name.length())), null, '0', content.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    /**
+     * Add a regular file preceded by a pax extended header with its path, as
+     * bsdtar writes names that do not fit the ustar header.
+     */
+    TarWriter paxFile(String path, String content) {
+        String body = " path=" + path + "\n";
+        int bodyLength = body.getBytes(StandardCharsets.UTF_8).length;
+        // the record length includes its own digits
+        int length = bodyLength + 1;
+        while (length != bodyLength + String.valueOf(length).length()) {
+            length = bodyLength + String.valueOf(length).length();
+        }
+        entry("PaxHeaders/entry", null, 'x', (length + body).getBytes(StandardCharsets.UTF_8), false);
+        return entry("entry", null, '0', content.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    TarWriter directory(String name) {
+        return entry(name, null, '5', new byte[0], false);
+    }
+
+    /**
+     * @return the archive, ended by two zero blocks
+     */
+    byte[] toByteArray() {
+        byte[] entries = out.toByteArray();
+        return Arrays.copyOf(entries, entries.length + 2 * BLOCK);
+    }
+
+    private TarWriter entry(String name, String prefix, char type, byte[] content, boolean base256Size) {
+        byte[] header = new byte[BLOCK];
+        put(header, 0, 100, name);
+        put(header, 100, 8, "0000644");
+        put(header, 108, 8, "0000000");
+        put(header, 116, 8, "0000000");
+        if (base256Size) {
+            header[124] = (byte) 0x80;
+            long size = content.length;
+            for (int i = 135; i > 124; i--) {
+                header[i] = (byte) size;
+                size >>>= 8;
+            }
+        } else {
+            put(header, 124, 12, String.format("%011o", content.length));
+        }
+        put(header, 136, 12, "00000000000");
+        header[156] = (byte) type;
+        put(header, 257, 6, "ustar");
+        put(header, 263, 2, "00");
+        if (prefix != null) {
+            put(header, 345, 155, prefix);
+        }
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        put(header, 148, 6, String.format("%06o", checksum));
+        header[154] = 0;
+        out.write(header, 0, BLOCK);
+        out.write(content, 0, content.length);
+        out.write(new byte[(BLOCK - content.length % BLOCK) % BLOCK], 0, (BLOCK - content.length % BLOCK) % BLOCK);
+        return this;
+    }
+
+    private static void put(byte[] header, int offset, int length, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > length) {
+            throw new IllegalArgumentException("Value does not fit the tar header field: " + value);
+        }
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
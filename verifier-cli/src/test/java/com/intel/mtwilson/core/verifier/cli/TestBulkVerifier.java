@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.core.verifier.Verifier;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs bulk verifications of generated manifests without flavors, so each
+ * manifest yields one untrusted line, and resumes a run that was interrupted.
+ */
+public class TestBulkVerifier {
+    private static final int MANIFESTS = 10;
+
+    private File output;
+    private File checkpointFile;
+
+    @Before
+    public void setUp() throws Exception {
+        output = File.createTempFile("bulk", ".ndjson");
+        checkpointFile = File.createTempFile("checkpoint", ".properties");
+        checkpointFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        output.delete();
+        checkpointFile.delete();
+    }
+
+    private static byte[] manifests() {
+        TarWriter tar = new TarWriter();
+        for (int i = 0; i < MANIFESTS; i++) {
+            tar.file(String.format("host-%02d.json", i), "{}");
+        }
+        return tar.toByteArray();
+    }
+
+    private static BulkVerifier newBulkVerifier() {
+        BulkVerifier bulkVerifier = new BulkVerifier(new Verifier("privacy-ca.pem", "tag-ca.pem", "flavor-signer.pem", "flavor-ca.pem"));
+        bulkVerifier.setThreads(2);
+        bulkVerifier.setCheckpointInterval(3);
+        bulkVerifier.setProgress(0, null);
+        return bulkVerifier;
+    }
+
+    /**
+     * An archive whose stream breaks before the given entry.
+     */
+    private static Archive interrupted(final Archive archive, final int entries) {
+        return new Archive() {
+            private int count;
+
+            @Override
+            public String next() throws IOException {
+                if (count++ == entries) {
+                    throw new IOException("stream interrupted");
+                }
+                return archive.next();
+            }
+
+            @Override
+            public byte[] read() throws IOException {
+                return archive.read();
+            }
+
+            @Override
+            public void close() throws IOException {
+                archive.close();
+            }
+        };
+    }
+
+    @Test
+    public void testInterruptedRunIsResumed() throws Exception {
+        try (Archive archive = interrupted(new TarArchive(new ByteArrayInputStream(manifests())), 7)) {
+            newBulkVerifier().run(archive, "manifests.tar", output, checkpointFile);
+            fail("interrupted run completed");
+        } catch (IOException e) {
+            assertEquals("stream interrupted", e.getMessage());
+        }
+        Checkpoint checkpoint = new Checkpoint(checkpointFile);
+        assertTrue(checkpoint.load());
+        assertEquals(6, checkpoint.getCompleted());
+        // a crash can leave part of a line after the checkpoint
+        try (FileOutputStream out = new FileOutputStream(output, true)) {
+            out.write("{\"source\":\"host-0".getBytes(StandardCharsets.UTF_8));
+        }
+
+        BulkReport report;
+        try (Archive archive = new TarArchive(new ByteArrayInputStream(manifests()))) {
+            report = newBulkVerifier().run(archive, "manifests.tar", output, checkpointFile);
+        }
+        assertEquals(6, report.getSkipped());
+        assertEquals(MANIFESTS - 6, report.getDocuments());
+        assertEquals(MANIFESTS - 6, report.getUntrusted());
+        assertEquals(Files.size(output.toPath()), report.getOutputBytes());
+
+        ObjectMapper mapper = new ObjectMapper();
+        List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+        assertEquals(MANIFESTS, lines.size());
+        for (int i = 0; i < MANIFESTS; i++) {
+            JsonNode line = mapper.readTree(lines.get(i));
+            assertEquals(String.format("host-%02d.json", i), line.get("source").asText());
+            assertFalse(line.get("trusted").asBoolean());
+        }
+        assertTrue(checkpoint.load());
+        assertEquals(MANIFESTS, checkpoint.getCompleted());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCheckpointOfOtherInputIsRejected() throws Exception {
+        new Checkpoint(checkpointFile).save("other.tar", 3, 0);
+        try (Archive archive = new TarArchive(new ByteArrayInputStream(manifests()))) {
+            newBulkVerifier().run(archive, "manifests.tar", output, checkpointFile);
+        }
+    }
+
+    @Test
+    public void testHostIsTrustedIfEveryFlavorPartIsTrusted() {
+        Map<String, Boolean> parts = new HashMap<>();
+        assertFalse(BulkVerifier.isTrusted(parts));
+        parts.put("PLATFORM", true);
+        parts.put("OS", true);
+        assertTrue(BulkVerifier.isTrusted(parts));
+        parts.put("SOFTWARE", false);
+        assertFalse(BulkVerifier.isTrusted(parts));
+    }
+}
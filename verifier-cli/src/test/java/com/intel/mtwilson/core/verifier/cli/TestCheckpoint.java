@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import java.io.File;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCheckpoint {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("checkpoint", ".properties");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testMissingCheckpoint() throws Exception {
+        assertFalse(new Checkpoint(file).load());
+    }
+
+    @Test
+    public void testSavedCheckpointIsLoaded() throws Exception {
+        Checkpoint checkpoint = new Checkpoint(file);
+        checkpoint.save("manifests.tar", 12, 3456);
+        checkpoint.save("manifests.tar", 24, 6912);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        Checkpoint loaded = new Checkpoint(file);
+        assertTrue(loaded.load());
+        assertEquals("manifests.tar", loaded.getInput());
+        assertEquals(24, loaded.getCompleted());
+        assertEquals(6912, loaded.getOutputLength());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Writes lines out of order to the sink of a bulk verification, as its
+ * workers complete them.
+ */
+public class TestSink {
+    private File output;
+    private File checkpointFile;
+
+    @After
+    public void tearDown() {
+        if (output != null) {
+            output.delete();
+        }
+        if (checkpointFile != null) {
+            checkpointFile.delete();
+        }
+    }
+
+    private static byte[] line(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLinesAreWrittenInOrder() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BulkVerifier.Sink sink = new BulkVerifier.Sink(out, null, null, null, 0, 0, 100);
+        Semaphore inFlight = new Semaphore(3);
+        sink.setInFlight(inFlight);
+        inFlight.acquire(3);
+        sink.write(2, line("c"));
+        sink.write(1, line("b"));
+        // nothing is written, and no worker is released, until the first line is done
+        assertEquals(0, out.size());
+        assertEquals(0, inFlight.availablePermits());
+        sink.write(0, line("a"));
+        assertEquals(3, inFlight.availablePermits());
+        sink.finish();
+        assertEquals("a\nb\nc\n", out.toString("UTF-8"));
+        assertEquals(6, sink.getLength());
+    }
+
+    @Test
+    public void testFailedLineStopsOutput() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BulkVerifier.Sink sink = new BulkVerifier.Sink(out, null, null, null, 0, 0, 100);
+        Semaphore inFlight = new Semaphore(3);
+        sink.setInFlight(inFlight);
+        inFlight.acquire(3);
+        sink.write(0, line("a"));
+        sink.write(2, line("c"));
+        sink.write(1, BulkVerifier.FAILED);
+        // permits are released so the reader is not blocked on a failed run
+        assertEquals(3, inFlight.availablePermits());
+        assertEquals("a\n", out.toString("UTF-8"));
+        try {
+            sink.checkFailure();
+            fail("failure was not reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("manifest 1"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteErrorIsReported() throws Exception {
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        BulkVerifier.Sink sink = new BulkVerifier.Sink(out, null, null, null, 0, 0, 100);
+        sink.setInFlight(new Semaphore(1));
+        sink.write(0, line("a"));
+        sink.finish();
+    }
+
+    @Test
+    public void testCheckpointCountsFlushedLines() throws Exception {
+        output = File.createTempFile("bulk", ".ndjson");
+        checkpointFile = File.createTempFile("checkpoint", ".properties");
+        checkpointFile.delete();
+        Checkpoint checkpoint = new Checkpoint(checkpointFile);
+        try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+            BulkVerifier.Sink sink = new BulkVerifier.Sink(Channels.newOutputStream(channel), channel, checkpoint, "input", 0, 0, 2);
+            sink.setInFlight(new Semaphore(5));
+            sink.write(0, line("aa"));
+            sink.write(1, line("bb"));
+            assertEquals(2, checkpoint.getCompleted());
+            assertEquals(6, checkpoint.getOutputLength());
+            sink.write(2, line("cc"));
+            assertEquals(2, checkpoint.getCompleted());
+            sink.finish();
+        }
+        Checkpoint loaded = new Checkpoint(checkpointFile);
+        assertTrue(loaded.load());
+        assertEquals("input", loaded.getInput());
+        assertEquals(3, loaded.getCompleted());
+        assertEquals(9, loaded.getOutputLength());
+        assertEquals(9, Files.size(output.toPath()));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cli;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Reads generated tar archives with the name encodings of GNU tar and bsdtar.
+ */
+public class TestTarArchive {
+
+    private static TarArchive open(byte[] tar) {
+        return new TarArchive(new ByteArrayInputStream(tar));
+    }
+
+    private static String read(TarArchive archive) throws IOException {
+        return new String(archive.read(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testJsonFilesInOrder() throws Exception {
+        byte[] tar = new TarWriter()
+                .file("a.json", "{\"a\":1}")
+                .file("notes.txt", "not a manifest")
+                .directory("hosts/")
+                .file("hosts/b.json", "{\"b\":2}")
+                .toByteArray();
+        try (TarArchive archive = open(tar)) {
+            assertEquals("a.json", archive.next());
+            assertEquals("{\"a\":1}", read(archive));
+            assertEquals("hosts/b.json", archive.next());
+            assertEquals("{\"b\":2}", read(archive));
+            assertNull(archive.next());
+            assertNull(archive.next());
+        }
+    }
+
+    @Test
+    public void testUnreadContentIsSkipped() throws Exception {
+        char[] large = new char[1500];
+        Arrays.fill(large, 'x');
+        byte[] tar = new TarWriter()
+                .file("large.json", new String(large))
+                .file("small.json", "{}")
+                .toByteArray();
+        try (TarArchive archive = open(tar)) {
+            assertEquals("large.json", archive.next());
+            assertEquals("small.json", archive.next());
+            assertEquals("{}", read(archive));
+        }
+    }
+
+    @Test
+    public void testUstarPrefix() throws Exception {
+        byte[] tar = new TarWriter().ustarFile("archive/2019/10", "host-1.json", "{}").toByteArray();
+        try (TarArchive archive = open(tar)) {
+            assertEquals("archive/2019/10/host-1.json", archive.next());
+        }
+    }
+
+    @Test
+    public void testGnuLongName() throws Exception {
+        String name = longName() + ".json";
+        byte[] tar = new TarWriter()
+                .gnuLongNameFile(name, "{\"long\":true}")
+                .file("next.json", "{}")
+                .toByteArray();
+        try (TarArchive archive = open(tar)) {
+            assertEquals(name, archive.next());
+            assertEquals("{\"long\":true}", read(archive));
+            // the long name applies to one entry only
+            assertEquals("next.json", archive.next());
+        }
+    }
+
+    @Test
+    public void testPaxPath() throws Exception {
+        String name = longName() + ".json";
+        byte[] tar = new TarWriter()
+                .paxFile(name, "{\"pax\":true}")
+                .file("next.json", "{}")
+                .toByteArray();
+        try (TarArchive archive = open(tar)) {
+            assertEquals(name, archive.next());
+            assertEquals("{\"pax\":true}", read(archive));
+            assertEquals("next.json", archive.next());
+        }
+    }
+
+    @Test
+    public void testBase256Size() throws Exception {
+        char[] content = new char[700];
+        Arrays.fill(content, 'y');
+        byte[] tar = new TarWriter()
+                .base256File("base256.json", new String(content))
+                .file("next.json", "{}")
+                .toByteArray();
+        try (TarArchive archive = open(tar)) {
+            assertEquals("base256.json", archive.next());
+            assertEquals(new String(content), read(archive));
+            assertEquals("next.json", archive.next());
+        }
+    }
+
+    @Test
+    public void testEndOfStreamWithoutZeroBlocks() throws Exception {
+        byte[] tar = new TarWriter().file("a.json", "{}").toByteArray();
+        try (TarArchive archive = open(Arrays.copyOf(tar, 1024))) {
+            assertEquals("a.json", archive.next());
+            assertNull(archive.next());
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedEntry() throws Exception {
+        char[] content = new char[700];
+        Arrays.fill(content, 'z');
+        byte[] tar = new TarWriter().file("a.json", new String(content)).toByteArray();
+        try (TarArchive archive = open(Arrays.copyOf(tar, 512 + 600))) {
+            assertEquals("a.json", archive.next());
+            archive.read();
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedHeader() throws Exception {
+        byte[] tar = new TarWriter().file("a.json", "{}").file("b.json", "{}").toByteArray();
+        try (TarArchive archive = open(Arrays.copyOf(tar, 1024 + 100))) {
+            assertEquals("a.json", archive.next());
+            archive.next();
+        }
+    }
+
+    private static String longName() {
+        StringBuilder name = new StringBuilder("archive");
+        while (name.length() < 180) {
+            name.append("/directory-").append(name.length());
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.integration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
+import com.intel.mtwilson.core.flavor.PlatformFlavor;
+import com.intel.mtwilson.core.flavor.PlatformFlavorFactory;
+import com.intel.mtwilson.core.flavor.SyntheticHostGenerator;
+import com.intel.mtwilson.core.flavor.common.FlavorPart;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.metrics.LatencyHistogram;
+import com.intel.mtwilson.core.verifier.policy.RuleResultMemo;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestInterner;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a simulated fleet of hosts against the Verifier at a target
+ * attestation rate, without live hosts. Each host is a ReplayHostConnector
+ * with the flavors to verify it against; an attestation reads the host
+ * manifest from the connector and verifies it against all flavors of the host.
+ * <p>
+ * Attestations are scheduled at fixed intervals regardless of how long earlier
+ * ones took, and their latency is measured from the scheduled time. When the
+ * verifier falls behind the target rate, the waiting time shows in the latency
+ * percentiles and the throughput stays below the target.
+ * <p>
+ * The simulator is part of the test sources, since the synthetic hosts come
+ * from the lib-verifier test jar. Run it from the command line with the test
+ * classpath of this project, for example:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) com.intel.mtwilson.core.verifier.integration.FleetLoadSimulator \
+ *     --hosts=5000 --rate=200 --duration=120 --synthetic --event-log-size=500
+ * </pre>
+ * Use --manifests=dir instead of --synthetic to replay recorded host
+ * manifests. The CA certificates are read from --ca-dir, by default /root,
+ * with the same file names as TestVerifierIntegration. With --intern the
+ * flavors of all hosts share their measurements through a DigestInterner, to
+ * compare the live heap with and without interning.
+ */
+public class FleetLoadSimulator {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FleetLoadSimulator.class);
+
+    private final Verifier verifier;
+    private final List<SimulatedHost> hosts = new ArrayList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double targetRate = 100;
+    private long durationMillis = TimeUnit.SECONDS.toMillis(60);
+    private long warmupMillis = TimeUnit.SECONDS.toMillis(10);
+    private boolean skipFlavorSignatureVerification = true;
+    private DigestInterner interner;
+
+    public FleetLoadSimulator(Verifier verifier) {
+        this.verifier = verifier;
+    }
+
+    public void addHost(ReplayHostConnector connector, List<SignedFlavor> signedFlavors) {
+        if (interner != null) {
+            for (SignedFlavor signedFlavor : signedFlavors) {
+                interner.intern(signedFlavor.getFlavor());
+            }
+        }
+        hosts.add(new SimulatedHost(connector, signedFlavors));
+    }
+
+    public int getHostCount() {
+        return hosts.size();
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param targetRate  attestations per second, over all hosts
+     */
+    public void setTargetRate(double targetRate) {
+        this.targetRate = targetRate;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @param warmupMillis  time to run at the target rate before measuring, 0
+     * to measure from the start
+     */
+    public void setWarmupMillis(long warmupMillis) {
+        this.warmupMillis = warmupMillis;
+    }
+
+    /**
+     * Flavors of recorded or synthetic hosts are usually signed with a local
+     * key, so signature verification is skipped by default.
+     */
+    public void setSkipFlavorSignatureVerification(boolean skipFlavorSignatureVerification) {
+        this.skipFlavorSignatureVerification = skipFlavorSignatureVerification;
+    }
+
+    /**
+     * @param interner  pool the flavors of hosts added afterwards share their
+     * measurements through, or null to keep them as created
+     */
+    public void setDigestInterner(DigestInterner interner) {
+        this.interner = interner;
+    }
+
+    public LoadReport run() throws InterruptedException {
+        if (hosts.isEmpty()) {
+            throw new IllegalStateException("No hosts to simulate");
+        }
+        if (warmupMillis > 0) {
+            log.info("Warming up for {} ms", warmupMillis);
+            runPhase(warmupMillis, new LatencyHistogram(), new AtomicLong(), new AtomicLong(), new AtomicLong());
+        }
+
+        HeapSampler heap = new HeapSampler();
+        heap.start();
+        long gcCountBefore = getGcCount();
+        long gcMillisBefore = getGcMillis();
+
+        log.info("Simulating {} hosts at {} attestations/s for {} ms", hosts.size(), targetRate, durationMillis);
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong completed = new AtomicLong();
+        AtomicLong untrusted = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        long elapsedNanos;
+        try {
+            elapsedNanos = runPhase(durationMillis, latency, completed, untrusted, errors);
+        } finally {
+            heap.stop();
+        }
+        return new LoadReport(hosts.size(), targetRate, completed.get(), untrusted.get(), errors.get(), elapsedNanos,
+                latency, heap.getPeakBytes(), heap.getLivePeakBytes(), getGcCount() - gcCountBefore, getGcMillis() - gcMillisBefore);
+    }
+
+    /**
+     * Schedule attestations at the target rate for the given time, then wait
+     * for the scheduled attestations to complete.
+     *
+     * @return time from the first scheduled attestation until the last one
+     * completed
+     */
+    private long runPhase(long millis, final LatencyHistogram latency, final AtomicLong completed, final AtomicLong untrusted, final AtomicLong errors) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / targetRate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        try {
+            for (long k = 0;; k++) {
+                final long scheduled = start + k * intervalNanos;
+                if (scheduled >= end) {
+                    break;
+                }
+                long delay = scheduled - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                final SimulatedHost host = hosts.get((int) (k % hosts.size()));
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!host.attest(verifier, skipFlavorSignatureVerification)) {
+                                untrusted.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            log.debug("Attestation of {} failed", host.connector.getHostName(), e);
+                            errors.incrementAndGet();
+                        }
+                        latency.record(System.nanoTime() - scheduled);
+                        completed.incrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+        }
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return System.nanoTime() - start;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static class SimulatedHost {
+        private final ReplayHostConnector connector;
+        private final List<SignedFlavor> signedFlavors;
+
+        SimulatedHost(ReplayHostConnector connector, List<SignedFlavor> signedFlavors) {
+            this.connector = connector;
+            this.signedFlavors = signedFlavors;
+        }
+
+        /**
+         * @return true if the host is trusted for all of its flavors
+         */
+        boolean attest(Verifier verifier, boolean skipFlavorSignatureVerification) throws Exception {
+            HostManifest hostManifest = connector.getHostManifest();
+            RuleResultMemo memo = new RuleResultMemo(hostManifest);
+            boolean trusted = true;
+            for (SignedFlavor signedFlavor : signedFlavors) {
+                TrustReport report = verifier.verify(hostManifest, signedFlavor, skipFlavorSignatureVerification, memo);
+                trusted = trusted && report.isTrusted();
+            }
+            return trusted;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        int hostCount = Integer.parseInt(getOption(options, "hosts", "100"));
+        String caDir = getOption(options, "ca-dir", "/root");
+        Verifier verifier = new Verifier(new File(caDir, "PrivacyCA.pem").getPath(), new File(caDir, "tag-cacerts.pem").getPath(),
+                new File(caDir, "flavor-signer.crt.pem").getPath(), new File(caDir, "cms-ca.crt.pem").getPath());
+        FleetLoadSimulator simulator = new FleetLoadSimulator(verifier);
+        simulator.setTargetRate(Double.parseDouble(getOption(options, "rate", "100")));
+        simulator.setDurationMillis(TimeUnit.SECONDS.toMillis(Long.parseLong(getOption(options, "duration", "60"))));
+        simulator.setWarmupMillis(TimeUnit.SECONDS.toMillis(Long.parseLong(getOption(options, "warmup", "10"))));
+        simulator.setThreads(Integer.parseInt(getOption(options, "threads", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        DigestInterner interner = null;
+        if (options.containsKey("intern")) {
+            interner = new DigestInterner();
+            simulator.setDigestInterner(interner);
+        }
+
+        if (options.containsKey("manifests")) {
+            addRecordedHosts(simulator, new File(options.get("manifests")), hostCount);
+        } else if (options.containsKey("synthetic")) {
+            SyntheticHostGenerator generator = new SyntheticHostGenerator(Long.parseLong(getOption(options, "seed", "1")), getOption(options, "fixture", "intel-host"));
+            generator.setEventLogSize(Integer.parseInt(getOption(options, "event-log-size", "50")));
+            generator.setMeasurementXmlCount(Integer.parseInt(getOption(options, "measurement-xmls", "0")));
+            generator.setMismatchRatio(Double.parseDouble(getOption(options, "mismatch-ratio", "0")));
+            addSyntheticHosts(simulator, generator, hostCount);
+        } else {
+            throw new IllegalArgumentException("Use --manifests=dir or --synthetic");
+        }
+        System.out.print(simulator.run());
+        if (interner != null) {
+            System.out.println(String.format("interning:        %s", interner));
+        }
+    }
+
+    /**
+     * Add hostCount hosts replaying the recorded manifests in turn, with
+     * flavors created from each recorded manifest and signed with a temporary
+     * key.
+     */
+    public static void addRecordedHosts(FleetLoadSimulator simulator, File directory, int hostCount) throws Exception {
+        List<ReplayHostConnector> recorded = ReplayHostConnector.fromDirectory(directory);
+        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+        X509AttributeCertificate tagCer = mapper.readValue(Resources.toString(Resources.getResource("tagcer.json"), Charsets.UTF_8), X509AttributeCertificate.class);
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        PrivateKey privateKey = keyPairGenerator.generateKeyPair().getPrivate();
+        PlatformFlavorFactory flavorFactory = new PlatformFlavorFactory();
+        List<List<SignedFlavor>> recordedFlavors = new ArrayList<>(recorded.size());
+        for (ReplayHostConnector connector : recorded) {
+            PlatformFlavor platformFlavor = flavorFactory.getPlatformFlavor(connector.getHostManifest(), tagCer);
+            List<SignedFlavor> signedFlavors = new ArrayList<>();
+            for (String flavorPart : platformFlavor.getFlavorPartNames()) {
+                signedFlavors.addAll(platformFlavor.getFlavorPartWithSignature(flavorPart, privateKey));
+            }
+            recordedFlavors.add(signedFlavors);
+        }
+        for (int i = 0; i < hostCount; i++) {
+            simulator.addHost(recorded.get(i % recorded.size()), recordedFlavors.get(i % recorded.size()));
+        }
+    }
+
+    /**
+     * Add hostCount synthetic hosts, each with its own platform flavors and
+     * the software flavors of its measurement XMLs.
+     */
+    public static void addSyntheticHosts(FleetLoadSimulator simulator, SyntheticHostGenerator generator, int hostCount) throws Exception {
+        for (int i = 0; i < hostCount; i++) {
+            SyntheticHostGenerator.SyntheticHost host = generator.getHost(i);
+            List<SignedFlavor> signedFlavors = new ArrayList<>();
+            for (FlavorPart flavorPart : FlavorPart.values()) {
+                if (flavorPart != FlavorPart.SOFTWARE) {
+                    signedFlavors.addAll(generator.getPlatformFlavors(host, flavorPart.getValue()));
+                }
+            }
+            for (int softwareFlavorIndex : host.getSoftwareFlavorIndexes()) {
+                signedFlavors.add(generator.getSoftwareFlavor(softwareFlavorIndex));
+            }
+            simulator.addHost(new ReplayHostConnector(host.getHostManifest().getHostInfo().getHostName(), host.getHostManifest()), signedFlavors);
+        }
+    }
+
+    private static String getOption(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.integration;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Samples the total heap at each garbage collection. The heap is largest
+ * just before a collection, so the total used before each collection gives
+ * the high-water mark of the run; the total used after each collection gives
+ * the live heap. The peaks of the individual memory pools are reached at
+ * different times and cannot be added up.
+ * <p>
+ * Collections are reported asynchronously, so a collection that ends just
+ * after stop may not be counted.
+ */
+class HeapSampler implements NotificationListener {
+    private final Set<String> heapPools = new HashSet<>();
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private long peakBytes;
+    private long livePeakBytes;
+
+    HeapSampler() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+    }
+
+    void start() {
+        sample(getUsedHeap());
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+                emitters.add((NotificationEmitter) gc);
+            }
+        }
+    }
+
+    void stop() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException e) {
+                // already removed
+            }
+        }
+        emitters.clear();
+        sample(getUsedHeap());
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long before = sum(info.getGcInfo().getMemoryUsageBeforeGc());
+        long after = sum(info.getGcInfo().getMemoryUsageAfterGc());
+        synchronized (this) {
+            peakBytes = Math.max(peakBytes, before);
+            livePeakBytes = Math.max(livePeakBytes, after);
+        }
+    }
+
+    /**
+     * @return largest total heap used during the run
+     */
+    synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * @return largest total heap left after a collection during the run, or
+     * 0 if there was no collection
+     */
+    synchronized long getLivePeakBytes() {
+        return livePeakBytes;
+    }
+
+    private synchronized void sample(long used) {
+        peakBytes = Math.max(peakBytes, used);
+    }
+
+    private long sum(Map<String, MemoryUsage> pools) {
+        long used = 0;
+        for (Map.Entry<String, MemoryUsage> pool : pools.entrySet()) {
+            if (heapPools.contains(pool.getKey())) {
+                used += pool.getValue().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static long getUsedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.integration;
+
+import com.intel.mtwilson.core.verifier.metrics.LatencyHistogram;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of one FleetLoadSimulator run. Latencies are measured from the time
+ * an attestation was scheduled, so they include the time it waited for a
+ * worker when the verifier could not keep up with the target rate.
+ */
+public class LoadReport {
+    private final int hostCount;
+    private final double targetRate;
+    private final long attestations;
+    private final long untrusted;
+    private final long errors;
+    private final long elapsedNanos;
+    private final LatencyHistogram latency;
+    private final long heapPeakBytes;
+    private final long liveHeapPeakBytes;
+    private final long gcCount;
+    private final long gcMillis;
+
+    public LoadReport(int hostCount, double targetRate, long attestations, long untrusted, long errors, long elapsedNanos,
+            LatencyHistogram latency, long heapPeakBytes, long liveHeapPeakBytes, long gcCount, long gcMillis) {
+        this.hostCount = hostCount;
+        this.targetRate = targetRate;
+        this.attestations = attestations;
+        this.untrusted = untrusted;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+        this.latency = latency;
+        this.heapPeakBytes = heapPeakBytes;
+        this.liveHeapPeakBytes = liveHeapPeakBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+    }
+
+    public int getHostCount() {
+        return hostCount;
+    }
+
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * @return number of completed attestations, each verifying all flavors of
+     * one host
+     */
+    public long getAttestations() {
+        return attestations;
+    }
+
+    public long getUntrusted() {
+        return untrusted;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return completed attestations per second
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : attestations * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return latency in nanoseconds at the given percentile, between 0 and 100
+     */
+    public long getLatencyAtPercentile(double percentile) {
+        return latency.getValueAtPercentile(percentile);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return largest total heap used during the run, sampled before each
+     * garbage collection and at the start and end of the run
+     */
+    public long getHeapPeakBytes() {
+        return heapPeakBytes;
+    }
+
+    /**
+     * @return largest total heap left after a garbage collection during the
+     * run, or 0 if there was no collection
+     */
+    public long getLiveHeapPeakBytes() {
+        return liveHeapPeakBytes;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    /**
+     * @return total time of the garbage collections during the run, as
+     * reported by the collectors
+     */
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("hosts:            %d%n", hostCount));
+        text.append(String.format("target rate:      %.1f/s%n", targetRate));
+        text.append(String.format("throughput:       %.1f/s (%d attestations in %.1f s, %d untrusted, %d errors)%n",
+                getThroughput(), attestations, elapsedNanos / 1e9, untrusted, errors));
+        text.append(String.format("latency p50:      %.3f ms%n", toMillis(getLatencyAtPercentile(50))));
+        text.append(String.format("latency p99:      %.3f ms%n", toMillis(getLatencyAtPercentile(99))));
+        text.append(String.format("latency p99.9:    %.3f ms%n", toMillis(getLatencyAtPercentile(99.9))));
+        text.append(String.format("latency max:      %.3f ms%n", toMillis(latency.getMax())));
+        text.append(String.format("heap high water:  %d MB%n", heapPeakBytes / (1024 * 1024)));
+        text.append(String.format("live heap peak:   %d MB%n", liveHeapPeakBytes / (1024 * 1024)));
+        text.append(String.format("gc:               %d collections, %d ms total, %.2f ms mean%n",
+                gcCount, gcMillis, gcCount == 0 ? 0.0 : (double) gcMillis / gcCount));
+        return text.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.integration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stand-in for a host connector that replays a recorded host manifest instead
+ * of contacting a host. Like a real connector it returns a new HostManifest
+ * for every call, parsed from the recorded JSON, so the load simulator also
+ * pays for reading the manifest.
+ * <p>
+ * Record manifests by writing HostConnector.getHostManifest() with the
+ * default Jackson mapper, one JSON file per host.
+ */
+public class ReplayHostConnector {
+    private static final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+    private final String hostName;
+    private final String hostManifestAsJson;
+
+    public ReplayHostConnector(String hostName, String hostManifestAsJson) {
+        this.hostName = hostName;
+        this.hostManifestAsJson = hostManifestAsJson;
+    }
+
+    public ReplayHostConnector(String hostName, HostManifest hostManifest) throws IOException {
+        this(hostName, mapper.writeValueAsString(hostManifest));
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public HostManifest getHostManifest() throws IOException {
+        return mapper.readValue(hostManifestAsJson, HostManifest.class);
+    }
+
+    /**
+     * @param directory  directory with one recorded host manifest per .json
+     * file
+     * @return one connector per file, in file name order
+     */
+    public static List<ReplayHostConnector> fromDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".json");
+            }
+        });
+        if (files == null || files.length == 0) {
+            throw new FileNotFoundException("No host manifests in " + directory.getPath());
+        }
+        Arrays.sort(files);
+        ArrayList<ReplayHostConnector> connectors = new ArrayList<>(files.length);
+        for (File file : files) {
+            String hostManifestAsJson = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            connectors.add(new ReplayHostConnector(file.getName().replaceFirst("\\.json$", ""), hostManifestAsJson));
+        }
+        return connectors;
+    }
+}
@@ -9,25 +9,57 @@ import com.intel.mtwilson.core.flavor.model.SignedFlavor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
 
+import com.intel.mtwilson.core.verifier.cache.TrustResultCache;
+import com.intel.mtwilson.core.verifier.index.FlavorIndex;
+import com.intel.mtwilson.core.verifier.metrics.VerificationListener;
+import com.intel.mtwilson.core.verifier.policy.BaseRule;
+import com.intel.mtwilson.core.verifier.policy.EvaluationMode;
+import com.intel.mtwilson.core.verifier.policy.Fault;
 import com.intel.mtwilson.core.verifier.policy.HostTrustPolicyManager;
+import com.intel.mtwilson.core.verifier.policy.PcrBankSelection;
+import com.intel.mtwilson.core.verifier.policy.RuleCostModel;
+import com.intel.mtwilson.core.verifier.policy.RuleExecutionPlan;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleResultMemo;
 import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.policy.VerificationBaseline;
 
 import com.intel.mtwilson.core.flavor.model.Flavor;
 
 import com.intel.mtwilson.core.verifier.policy.Policy;
 import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.fault.RuleNotEvaluated;
+import com.intel.mtwilson.core.verifier.policy.fault.RuleSuperseded;
 import com.intel.mtwilson.core.verifier.policy.rule.AikCertificateTrusted;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEqualsExcluding;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstantBatch;
 import com.intel.mtwilson.core.verifier.policy.rule.TagCertificateTrusted;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestInterner;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
+import com.intel.mtwilson.core.verifier.policy.utils.ModuleExclusionFilter;
 import com.intel.mtwilson.core.verifier.policy.vendor.VendorTrustPolicyReader;
+import com.intel.mtwilson.core.verifier.store.CompiledPolicyStore;
+import com.intel.mtwilson.core.verifier.store.CompiledPolicyStoreWriter;
 
 import com.intel.mtwilson.core.common.model.HostManifest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Verifier library for applying the Trust Policy to the Host Manifest and
@@ -43,6 +75,16 @@ public class Verifier {
     private final String assetTagCaCertificatepath;
     private final String flavorSigningCertificatePath;
     private final String flavorCaCertPath;
+    private EvaluationMode evaluationMode = EvaluationMode.FULL_REPORT;
+    private RuleCostModel costModel = RuleCostModel.getDefault();
+    private ExecutorService executorService;
+    private VerificationListener listener = VerificationListener.NOOP;
+    private CompiledPolicyStore compiledPolicyStore;
+    private TrustResultCache trustResultCache;
+    private DigestInterner digestInterner;
+    private ModuleExclusionFilter moduleExclusionFilter = ModuleExclusionFilter.HOST_SPECIFIC;
+    private PcrBankSelection pcrBankSelection = PcrBankSelection.ALL;
+    private volatile byte[] certificateFingerprint;
 
     public Verifier(String privacyCaCertificatepath, String assetTagCaCertificatepath, String flavorSigningCertificatePath, String flavorCaCertPath) {
         this.privacyCaCertificatepath = privacyCaCertificatepath;
@@ -50,7 +92,248 @@ public class Verifier {
         this.flavorSigningCertificatePath = flavorSigningCertificatePath;
         this.flavorCaCertPath = flavorCaCertPath;
     }
+
+    /**
+     * @param warmUp  true to start {@link #warmUp()} on a background thread,
+     * so a verification shortly after construction does not pay for loading
+     * the XML, JSON and crypto providers
+     */
+    public Verifier(String privacyCaCertificatepath, String assetTagCaCertificatepath, String flavorSigningCertificatePath, String flavorCaCertPath, boolean warmUp) {
+        this(privacyCaCertificatepath, assetTagCaCertificatepath, flavorSigningCertificatePath, flavorCaCertPath);
+        if (warmUp) {
+            VerifierWarmUp.start();
+        }
+    }
+
+    /**
+     * Prime the JAXB, Jackson and crypto paths of the first verification in
+     * this JVM, so that it runs at steady state latency. Runs once per JVM;
+     * calls after the first, or during a background warm-up, return when it
+     * has completed.
+     *
+     * @return duration of the warm-up in nanoseconds
+     * @see VerifierWarmUp
+     */
+    public long warmUp() {
+        return VerifierWarmUp.run();
+    }
+
+    public EvaluationMode getEvaluationMode() {
+        return evaluationMode;
+    }
+
+    /**
+     * Select how the rules of a policy are evaluated. The default is
+     * {@link EvaluationMode#FULL_REPORT}.
+     *
+     * @param evaluationMode  evaluation mode used by subsequent calls to verify
+     */
+    public void setEvaluationMode(EvaluationMode evaluationMode) {
+        this.evaluationMode = evaluationMode == null ? EvaluationMode.FULL_REPORT : evaluationMode;
+    }
+
+    public RuleCostModel getCostModel() {
+        return costModel;
+    }
+
+    /**
+     * Set the model that records rule latencies and orders rules of the same
+     * cost class. The default model is shared by all verifiers in the JVM.
+     *
+     * @param costModel  cost model used to compile execution plans
+     */
+    public void setCostModel(RuleCostModel costModel) {
+        this.costModel = costModel == null ? RuleCostModel.getDefault() : costModel;
+    }
+
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * Evaluate the rules of a policy concurrently on the given executor, most
+     * expensive rules first. Used in FULL_REPORT and SKIP_SUPERSEDED modes;
+     * in SKIP_SUPERSEDED mode a rule is submitted only once the integrity
+     * rules it depends on have finished. FAIL_FAST is always sequential. The
+     * executor is not shut down by the verifier.
+     *
+     * @param executorService  executor for rule evaluation, or null to
+     * evaluate rules on the calling thread
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    public VerificationListener getVerificationListener() {
+        return listener;
+    }
+
+    /**
+     * Receive timing and outcome events for policy loading, each rule and
+     * report assembly. The default listener ignores all events.
+     *
+     * @param listener  listener for verification events
+     */
+    public void setVerificationListener(VerificationListener listener) {
+        this.listener = listener == null ? VerificationListener.NOOP : listener;
+    }
     
+    public CompiledPolicyStore getCompiledPolicyStore() {
+        return compiledPolicyStore;
+    }
+
+    /**
+     * Load policies from a compiled policy store instead of compiling each
+     * flavor again. Flavors that are not in the store are compiled as usual.
+     *
+     * @param compiledPolicyStore  store written with the same certificates
+     * as this verifier, or null to always compile
+     * @throws IOException if the certificate files cannot be read
+     * @throws IllegalArgumentException if the store was written for different
+     * certificates
+     */
+    public void setCompiledPolicyStore(CompiledPolicyStore compiledPolicyStore) throws IOException {
+        if (compiledPolicyStore != null && !compiledPolicyStore.matches(getCertificateFingerprint())) {
+            throw new IllegalArgumentException("Compiled policy store was written for different certificates");
+        }
+        this.compiledPolicyStore = compiledPolicyStore;
+    }
+
+    public TrustResultCache getTrustResultCache() {
+        return trustResultCache;
+    }
+
+    /**
+     * Return the reports of hosts whose manifest did not change in any
+     * section the rules read since they were last verified against the same
+     * flavor. Hosts are identified by the hardware UUID in the manifest;
+     * manifests without one are always verified. Reports made with another
+     * evaluation mode, module exclusion filter or PCR bank selection are not
+     * returned.
+     *
+     * @param trustResultCache  cache, or null to always verify
+     */
+    public void setTrustResultCache(TrustResultCache trustResultCache) {
+        this.trustResultCache = trustResultCache;
+    }
+
+    public DigestInterner getDigestInterner() {
+        return digestInterner;
+    }
+
+    /**
+     * Share the expected measurements of the policies the trust result cache
+     * keeps through a pool. Set the same pool on the compiled policy store
+     * and flavor index to share them with their policies and flavors too.
+     *
+     * @param digestInterner  pool, or null to cache policies as compiled
+     */
+    public void setDigestInterner(DigestInterner digestInterner) {
+        this.digestInterner = digestInterner;
+    }
+
+    public ModuleExclusionFilter getModuleExclusionFilter() {
+        return moduleExclusionFilter;
+    }
+
+    /**
+     * Select the host specific modules that PcrEventLogEqualsExcluding rules
+     * do not compare with the flavor. Policies of a compiled policy store
+     * that were compiled with another filter are compiled again, and
+     * verification baselines of another filter are not reused.
+     *
+     * @param moduleExclusionFilter  filter, or null for the default
+     * {@link ModuleExclusionFilter#HOST_SPECIFIC}
+     */
+    public void setModuleExclusionFilter(ModuleExclusionFilter moduleExclusionFilter) {
+        this.moduleExclusionFilter = moduleExclusionFilter == null ? ModuleExclusionFilter.HOST_SPECIFIC : moduleExclusionFilter;
+    }
+
+    public PcrBankSelection getPcrBankSelection() {
+        return pcrBankSelection;
+    }
+
+    /**
+     * Select the PCR banks that are verified when a flavor defines a PCR in
+     * several banks, for example only the strongest bank the host reports.
+     * The selection is made for each host when the policy is loaded; stored
+     * policies keep all banks. Verification baselines of another selection
+     * are not reused. A baseline keeps the banks selected when it was made,
+     * so with {@link PcrBankSelection#STRONGEST} clear the baseline of a host
+     * that starts reporting other banks.
+     *
+     * @param pcrBankSelection  selection, or null for
+     * {@link PcrBankSelection#ALL}
+     */
+    public void setPcrBankSelection(PcrBankSelection pcrBankSelection) {
+        this.pcrBankSelection = pcrBankSelection == null ? PcrBankSelection.ALL : pcrBankSelection;
+    }
+
+    /**
+     * The certificate files are read once, on the first call; create a new
+     * verifier after replacing them.
+     *
+     * @return fingerprint of the certificates of this verifier, for writing
+     * a compiled policy store
+     */
+    public byte[] getCertificateFingerprint() throws IOException {
+        byte[] fingerprint = certificateFingerprint;
+        if (fingerprint == null) {
+            fingerprint = CompiledPolicyStore.fingerprint(privacyCaCertificatepath, assetTagCaCertificatepath, flavorSigningCertificatePath, flavorCaCertPath);
+            certificateFingerprint = fingerprint;
+        }
+        return fingerprint.clone();
+    }
+
+    /**
+     * @return the settings of this verifier that change the report of a
+     * verification, for the keys of earlier results
+     */
+    private String getVerificationSettings() {
+        return evaluationMode + " " + new TreeSet<>(moduleExclusionFilter.getPatterns()) + " " + pcrBankSelection;
+    }
+
+    /**
+     * Compile the policy of a flavor as verify would and add it to a compiled
+     * policy store.
+     *
+     * @param hostManifest  Host Manifest of a host the flavor applies to, used
+     * to select the policy reader when the flavor does not name its vendor
+     * @param signedFlavor  Flavor With Signature
+     * @param writer  writer created with getCertificateFingerprint
+     */
+    public void compile(HostManifest hostManifest, SignedFlavor signedFlavor, Boolean skipFlavorSignatureVerification, CompiledPolicyStoreWriter writer) throws IOException {
+        HostTrustPolicyManager policymanager = new HostTrustPolicyManager(signedFlavor, hostManifest, privacyCaCertificatepath, assetTagCaCertificatepath, flavorSigningCertificatePath, flavorCaCertPath, skipFlavorSignatureVerification);
+        Policy policy = loadTrustRules(policymanager.getVendorTrustPolicyReader());
+        writer.add(policymanager.getVendorKey(), signedFlavor, skipFlavorSignatureVerification, policy);
+    }
+
+    /**
+     * Compile the policy of a flavor and add it to a flavor index. The policy
+     * reader is selected by the vendor and TPM version in the flavor
+     * metadata, so no host is needed.
+     *
+     * @param signedFlavor  Flavor With Signature
+     * @param index  index to add the flavor to, created with the PCR bank
+     * selection of this verifier
+     */
+    public void index(SignedFlavor signedFlavor, FlavorIndex index) {
+        if (!pcrBankSelection.equals(index.getPcrBankSelection())) {
+            throw new IllegalArgumentException("Flavor index was created for PCR bank selection " + index.getPcrBankSelection());
+        }
+        String vendorKey = HostTrustPolicyManager.getVendorKey(signedFlavor.getFlavor());
+        if (vendorKey == null) {
+            throw new IllegalArgumentException("Flavor metadata does not name its vendor and TPM version");
+        }
+        // the signature is verified when a candidate is verified
+        HostTrustPolicyManager policymanager = new HostTrustPolicyManager(signedFlavor, null, privacyCaCertificatepath, assetTagCaCertificatepath, flavorSigningCertificatePath, flavorCaCertPath, true);
+        Policy policy = compiledPolicyStore == null ? null : loadCompiledPolicy(vendorKey, signedFlavor, true);
+        if (policy == null) {
+            policy = loadTrustRules(policymanager.getVendorTrustPolicyReader(vendorKey));
+        }
+        index.add(vendorKey, signedFlavor, policy);
+    }
+
     /**
      * Generate the Trust Report for the given Host Manifest and Flavor
      * 
@@ -73,10 +356,236 @@ public class Verifier {
      * @return  TrustReport
      */
     public TrustReport verify(HostManifest hostManifest, SignedFlavor signedFlavor, Boolean skipFlavorSignatureVerification) {
+        return verify(hostManifest, signedFlavor, skipFlavorSignatureVerification, null);
+    }
+
+    /**
+     * Generate the Trust Report for the given Host Manifest and Flavor, as
+     * one of several flavors verified against the same host. Flavor
+     * independent rules, such as the AIK certificate check each flavor part
+     * adds, are evaluated once per memo and their faults reused for the
+     * other flavors.
+     *
+     * @param hostManifest       Host Manifest
+     * @param signedFlavor Flavor With Signature
+     * @param memo  memo created for the host manifest, or null
+     * @return  TrustReport
+     */
+    public TrustReport verify(HostManifest hostManifest, SignedFlavor signedFlavor, Boolean skipFlavorSignatureVerification, RuleResultMemo memo) {
+        if (memo != null && memo.getHostManifest() != hostManifest) {
+            throw new IllegalArgumentException("Rule result memo was created for a different host manifest");
+        }
+        long start = System.nanoTime();
         HostTrustPolicyManager policymanager = new HostTrustPolicyManager(signedFlavor, hostManifest, privacyCaCertificatepath, assetTagCaCertificatepath, flavorSigningCertificatePath, flavorCaCertPath, skipFlavorSignatureVerification);
-        VendorTrustPolicyReader trustpolicy = policymanager.getVendorTrustPolicyReader();
+        TrustResultCache.Key cacheKey = trustResultCache == null ? null : cacheKeyOf(hostManifest, policymanager.getVendorKey(), signedFlavor, skipFlavorSignatureVerification);
+        if (cacheKey != null) {
+            TrustReport cached = trustResultCache.get(cacheKey, hostManifest);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Policy policy = compiledPolicyStore == null ? null : loadCompiledPolicy(policymanager.getVendorKey(), signedFlavor, skipFlavorSignatureVerification);
+        if (policy == null) {
+            VendorTrustPolicyReader trustpolicy = policymanager.getVendorTrustPolicyReader();
+            policy = loadTrustRules(trustpolicy);
+        }
+        policy = pcrBankSelection.apply(policy, hostManifest);
+        String flavorId = signedFlavor.getFlavor().getMeta().getId();
+        String vendorKey = listener == VerificationListener.NOOP ? null : policymanager.getVendorKey();
+        listener.policyLoaded(vendorKey, flavorId, policy.getName(), policy.getRules().size(), System.nanoTime() - start);
+        TrustReport report = applyPolicy(hostManifest, policy, flavorId, vendorKey, memo);
+        if (cacheKey != null) {
+            if (digestInterner != null) {
+                digestInterner.intern(policy);
+            }
+            trustResultCache.put(cacheKey, hostManifest, policy, report);
+        }
+        return report;
+    }
+
+    /**
+     * @return key of the verification in the trust result cache, or null if
+     * the host has no id or the certificates cannot be read
+     */
+    private TrustResultCache.Key cacheKeyOf(HostManifest hostManifest, String vendorKey, SignedFlavor signedFlavor, Boolean skipFlavorSignatureVerification) {
+        if (hostManifest.getHostInfo() == null || hostManifest.getHostInfo().getHardwareUuid() == null) {
+            return null;
+        }
+        try {
+            DigestKey flavor = DigestKey.valueOf(CompiledPolicyStore.keyOf(vendorKey, signedFlavor, Boolean.TRUE.equals(skipFlavorSignatureVerification)));
+            DigestKey trustAnchors = DigestKey.valueOf(getCertificateFingerprint());
+            return new TrustResultCache.Key(hostManifest.getHostInfo().getHardwareUuid(), Collections.singleton(flavor), trustAnchors, getVerificationSettings());
+        } catch (IOException e) {
+            log.warn("Cannot identify the verification, not using the trust result cache", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Verify a host again against a flavor it was verified against before.
+     * Only the rules whose manifest sections changed since the last
+     * verification recorded in the baseline are evaluated; the earlier
+     * results of the other rules are reported again. The baseline is then
+     * updated with this verification. With an empty baseline, or a baseline
+     * of another flavor, every rule is evaluated.
+     * 
+     * Rules that do not declare the sections they read, and rules whose
+     * result depends on the time, such as the checks of certificates that
+     * have not expired, are always evaluated. In FAIL_FAST mode every rule
+     * is evaluated, since which rules are skipped depends on the others; in
+     * SKIP_SUPERSEDED mode the integrity rules a re-evaluated rule depends on
+     * are evaluated with it, and so are the rules depending on a
+     * re-evaluated integrity rule.
+     * 
+     * @param hostManifest  Host Manifest
+     * @param signedFlavor  Flavor With Signature
+     * @param baseline  baseline of this host and flavor
+     * @return  TrustReport
+     * @see com.intel.mtwilson.core.verifier.policy.BaseRule#getManifestSections()
+     */
+    public TrustReport reverify(HostManifest hostManifest, SignedFlavor signedFlavor, Boolean skipFlavorSignatureVerification, VerificationBaseline baseline) {
+        synchronized (baseline) {
+            long start = System.nanoTime();
+            HostTrustPolicyManager policymanager = new HostTrustPolicyManager(signedFlavor, hostManifest, privacyCaCertificatepath, assetTagCaCertificatepath, flavorSigningCertificatePath, flavorCaCertPath, skipFlavorSignatureVerification);
+            String policyVendorKey = policymanager.getVendorKey();
+            byte[] flavorKey;
+            try {
+                // a baseline of other settings has other rules or results
+                flavorKey = CompiledPolicyStore.keyOf(policyVendorKey, signedFlavor, Boolean.TRUE.equals(skipFlavorSignatureVerification), getVerificationSettings());
+            } catch (IOException e) {
+                log.warn("Cannot identify the flavor, verifying all rules", e);
+                flavorKey = null;
+            }
+            boolean sameFlavor = flavorKey != null && baseline.isFor(flavorKey);
+            Policy policy = sameFlavor ? baseline.getPolicy() : null;
+            if (policy == null && compiledPolicyStore != null) {
+                policy = loadCompiledPolicy(policyVendorKey, signedFlavor, skipFlavorSignatureVerification);
+            }
+            if (policy == null) {
+                policy = loadTrustRules(policymanager.getVendorTrustPolicyReader());
+            }
+            if (policy != baseline.getPolicy()) {
+                policy = pcrBankSelection.apply(policy, hostManifest);
+            }
+            String flavorId = signedFlavor.getFlavor().getMeta().getId();
+            String vendorKey = listener == VerificationListener.NOOP ? null : policyVendorKey;
+            listener.policyLoaded(vendorKey, flavorId, policy.getName(), policy.getRules().size(), System.nanoTime() - start);
+
+            RuleExecutionPlan plan = RuleExecutionPlan.of(policy, costModel);
+            ManifestFingerprint fingerprint = new ManifestFingerprint(hostManifest);
+            Set<Rule> stale = findStaleRules(plan, hostManifest, fingerprint, sameFlavor ? baseline : null);
+            Map<Rule, RuleResult> evaluated = stale.isEmpty() ? Collections.<Rule, RuleResult>emptyMap() : applyTrustRules(hostManifest, plan, stale, flavorId, vendorKey, null);
+            List<RuleResult> results = new ArrayList<>(plan.size());
+            Map<Rule, RuleResult> recorded = new IdentityHashMap<>();
+            Map<String, DigestKey> sections = new HashMap<>();
+            for (Rule rule : plan.getReportOrder()) {
+                RuleResult result = evaluated.get(rule);
+                if (result == null) {
+                    result = copyResult(rule, baseline.getResult(rule));
+                }
+                results.add(result);
+                recorded.put(rule, result);
+                String[] keys = ManifestFingerprint.sectionsOf(rule);
+                if (keys != null) {
+                    for (String key : keys) {
+                        sections.put(key, fingerprint.get(key));
+                    }
+                }
+            }
+            baseline.update(flavorKey, policy, sections, recorded, plan.size() - evaluated.size());
+            return assembleReport(hostManifest, policy.getName(), results, flavorId, vendorKey);
+        }
+    }
+
+    /**
+     * @param baseline  baseline of the same flavor, or null
+     * @return the rules of the plan that must be evaluated
+     */
+    private Set<Rule> findStaleRules(RuleExecutionPlan plan, HostManifest hostManifest, ManifestFingerprint fingerprint, VerificationBaseline baseline) {
+        Date now = new Date();
+        Set<Rule> stale = Collections.newSetFromMap(new IdentityHashMap<Rule, Boolean>());
+        for (Rule rule : plan.getReportOrder()) {
+            if (baseline == null || evaluationMode == EvaluationMode.FAIL_FAST || baseline.getResult(rule) == null
+                    || hasChanged(ManifestFingerprint.sectionsOf(rule), fingerprint, baseline)
+                    || !(rule instanceof BaseRule) || ((BaseRule) rule).getResultExpiry(hostManifest, now) != null) {
+                stale.add(rule);
+            }
+        }
+        if (evaluationMode == EvaluationMode.SKIP_SUPERSEDED && plan.hasDependencies()) {
+            // prerequisites come first in the execution order
+            for (Rule rule : plan.getExecutionOrder()) {
+                for (Rule prerequisite : plan.getPrerequisites(rule)) {
+                    if (stale.contains(prerequisite)) {
+                        stale.add(rule);
+                    }
+                }
+            }
+            for (Rule rule : new ArrayList<>(stale)) {
+                stale.addAll(plan.getPrerequisites(rule));
+            }
+        }
+        return stale;
+    }
+
+    private static boolean hasChanged(String[] sections, ManifestFingerprint fingerprint, VerificationBaseline baseline) {
+        if (sections == null) {
+            return true;
+        }
+        for (String section : sections) {
+            DigestKey current = fingerprint.get(section);
+            if (current == null || !current.equals(baseline.getSection(section))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static RuleResult copyResult(Rule rule, RuleResult previous) {
+        RuleResult result = new RuleResult(rule);
+        for (Fault fault : previous.getFaults()) {
+            result.fault(fault);
+        }
+        result.setFlavorId(previous.getFlavorId());
+        return result;
+    }
+
+    /**
+     * Compile the rules of a flavor with the module exclusion filter of this
+     * verifier. Policies of the compiled policy store are shared and are
+     * never changed.
+     */
+    private Policy loadTrustRules(VendorTrustPolicyReader trustpolicy) {
         Policy policy = trustpolicy.loadTrustRules();
-        return applyPolicy(hostManifest, policy, signedFlavor.getFlavor().getMeta().getId());
+        if (moduleExclusionFilter != ModuleExclusionFilter.HOST_SPECIFIC) {
+            for (Rule rule : policy.getRules()) {
+                if (rule instanceof PcrEventLogEqualsExcluding) {
+                    ((PcrEventLogEqualsExcluding) rule).setExclusionFilter(moduleExclusionFilter);
+                }
+            }
+        }
+        return policy;
+    }
+
+    /**
+     * @return the stored policy of the flavor, or null if it is not in the
+     * store or was compiled with another module exclusion filter
+     */
+    private Policy loadCompiledPolicy(String vendorKey, SignedFlavor signedFlavor, Boolean skipFlavorSignatureVerification) {
+        try {
+            Policy policy = compiledPolicyStore.getPolicy(vendorKey, signedFlavor, Boolean.TRUE.equals(skipFlavorSignatureVerification), flavorSigningCertificatePath, flavorCaCertPath);
+            if (policy != null) {
+                for (Rule rule : policy.getRules()) {
+                    if (rule instanceof PcrEventLogEqualsExcluding && !moduleExclusionFilter.equals(((PcrEventLogEqualsExcluding) rule).getExclusionFilter())) {
+                        log.debug("Stored policy {} excludes modules {}, compiling it with {}", policy.getName(), ((PcrEventLogEqualsExcluding) rule).getExclusionFilter(), moduleExclusionFilter);
+                        return null;
+                    }
+                }
+            }
+            return policy;
+        } catch (IOException e) {
+            log.warn("Cannot look up flavor in the compiled policy store, compiling it instead", e);
+            return null;
+        }
     }
     
     /**
@@ -86,10 +595,16 @@ public class Verifier {
      * @param  policy
      * @return  Generated TrustReport
      */
-    private TrustReport applyPolicy(HostManifest hostManifest, Policy policy, String flavorId) {
+    private TrustReport applyPolicy(HostManifest hostManifest, Policy policy, String flavorId, String vendorKey, RuleResultMemo memo) {
         log.debug("PolicyEngine.apply policy {}", policy.getName());
-        TrustReport policyReport = new TrustReport(hostManifest, policy.getName());
-        List<RuleResult> results = applyTrustRules(hostManifest, policy.getRules());
+        RuleExecutionPlan plan = RuleExecutionPlan.of(policy, costModel);
+        List<RuleResult> results = inReportOrder(plan, applyTrustRules(hostManifest, plan, null, flavorId, vendorKey, memo));
+        return assembleReport(hostManifest, policy.getName(), results, flavorId, vendorKey);
+    }
+
+    private TrustReport assembleReport(HostManifest hostManifest, String policyName, List<RuleResult> results, String flavorId, String vendorKey) {
+        TrustReport policyReport = new TrustReport(hostManifest, policyName);
+        long start = System.nanoTime();
         Iterator<RuleResult> it = results.iterator();
         while(it.hasNext()) {
             RuleResult result = it.next();
@@ -98,24 +613,257 @@ public class Verifier {
             }
             policyReport.addResult(result);
         }
+        if (listener != VerificationListener.NOOP) {
+            listener.reportAssembled(vendorKey, flavorId, policyReport.getResults().size(), policyReport.isTrusted(), System.nanoTime() - start);
+        }
         return policyReport;
     }
     
     /**
-     * Given a set of rules, apply them all, and combine the results into one report.
+     * Given a set of rules, apply them all, and collect the results.
+     * 
+     * Rules are applied in the execution order of the plan, cheapest first;
+     * callers list the results in the report order of the plan so the
+     * report does not depend on how the rules were scheduled.
+     * 
+     * The PcrMatchesConstant rules of the plan are evaluated together first,
+     * see PcrMatchesConstantBatch.
+     * 
+     * In FAIL_FAST mode a rule is skipped once every marker it contributes to
+     * is already untrusted; the skipped rule is still reported, with a
+     * RuleNotEvaluated fault.
+     * 
+     * In FAIL_FAST and SKIP_SUPERSEDED modes a rule is skipped when one of its
+     * prerequisite integrity rules failed; it is reported with a
+     * RuleSuperseded fault.
      * 
      * @param  hostManifest  
-     * @param  rules set to be applied
-     * @return  Generated TrustReport
+     * @param  plan compiled from the policy to be applied
+     * @param  selected  rules of the plan to apply, or null to apply all of
+     * them; the prerequisites of a selected rule must be selected as well
+     * @return  results of the applied rules
      */
-    private List<RuleResult> applyTrustRules(HostManifest hostManifest, Set<Rule> rules) {
-        log.debug("PolicyEngine.applyAll(set of {} rules)", rules.size());
-        ArrayList<RuleResult> list = new ArrayList<>();
-        for(Rule rule : rules) {
-            log.debug("Applying rule {}", rule.getClass().getName());
-            RuleResult result = rule.apply(hostManifest);
-            list.add(result);
+    private Map<Rule, RuleResult> applyTrustRules(HostManifest hostManifest, RuleExecutionPlan plan, Set<Rule> selected, String flavorId, String vendorKey, RuleResultMemo memo) {
+        log.debug("PolicyEngine.applyAll(set of {} rules)", selected == null ? plan.size() : selected.size());
+        boolean failFast = evaluationMode == EvaluationMode.FAIL_FAST;
+        if (executorService != null && !failFast) {
+            return applyTrustRulesInParallel(hostManifest, plan, selected, flavorId, vendorKey, memo);
+        }
+        boolean skipSuperseded = evaluationMode != EvaluationMode.FULL_REPORT && plan.hasDependencies();
+        IdentityHashMap<Rule, RuleResult> results = new IdentityHashMap<>();
+        Map<Rule, RuleResult> batched = applyPcrConstants(hostManifest, plan, selected, flavorId, vendorKey);
+        Set<String> untrustedMarkers = failFast ? new HashSet<String>() : null;
+        for(Rule rule : plan.getExecutionOrder()) {
+            if (selected != null && !selected.contains(rule)) {
+                continue;
+            }
+            RuleResult result = batched.get(rule);
+            if (result == null && failFast && isDecided(rule, untrustedMarkers)) {
+                log.debug("Skipping rule {}, marker already untrusted", rule.getClass().getName());
+                RuleResult skipped = new RuleResult(rule);
+                skipped.fault(new RuleNotEvaluated(rule.getMarkers()));
+                results.put(rule, skipped);
+                continue;
+            }
+            Rule failedPrerequisite = result == null && skipSuperseded ? findFailedPrerequisite(plan, rule, results) : null;
+            if (failedPrerequisite != null) {
+                log.debug("Skipping rule {}, prerequisite {} failed", rule.getClass().getName(), failedPrerequisite.getClass().getName());
+                RuleResult skipped = new RuleResult(rule);
+                skipped.fault(new RuleSuperseded(failedPrerequisite.getClass().getName()));
+                results.put(rule, skipped);
+                continue;
+            }
+            if (result == null) {
+                result = applyRule(hostManifest, rule, flavorId, vendorKey, memo);
+            }
+            results.put(rule, result);
+            if (failFast && !result.isTrusted() && rule.getMarkers() != null) {
+                for (String marker : rule.getMarkers()) {
+                    untrustedMarkers.add(marker);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * In SKIP_SUPERSEDED mode the rules are submitted in rounds: a rule is
+     * submitted once none of its prerequisites is still waiting, or reported
+     * with a RuleSuperseded fault if one of them failed. Rules with circular
+     * dependencies are all submitted in the last round.
+     */
+    private Map<Rule, RuleResult> applyTrustRulesInParallel(HostManifest hostManifest, RuleExecutionPlan plan, Set<Rule> selected, String flavorId, String vendorKey, RuleResultMemo memo) {
+        Map<Rule, RuleResult> batched = applyPcrConstants(hostManifest, plan, selected, flavorId, vendorKey);
+        IdentityHashMap<Rule, RuleResult> results = new IdentityHashMap<>(batched);
+        List<Rule> waiting = new ArrayList<>(plan.size());
+        for (Rule rule : plan.getParallelOrder()) {
+            if (!batched.containsKey(rule) && (selected == null || selected.contains(rule))) {
+                waiting.add(rule);
+            }
+        }
+        if (evaluationMode != EvaluationMode.SKIP_SUPERSEDED || !plan.hasDependencies()) {
+            awaitAll(submitAll(hostManifest, waiting, flavorId, vendorKey, memo), results);
+            return results;
+        }
+        while (!waiting.isEmpty()) {
+            Set<Rule> pending = Collections.newSetFromMap(new IdentityHashMap<Rule, Boolean>());
+            pending.addAll(waiting);
+            List<Rule> ready = new ArrayList<>(waiting.size());
+            List<Rule> blocked = new ArrayList<>(waiting.size());
+            for (Rule rule : waiting) {
+                if (hasPendingPrerequisite(plan, rule, pending)) {
+                    blocked.add(rule);
+                    continue;
+                }
+                Rule failedPrerequisite = findFailedPrerequisite(plan, rule, results);
+                if (failedPrerequisite != null) {
+                    log.debug("Skipping rule {}, prerequisite {} failed", rule.getClass().getName(), failedPrerequisite.getClass().getName());
+                    RuleResult skipped = new RuleResult(rule);
+                    skipped.fault(new RuleSuperseded(failedPrerequisite.getClass().getName()));
+                    results.put(rule, skipped);
+                } else {
+                    ready.add(rule);
+                }
+            }
+            if (ready.isEmpty() && blocked.size() == waiting.size()) {
+                // circular dependencies; evaluate the remaining rules
+                ready = blocked;
+                blocked = Collections.emptyList();
+            }
+            awaitAll(submitAll(hostManifest, ready, flavorId, vendorKey, memo), results);
+            waiting = blocked;
+        }
+        return results;
+    }
+
+    private static boolean hasPendingPrerequisite(RuleExecutionPlan plan, Rule rule, Set<Rule> pending) {
+        for (Rule prerequisite : plan.getPrerequisites(rule)) {
+            if (pending.contains(prerequisite)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Map<Rule, Future<RuleResult>> submitAll(final HostManifest hostManifest, List<Rule> rules, final String flavorId, final String vendorKey, final RuleResultMemo memo) {
+        IdentityHashMap<Rule, Future<RuleResult>> futures = new IdentityHashMap<>();
+        for (final Rule rule : rules) {
+            futures.put(rule, executorService.submit(new Callable<RuleResult>() {
+                @Override
+                public RuleResult call() {
+                    return applyRule(hostManifest, rule, flavorId, vendorKey, memo);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private static void awaitAll(Map<Rule, Future<RuleResult>> futures, Map<Rule, RuleResult> results) {
+        for (Map.Entry<Rule, Future<RuleResult>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while applying rule " + entry.getKey().getClass().getName(), e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("Cannot apply rule " + entry.getKey().getClass().getName(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Evaluate the PcrMatchesConstant rules of the plan in one batch. The
+     * time of the batch is recorded in equal shares for each rule. When only
+     * some rules are selected, the whole batch is evaluated if any of its
+     * rules is selected, and only the selected results are returned.
+     */
+    private Map<Rule, RuleResult> applyPcrConstants(HostManifest hostManifest, RuleExecutionPlan plan, Set<Rule> selected, String flavorId, String vendorKey) {
+        PcrMatchesConstantBatch batch = plan.getPcrConstants();
+        if (batch.isEmpty() || (selected != null && !containsAny(batch, selected))) {
+            return Collections.emptyMap();
+        }
+        long start = System.nanoTime();
+        Map<Rule, RuleResult> results = batch.apply(hostManifest);
+        long nanos = (System.nanoTime() - start) / batch.size();
+        if (selected != null) {
+            results.keySet().retainAll(selected);
+        }
+        for (Map.Entry<Rule, RuleResult> entry : results.entrySet()) {
+            costModel.record(entry.getKey().getClass(), nanos);
+            listener.ruleApplied(entry.getKey(), vendorKey, flavorId, nanos, entry.getValue().getFaults().size());
+        }
+        return results;
+    }
+
+    private static boolean containsAny(PcrMatchesConstantBatch batch, Set<Rule> rules) {
+        for (Rule rule : rules) {
+            if (batch.contains(rule)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private RuleResult applyRule(HostManifest hostManifest, Rule rule, String flavorId, String vendorKey, RuleResultMemo memo) {
+        boolean memoizable = memo != null && RuleResultMemo.isMemoizable(rule);
+        if (memoizable) {
+            RuleResult memoized = memo.get(rule);
+            if (memoized != null) {
+                log.debug("Reusing result of rule {}", rule.getClass().getName());
+                return memoized;
+            }
+        }
+        log.debug("Applying rule {}", rule.getClass().getName());
+        long start = System.nanoTime();
+        RuleResult result = rule.apply(hostManifest);
+        long nanos = System.nanoTime() - start;
+        costModel.record(rule.getClass(), nanos);
+        listener.ruleApplied(rule, vendorKey, flavorId, nanos, result.getFaults().size());
+        if (memoizable) {
+            memo.put(result);
+        }
+        return result;
+    }
+
+    private static List<RuleResult> inReportOrder(RuleExecutionPlan plan, Map<Rule, RuleResult> results) {
+        ArrayList<RuleResult> list = new ArrayList<>(plan.size());
+        for (Rule rule : plan.getReportOrder()) {
+            list.add(results.get(rule));
         }
         return list;
     }
+
+    /**
+     * @return the first prerequisite of the rule that was evaluated and is
+     * not trusted, or null
+     */
+    private static Rule findFailedPrerequisite(RuleExecutionPlan plan, Rule rule, Map<Rule, RuleResult> results) {
+        for (Rule prerequisite : plan.getPrerequisites(rule)) {
+            RuleResult result = results.get(prerequisite);
+            if (result != null && !result.isTrusted()) {
+                return prerequisite;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if every marker of the rule is already untrusted, so its
+     * result cannot change the outcome of any marker
+     */
+    private static boolean isDecided(Rule rule, Set<String> untrustedMarkers) {
+        String[] markers = rule.getMarkers();
+        if (markers == null || markers.length == 0 || untrustedMarkers.isEmpty()) {
+            return false;
+        }
+        for (String marker : markers) {
+            if (!untrustedMarkers.contains(marker)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
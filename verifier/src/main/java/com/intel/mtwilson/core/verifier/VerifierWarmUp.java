@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.PcrEventLogFactory;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.utils.MeasurementUtils;
+import com.intel.mtwilson.core.verifier.crypto.CryptoProvider;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogMissing;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrManifestMissing;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrValueMismatch;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEquals;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstant;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Primes the paths whose first use in a JVM makes the first verification
+ * slow: the JAXB context of the measurement XML parser, Jackson type
+ * resolution of the polymorphic Rule and Fault classes, and the JCA
+ * providers of the digests and signatures the rules use. Only classes and
+ * JVM wide caches are primed; no state of a verifier is changed.
+ * <p>
+ * The warm-up runs once per JVM. Later calls return the duration of the
+ * first one, waiting for it if it is still running. A step that fails is
+ * logged and skipped, since the verification itself would report the
+ * problem.
+ */
+public final class VerifierWarmUp {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(VerifierWarmUp.class);
+
+    private static final String MEASUREMENT_XML = "<?xml version='1.0'?>"
+            + "<Measurement xmlns='lib:wml:measurements:1.0' Label='warm-up' Uuid='00000000-0000-0000-0000-000000000000' DigestAlg='SHA384'>"
+            + "<File Path='/warm-up'>38b060a751ac96384cd9327eb1b1e36a21fdb71114be07434c0cc7bf63f6e1da274edebfe76f65fbd51ad2f14898b95b</File>"
+            + "<CumulativeHash>38b060a751ac96384cd9327eb1b1e36a21fdb71114be07434c0cc7bf63f6e1da274edebfe76f65fbd51ad2f14898b95b</CumulativeHash>"
+            + "</Measurement>";
+    private static final String ZERO_SHA256 = "0000000000000000000000000000000000000000000000000000000000000000";
+
+    private static FutureTask<Long> task;
+
+    private VerifierWarmUp() {
+    }
+
+    /**
+     * Warm up on the calling thread, unless the warm-up already ran or is
+     * running.
+     *
+     * @return duration of the warm-up in nanoseconds
+     */
+    public static long run() {
+        FutureTask<Long> current;
+        boolean created;
+        synchronized (VerifierWarmUp.class) {
+            created = task == null;
+            if (created) {
+                task = newTask();
+            }
+            current = task;
+        }
+        if (created) {
+            current.run();
+        }
+        try {
+            return current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (ExecutionException e) {
+            log.warn("Verifier warm-up failed", e.getCause());
+            return 0;
+        }
+    }
+
+    /**
+     * Warm up on a daemon thread, unless the warm-up already ran or is
+     * running.
+     *
+     * @return the warm-up, completing with its duration in nanoseconds
+     */
+    public static Future<Long> start() {
+        synchronized (VerifierWarmUp.class) {
+            if (task == null) {
+                task = newTask();
+                Thread thread = new Thread(task, "verifier-warm-up");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            return task;
+        }
+    }
+
+    private static FutureTask<Long> newTask() {
+        return new FutureTask<>(new Callable<Long>() {
+            @Override
+            public Long call() {
+                long start = System.nanoTime();
+                warmUpMeasurementXml();
+                warmUpJackson();
+                warmUpCrypto();
+                long nanos = System.nanoTime() - start;
+                log.debug("Verifier warm-up took {} ms", nanos / 1000000);
+                return nanos;
+            }
+        });
+    }
+
+    private static void warmUpMeasurementXml() {
+        try {
+            MeasurementUtils.parseMeasurementXML(MEASUREMENT_XML);
+        } catch (Exception e) {
+            log.warn("Cannot warm up the measurement XML parser", e);
+        }
+    }
+
+    /**
+     * Round trip a trust report with results of several rule and fault
+     * types, so the type ids of the report classes are resolved.
+     */
+    private static void warmUpJackson() {
+        try {
+            ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+            TrustReport report = new TrustReport(new HostManifest(), "warm-up");
+            RuleResult constant = new RuleResult(new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR0, ZERO_SHA256)));
+            constant.fault(PcrValueMismatch.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR0, new Sha256Digest(new byte[32]), Sha256Digest.digestOf(new byte[32])));
+            report.addResult(constant);
+            RuleResult equals = new RuleResult(new PcrEventLogEquals(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, Collections.<Measurement>emptyList())));
+            equals.fault(new PcrEventLogMissing(PcrIndex.PCR17));
+            report.addResult(equals);
+            RuleResult integrity = new RuleResult(new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, ZERO_SHA256)));
+            integrity.fault(new PcrManifestMissing());
+            report.addResult(integrity);
+            mapper.readValue(mapper.writeValueAsString(report), TrustReport.class);
+        } catch (Exception e) {
+            log.warn("Cannot warm up trust report serialization", e);
+        }
+    }
+
+    private static void warmUpCrypto() {
+        CryptoProvider crypto = CryptoProvider.getDefault();
+        byte[] data = "warm-up".getBytes(StandardCharsets.UTF_8);
+        try {
+            for (String algorithm : new String[] { "SHA-1", "SHA-256", "SHA-384" }) {
+                MessageDigest digest = crypto.acquireMessageDigest(algorithm);
+                try {
+                    digest.digest(data);
+                } finally {
+                    crypto.release(digest);
+                }
+            }
+            crypto.release(crypto.acquireSignature("SHA384withRSA"));
+            CertificateFactory.getInstance("X.509");
+        } catch (Exception e) {
+            log.warn("Cannot warm up the crypto provider", e);
+        }
+    }
+}
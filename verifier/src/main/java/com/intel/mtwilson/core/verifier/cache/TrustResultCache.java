@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.cache;
+
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.verifier.policy.BaseRule;
+import com.intel.mtwilson.core.verifier.policy.Fault;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trust reports of recent verifications, returned again without evaluating
+ * any rule while the host presents the same content in every manifest section
+ * the rules of the policy read. An entry is keyed by host id, the digests of
+ * the flavors, a snapshot of the trust anchors and the verifier settings that
+ * change the report, and holds the fingerprints of the sections it was
+ * computed from.
+ * <p>
+ * An entry lives for at most the configured time to live, and never past the
+ * earliest time at which the result of one of its rules can change, such as
+ * the end of the validity period of the AIK certificate, the tag certificate
+ * or a trusted authority certificate. Time based faults like
+ * AikCertificateExpired therefore appear as soon as they would without the
+ * cache. A policy with a rule that does not declare its manifest sections is
+ * not cached.
+ * <p>
+ * The cache keeps its own copy of each report and returns a new copy on
+ * every hit, so callers may change the reports they put and get. The least
+ * recently used entry is dropped when the cache is full. The cache is safe
+ * for use by concurrent verifications.
+ *
+ * @see com.intel.mtwilson.core.verifier.Verifier#setTrustResultCache(TrustResultCache)
+ */
+public class TrustResultCache {
+    private final long timeToLiveMillis;
+    private final Map<Key, CachedReport> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * @param timeToLive  longest time a report is returned again
+     * @param unit  unit of timeToLive
+     * @param maxEntries  number of reports kept
+     */
+    public TrustResultCache(long timeToLive, TimeUnit unit, final int maxEntries) {
+        if (timeToLive <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("Time to live and number of entries must be positive");
+        }
+        this.timeToLiveMillis = unit.toMillis(timeToLive);
+        this.entries = new LinkedHashMap<Key, CachedReport>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedReport> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the cached report for the key, for the given host
+     * manifest, if it has not expired and the manifest sections it was
+     * computed from are unchanged, or null
+     */
+    public TrustReport get(Key key, HostManifest hostManifest) {
+        long now = currentTimeMillis();
+        CachedReport entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && now >= entry.expiresAt) {
+                entries.remove(key);
+                expired.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null || !entry.matches(new ManifestFingerprint(hostManifest))) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copyOf(entry.report, hostManifest);
+    }
+
+    /**
+     * Record the report of a verification. The report is not cached if a
+     * rule of the policy does not declare the manifest sections it reads or
+     * is not a BaseRule, or if a result can already have changed.
+     *
+     * @return true if the report was cached
+     */
+    public boolean put(Key key, HostManifest hostManifest, Policy policy, TrustReport report) {
+        long now = currentTimeMillis();
+        long expiresAt = now + timeToLiveMillis;
+        TreeSet<String> sections = new TreeSet<>();
+        for (Rule rule : policy.getRules()) {
+            String[] ruleSections = ManifestFingerprint.sectionsOf(rule);
+            if (ruleSections == null) {
+                return false;
+            }
+            sections.addAll(Arrays.asList(ruleSections));
+            if (!(rule instanceof BaseRule)) {
+                // the result expiry is unknown
+                return false;
+            }
+            Date resultExpiry = ((BaseRule) rule).getResultExpiry(hostManifest, new Date(now));
+            if (resultExpiry != null) {
+                expiresAt = Math.min(expiresAt, resultExpiry.getTime());
+            }
+        }
+        if (expiresAt <= now) {
+            return false;
+        }
+        ManifestFingerprint fingerprint = new ManifestFingerprint(hostManifest);
+        String[] keys = sections.toArray(new String[sections.size()]);
+        DigestKey[] fingerprints = new DigestKey[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            fingerprints[i] = fingerprint.get(keys[i]);
+            if (fingerprints[i] == null) {
+                return false;
+            }
+        }
+        synchronized (entries) {
+            entries.put(key, new CachedReport(keys, fingerprints, copyOf(report, null), expiresAt));
+        }
+        return true;
+    }
+
+    /**
+     * @return a report with the same policy name and new results with the same
+     * rules, faults and flavor ids
+     */
+    private static TrustReport copyOf(TrustReport report, HostManifest hostManifest) {
+        TrustReport copy = new TrustReport(hostManifest, report.getPolicyName());
+        for (RuleResult result : report.getResults()) {
+            RuleResult resultCopy = new RuleResult(result.getRule());
+            for (Fault fault : result.getFaults()) {
+                resultCopy.fault(fault);
+            }
+            resultCopy.setFlavorId(result.getFlavorId());
+            // the results of the report are already distinct
+            copy.getResults().add(resultCopy);
+        }
+        return copy;
+    }
+
+    /**
+     * Drop the reports of a host, for example after its flavors changed.
+     */
+    public void invalidate(String hostId) {
+        synchronized (entries) {
+            Iterator<Key> it = entries.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().hostId.equals(hostId)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of entries dropped because they expired
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @return the current time in milliseconds; overridden by tests
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("trust result cache with %d entries, %d hits, %d misses, %d expired", size(), hits.get(), misses.get(), expired.get());
+    }
+
+    /**
+     * Identifies the verification of one host against a set of flavors with
+     * one set of trust anchors and verifier settings.
+     */
+    public static final class Key {
+        private final String hostId;
+        private final Set<DigestKey> flavors;
+        private final DigestKey trustAnchors;
+        private final String settings;
+        private final int hashCode;
+
+        /**
+         * @param hostId  id of the host, such as its hardware UUID
+         * @param flavors  digests of the flavors, in any order
+         * @param trustAnchors  digest of the trust anchor certificates
+         */
+        public Key(String hostId, Collection<DigestKey> flavors, DigestKey trustAnchors) {
+            this(hostId, flavors, trustAnchors, "");
+        }
+
+        /**
+         * @param hostId  id of the host, such as its hardware UUID
+         * @param flavors  digests of the flavors, in any order
+         * @param trustAnchors  digest of the trust anchor certificates
+         * @param settings  description of the settings the report depends on,
+         * such as the evaluation mode
+         */
+        public Key(String hostId, Collection<DigestKey> flavors, DigestKey trustAnchors, String settings) {
+            if (hostId == null || flavors == null || trustAnchors == null || settings == null) {
+                throw new IllegalArgumentException("Host id, flavors, trust anchors and settings are required");
+            }
+            this.hostId = hostId;
+            this.flavors = Collections.unmodifiableSet(new HashSet<>(flavors));
+            this.trustAnchors = trustAnchors;
+            this.settings = settings;
+            this.hashCode = 31 * (31 * (31 * hostId.hashCode() + this.flavors.hashCode()) + trustAnchors.hashCode()) + settings.hashCode();
+        }
+
+        public String getHostId() {
+            return hostId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hashCode == key.hashCode && hostId.equals(key.hostId) && flavors.equals(key.flavors) && trustAnchors.equals(key.trustAnchors) && settings.equals(key.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class CachedReport {
+        private final String[] sections;
+        private final DigestKey[] fingerprints;
+        private final TrustReport report;
+        private final long expiresAt;
+
+        CachedReport(String[] sections, DigestKey[] fingerprints, TrustReport report, long expiresAt) {
+            this.sections = sections;
+            this.fingerprints = fingerprints;
+            this.report = report;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean matches(ManifestFingerprint fingerprint) {
+            for (int i = 0; i < sections.length; i++) {
+                if (!fingerprints[i].equals(fingerprint.get(sections[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates the MessageDigest and Signature instances the verifier uses to
+ * replay event logs, fingerprint manifests and verify flavor signatures, and
+ * keeps released instances for reuse. Looking up an algorithm in the JCA
+ * provider list and creating its instance costs more than hashing a short
+ * event log, so each thread keeps a few instances per algorithm. Instances
+ * never move between threads.
+ * <p>
+ * Acquire an instance, use it on the same thread and release it in a
+ * finally block:
+ * <pre>
+ * MessageDigest digest = CryptoProvider.getDefault().acquireMessageDigest("SHA-256");
+ * try {
+ *     ...
+ * } finally {
+ *     CryptoProvider.getDefault().release(digest);
+ * }
+ * </pre>
+ * Deployments select a JCA provider, for example one backed by native code,
+ * with {@link #setDefault(CryptoProvider)} before verifying hosts.
+ */
+public class CryptoProvider {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CryptoProvider.class);
+
+    /**
+     * Released instances kept per thread and algorithm.
+     */
+    private static final int POOL_SIZE = 4;
+
+    private static volatile CryptoProvider defaultProvider = new CryptoProvider();
+
+    private final Provider provider;
+    private final ThreadLocal<Map<String, ArrayDeque<MessageDigest>>> digests = new ThreadLocal<Map<String, ArrayDeque<MessageDigest>>>() {
+        @Override
+        protected Map<String, ArrayDeque<MessageDigest>> initialValue() {
+            return new HashMap<>();
+        }
+    };
+    private final ThreadLocal<Map<String, ArrayDeque<Signature>>> signatures = new ThreadLocal<Map<String, ArrayDeque<Signature>>>() {
+        @Override
+        protected Map<String, ArrayDeque<Signature>> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    /**
+     * Use the most preferred JCA provider of each algorithm.
+     */
+    public CryptoProvider() {
+        this(null);
+    }
+
+    /**
+     * @param provider  provider of every algorithm, or null for the most
+     * preferred JCA provider of each algorithm
+     */
+    public CryptoProvider(Provider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * @param name  name of a registered JCA provider, such as "SUN"
+     * @return crypto provider using only the named provider
+     * @throws IllegalArgumentException if no provider of that name is
+     * registered
+     */
+    public static CryptoProvider forName(String name) {
+        Provider provider = Security.getProvider(name);
+        if (provider == null) {
+            throw new IllegalArgumentException("No security provider named " + name);
+        }
+        return new CryptoProvider(provider);
+    }
+
+    public static CryptoProvider getDefault() {
+        return defaultProvider;
+    }
+
+    /**
+     * Select the crypto provider of all verifiers in the JVM. Instances
+     * acquired from the previous provider may still be released to it.
+     *
+     * @param cryptoProvider  provider, or null for the most preferred JCA
+     * provider of each algorithm
+     */
+    public static void setDefault(CryptoProvider cryptoProvider) {
+        defaultProvider = cryptoProvider == null ? new CryptoProvider() : cryptoProvider;
+        log.debug("Selected crypto provider {}", defaultProvider);
+    }
+
+    /**
+     * @return the JCA provider, or null if the most preferred provider of each
+     * algorithm is used
+     */
+    public Provider getProvider() {
+        return provider;
+    }
+
+    /**
+     * @param algorithm  JCA digest name, such as "SHA-256"
+     * @return a digest in its initial state, used only by the calling thread
+     * until it is released
+     */
+    public MessageDigest acquireMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        ArrayDeque<MessageDigest> pool = digests.get().get(algorithm);
+        MessageDigest digest = pool == null ? null : pool.pollFirst();
+        if (digest != null) {
+            return digest;
+        }
+        return provider == null ? MessageDigest.getInstance(algorithm) : MessageDigest.getInstance(algorithm, provider);
+    }
+
+    /**
+     * Reset the digest and keep it for the next acquire on this thread.
+     *
+     * @param digest  digest acquired on this thread, or null
+     */
+    public void release(MessageDigest digest) {
+        if (digest == null) {
+            return;
+        }
+        digest.reset();
+        Map<String, ArrayDeque<MessageDigest>> pools = digests.get();
+        ArrayDeque<MessageDigest> pool = pools.get(digest.getAlgorithm());
+        if (pool == null) {
+            pool = new ArrayDeque<>(POOL_SIZE);
+            pools.put(digest.getAlgorithm(), pool);
+        }
+        if (pool.size() < POOL_SIZE) {
+            pool.addFirst(digest);
+        }
+    }
+
+    /**
+     * @param algorithm  JCA signature name, such as "SHA384withRSA"
+     * @return a signature, used only by the calling thread until it is
+     * released; initialize it with initVerify or initSign before each use
+     */
+    public Signature acquireSignature(String algorithm) throws NoSuchAlgorithmException {
+        ArrayDeque<Signature> pool = signatures.get().get(algorithm);
+        Signature signature = pool == null ? null : pool.pollFirst();
+        if (signature != null) {
+            return signature;
+        }
+        return provider == null ? Signature.getInstance(algorithm) : Signature.getInstance(algorithm, provider);
+    }
+
+    /**
+     * Keep the signature for the next acquire on this thread. The key it was
+     * initialized with is replaced by the next initVerify or initSign.
+     *
+     * @param signature  signature acquired on this thread, or null
+     */
+    public void release(Signature signature) {
+        if (signature == null) {
+            return;
+        }
+        Map<String, ArrayDeque<Signature>> pools = signatures.get();
+        ArrayDeque<Signature> pool = pools.get(signature.getAlgorithm());
+        if (pool == null) {
+            pool = new ArrayDeque<>(POOL_SIZE);
+            pools.put(signature.getAlgorithm(), pool);
+        }
+        if (pool.size() < POOL_SIZE) {
+            pool.addFirst(signature);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return provider == null ? "default JCA providers" : provider.getName();
+    }
+}
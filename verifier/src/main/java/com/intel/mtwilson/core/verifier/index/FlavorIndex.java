@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.index;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Pcr;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.policy.HostTrustPolicyManager;
+import com.intel.mtwilson.core.verifier.policy.PcrBankSelection;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstant;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestInterner;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Finds the flavors that can apply to a host without verifying the host
+ * against every flavor.
+ * <p>
+ * Flavors are grouped by vendor key, TPM version and flavor part. Within a
+ * group, a flavor is indexed by the values of the PcrMatchesConstant rules of
+ * its compiled policy, for example PCR 0 and 17 of an Intel PLATFORM flavor.
+ * The flavors of a group that check the same PCRs share one hash table keyed
+ * by those values, so a lookup reads each such set of PCRs from the host
+ * manifest once and costs one hash lookup per set, however many flavors the
+ * index holds. A flavor whose constant PCRs differ from the host cannot be
+ * trusted and is not returned.
+ * <p>
+ * Flavors without PcrMatchesConstant rules, such as HOST_UNIQUE, ASSET_TAG
+ * and SOFTWARE flavors, are returned for every host of their group. The
+ * candidates still need a full verification.
+ * <p>
+ * The index applies the PCR bank selection of the verifier, so a flavor that
+ * defines a PCR in several banks is indexed only by the values of the banks
+ * the selection keeps for a host. With {@link PcrBankSelection#STRONGEST} the
+ * kept bank depends on the banks the host reports, and the flavor is indexed
+ * once for each combination of banks its PCRs can be selected in; a lookup
+ * uses the one combination the selection makes for the host.
+ * <p>
+ * Lookups can run concurrently with each other and with add and remove.
+ */
+public class FlavorIndex {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Group> groups = new HashMap<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final PcrBankSelection pcrBankSelection;
+    private volatile DigestInterner interner;
+
+    /**
+     * An index for verifiers that verify every PCR bank.
+     */
+    public FlavorIndex() {
+        this(PcrBankSelection.ALL);
+    }
+
+    /**
+     * @param pcrBankSelection  PCR bank selection of the verifier the
+     * candidates are verified with, or null for {@link PcrBankSelection#ALL}
+     */
+    public FlavorIndex(PcrBankSelection pcrBankSelection) {
+        this.pcrBankSelection = pcrBankSelection == null ? PcrBankSelection.ALL : pcrBankSelection;
+    }
+
+    public PcrBankSelection getPcrBankSelection() {
+        return pcrBankSelection;
+    }
+
+    public DigestInterner getDigestInterner() {
+        return interner;
+    }
+
+    /**
+     * @param interner  pool the measurements of flavors and the PCR values
+     * they are indexed by are shared through when they are added, or null to
+     * keep them as given
+     */
+    public void setDigestInterner(DigestInterner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * Index a flavor by the policy its vendor policy reader compiled. A flavor
+     * with the id of an indexed flavor replaces it.
+     *
+     * @param vendorKey  vendor key of the policy reader, see
+     * HostTrustPolicyManager.getVendorKey
+     * @param signedFlavor  Flavor With Signature
+     * @param policy  policy compiled from the flavor
+     */
+    public void add(String vendorKey, SignedFlavor signedFlavor, Policy policy) {
+        Flavor flavor = signedFlavor.getFlavor();
+        DigestInterner interner = this.interner;
+        if (interner != null) {
+            interner.intern(flavor);
+        }
+        String flavorId = flavor.getMeta().getId();
+        String groupKey = groupKey(vendorKey, flavor.getMeta().getDescription().getTpmVersion(), flavor.getMeta().getDescription().getFlavorPart());
+        List<Pcr> constants = new ArrayList<>();
+        for (Rule rule : policy.getRules()) {
+            if (rule instanceof PcrMatchesConstant) {
+                constants.add(((PcrMatchesConstant) rule).getExpectedPcr());
+            }
+        }
+        Collections.sort(constants, PCR_ORDER);
+        List<Shape> shapes = new ArrayList<>();
+        List<List<DigestKey>> values = new ArrayList<>();
+        Map<PcrIndex, Set<DigestAlgorithm>> policyBanks = PcrBankSelection.getPcrBanks(policy);
+        project(constants, policyBanks, selectableBanks(constants, policyBanks), 0, new HashMap<PcrIndex, DigestAlgorithm>(), shapes, values, interner);
+        lock.writeLock().lock();
+        try {
+            removeEntry(flavorId);
+            Group group = groups.get(groupKey);
+            if (group == null) {
+                group = new Group();
+                groups.put(groupKey, group);
+            }
+            Entry entry = new Entry(signedFlavor, groupKey, shapes, values);
+            group.add(entry);
+            entries.put(flavorId, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if a flavor with the id was indexed
+     */
+    public boolean remove(String flavorId) {
+        lock.writeLock().lock();
+        try {
+            return removeEntry(flavorId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean removeEntry(String flavorId) {
+        Entry entry = entries.remove(flavorId);
+        if (entry == null) {
+            return false;
+        }
+        Group group = groups.get(entry.groupKey);
+        if (group.remove(entry)) {
+            groups.remove(entry.groupKey);
+        }
+        return true;
+    }
+
+    /**
+     * @return number of indexed flavors
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param hostManifest  Host Manifest
+     * @return flavors of all flavor parts that can apply to the host
+     */
+    public List<SignedFlavor> getCandidates(HostManifest hostManifest) {
+        String prefix = groupKey(HostTrustPolicyManager.getVendorKey(hostManifest), hostManifest.getHostInfo().getTpmVersion(), "");
+        List<SignedFlavor> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, Group> group : groups.entrySet()) {
+                if (group.getKey().startsWith(prefix)) {
+                    group.getValue().collect(hostManifest, pcrBankSelection, candidates);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return candidates;
+    }
+
+    /**
+     * @param hostManifest  Host Manifest
+     * @param flavorPart  Type of Flavor(PLATFORM, OS, HOST_UNIQUE etc.)
+     * @return flavors of the flavor part that can apply to the host
+     */
+    public List<SignedFlavor> getCandidates(HostManifest hostManifest, String flavorPart) {
+        String groupKey = groupKey(HostTrustPolicyManager.getVendorKey(hostManifest), hostManifest.getHostInfo().getTpmVersion(), flavorPart);
+        List<SignedFlavor> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Group group = groups.get(groupKey);
+            if (group != null) {
+                group.collect(hostManifest, pcrBankSelection, candidates);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the banks the selection can keep for each PCR of the constants
+     * that the policy checks in more than one bank, in PCR order; empty
+     * unless the kept banks depend on the host
+     */
+    private List<Map.Entry<PcrIndex, Set<DigestAlgorithm>>> selectableBanks(List<Pcr> constants, Map<PcrIndex, Set<DigestAlgorithm>> policyBanks) {
+        List<Map.Entry<PcrIndex, Set<DigestAlgorithm>>> selectable = new ArrayList<>();
+        if (pcrBankSelection.getMode() != PcrBankSelection.Mode.STRONGEST) {
+            return selectable;
+        }
+        TreeMap<PcrIndex, Set<DigestAlgorithm>> byIndex = new TreeMap<>();
+        for (Pcr pcr : constants) {
+            Set<DigestAlgorithm> banks = policyBanks.get(pcr.getIndex());
+            if (banks != null && banks.size() > 1) {
+                byIndex.put(pcr.getIndex(), banks);
+            }
+        }
+        selectable.addAll(byIndex.entrySet());
+        return selectable;
+    }
+
+    /**
+     * Add the shape and values of the constants the selection keeps for every
+     * combination of the selectable banks, starting with the PCR at the given
+     * position of selectable.
+     */
+    private void project(List<Pcr> constants, Map<PcrIndex, Set<DigestAlgorithm>> policyBanks, List<Map.Entry<PcrIndex, Set<DigestAlgorithm>>> selectable, int position, Map<PcrIndex, DigestAlgorithm> selected, List<Shape> shapes, List<List<DigestKey>> values, DigestInterner interner) {
+        if (position < selectable.size()) {
+            Map.Entry<PcrIndex, Set<DigestAlgorithm>> pcr = selectable.get(position);
+            for (DigestAlgorithm bank : pcr.getValue()) {
+                selected.put(pcr.getKey(), bank);
+                project(constants, policyBanks, selectable, position + 1, selected, shapes, values, interner);
+            }
+            selected.remove(pcr.getKey());
+            return;
+        }
+        List<Pcr> kept = new ArrayList<>(constants.size());
+        List<DigestKey> keptValues = new ArrayList<>(constants.size());
+        for (Pcr pcr : constants) {
+            DigestAlgorithm bank = selected.get(pcr.getIndex());
+            boolean keep = bank != null ? bank == pcr.getPcrBank() : pcrBankSelection.select(pcr.getIndex(), policyBanks.get(pcr.getIndex()), null).contains(pcr.getPcrBank());
+            if (keep) {
+                kept.add(pcr);
+                DigestKey value = DigestKey.valueOf(pcr.getValue());
+                keptValues.add(interner == null ? value : interner.intern(value));
+            }
+        }
+        Map<PcrIndex, Set<DigestAlgorithm>> choices = new HashMap<>();
+        for (Map.Entry<PcrIndex, Set<DigestAlgorithm>> pcr : selectable) {
+            choices.put(pcr.getKey(), pcr.getValue());
+        }
+        shapes.add(new Shape(kept, new HashMap<>(selected), choices));
+        values.add(keptValues);
+    }
+
+    private static String groupKey(String vendorKey, String tpmVersion, String flavorPart) {
+        return vendorKey + "|" + tpmVersion + "|" + (flavorPart == null ? "" : flavorPart.toUpperCase());
+    }
+
+    private static final Comparator<Pcr> PCR_ORDER = new Comparator<Pcr>() {
+        @Override
+        public int compare(Pcr first, Pcr second) {
+            int result = first.getPcrBank().name().compareTo(second.getPcrBank().name());
+            return result != 0 ? result : Integer.compare(first.getIndex().toInteger(), second.getIndex().toInteger());
+        }
+    };
+
+    /**
+     * The PCRs, in bank and index order, that the PcrMatchesConstant rules of
+     * a flavor check once the PCR bank selection is applied, and the bank
+     * selected for each PCR whose bank depends on the host.
+     */
+    private static class Shape {
+        private final DigestAlgorithm[] banks;
+        private final PcrIndex[] indexes;
+        private final Map<PcrIndex, DigestAlgorithm> selected;
+        private final Map<PcrIndex, Set<DigestAlgorithm>> choices;
+
+        /**
+         * @param constants  the PCRs that are checked
+         * @param selected  the bank selected for each PCR in choices
+         * @param choices  the banks each PCR whose bank depends on the host
+         * can be selected in
+         */
+        Shape(List<Pcr> constants, Map<PcrIndex, DigestAlgorithm> selected, Map<PcrIndex, Set<DigestAlgorithm>> choices) {
+            banks = new DigestAlgorithm[constants.size()];
+            indexes = new PcrIndex[constants.size()];
+            for (int i = 0; i < banks.length; i++) {
+                banks[i] = constants.get(i).getPcrBank();
+                indexes[i] = constants.get(i).getIndex();
+            }
+            this.selected = selected;
+            this.choices = choices;
+        }
+
+        boolean isEmpty() {
+            return banks.length == 0;
+        }
+
+        /**
+         * @return true if the selection keeps the banks of this shape for the
+         * host
+         */
+        boolean isSelected(HostManifest hostManifest, PcrBankSelection pcrBankSelection) {
+            for (Map.Entry<PcrIndex, DigestAlgorithm> pcr : selected.entrySet()) {
+                if (!pcrBankSelection.select(pcr.getKey(), choices.get(pcr.getKey()), hostManifest).contains(pcr.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the host values of the PCRs, or null if the host did not
+         * report one of them
+         */
+        List<DigestKey> read(HostManifest hostManifest) {
+            if (hostManifest.getPcrManifest() == null) {
+                return null;
+            }
+            List<DigestKey> values = new ArrayList<>(banks.length);
+            for (int i = 0; i < banks.length; i++) {
+                Pcr actual = hostManifest.getPcrManifest().getPcr(banks[i], indexes[i].toInteger());
+                if (actual == null || actual.getValue() == null) {
+                    return null;
+                }
+                values.add(DigestKey.valueOf(actual.getValue()));
+            }
+            return values;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Shape)) {
+                return false;
+            }
+            Shape shape = (Shape) other;
+            return Arrays.equals(banks, shape.banks) && Arrays.equals(indexes, shape.indexes) && selected.equals(shape.selected) && choices.equals(shape.choices);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Arrays.hashCode(banks) + Arrays.hashCode(indexes)) + selected.hashCode();
+        }
+    }
+
+    /**
+     * A flavor, with the values of each shape it is indexed by.
+     */
+    private static class Entry {
+        private final SignedFlavor signedFlavor;
+        private final String groupKey;
+        private final List<Shape> shapes;
+        private final List<List<DigestKey>> values;
+
+        Entry(SignedFlavor signedFlavor, String groupKey, List<Shape> shapes, List<List<DigestKey>> values) {
+            this.signedFlavor = signedFlavor;
+            this.groupKey = groupKey;
+            this.shapes = shapes;
+            this.values = values;
+        }
+    }
+
+    /**
+     * The flavors of one vendor key, TPM version and flavor part, by the PCRs
+     * they check and then by the values of those PCRs.
+     */
+    private static class Group {
+        private final Map<Shape, Map<List<DigestKey>, List<Entry>>> shapes = new LinkedHashMap<>();
+
+        void add(Entry entry) {
+            for (int i = 0; i < entry.shapes.size(); i++) {
+                Map<List<DigestKey>, List<Entry>> byValues = shapes.get(entry.shapes.get(i));
+                if (byValues == null) {
+                    byValues = new HashMap<>();
+                    shapes.put(entry.shapes.get(i), byValues);
+                }
+                List<Entry> matching = byValues.get(entry.values.get(i));
+                if (matching == null) {
+                    matching = new ArrayList<>(1);
+                    byValues.put(entry.values.get(i), matching);
+                }
+                matching.add(entry);
+            }
+        }
+
+        /**
+         * @return true if the group is empty after removing the entry
+         */
+        boolean remove(Entry entry) {
+            for (int i = 0; i < entry.shapes.size(); i++) {
+                Map<List<DigestKey>, List<Entry>> byValues = shapes.get(entry.shapes.get(i));
+                List<Entry> matching = byValues.get(entry.values.get(i));
+                matching.remove(entry);
+                if (matching.isEmpty()) {
+                    byValues.remove(entry.values.get(i));
+                    if (byValues.isEmpty()) {
+                        shapes.remove(entry.shapes.get(i));
+                    }
+                }
+            }
+            return shapes.isEmpty();
+        }
+
+        void collect(HostManifest hostManifest, PcrBankSelection pcrBankSelection, List<SignedFlavor> candidates) {
+            for (Map.Entry<Shape, Map<List<DigestKey>, List<Entry>>> shape : shapes.entrySet()) {
+                if (!shape.getKey().isSelected(hostManifest, pcrBankSelection)) {
+                    continue;
+                }
+                List<Entry> matching;
+                if (shape.getKey().isEmpty()) {
+                    matching = shape.getValue().get(Collections.<DigestKey>emptyList());
+                } else {
+                    List<DigestKey> values = shape.getKey().read(hostManifest);
+                    matching = values == null ? null : shape.getValue().get(values);
+                }
+                if (matching != null) {
+                    for (Entry entry : matching) {
+                        candidates.add(entry.signedFlavor);
+                    }
+                }
+            }
+        }
+    }
+}
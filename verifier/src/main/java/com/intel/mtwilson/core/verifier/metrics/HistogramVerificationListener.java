@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.metrics;
+
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a LatencyHistogram per rule type, and per vendor key for policy
+ * loading and report assembly, so they can be exported to a metrics system.
+ *
+ * Rule histograms are keyed by the fully qualified rule class name, which is
+ * also the rule name in the trust report.
+ */
+public class HistogramVerificationListener implements VerificationListener {
+    private final ConcurrentMap<String, LatencyHistogram> ruleLatency = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> ruleFaults = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> policyLoadLatency = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> reportLatency = new ConcurrentHashMap<>();
+
+    @Override
+    public void policyLoaded(String vendorKey, String flavorId, String policyName, int ruleCount, long nanos) {
+        histogram(policyLoadLatency, vendorKey).record(nanos);
+    }
+
+    @Override
+    public void ruleApplied(Rule rule, String vendorKey, String flavorId, long nanos, int faultCount) {
+        String ruleName = rule.getClass().getName();
+        histogram(ruleLatency, ruleName).record(nanos);
+        if (faultCount > 0) {
+            AtomicLong counter = ruleFaults.get(ruleName);
+            if (counter == null) {
+                counter = new AtomicLong();
+                AtomicLong existing = ruleFaults.putIfAbsent(ruleName, counter);
+                if (existing != null) {
+                    counter = existing;
+                }
+            }
+            counter.addAndGet(faultCount);
+        }
+    }
+
+    @Override
+    public void reportAssembled(String vendorKey, String flavorId, int resultCount, boolean trusted, long nanos) {
+        histogram(reportLatency, vendorKey).record(nanos);
+    }
+
+    /**
+     * @return rule apply latency by rule class name
+     */
+    public Map<String, LatencyHistogram> getRuleLatency() {
+        return Collections.unmodifiableMap(ruleLatency);
+    }
+
+    /**
+     * @param ruleName  fully qualified rule class name
+     * @return number of faults reported by rules of this type
+     */
+    public long getFaultCount(String ruleName) {
+        AtomicLong counter = ruleFaults.get(ruleName);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * @return policy loading latency by vendor key
+     */
+    public Map<String, LatencyHistogram> getPolicyLoadLatency() {
+        return Collections.unmodifiableMap(policyLoadLatency);
+    }
+
+    /**
+     * @return report assembly latency by vendor key
+     */
+    public Map<String, LatencyHistogram> getReportLatency() {
+        return Collections.unmodifiableMap(reportLatency);
+    }
+
+    public void reset() {
+        ruleLatency.clear();
+        ruleFaults.clear();
+        policyLoadLatency.clear();
+        reportLatency.clear();
+    }
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> map, String key) {
+        if (key == null) {
+            key = "";
+        }
+        LatencyHistogram histogram = map.get(key);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = map.putIfAbsent(key, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.metrics;
+
+import com.intel.mtwilson.core.verifier.policy.Rule;
+
+/**
+ * Receives timing and outcome events from the Verifier. Implementations are
+ * called on the verifying thread (or on executor threads when rules are
+ * evaluated in parallel) and must be thread safe and fast; they should copy
+ * what they need and return.
+ *
+ * The vendor key is the one selected by HostTrustPolicyManager, for example
+ * "intel-da". Durations are in nanoseconds.
+ *
+ * @see HistogramVerificationListener
+ */
+public interface VerificationListener {
+
+    /**
+     * Listener that ignores every event; it is the Verifier default.
+     */
+    VerificationListener NOOP = new VerificationListener() {
+        @Override
+        public void policyLoaded(String vendorKey, String flavorId, String policyName, int ruleCount, long nanos) {
+        }
+
+        @Override
+        public void ruleApplied(Rule rule, String vendorKey, String flavorId, long nanos, int faultCount) {
+        }
+
+        @Override
+        public void reportAssembled(String vendorKey, String flavorId, int resultCount, boolean trusted, long nanos) {
+        }
+    };
+
+    /**
+     * Called after the vendor policy reader created the rules for a flavor.
+     */
+    void policyLoaded(String vendorKey, String flavorId, String policyName, int ruleCount, long nanos);
+
+    /**
+     * Called after each Rule.apply. Rules skipped by the evaluation mode are
+     * not reported. The rule class and markers are available from the rule.
+     */
+    void ruleApplied(Rule rule, String vendorKey, String flavorId, long nanos, int faultCount);
+
+    /**
+     * Called after the rule results were combined into the trust report.
+     */
+    void reportAssembled(String vendorKey, String flavorId, int resultCount, boolean trusted, long nanos);
+}
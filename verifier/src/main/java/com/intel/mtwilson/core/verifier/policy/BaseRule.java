@@ -4,15 +4,18 @@
  */
 package com.intel.mtwilson.core.verifier.policy;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import com.intel.mtwilson.core.common.model.HostManifest;
+import java.util.Date;
 
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 @JsonIgnoreProperties(ignoreUnknown = true)
 public abstract class BaseRule implements Rule {
 
+    protected static final String[] NO_DEPENDENCIES = new String[0];
     protected String[] markers = null;
 
     @Override
@@ -26,4 +29,102 @@ public abstract class BaseRule implements Rule {
     public void setMarkers(String... markers) {
         this.markers = markers;
     }
+
+    /**
+     * @return the static cost class of this rule, used to order evaluation
+     */
+    @JsonIgnore
+    public RuleCost getCost() {
+        return RuleCost.LINEAR;
+    }
+
+    /**
+     * @return a key that distinguishes this rule from other rules of the same
+     * type and markers, such as the PCR bank and index it checks; it must not
+     * depend on object identity so that execution plans are reproducible
+     */
+    @JsonIgnore
+    public String getRuleKey() {
+        return "";
+    }
+
+    /**
+     * @return a key naming the part of the host manifest whose integrity this
+     * rule verifies, such as the event log of one PCR, or null
+     */
+    @JsonIgnore
+    public String getIntegrityKey() {
+        return null;
+    }
+
+    /**
+     * Rules that compare content, such as event log entries, are only
+     * meaningful if the content passed its integrity check. A rule returns
+     * here the integrity keys it depends on; when a rule with one of these
+     * keys fails, this rule may be skipped as superseded.
+     *
+     * @return integrity keys this rule depends on, never null
+     */
+    @JsonIgnore
+    public String[] getDependencyKeys() {
+        return NO_DEPENDENCIES;
+    }
+
+    /**
+     * Rules that declare the sections of the host manifest they read can be
+     * skipped when the host is verified again and none of those sections
+     * changed; the earlier result is reported instead. A rule whose result
+     * depends on parts of the manifest it does not declare returns null. A
+     * rule whose result also depends on the time, such as a certificate
+     * validity check, returns its sections and reports when its result can
+     * change through getResultExpiry.
+     *
+     * @return keys of the manifest sections this rule reads, see
+     * ManifestFingerprint, or null if the rule must always be evaluated
+     */
+    @JsonIgnore
+    public String[] getManifestSections() {
+        return null;
+    }
+
+    /**
+     * @param hostManifest  the manifest the rule is applied to
+     * @param now  the time the result is computed for
+     * @return the earliest time after now at which the result of this rule
+     * for the manifest can change, such as the end of the validity period of
+     * a certificate it checks, or null if the result does not depend on the
+     * time
+     */
+    @JsonIgnore
+    public Date getResultExpiry(HostManifest hostManifest, Date now) {
+        return null;
+    }
+
+    /**
+     * @return the earliest of the given times that is not before now, or null
+     * if there is none
+     */
+    protected static Date earliestAfter(Date now, Date... times) {
+        Date earliest = null;
+        for (Date time : times) {
+            if (time != null && !time.before(now) && (earliest == null || time.before(earliest))) {
+                earliest = time;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * A rule is flavor independent when its result depends only on the host
+     * manifest and on the state its equals method compares, not on its
+     * markers or on the flavor it was created for. Such a rule is evaluated
+     * once per host manifest when several flavors are verified with one
+     * RuleResultMemo.
+     *
+     * @return true if the result can be shared by equal rules of other flavors
+     */
+    @JsonIgnore
+    public boolean isFlavorIndependent() {
+        return false;
+    }
 }
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy;
+
+/**
+ * Controls how many rules of a policy are evaluated against a host manifest.
+ *
+ * FULL_REPORT evaluates every rule and is the default. FAIL_FAST stops
+ * evaluating the rules of a marker as soon as one of them reports a fault for
+ * that marker; the remaining rules of the marker are still recorded in the
+ * trust report, with a RuleNotEvaluated fault instead of their own results.
+ * This is useful when only the trusted/untrusted status of each marker is
+ * needed and the detailed faults are not.
+ *
+ * SKIP_SUPERSEDED evaluates every rule except content rules whose integrity
+ * prerequisite failed, such as a PcrEventLogEquals rule for a PCR whose event
+ * log failed PcrEventLogIntegrity. Those are recorded with a RuleSuperseded
+ * fault, because their result could not be trusted anyway. FAIL_FAST skips
+ * superseded rules too.
+ */
+public enum EvaluationMode {
+    FULL_REPORT,
+    FAIL_FAST,
+    SKIP_SUPERSEDED
+}
@@ -5,10 +5,14 @@
 package com.intel.mtwilson.core.verifier.policy;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This class strongly resembles an Exception object but it is used differently.
@@ -22,6 +26,11 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
  * interrupt the flow of execution, forcing the user to correct and resubmit
  * one error at a time until the input is completely validated.
  * 
+ * Faults created from a format and arguments keep them as a fault code and
+ * parameters, and format the description only when it is first requested,
+ * for example when the report is serialized. Arguments should be immutable
+ * values such as digests, indexes and counts, since they are formatted later.
+ * 
  * First, 
  * @since 1.1
  * @author jbuhacoff
@@ -30,43 +39,84 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 @JsonIgnoreProperties(ignoreUnknown=true)
 @JsonTypeInfo(use=JsonTypeInfo.Id.CLASS, property="fault_name")
 public class Fault {
-    private final String description;
+    private static final Object[] NO_PARAMETERS = new Object[0];
+    private String description;
+    private final String format;
+    private final Object[] parameters;
     private final Throwable cause;
     
     // for desearializing jackson
     public Fault() {
         this.cause = null;
         this.description = null;
+        this.format = null;
+        this.parameters = NO_PARAMETERS;
     }
     
     @JsonCreator
     public Fault(@JsonProperty("description") String description) {
         this.cause = null;
         this.description = description;
+        this.format = null;
+        this.parameters = NO_PARAMETERS;
     }
     
     public Fault(String format, Object... args) {
         this.cause = null;
-        this.description = String.format(format, args);
+        this.format = format;
+        this.parameters = args == null ? NO_PARAMETERS : args;
     }
     
     public Fault(Throwable e, String description) {
         this.cause = e;
         this.description = description;
+        this.format = null;
+        this.parameters = NO_PARAMETERS;
     }
     
     public Fault(Throwable e, String format, Object... args) {
         this.cause = e;
-        this.description = String.format(format, args);
+        this.format = format;
+        this.parameters = args == null ? NO_PARAMETERS : args;
     }
     
+    /**
+     * The description is formatted from the fault parameters on first use.
+     * 
+     * @return the human readable description of the fault
+     */
     public String getDescription() {
+        if (description == null && format != null) {
+            // concurrent callers may both format it, with the same result
+            description = String.format(format, parameters);
+        }
         return description;
     }
     
+    /**
+     * A short, stable identifier of the kind of fault, which applications can
+     * compare or count without formatting the description. It is not part of
+     * the serialized report; the fault_name property has the full class name.
+     * 
+     * @return the simple class name of the fault
+     */
+    @JsonIgnore
+    public String getCode() {
+        return getClass().getSimpleName();
+    }
+    
+    /**
+     * @return the values that are formatted into the description, in order;
+     * empty if the fault was created with a fixed description
+     */
+    @JsonIgnore
+    public List<Object> getParameters() {
+        return parameters.length == 0 ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(parameters));
+    }
+    
     @Override
     public String toString() {
-        return description;
+        return getDescription();
     }
     
     /**
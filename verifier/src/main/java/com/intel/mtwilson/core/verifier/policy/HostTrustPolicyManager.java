@@ -49,30 +49,8 @@ public class HostTrustPolicyManager {
      */
     public VendorTrustPolicyReader getVendorTrustPolicyReader() {
         try {
-            String vendorKey;
-            String tpmVersion;
-
-            // get vendorKey from flavor metadata, check hostManifest if it is null, or is not valid (negative test cases, like fakeVendorId)
-            if (flavor != null && flavor.getMeta() != null
-                    && flavor.getMeta().getVendor() != null
-                    && vendorFactoryMap.containsKey(flavor.getMeta().getVendor())) {
-                vendorKey = flavor.getMeta().getVendor();
-            } else {
-                vendorKey = getVendorName(hostManifest.getHostInfo());
-            }
-            log.debug("Selected Policy Reader:" + vendorKey);
-            // get tpmVersion from flavor metadata's description, check hostManifest if it is null
-            if (flavor != null && flavor.getMeta() != null && flavor.getMeta().getDescription() != null
-                    && flavor.getMeta().getDescription().getTpmVersion() != null) {
-                tpmVersion = flavor.getMeta().getDescription().getTpmVersion();
-            } else {
-                tpmVersion = hostManifest.getHostInfo().getTpmVersion();
-            }
-            if("2.0".equalsIgnoreCase(tpmVersion)) {
-                vendorKey += "-da";
-            }
-            log.debug("Selected Policy Reader:" + vendorKey);
-            VendorTrustPolicyReader factory = vendorFactoryMap.get(vendorKey.toLowerCase());
+            String vendorKey = getVendorKey();
+            VendorTrustPolicyReader factory = vendorFactoryMap.get(vendorKey);
             if (factory != null) {
                 return factory;
             }
@@ -82,6 +60,84 @@ public class HostTrustPolicyManager {
         throw new UnsupportedOperationException("No policy reader registered for this flavor");
     }
 
+    /**
+     * @param vendorKey  vendor key, for example from getVendorKey(Flavor)
+     * @return the policy reader registered for the vendor key
+     */
+    public VendorTrustPolicyReader getVendorTrustPolicyReader(String vendorKey) {
+        VendorTrustPolicyReader factory = vendorFactoryMap.get(vendorKey);
+        if (factory == null) {
+            throw new UnsupportedOperationException("No policy reader registered for vendor " + vendorKey);
+        }
+        return factory;
+    }
+
+    /**
+     * The vendor key selects the policy reader, for example "intel" or
+     * "vmware-da" for a host with TPM 2.0
+     *
+     * @return lower case vendor key
+     */
+    public String getVendorKey() {
+        String vendorKey;
+        String tpmVersion;
+
+        // get vendorKey from flavor metadata, check hostManifest if it is null, or is not valid (negative test cases, like fakeVendorId)
+        if (flavor != null && flavor.getMeta() != null
+                && flavor.getMeta().getVendor() != null
+                && vendorFactoryMap.containsKey(flavor.getMeta().getVendor())) {
+            vendorKey = flavor.getMeta().getVendor();
+        } else {
+            vendorKey = getVendorName(hostManifest.getHostInfo());
+        }
+        log.debug("Selected Policy Reader:" + vendorKey);
+        // get tpmVersion from flavor metadata's description, check hostManifest if it is null
+        if (flavor != null && flavor.getMeta() != null && flavor.getMeta().getDescription() != null
+                && flavor.getMeta().getDescription().getTpmVersion() != null) {
+            tpmVersion = flavor.getMeta().getDescription().getTpmVersion();
+        } else {
+            tpmVersion = hostManifest.getHostInfo().getTpmVersion();
+        }
+        if("2.0".equalsIgnoreCase(tpmVersion)) {
+            vendorKey += "-da";
+        }
+        log.debug("Selected Policy Reader:" + vendorKey);
+        return vendorKey.toLowerCase();
+    }
+
+    /**
+     * The vendor key a host selects when the flavor does not name its vendor,
+     * which is the case for every flavor verify is called with
+     *
+     * @return lower case vendor key
+     */
+    public static String getVendorKey(HostManifest hostManifest) {
+        String vendorKey = getVendorName(hostManifest.getHostInfo());
+        if ("2.0".equalsIgnoreCase(hostManifest.getHostInfo().getTpmVersion())) {
+            vendorKey += "-da";
+        }
+        return vendorKey.toLowerCase();
+    }
+
+    /**
+     * The vendor key named by the flavor metadata, for selecting the policy
+     * reader of a flavor without a host
+     *
+     * @return lower case vendor key, or null if the flavor does not name its
+     * vendor or TPM version
+     */
+    public static String getVendorKey(Flavor flavor) {
+        if (flavor.getMeta() == null || flavor.getMeta().getVendor() == null
+                || flavor.getMeta().getDescription() == null || flavor.getMeta().getDescription().getTpmVersion() == null) {
+            return null;
+        }
+        String vendorKey = flavor.getMeta().getVendor().trim();
+        if ("2.0".equalsIgnoreCase(flavor.getMeta().getDescription().getTpmVersion())) {
+            vendorKey += "-da";
+        }
+        return vendorKey.toLowerCase();
+    }
+
     private static String getVendorName(HostInfo hostInfo) {
         String vendor;
         switch (hostInfo.getOsName().trim().toUpperCase()) {
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.verifier.policy.rule.Pcr15EventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEquals;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIncludes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Selects the PCR banks whose rules are evaluated when a flavor defines the
+ * same PCR in several banks, as TPM 2.0 flavors do for SHA1 and SHA256.
+ * Rules are grouped by PCR index, and for each index:
+ * <ul>
+ * <li>{@link Mode#ALL} keeps the rules of every bank, which is the
+ * default.</li>
+ * <li>{@link Mode#STRONGEST} keeps the rules of the strongest bank the host
+ * reports the PCR in, or of the strongest bank of the flavor if the host
+ * reports none of them.</li>
+ * <li>{@link Mode#REQUIRED} keeps the rules of the required banks; a host
+ * that does not report a required bank fails those rules. An index the
+ * flavor defines in none of the required banks keeps all of its rules.</li>
+ * </ul>
+ * Rules that are not specific to one bank, such as the certificate rules and
+ * the PCR 15 integrity rule of software flavors, are always kept.
+ */
+public final class PcrBankSelection {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PcrBankSelection.class);
+
+    /**
+     * Banks from weakest to strongest.
+     */
+    private static final DigestAlgorithm[] STRENGTH = { DigestAlgorithm.SHA1, DigestAlgorithm.SHA256, DigestAlgorithm.SHA384, DigestAlgorithm.SHA512 };
+
+    public enum Mode {
+        ALL,
+        STRONGEST,
+        REQUIRED
+    }
+
+    public static final PcrBankSelection ALL = new PcrBankSelection(Mode.ALL, Collections.<DigestAlgorithm>emptySet());
+    public static final PcrBankSelection STRONGEST = new PcrBankSelection(Mode.STRONGEST, Collections.<DigestAlgorithm>emptySet());
+
+    private final Mode mode;
+    private final Set<DigestAlgorithm> requiredBanks;
+
+    private PcrBankSelection(Mode mode, Set<DigestAlgorithm> requiredBanks) {
+        this.mode = mode;
+        this.requiredBanks = requiredBanks;
+    }
+
+    /**
+     * @param banks  banks that are always verified
+     * @return selection of the given banks
+     */
+    public static PcrBankSelection required(DigestAlgorithm... banks) {
+        if (banks == null || banks.length == 0) {
+            throw new IllegalArgumentException("At least one PCR bank is required");
+        }
+        return new PcrBankSelection(Mode.REQUIRED, Collections.unmodifiableSet(EnumSet.copyOf(Arrays.asList(banks))));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the required banks, empty unless the mode is REQUIRED
+     */
+    public Set<DigestAlgorithm> getRequiredBanks() {
+        return requiredBanks;
+    }
+
+    /**
+     * The rules of the policy are not modified, so policies shared by several
+     * verifications, such as those of a compiled policy store, can be
+     * selected from. The selected policy is kept with the policy for each set
+     * of kept banks, so hosts that report the same banks get the same policy
+     * instance and its rule execution plan.
+     *
+     * @param policy  policy compiled from a flavor
+     * @param hostManifest  host the policy is applied to
+     * @return the policy, or a policy with the same name and the selected
+     * rules if any rule is left out
+     */
+    public Policy apply(Policy policy, HostManifest hostManifest) {
+        if (mode == Mode.ALL) {
+            return policy;
+        }
+        Map<PcrIndex, Set<DigestAlgorithm>> banks = getPcrBanks(policy);
+        Map<PcrIndex, Set<DigestAlgorithm>> selected = new HashMap<>();
+        boolean narrowed = false;
+        for (Map.Entry<PcrIndex, Set<DigestAlgorithm>> entry : banks.entrySet()) {
+            Set<DigestAlgorithm> keep = select(entry.getKey(), entry.getValue(), hostManifest);
+            selected.put(entry.getKey(), keep);
+            narrowed = narrowed || keep.size() < entry.getValue().size();
+        }
+        if (!narrowed) {
+            return policy;
+        }
+        ConcurrentHashMap<Map<PcrIndex, Set<DigestAlgorithm>>, Policy> selections = policy.bankSelections;
+        if (selections == null) {
+            // a race creates another map, which only costs a selection
+            selections = new ConcurrentHashMap<>();
+            policy.bankSelections = selections;
+        }
+        Policy selectedPolicy = selections.get(selected);
+        if (selectedPolicy != null) {
+            return selectedPolicy;
+        }
+        Set<Rule> rules = new HashSet<>();
+        for (Rule rule : policy.getRules()) {
+            DigestAlgorithm bank = getPcrBank(rule);
+            if (bank == null || selected.get(getPcrIndex(rule)).contains(bank)) {
+                rules.add(rule);
+            }
+        }
+        log.debug("Selected {} of {} rules of policy {} for {} PCR banks", rules.size(), policy.getRules().size(), policy.getName(), mode);
+        selectedPolicy = new Policy(policy.getName(), rules);
+        Policy previous = selections.putIfAbsent(selected, selectedPolicy);
+        return previous != null ? previous : selectedPolicy;
+    }
+
+    /**
+     * @param policy  policy compiled from a flavor
+     * @return the banks the rules of the policy check, by PCR index; not
+     * modifiable
+     */
+    public static Map<PcrIndex, Set<DigestAlgorithm>> getPcrBanks(Policy policy) {
+        Map<PcrIndex, Set<DigestAlgorithm>> banks = policy.pcrBanks;
+        if (banks == null) {
+            banks = findPcrBanks(policy);
+            policy.pcrBanks = banks;
+        }
+        return banks;
+    }
+
+    private static Map<PcrIndex, Set<DigestAlgorithm>> findPcrBanks(Policy policy) {
+        Map<PcrIndex, Set<DigestAlgorithm>> banks = new HashMap<>();
+        for (Rule rule : policy.getRules()) {
+            DigestAlgorithm bank = getPcrBank(rule);
+            if (bank != null) {
+                Set<DigestAlgorithm> indexBanks = banks.get(getPcrIndex(rule));
+                if (indexBanks == null) {
+                    indexBanks = EnumSet.noneOf(DigestAlgorithm.class);
+                    banks.put(getPcrIndex(rule), indexBanks);
+                }
+                indexBanks.add(bank);
+            }
+        }
+        for (Map.Entry<PcrIndex, Set<DigestAlgorithm>> entry : banks.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(banks);
+    }
+
+    /**
+     * @param pcrIndex  a PCR the policy checks
+     * @param banks  the banks the policy checks the PCR in, see getPcrBanks
+     * @param hostManifest  host the policy is applied to; not read in the
+     * modes ALL and REQUIRED
+     * @return the banks whose rules for the PCR are kept
+     */
+    public Set<DigestAlgorithm> select(PcrIndex pcrIndex, Set<DigestAlgorithm> banks, HostManifest hostManifest) {
+        if (mode == Mode.ALL) {
+            return banks;
+        }
+        if (mode == Mode.REQUIRED) {
+            Set<DigestAlgorithm> keep = EnumSet.noneOf(DigestAlgorithm.class);
+            for (DigestAlgorithm bank : banks) {
+                if (requiredBanks.contains(bank)) {
+                    keep.add(bank);
+                }
+            }
+            if (keep.isEmpty()) {
+                log.warn("Flavor defines PCR {} in none of the required banks {}, verifying banks {}", pcrIndex, requiredBanks, banks);
+                return banks;
+            }
+            return keep;
+        }
+        DigestAlgorithm strongest = null;
+        DigestAlgorithm strongestReported = null;
+        for (DigestAlgorithm bank : banks) {
+            if (strongest == null || strength(bank) > strength(strongest)) {
+                strongest = bank;
+            }
+            if (isReported(hostManifest, bank, pcrIndex) && (strongestReported == null || strength(bank) > strength(strongestReported))) {
+                strongestReported = bank;
+            }
+        }
+        return EnumSet.of(strongestReported != null ? strongestReported : strongest);
+    }
+
+    private static boolean isReported(HostManifest hostManifest, DigestAlgorithm bank, PcrIndex pcrIndex) {
+        PcrManifest pcrManifest = hostManifest == null ? null : hostManifest.getPcrManifest();
+        return pcrManifest != null && (pcrManifest.getPcr(bank, pcrIndex) != null || pcrManifest.getPcrEventLog(bank, pcrIndex) != null);
+    }
+
+    private static int strength(DigestAlgorithm bank) {
+        return Arrays.asList(STRENGTH).indexOf(bank);
+    }
+
+    /**
+     * @return the bank a rule checks, or null if the rule is not specific to
+     * one bank
+     */
+    private static DigestAlgorithm getPcrBank(Rule rule) {
+        if (rule instanceof Pcr15EventLogIntegrity) {
+            // checks the bank of the host's TPM version
+            return null;
+        }
+        if (rule instanceof PcrEventLogEquals) {
+            PcrEventLogEquals equals = (PcrEventLogEquals) rule;
+            return equals.getExpected() == null || equals.getExpected().getPcrIndex() == null ? null : equals.getExpected().getPcrBank();
+        }
+        if (rule instanceof PcrEventLogIncludes) {
+            PcrEventLogIncludes includes = (PcrEventLogIncludes) rule;
+            return includes.getPcrIndex() == null ? null : includes.getPcrBank();
+        }
+        if (rule instanceof PcrRule) {
+            PcrRule pcrRule = (PcrRule) rule;
+            return pcrRule.getExpectedPcr() == null || pcrRule.getExpectedPcr().getIndex() == null ? null : pcrRule.getExpectedPcr().getPcrBank();
+        }
+        return null;
+    }
+
+    private static PcrIndex getPcrIndex(Rule rule) {
+        if (rule instanceof PcrEventLogEquals) {
+            return ((PcrEventLogEquals) rule).getExpected().getPcrIndex();
+        }
+        if (rule instanceof PcrEventLogIncludes) {
+            return ((PcrEventLogIncludes) rule).getPcrIndex();
+        }
+        return ((PcrRule) rule).getExpectedPcr().getIndex();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof PcrBankSelection)) {
+            return false;
+        }
+        return mode == ((PcrBankSelection) o).mode && requiredBanks.equals(((PcrBankSelection) o).requiredBanks);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mode.hashCode() + requiredBanks.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.REQUIRED ? mode + " " + requiredBanks : mode.toString();
+    }
+}
@@ -7,7 +7,9 @@ package com.intel.mtwilson.core.verifier.policy;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
 import com.intel.mtwilson.core.common.model.Pcr;
+import com.intel.mtwilson.core.common.model.PcrIndex;
 
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -17,4 +19,19 @@ public abstract class PcrRule extends BaseRule{
     public Pcr getExpectedPcr() {return expected;}
 
     public void setExpectedPcr(Pcr expected) {this.expected = expected;}
+
+    @Override
+    public String getRuleKey() {
+        if (expected == null) {
+            return "";
+        }
+        return expected.getPcrBank() + ":" + expected.getIndex().toInteger();
+    }
+
+    /**
+     * @return the integrity key of the event log of one PCR
+     */
+    public static String eventLogKey(DigestAlgorithm pcrBank, PcrIndex pcrIndex) {
+        return "pcr_event_log:" + pcrBank + ":" + pcrIndex.toInteger();
+    }
 }
@@ -6,9 +6,13 @@ package com.intel.mtwilson.core.verifier.policy;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.PcrIndex;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A policy is a collection of rules; all must be met in order to comply with the policy.
@@ -38,6 +42,13 @@ import java.util.Set;
 public class Policy {
     private final String name;
     private final Set<Rule> rules;
+    // compiled by RuleExecutionPlan.of on first use and shared by every
+    // verification with this policy
+    transient volatile RuleExecutionPlan plan;
+    // banks of the PCR rules, and the policies PcrBankSelection.apply selected
+    // from this policy by the banks it kept; shared like the plan
+    transient volatile Map<PcrIndex, Set<DigestAlgorithm>> pcrBanks;
+    transient volatile ConcurrentHashMap<Map<PcrIndex, Set<DigestAlgorithm>>, Policy> bankSelections;
     
     public Policy(String name, Rule... ruleArray) {
         this.name = name;
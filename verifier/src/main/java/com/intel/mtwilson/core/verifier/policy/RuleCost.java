@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy;
+
+/**
+ * Static cost class of a rule, from cheapest to most expensive. Used by the
+ * RuleExecutionPlan to run cheap, discriminating checks before expensive ones.
+ *
+ * CONSTANT rules compare a fixed value (PCR constant, asset tag digest).
+ * LINEAR rules walk an event log once or diff it against the flavor.
+ * CERTIFICATE rules validate a certificate against trusted authorities.
+ * PARSE rules parse XML measurement logs reported by the host.
+ * SIGNATURE rules read the signing certificate chain and verify a signature.
+ */
+public enum RuleCost {
+    CONSTANT,
+    LINEAR,
+    CERTIFICATE,
+    PARSE,
+    SIGNATURE
+}
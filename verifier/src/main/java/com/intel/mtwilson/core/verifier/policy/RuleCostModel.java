@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a moving average of the measured latency of each rule type. The
+ * RuleExecutionPlan uses it to order rules of the same RuleCost class.
+ *
+ * Latencies are reduced to power-of-two buckets before they are used for
+ * ordering, so small fluctuations between runs do not reorder the plan.
+ */
+public class RuleCostModel {
+    private static final RuleCostModel DEFAULT = new RuleCostModel();
+    private static final int MIN_SAMPLES = 16;
+
+    private final ConcurrentMap<Class<?>, Estimate> estimates = new ConcurrentHashMap<>();
+
+    public static RuleCostModel getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Record one measured evaluation of a rule.
+     *
+     * @param ruleClass  class of the evaluated rule
+     * @param nanos  duration of Rule.apply in nanoseconds
+     */
+    public void record(Class<?> ruleClass, long nanos) {
+        Estimate estimate = estimates.get(ruleClass);
+        if (estimate == null) {
+            estimate = new Estimate();
+            Estimate existing = estimates.putIfAbsent(ruleClass, estimate);
+            if (existing != null) {
+                estimate = existing;
+            }
+        }
+        estimate.add(nanos);
+    }
+
+    /**
+     * @param ruleClass  class of a rule
+     * @return the average latency in nanoseconds, or -1 if the rule type has
+     * not been measured often enough yet
+     */
+    public long getAverageNanos(Class<?> ruleClass) {
+        Estimate estimate = estimates.get(ruleClass);
+        if (estimate == null || estimate.samples < MIN_SAMPLES) {
+            return -1;
+        }
+        return estimate.average;
+    }
+
+    /**
+     * @param ruleClass  class of a rule
+     * @return the base 2 logarithm of the average latency, or 0 if the rule
+     * type has not been measured often enough yet
+     */
+    public int getLatencyBucket(Class<?> ruleClass) {
+        long average = getAverageNanos(ruleClass);
+        if (average <= 0) {
+            return 0;
+        }
+        return 64 - Long.numberOfLeadingZeros(average);
+    }
+
+    public void reset() {
+        estimates.clear();
+    }
+
+    /**
+     * Exponentially weighted moving average; updates may race, which only
+     * loses a sample now and then.
+     */
+    private static class Estimate {
+        private volatile long average;
+        private volatile int samples;
+
+        private void add(long nanos) {
+            if (samples == 0) {
+                average = nanos;
+            } else {
+                average += (nanos - average) >> 3;
+            }
+            if (samples < Integer.MAX_VALUE) {
+                samples++;
+            }
+        }
+    }
+}
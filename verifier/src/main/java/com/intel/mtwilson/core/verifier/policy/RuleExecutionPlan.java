@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy;
+
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstantBatch;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A Policy compiled into a stable order of evaluation.
+ *
+ * The Policy keeps its rules in a set, so iterating it gives a different order
+ * from one run to the next. The plan sorts the rules once:
+ *
+ * - the report order is canonical: by RuleCost class, rule type, markers and
+ *   rule key. It does not depend on measurements, so two reports for the same
+ *   host and flavor list their results in the same order.
+ * - the execution order puts the cheapest rules first, using the RuleCost
+ *   class and then the measured latency recorded in the RuleCostModel. This is
+ *   the order used for sequential and fail-fast evaluation.
+ *   Rules that depend on an integrity check (see BaseRule.getDependencyKeys)
+ *   are always placed after the rules they depend on, so a failed integrity
+ *   check is known before the dependent content rule would run.
+ * - the parallel order is the reverse of the cost order: the most expensive
+ *   rules are submitted first so they overlap with the cheap ones.
+ *
+ * The PcrMatchesConstant rules are also folded into a PcrMatchesConstantBatch,
+ * which evaluates them together before the other rules.
+ *
+ * A Policy keeps the plan it was last compiled into, see of(Policy,
+ * RuleCostModel). Only the orders that depend on measured latencies are
+ * computed again, and only when the latency bucket of a rule class changed.
+ *
+ * @see RuleCost
+ * @see RuleCostModel
+ */
+public class RuleExecutionPlan {
+
+    private final String policyName;
+    private final List<Rule> reportOrder;
+    private final List<Rule> executionOrder;
+    private final List<Rule> parallelOrder;
+    private final Map<Rule, List<Rule>> prerequisites;
+    private final PcrMatchesConstantBatch pcrConstants;
+    private final RuleCostModel costModel;
+    // latency bucket of each rule class when the cost order was computed
+    private final Class<?>[] ruleClasses;
+    private final int[] latencyBuckets;
+
+    private RuleExecutionPlan(String policyName, List<Rule> reportOrder, Map<Rule, List<Rule>> prerequisites, PcrMatchesConstantBatch pcrConstants, RuleCostModel costModel) {
+        this.policyName = policyName;
+        this.reportOrder = reportOrder;
+        this.prerequisites = prerequisites;
+        this.pcrConstants = pcrConstants;
+        this.costModel = costModel;
+        LinkedHashSet<Class<?>> classes = new LinkedHashSet<>();
+        for (Rule rule : reportOrder) {
+            classes.add(rule.getClass());
+        }
+        this.ruleClasses = classes.toArray(new Class<?>[classes.size()]);
+        this.latencyBuckets = new int[ruleClasses.length];
+        final HashMap<Class<?>, Integer> buckets = new HashMap<>();
+        for (int i = 0; i < ruleClasses.length; i++) {
+            latencyBuckets[i] = costModel.getLatencyBucket(ruleClasses[i]);
+            buckets.put(ruleClasses[i], latencyBuckets[i]);
+        }
+        ArrayList<Rule> costOrder = new ArrayList<>(reportOrder);
+        Collections.sort(costOrder, new Comparator<Rule>() {
+            @Override
+            public int compare(Rule first, Rule second) {
+                int result = getCost(first).compareTo(getCost(second));
+                if (result == 0) {
+                    result = Integer.compare(buckets.get(first.getClass()), buckets.get(second.getClass()));
+                }
+                return result; // stable sort keeps the canonical order for ties
+            }
+        });
+        this.executionOrder = Collections.unmodifiableList(prerequisites.isEmpty() ? costOrder : topologicalOrder(costOrder, prerequisites));
+        ArrayList<Rule> reversed = new ArrayList<>(costOrder);
+        Collections.reverse(reversed);
+        this.parallelOrder = Collections.unmodifiableList(reversed);
+    }
+
+    public static RuleExecutionPlan compile(Policy policy) {
+        return compile(policy, RuleCostModel.getDefault());
+    }
+
+    public static RuleExecutionPlan compile(Policy policy, RuleCostModel costModel) {
+        ArrayList<Rule> reportOrder = new ArrayList<>(policy.getRules());
+        Collections.sort(reportOrder, CANONICAL_ORDER);
+        return new RuleExecutionPlan(policy.getName(), Collections.unmodifiableList(reportOrder), findPrerequisites(reportOrder), PcrMatchesConstantBatch.compile(reportOrder), costModel);
+    }
+
+    /**
+     * The plan of a policy is compiled once and kept by the policy. When the
+     * cost model is another one, or the latency bucket of one of the rule
+     * classes changed since the plan was made, the cost order is computed
+     * again; the report order, the prerequisites and the PcrMatchesConstant
+     * batch are reused.
+     *
+     * @return the current plan of the policy
+     */
+    public static RuleExecutionPlan of(Policy policy, RuleCostModel costModel) {
+        RuleExecutionPlan plan = policy.plan;
+        if (plan == null) {
+            plan = compile(policy, costModel);
+        } else if (plan.costModel != costModel || plan.isReordered()) {
+            plan = new RuleExecutionPlan(plan.policyName, plan.reportOrder, plan.prerequisites, plan.pcrConstants, costModel);
+        } else {
+            return plan;
+        }
+        policy.plan = plan; // plans made concurrently are equivalent
+        return plan;
+    }
+
+    /**
+     * @return true if the cost model would order the rules differently now
+     */
+    private boolean isReordered() {
+        for (int i = 0; i < ruleClasses.length; i++) {
+            if (costModel.getLatencyBucket(ruleClasses[i]) != latencyBuckets[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolve the dependency keys of each rule to the rules that verify the
+     * integrity of those keys. Keys that no rule in the policy verifies are
+     * ignored.
+     */
+    private static Map<Rule, List<Rule>> findPrerequisites(List<Rule> rules) {
+        HashMap<String, List<Rule>> integrityRules = new HashMap<>();
+        for (Rule rule : rules) {
+            String integrityKey = getIntegrityKey(rule);
+            if (integrityKey != null) {
+                List<Rule> list = integrityRules.get(integrityKey);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    integrityRules.put(integrityKey, list);
+                }
+                list.add(rule);
+            }
+        }
+        IdentityHashMap<Rule, List<Rule>> prerequisites = new IdentityHashMap<>();
+        if (integrityRules.isEmpty()) {
+            return prerequisites;
+        }
+        for (Rule rule : rules) {
+            ArrayList<Rule> list = null;
+            for (String dependencyKey : getDependencyKeys(rule)) {
+                List<Rule> found = integrityRules.get(dependencyKey);
+                if (found == null) {
+                    continue;
+                }
+                for (Rule prerequisite : found) {
+                    if (prerequisite == rule) {
+                        continue;
+                    }
+                    if (list == null) {
+                        list = new ArrayList<>(1);
+                    }
+                    list.add(prerequisite);
+                }
+            }
+            if (list != null) {
+                prerequisites.put(rule, Collections.unmodifiableList(list));
+            }
+        }
+        return prerequisites;
+    }
+
+    /**
+     * Order the rules so that every rule comes after its prerequisites, and
+     * otherwise as close to the cost order as possible: of the rules whose
+     * prerequisites have all been placed, the cheapest is placed next.
+     */
+    private static List<Rule> topologicalOrder(List<Rule> costOrder, Map<Rule, List<Rule>> prerequisites) {
+        int size = costOrder.size();
+        IdentityHashMap<Rule, Integer> rank = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            rank.put(costOrder.get(i), i);
+        }
+        int[] pending = new int[size];
+        HashMap<Integer, List<Integer>> dependents = new HashMap<>();
+        for (Map.Entry<Rule, List<Rule>> entry : prerequisites.entrySet()) {
+            int dependent = rank.get(entry.getKey());
+            for (Rule prerequisite : entry.getValue()) {
+                int index = rank.get(prerequisite);
+                List<Integer> list = dependents.get(index);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    dependents.put(index, list);
+                }
+                list.add(dependent);
+                pending[dependent]++;
+            }
+        }
+        PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int i = 0; i < size; i++) {
+            if (pending[i] == 0) {
+                ready.add(i);
+            }
+        }
+        ArrayList<Rule> order = new ArrayList<>(size);
+        boolean[] placed = new boolean[size];
+        while (!ready.isEmpty()) {
+            int next = ready.poll();
+            order.add(costOrder.get(next));
+            placed[next] = true;
+            List<Integer> list = dependents.get(next);
+            if (list != null) {
+                for (int dependent : list) {
+                    if (--pending[dependent] == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+        }
+        if (order.size() < size) {
+            // circular dependencies; run the remaining rules in cost order
+            for (int i = 0; i < size; i++) {
+                if (!placed[i]) {
+                    order.add(costOrder.get(i));
+                }
+            }
+        }
+        return order;
+    }
+
+    public String getPolicyName() {
+        return policyName;
+    }
+
+    public List<Rule> getReportOrder() {
+        return reportOrder;
+    }
+
+    public List<Rule> getExecutionOrder() {
+        return executionOrder;
+    }
+
+    public List<Rule> getParallelOrder() {
+        return parallelOrder;
+    }
+
+    /**
+     * @param rule  a rule of this plan
+     * @return the rules of this plan that verify the integrity of the input of
+     * the given rule; empty if the rule has no dependencies
+     */
+    public List<Rule> getPrerequisites(Rule rule) {
+        List<Rule> list = prerequisites.get(rule);
+        return list == null ? Collections.<Rule>emptyList() : list;
+    }
+
+    /**
+     * @return the PcrMatchesConstant rules of the plan that are evaluated
+     * together
+     */
+    public PcrMatchesConstantBatch getPcrConstants() {
+        return pcrConstants;
+    }
+
+    public boolean hasDependencies() {
+        return !prerequisites.isEmpty();
+    }
+
+    public int size() {
+        return reportOrder.size();
+    }
+
+    public static RuleCost getCost(Rule rule) {
+        return rule instanceof BaseRule ? ((BaseRule) rule).getCost() : RuleCost.LINEAR;
+    }
+
+    public static String getRuleKey(Rule rule) {
+        return rule instanceof BaseRule ? ((BaseRule) rule).getRuleKey() : "";
+    }
+
+    public static String getIntegrityKey(Rule rule) {
+        return rule instanceof BaseRule ? ((BaseRule) rule).getIntegrityKey() : null;
+    }
+
+    public static String[] getDependencyKeys(Rule rule) {
+        return rule instanceof BaseRule ? ((BaseRule) rule).getDependencyKeys() : BaseRule.NO_DEPENDENCIES;
+    }
+
+    private static String getMarkerKey(Rule rule) {
+        String[] markers = rule.getMarkers();
+        if (markers == null || markers.length == 0) {
+            return "";
+        }
+        if (markers.length == 1) {
+            return markers[0];
+        }
+        StringBuilder key = new StringBuilder();
+        for (String marker : markers) {
+            key.append(marker).append(',');
+        }
+        return key.toString();
+    }
+
+    private static final Comparator<Rule> CANONICAL_ORDER = new Comparator<Rule>() {
+        @Override
+        public int compare(Rule first, Rule second) {
+            int result = getCost(first).compareTo(getCost(second));
+            if (result == 0) {
+                result = first.getClass().getName().compareTo(second.getClass().getName());
+            }
+            if (result == 0) {
+                result = getMarkerKey(first).compareTo(getMarkerKey(second));
+            }
+            if (result == 0) {
+                result = getRuleKey(first).compareTo(getRuleKey(second));
+            }
+            return result;
+        }
+    };
+}
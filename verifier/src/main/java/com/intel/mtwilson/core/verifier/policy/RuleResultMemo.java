@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy;
+
+import com.intel.mtwilson.core.common.model.HostManifest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The faults of flavor independent rules for one host manifest. Create one
+ * memo per attestation and pass it to Verifier.verify for each flavor of the
+ * host: a rule such as AikCertificateTrusted, which every flavor part adds,
+ * is then evaluated for the first flavor only, and equal rules of the other
+ * flavors report the same faults under their own markers.
+ * <p>
+ * A memo is safe for concurrent use, but two threads verifying flavors at the
+ * same time may both evaluate a rule before either records it.
+ *
+ * @see BaseRule#isFlavorIndependent()
+ */
+public class RuleResultMemo {
+    private final HostManifest hostManifest;
+    private final ConcurrentHashMap<Key, List<Fault>> faults = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param hostManifest  the host manifest all flavors of the attestation
+     * are verified against
+     */
+    public RuleResultMemo(HostManifest hostManifest) {
+        this.hostManifest = hostManifest;
+    }
+
+    public HostManifest getHostManifest() {
+        return hostManifest;
+    }
+
+    /**
+     * @return true if results of the rule can be shared through a memo
+     */
+    public static boolean isMemoizable(Rule rule) {
+        return rule instanceof BaseRule && ((BaseRule) rule).isFlavorIndependent();
+    }
+
+    /**
+     * @return a result for the rule with the faults recorded for an equal
+     * rule, or null if no equal rule was evaluated yet
+     */
+    public RuleResult get(Rule rule) {
+        List<Fault> recorded = faults.get(new Key(rule));
+        if (recorded == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        RuleResult result = new RuleResult(rule);
+        for (Fault fault : recorded) {
+            result.fault(fault);
+        }
+        return result;
+    }
+
+    /**
+     * Record the result of a flavor independent rule.
+     */
+    public void put(RuleResult result) {
+        faults.putIfAbsent(new Key(result.getRule()), Collections.unmodifiableList(new ArrayList<>(result.getFaults())));
+    }
+
+    /**
+     * @return number of distinct rules evaluated
+     */
+    public int size() {
+        return faults.size();
+    }
+
+    /**
+     * @return number of rules whose result was reused
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of flavor independent rules that had to be evaluated
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rule result memo with %d rules, %d hits, %d misses", size(), getHits(), getMisses());
+    }
+
+    /**
+     * Rules of different classes are never equal, even if a subclass does not
+     * check the class in its equals method.
+     */
+    private static class Key {
+        private final Rule rule;
+
+        Key(Rule rule) {
+            this.rule = rule;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key
+                    && rule.getClass() == ((Key) other).rule.getClass()
+                    && rule.equals(((Key) other).rule);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * rule.getClass().hashCode() + rule.hashCode();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy;
+
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The last verification of one host against one flavor, for
+ * Verifier.reverify: the compiled policy, the result of each of its rules
+ * and the fingerprints of the manifest sections the rules read. Keep one
+ * baseline per host and flavor; a baseline used with another flavor is
+ * reset.
+ * <p>
+ * Calls to reverify with the same baseline are serialized on the baseline.
+ *
+ * @see com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint
+ */
+public class VerificationBaseline {
+    private byte[] flavorKey;
+    private Policy policy;
+    private Map<String, DigestKey> sections = new HashMap<>();
+    private Map<Rule, RuleResult> results = new IdentityHashMap<>();
+    private int reused;
+    private int evaluated;
+
+    /**
+     * @return true if the baseline was recorded for the flavor with this key
+     */
+    public boolean isFor(byte[] flavorKey) {
+        return this.flavorKey != null && Arrays.equals(this.flavorKey, flavorKey);
+    }
+
+    /**
+     * @return the policy of the last verification, or null
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the last result of the rule, or null
+     */
+    public RuleResult getResult(Rule rule) {
+        return results.get(rule);
+    }
+
+    /**
+     * @return the fingerprint the section had in the last verification, or
+     * null if no rule read it
+     */
+    public DigestKey getSection(String section) {
+        return sections.get(section);
+    }
+
+    /**
+     * Record a verification. Called by the verifier.
+     */
+    public void update(byte[] flavorKey, Policy policy, Map<String, DigestKey> sections, Map<Rule, RuleResult> results, int reused) {
+        this.flavorKey = flavorKey == null ? null : flavorKey.clone();
+        this.policy = policy;
+        this.sections = sections;
+        this.results = results;
+        this.reused = reused;
+        this.evaluated = results.size() - reused;
+    }
+
+    public void clear() {
+        flavorKey = null;
+        policy = null;
+        sections = new HashMap<>();
+        results = new IdentityHashMap<>();
+        reused = 0;
+        evaluated = 0;
+    }
+
+    /**
+     * @return number of rules whose earlier result was reported by the last
+     * verification
+     */
+    public int getReused() {
+        return reused;
+    }
+
+    /**
+     * @return number of rules evaluated by the last verification
+     */
+    public int getEvaluated() {
+        return evaluated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("verification baseline with %d rules, %d reused, %d evaluated", results.size(), reused, evaluated);
+    }
+}
@@ -15,6 +15,6 @@ public class AikCertificateExpired extends Fault {
     public AikCertificateExpired() { } // for desearializing jackson
     
     public AikCertificateExpired(Date notAfter) {
-        super("AIK certificate not valid after %s", notAfter.toString());
+        super("AIK certificate not valid after %s", notAfter);
     }
 }
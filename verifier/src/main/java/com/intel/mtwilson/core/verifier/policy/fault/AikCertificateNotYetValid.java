@@ -16,6 +16,6 @@ public class AikCertificateNotYetValid extends Fault {
     public AikCertificateNotYetValid() { } // for desearializing jackson
     
     public AikCertificateNotYetValid(Date notBefore) {
-        super("AIK certificate not valid before %s", notBefore.toString());
+        super("AIK certificate not valid before %s", notBefore);
     }
 }
@@ -25,7 +25,7 @@ public abstract class PcrValueMismatch<T extends AbstractDigest> extends Fault {
     protected T actualValue;
 
     protected PcrValueMismatch(PcrIndex pcrIndex, T expectedValue, T actualValue) {
-        super("Host PCR %d with value %s does not match expected value %s", pcrIndex.toInteger(), actualValue.toString(), expectedValue.toString());
+        super("Host PCR %d with value %s does not match expected value %s", pcrIndex.toInteger(), actualValue, expectedValue);
         this.pcrIndex = pcrIndex;
         this.expectedValue = expectedValue;
         this.actualValue = actualValue;
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy.fault;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.intel.mtwilson.core.verifier.policy.Fault;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recorded instead of a rule's own result when the rule was skipped because
+ * every marker it contributes to was already untrusted.
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class RuleNotEvaluated extends Fault {
+    private List<String> markers;
+
+    public RuleNotEvaluated() { } // for desearializing jackson
+
+    /**
+     * @param markers  every marker of the skipped rule
+     */
+    public RuleNotEvaluated(String... markers) {
+        super(markers.length == 1 ? "Rule was not evaluated because marker %s is already untrusted" : "Rule was not evaluated because markers %s are already untrusted", String.join(", ", markers));
+        this.markers = Arrays.asList(markers.clone());
+    }
+
+    public List<String> getMarkers() {
+        return markers;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy.fault;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.intel.mtwilson.core.verifier.policy.Fault;
+
+/**
+ * Recorded instead of a rule's own result when the rule was skipped because
+ * the integrity check of its input failed, for example a PcrEventLogEquals
+ * rule whose event log failed PcrEventLogIntegrity.
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class RuleSuperseded extends Fault {
+    private String prerequisiteRuleName;
+
+    public RuleSuperseded() { } // for desearializing jackson
+
+    public RuleSuperseded(String prerequisiteRuleName) {
+        super("Rule was not evaluated because prerequisite rule %s failed", prerequisiteRuleName);
+        this.prerequisiteRuleName = prerequisiteRuleName;
+    }
+
+    public String getPrerequisiteRuleName() {
+        return prerequisiteRuleName;
+    }
+}
@@ -15,6 +15,6 @@ public class TagCertificateExpired extends Fault {
     public TagCertificateExpired() { } // for desearializing jackson
     
     public TagCertificateExpired(Date notAfter) {
-        super("Tag certificate not valid after %s", notAfter.toString());
+        super("Tag certificate not valid after %s", notAfter);
     }
 }
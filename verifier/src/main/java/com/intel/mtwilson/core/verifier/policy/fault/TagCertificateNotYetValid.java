@@ -15,6 +15,6 @@ public class TagCertificateNotYetValid extends Fault {
     public TagCertificateNotYetValid() { } // for desearializing jackson
     
     public TagCertificateNotYetValid(Date notBefore) {
-        super("Tag certificate not valid before %s", notBefore.toString());
+        super("Tag certificate not valid before %s", notBefore);
     }
 }
@@ -33,7 +33,7 @@ public abstract class XmlMeasurementValueMismatch<T extends AbstractDigest> exte
     public XmlMeasurementValueMismatch() { }
     
     protected XmlMeasurementValueMismatch(T expectedValue, T actualValue) {
-        super("Host XML measurement log final hash with value %s does not match expected value %s", actualValue.toString(), expectedValue.toString());
+        super("Host XML measurement log final hash with value %s does not match expected value %s", actualValue, expectedValue);
         this.expectedValue = expectedValue;
         this.actualValue = actualValue;
     }
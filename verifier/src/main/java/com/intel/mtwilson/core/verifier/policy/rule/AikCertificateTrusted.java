@@ -11,15 +11,18 @@ import com.intel.mtwilson.core.common.model.HostManifest;
 
 import com.intel.mtwilson.core.verifier.policy.BaseRule;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
 import com.intel.mtwilson.core.verifier.policy.fault.AikCertificateExpired;
 import com.intel.mtwilson.core.verifier.policy.fault.AikCertificateMissing;
 import com.intel.mtwilson.core.verifier.policy.fault.AikCertificateNotTrusted;
 import com.intel.mtwilson.core.verifier.policy.fault.AikCertificateNotYetValid;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
 
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.Date;
 /**
  * 
  * @author dtiwari
@@ -80,4 +83,51 @@ public class AikCertificateTrusted extends BaseRule {
         return "AIK certificate is signed by trusted authority";
     }
 
+    @Override
+    public RuleCost getCost() {
+        return RuleCost.CERTIFICATE;
+    }
+
+    @Override
+    public boolean isFlavorIndependent() {
+        return true;
+    }
+
+    @Override
+    public String[] getManifestSections() {
+        return new String[] { ManifestFingerprint.AIK_CERTIFICATE };
+    }
+
+    /**
+     * The result changes when the AIK certificate becomes valid or expires.
+     * The validity of the trusted authority certificates is only checked at
+     * the time the AIK certificate was issued, but their expiry is included
+     * so a result is not kept past the life of its trust anchors.
+     */
+    @Override
+    public Date getResultExpiry(HostManifest hostManifest, Date now) {
+        X509Certificate hostAikCert = hostManifest.getAikCertificate();
+        if (hostAikCert == null) {
+            return null;
+        }
+        Date expiry = earliestAfter(now, hostAikCert.getNotBefore(), hostAikCert.getNotAfter());
+        for (X509Certificate pca : trustedAuthorityCerts) {
+            expiry = earliestAfter(now, expiry, pca.getNotAfter());
+        }
+        return expiry;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof AikCertificateTrusted)) {
+            return false;
+        }
+        return Arrays.equals(trustedAuthorityCerts, ((AikCertificateTrusted) o).trustedAuthorityCerts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(trustedAuthorityCerts);
+    }
 }
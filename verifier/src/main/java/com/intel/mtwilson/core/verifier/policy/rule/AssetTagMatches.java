@@ -11,6 +11,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import com.intel.mtwilson.core.verifier.policy.BaseRule;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
 
 import com.intel.mtwilson.core.common.model.HostManifest;
 
@@ -98,4 +100,14 @@ public class AssetTagMatches extends BaseRule {
     public int hashCode() {
         return Arrays.hashCode(expected);
     }
+
+    @Override
+    public RuleCost getCost() {
+        return RuleCost.CONSTANT;
+    }
+
+    @Override
+    public String[] getManifestSections() {
+        return new String[] { ManifestFingerprint.ASSET_TAG };
+    }
 }
@@ -6,6 +6,7 @@ package com.intel.mtwilson.core.verifier.policy.rule;
 
 import com.intel.mtwilson.core.verifier.policy.BaseRule;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
 
 import com.intel.mtwilson.core.common.model.HostManifest;
 
@@ -18,4 +19,14 @@ public class DefaultTrusted extends BaseRule {
         RuleResult report = new RuleResult(this);
         return report;
     }
+
+    @Override
+    public RuleCost getCost() {
+        return RuleCost.CONSTANT;
+    }
+
+    @Override
+    public String[] getManifestSections() {
+        return new String[0];
+    }
 }
@@ -4,6 +4,7 @@
  */
 package com.intel.mtwilson.core.verifier.policy.rule;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -11,11 +12,19 @@ import com.intel.mtwilson.core.common.model.HostManifest;
 import com.intel.mtwilson.core.flavor.model.Flavor;
 import com.intel.mtwilson.core.flavor.model.SignedFlavor;
 import com.intel.mtwilson.core.verifier.policy.BaseRule;
+import com.intel.mtwilson.core.verifier.policy.Fault;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
 import com.intel.mtwilson.core.verifier.policy.fault.FlavorSignatureMissing;
 import com.intel.mtwilson.core.verifier.policy.fault.FlavorSignatureNotTrusted;
 import com.intel.mtwilson.core.verifier.policy.fault.FlavorSignatureVerificationFailed;
 import com.intel.mtwilson.core.verifier.policy.utils.FlavorUtils;
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -25,6 +34,8 @@ public class FlavorTrusted extends BaseRule {
     private SignedFlavor signedFlavor;
     private String flavorSigningCertPath;
     private String flavorCaCertPath;
+    private volatile Verdict verdict;
+    private volatile List<X509Certificate> certificateChain;
 
     protected FlavorTrusted(){}
 
@@ -34,9 +45,47 @@ public class FlavorTrusted extends BaseRule {
         this.flavorCaCertPath = flavorCaCertPath;
     }
 
+    /**
+     * The faults of a signature verification done earlier for the same signed
+     * flavor and flavor signing certificates, such as when a compiled policy
+     * store entry was decoded. The rule then reports these faults instead of
+     * verifying the signature again, until the flavor signing certificate or
+     * one of its CAs becomes valid or expires; after that the signature is
+     * verified again and the new faults are replayed instead.
+     *
+     * @param verdict  faults of the earlier verification, empty if the
+     * signature was trusted, or null to verify on each apply
+     */
+    @JsonIgnore
+    public void setVerdict(List<Fault> verdict) {
+        this.verdict = verdict == null ? null : new Verdict(verdict, chainExpiry(new Date()));
+    }
+
     @Override
     public RuleResult apply(HostManifest hostManifest) {
         RuleResult report = new RuleResult(this);
+        Verdict replay = verdict;
+        if (replay != null) {
+            Date now = new Date();
+            if (replay.expiry == null || now.before(replay.expiry)) {
+                for (Fault fault : replay.faults) {
+                    report.fault(fault);
+                }
+                report.setFlavorId(signedFlavor.getFlavor().getMeta().getId());
+                return report;
+            }
+            log.debug("Flavor signature verdict for {} expired at {}", getRuleKey(), replay.expiry);
+            certificateChain = null;
+        }
+        verifySignature(report);
+        if (replay != null) {
+            setVerdict(new ArrayList<>(report.getFaults()));
+        }
+        report.setFlavorId(signedFlavor.getFlavor().getMeta().getId());
+        return report;
+    }
+
+    private void verifySignature(RuleResult report) {
         try {
             if (signedFlavor.getSignature() == null || signedFlavor.getSignature().isEmpty()) {
                 report.fault(new FlavorSignatureMissing(signedFlavor.getFlavor()));
@@ -46,8 +95,39 @@ public class FlavorTrusted extends BaseRule {
         } catch (JsonProcessingException exc) {
             report.fault(exc.getMessage(), new FlavorSignatureVerificationFailed(signedFlavor.getFlavor()));
         }
-        report.setFlavorId(signedFlavor.getFlavor().getMeta().getId());
-        return report;
+    }
+
+    /**
+     * @return the earliest time after now at which a certificate of the
+     * flavor signing chain becomes valid or expires, now if the chain cannot
+     * be read, or null if every certificate has already expired
+     */
+    private Date chainExpiry(Date now) {
+        List<X509Certificate> chain = certificateChain;
+        if (chain == null) {
+            try {
+                chain = FlavorUtils.getCertificateChain(flavorSigningCertPath, flavorCaCertPath);
+            } catch (IOException | CertificateException | RuntimeException exc) {
+                log.debug("Cannot read flavor signing certificate chain: {}", exc.getMessage());
+                return now;
+            }
+            certificateChain = chain;
+        }
+        Date expiry = null;
+        for (X509Certificate certificate : chain) {
+            expiry = earliestAfter(now, expiry, certificate.getNotBefore(), certificate.getNotAfter());
+        }
+        return expiry;
+    }
+
+    private static final class Verdict {
+        private final List<Fault> faults;
+        private final Date expiry;
+
+        Verdict(List<Fault> faults, Date expiry) {
+            this.faults = faults;
+            this.expiry = expiry;
+        }
     }
 
     @Override
@@ -55,4 +135,30 @@ public class FlavorTrusted extends BaseRule {
         return "Flavor is signed by trusted authority";
     }
 
+    @Override
+    public RuleCost getCost() {
+        return RuleCost.SIGNATURE;
+    }
+
+    @Override
+    public String getRuleKey() {
+        return signedFlavor == null ? "" : String.valueOf(signedFlavor.getFlavor().getMeta().getId());
+    }
+
+    /**
+     * The result changes when the flavor signing certificate or one of its
+     * CAs becomes valid or expires.
+     */
+    @Override
+    public Date getResultExpiry(HostManifest hostManifest, Date now) {
+        return chainExpiry(now);
+    }
+
+    /**
+     * The signature check reads only the flavor, not the host manifest.
+     */
+    @Override
+    public String[] getManifestSections() {
+        return new String[0];
+    }
 }
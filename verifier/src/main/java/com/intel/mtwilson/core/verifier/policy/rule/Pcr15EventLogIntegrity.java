@@ -8,9 +8,14 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
 import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Pcr;
 import com.intel.mtwilson.core.common.model.PcrIndex;
 import com.intel.mtwilson.core.flavor.model.Flavor;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrManifestMissing;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrValueMissing;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
+import java.util.Objects;
 
 /**
  * This policy extends PcrEventLogIntegrity to evaluate PCR 14 integrity
@@ -33,15 +38,41 @@ public class Pcr15EventLogIntegrity extends PcrEventLogIntegrity {
         return flavorId;
     }
 
+    /**
+     * The rule is shared by every verification with its policy, so the PCR
+     * of the host is set on a copy of the rule, which is reported with the
+     * result.
+     */
     @Override
     public RuleResult apply(HostManifest hostManifest) {
-        super.expected = hostManifest.getPcrManifest().getPcr(getDigestAlgorithmFromTpmVersion(hostManifest.getHostInfo().getTpmVersion()), PcrIndex.PCR15);
-        super.pcrIndex = expected.getIndex();
-        RuleResult ruleResult = super.apply(hostManifest);
+        RuleResult ruleResult;
+        if (hostManifest.getPcrManifest() == null) {
+            ruleResult = new RuleResult(this);
+            ruleResult.fault(new PcrManifestMissing());
+        } else {
+            Pcr actual = hostManifest.getPcrManifest().getPcr(getDigestAlgorithmFromTpmVersion(hostManifest.getHostInfo().getTpmVersion()), PcrIndex.PCR15);
+            if (actual == null) {
+                ruleResult = new RuleResult(this);
+                ruleResult.fault(new PcrValueMissing(PcrIndex.PCR15));
+            } else {
+                ruleResult = new Pcr15EventLogIntegrity(this, actual).applyToExpected(hostManifest);
+            }
+        }
         ruleResult.setFlavorId(flavorId);
         return ruleResult;
     }
 
+    private Pcr15EventLogIntegrity(Pcr15EventLogIntegrity rule, Pcr expected) {
+        this.flavorId = rule.flavorId;
+        this.markers = rule.markers;
+        this.expected = expected;
+        this.pcrIndex = expected.getIndex();
+    }
+
+    private RuleResult applyToExpected(HostManifest hostManifest) {
+        return super.apply(hostManifest);
+    }
+
     private DigestAlgorithm getDigestAlgorithmFromTpmVersion(String tpmVersion) {
         if (isTpm2(tpmVersion))
             return DigestAlgorithm.SHA256;
@@ -51,4 +82,51 @@ public class Pcr15EventLogIntegrity extends PcrEventLogIntegrity {
     private boolean isTpm2(String tpmVersion) {
         return tpmVersion != null && tpmVersion.equals("2.0");
     }
+
+    @Override
+    public String getRuleKey() {
+        return String.valueOf(flavorId);
+    }
+
+    @Override
+    public String getIntegrityKey() {
+        return null; // the PCR bank is only known once the host manifest is available
+    }
+
+    /**
+     * The expected PCR is taken from the host manifest when the rule is
+     * applied, so rules are compared by the flavor they were created for.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        return Objects.equals(flavorId, ((Pcr15EventLogIntegrity) o).flavorId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(flavorId);
+    }
+
+    /**
+     * The result carries the id of the flavor the rule was created for.
+     */
+    @Override
+    public boolean isFlavorIndependent() {
+        return false;
+    }
+
+    /**
+     * The bank is selected by the TPM version of the host, so both banks are
+     * declared.
+     */
+    @Override
+    public String[] getManifestSections() {
+        return new String[] { ManifestFingerprint.HOST_INFO,
+            ManifestFingerprint.pcrKey(DigestAlgorithm.SHA1, PcrIndex.PCR15), eventLogKey(DigestAlgorithm.SHA1, PcrIndex.PCR15),
+            ManifestFingerprint.pcrKey(DigestAlgorithm.SHA256, PcrIndex.PCR15), eventLogKey(DigestAlgorithm.SHA256, PcrIndex.PCR15) };
+    }
 }
@@ -18,6 +18,7 @@ import com.intel.mtwilson.core.common.model.Measurement;
 import com.intel.mtwilson.core.common.model.PcrEventLog;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -60,43 +61,123 @@ public class PcrEventLogEquals extends PcrRule {
             report.fault(new PcrEventLogMissing());
         } else {
             PcrEventLog pcrEventLog = getPcrEventLog(hostManifest);
-            if (pcrEventLog == null) {
+            List<Measurement> moduleManifest = pcrEventLog == null ? null : pcrEventLog.getEventLog();
+            BitSet excluded = findExcluded(moduleManifest);
+            if (pcrEventLog == null || countIncluded(moduleManifest, excluded) == 0) {
                 log.debug("PcrEventLog missing fault is being raised.");
                 report.fault(new PcrEventLogMissing(expected.getPcrIndex()));
-            } else {
-                List<Measurement> moduleManifest = pcrEventLog.getEventLog();
-                if (moduleManifest == null || moduleManifest.isEmpty()) {
-                    report.fault(new PcrEventLogMissing(expected.getPcrIndex()));
-                } else {
-                    log.debug("About to apply the PcrEventLogEquals policy for {} entries.", moduleManifest.size());
-                    // we check that for the PCR defined in the policy, the HostManifest's PcrModuleManifest contains the exact set of expected modules
-                    ArrayList<Measurement> hostActualUnexpected = new ArrayList<>(moduleManifest);
-                    hostActualUnexpected.removeAll(expected.getEventLog()); //  hostActualUnexpected = actual modules - expected modules = only extra modules that shouldn't be there;  comparison is done BY HASH VALUE,  not by name or any "other info"
-                    hostActualUnexpected.removeAll(getPcrEventLogToBeIgnored(moduleManifest));
-                    if (!hostActualUnexpected.isEmpty()) {
-                        log.debug("PcrEventLogEquals : Host is having #{} additional modules compared to the white list.", hostActualUnexpected.size());
-                        report.fault(new PcrEventLogContainsUnexpectedEntries(expected.getPcrIndex(), hostActualUnexpected));
+            } else if (!matchesInOrder(moduleManifest, excluded, expected.getEventLog())) {
+                log.debug("About to apply the PcrEventLogEquals policy for {} entries.", moduleManifest.size());
+                // we check that for the PCR defined in the policy, the HostManifest's PcrModuleManifest contains the exact set of expected modules
+                // comparison is done BY HASH VALUE,  not by name or any "other info"
+                // the entries are hashed once, so a mismatch costs O(n + m) instead of a scan per entry
+                HashSet<Measurement> expectedEntries = new HashSet<>(expected.getEventLog());
+                HashSet<Measurement> included = new HashSet<>();
+                HashSet<Measurement> ignored = new HashSet<>();
+                for (int i = 0; i < moduleManifest.size(); i++) {
+                    if (isIncluded(excluded, i)) {
+                        Measurement actual = moduleManifest.get(i);
+                        included.add(actual);
+                        // unexpected entries equal to an included host entry with label 0x4fe are not reported
+                        if (actual.getLabel().equalsIgnoreCase("0x4fe")) {
+                            ignored.add(actual);
+                        }
                     }
-                    ArrayList<Measurement> hostActualMissing = new ArrayList<>(expected.getEventLog());
-                    hostActualMissing.removeAll(moduleManifest); // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
-                    if (!hostActualMissing.isEmpty()) {
-                        log.debug("PcrEventLogEquals : Host is missing #{} modules compared to the white list.", hostActualMissing.size());
-                        report.fault(new PcrEventLogMissingExpectedEntries(expected.getPcrIndex(), new HashSet<>(hostActualMissing)));
+                }
+                ArrayList<Measurement> hostActualUnexpected = new ArrayList<>();
+                for (int i = 0; i < moduleManifest.size(); i++) {
+                    Measurement actual = moduleManifest.get(i);
+                    if (isIncluded(excluded, i) && !expectedEntries.contains(actual) && !ignored.contains(actual)) {
+                        hostActualUnexpected.add(actual);
+                    }
+                }
+                if (!hostActualUnexpected.isEmpty()) {
+                    log.debug("PcrEventLogEquals : Host is having #{} additional modules compared to the white list.", hostActualUnexpected.size());
+                    report.fault(new PcrEventLogContainsUnexpectedEntries(expected.getPcrIndex(), hostActualUnexpected));
+                }
+                HashSet<Measurement> hostActualMissing = new HashSet<>();
+                for (Measurement m : expected.getEventLog()) {
+                    if (!included.contains(m)) {
+                        hostActualMissing.add(m);
                     }
                 }
+                if (!hostActualMissing.isEmpty()) {
+                    log.debug("PcrEventLogEquals : Host is missing #{} modules compared to the white list.", hostActualMissing.size());
+                    report.fault(new PcrEventLogMissingExpectedEntries(expected.getPcrIndex(), hostActualMissing));
+                }
             }
         }
         return report;
     }
 
-    private ArrayList<Measurement> getPcrEventLogToBeIgnored(List<Measurement> moduleManifest) {
-        ArrayList<Measurement> measurementsToBeIgnored = new ArrayList<>();
-        for(Measurement m : moduleManifest) {
-            if(m.getLabel().equalsIgnoreCase("0x4fe")) {
-                measurementsToBeIgnored.add(m);
+    /**
+     * Subclasses exclude host entries from the comparison by overriding this
+     * method instead of copying the host event log, so that evaluating a host
+     * that matches its flavor does not allocate. It is called once for each
+     * host entry per evaluation.
+     *
+     * @param measurement  entry of the host event log
+     * @return true if the entry is compared with the flavor
+     */
+    protected boolean isIncluded(Measurement measurement) {
+        return true;
+    }
+
+    /**
+     * Check every host entry once, so the comparisons below do not run the
+     * exclusion checks again for each expected entry.
+     *
+     * @return positions of the excluded host entries, or null if no entry is
+     * excluded
+     */
+    private BitSet findExcluded(List<Measurement> moduleManifest) {
+        BitSet excluded = null;
+        if (moduleManifest != null) {
+            for (int i = 0; i < moduleManifest.size(); i++) {
+                if (!isIncluded(moduleManifest.get(i))) {
+                    if (excluded == null) {
+                        excluded = new BitSet(moduleManifest.size());
+                    }
+                    excluded.set(i);
+                }
+            }
+        }
+        return excluded;
+    }
+
+    private static boolean isIncluded(BitSet excluded, int i) {
+        return excluded == null || !excluded.get(i);
+    }
+
+    private int countIncluded(List<Measurement> moduleManifest, BitSet excluded) {
+        int count = 0;
+        if (moduleManifest != null) {
+            for (int i = 0; i < moduleManifest.size(); i++) {
+                if (isIncluded(excluded, i)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The common case: the included host entries are the expected entries in
+     * the same order. Checked with one pass over both lists.
+     */
+    private boolean matchesInOrder(List<Measurement> moduleManifest, BitSet excluded, List<Measurement> expectedEventLog) {
+        int e = 0;
+        for (int i = 0; i < moduleManifest.size(); i++) {
+            if (!isIncluded(excluded, i)) {
+                continue;
+            }
+            Measurement actual = moduleManifest.get(i);
+            if (e == expectedEventLog.size() || !actual.equals(expectedEventLog.get(e))) {
+                return false;
             }
+            e++;
         }
-        return measurementsToBeIgnored;
+        return e == expectedEventLog.size();
     }
 
     protected PcrEventLog getPcrEventLog(HostManifest hostManifest) {
@@ -125,4 +206,22 @@ public class PcrEventLogEquals extends PcrRule {
     public int hashCode() {
         return expected.hashCode();
     }
+
+    @Override
+    public String getRuleKey() {
+        return expected == null ? "" : expected.getPcrBank() + ":" + expected.getPcrIndex().toInteger();
+    }
+
+    @Override
+    public String[] getDependencyKeys() {
+        if (expected == null) {
+            return NO_DEPENDENCIES;
+        }
+        return new String[] { eventLogKey(expected.getPcrBank(), expected.getPcrIndex()) };
+    }
+
+    @Override
+    public String[] getManifestSections() {
+        return new String[] { eventLogKey(expected.getPcrBank(), expected.getPcrIndex()) };
+    }
 }
@@ -4,18 +4,14 @@
  */
 package com.intel.mtwilson.core.verifier.policy.rule;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 
 import com.intel.mtwilson.core.common.model.Measurement;
 import com.intel.mtwilson.core.common.model.PcrEventLog;
-import com.intel.mtwilson.core.common.model.PcrEventLogFactory;
-import com.intel.mtwilson.core.common.model.PcrIndex;
-import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.verifier.policy.utils.ModuleExclusionFilter;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -32,7 +28,7 @@ public class PcrEventLogEqualsExcluding extends PcrEventLogEquals {
 
     private Logger log = LoggerFactory.getLogger(getClass());
 
-    private static final List<String> hostSpecificModules = Arrays.asList(new String[]{"commandLine.", "LCP_CONTROL_HASH","initrd", "vmlinuz", "componentName.imgdb.tgz", "componentName.onetime.tgz"});
+    private ModuleExclusionFilter exclusionFilter = ModuleExclusionFilter.HOST_SPECIFIC;
 
     private boolean excludeHostSpecificModules = true;
 
@@ -47,37 +43,61 @@ public class PcrEventLogEqualsExcluding extends PcrEventLogEquals {
         excludeHostSpecificModules = enabled;
     }
 
+    @JsonIgnore
+    public ModuleExclusionFilter getExclusionFilter() {
+        return exclusionFilter;
+    }
+
+    /**
+     * Replace the host specific modules excluded from the comparison.
+     *
+     * @param exclusionFilter  filter of the excluded component names, or null
+     * for the default {@link ModuleExclusionFilter#HOST_SPECIFIC}
+     */
+    public void setExclusionFilter(ModuleExclusionFilter exclusionFilter) {
+        this.exclusionFilter = exclusionFilter == null ? ModuleExclusionFilter.HOST_SPECIFIC : exclusionFilter;
+    }
+
+    /**
+     * @return patterns of the excluded component names, or null when the
+     * default host specific modules are excluded; empty, and still written,
+     * when nothing is excluded
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<String> getExcludedModules() {
+        return exclusionFilter.equals(ModuleExclusionFilter.HOST_SPECIFIC) ? null : exclusionFilter.getPatterns();
+    }
+
+    public void setExcludedModules(List<String> excludedModules) {
+        setExclusionFilter(excludedModules == null ? null : ModuleExclusionFilter.compile(excludedModules));
+    }
+
+    /**
+     * Host specific modules (when enabled) and dynamic modules, which have an
+     * empty package name and vendor, are not compared with the flavor.
+     */
     @Override
-    protected PcrEventLog getPcrEventLog(HostManifest hostManifest) {
-        PcrEventLog eventLog = hostManifest.getPcrManifest().getPcrEventLog(getExpected().getPcrBank(), getExpected().getPcrIndex());
-        List<Measurement> modules;
-        if(eventLog != null) {
-             modules = eventLog.getEventLog();
-        } else {
-            modules = new ArrayList<>();
+    protected boolean isIncluded(Measurement measurement) {
+        Map<String, String> mInfo = measurement.getInfo();
+        if (mInfo == null) {
+            return true;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("{} :: {} :: {} :: {}", measurement.getLabel(), measurement.getValue(), mInfo.values(), mInfo.keySet());
+        }
+        // examin m.getInfo()  to decide if it's dynamic,   and also if excludeHostSpecificModules is true then exclude host specific modules
+        String componentName = mInfo.get("ComponentName");
+        if (excludeHostSpecificModules && exclusionFilter.matches(componentName)) {
+            log.debug("PcrEventLogEqualsExcluding - Skipping the host specific module - {}", componentName);
+            return false;
         }
-        ArrayList<Measurement> modulesExcluding = new ArrayList<>();
-        Iterator<Measurement> it = modules.iterator();
-        while (it.hasNext()) {
-            Measurement measurement = it.next();
-            Map<String, String> mInfo = measurement.getInfo();
-            log.debug(measurement.getLabel() + " :: " + measurement.getValue().toString() + " :: " + mInfo.values().toString()
-                    + " :: " + mInfo.keySet().toString());
-            // examin m.getInfo()  to decide if it's dynamic,   and also if excludeHostSpecificModules is true then exclude host specific modules
-            if (excludeHostSpecificModules && hostSpecificModules.contains(mInfo.get("ComponentName"))) {
-                log.debug("PcrEventLogEqualsExcluding - Skipping the host specific module - {}", mInfo.get("ComponentName"));
-                continue;
-            }
-            // let us skip even the dynamic modules
-            if (mInfo.get("PackageName") != null && mInfo.get("PackageName").equalsIgnoreCase("")
-                    && mInfo.get("PackageVendor") != null && mInfo.get("PackageVendor").equalsIgnoreCase("")) {
-                log.debug("PcrEventLogEqualsExcluding - Skipping the dynamic module - {}", mInfo.get("ComponentName"));
-                continue;
-            }
-            // Add the module to be verified.
-            modulesExcluding.add(measurement);
+        // let us skip even the dynamic modules
+        String packageName = mInfo.get("PackageName");
+        String packageVendor = mInfo.get("PackageVendor");
+        if (packageName != null && packageName.isEmpty() && packageVendor != null && packageVendor.isEmpty()) {
+            log.debug("PcrEventLogEqualsExcluding - Skipping the dynamic module - {}", componentName);
+            return false;
         }
-        PcrEventLog updatedPcrEventLog = PcrEventLogFactory.newInstance(getExpected().getPcrBank(), getExpected().getPcrIndex(), modulesExcluding);
-        return updatedPcrEventLog; // the new instance 
+        return true;
     }
 }
@@ -85,9 +85,17 @@ public class PcrEventLogIncludes extends PcrRule {
                 if (moduleManifest == null || moduleManifest.isEmpty()) {
                     report.fault(new PcrEventLogMissing(pcrIndex));
                 } else {
-                    HashSet<Measurement> hostActualMissing = new HashSet(expected);
-                    hostActualMissing.removeAll(moduleManifest); // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
-                    if (!hostActualMissing.isEmpty()) {
+                    // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't; the set is only created when one is missing
+                    HashSet<Measurement> hostActualMissing = null;
+                    for (Measurement m : expected) {
+                        if (!moduleManifest.contains(m)) {
+                            if (hostActualMissing == null) {
+                                hostActualMissing = new HashSet<>();
+                            }
+                            hostActualMissing.add(m);
+                        }
+                    }
+                    if (hostActualMissing != null) {
                         report.fault(new PcrEventLogMissingExpectedEntries(pcrIndex, hostActualMissing));
                     }
                 }
@@ -124,4 +132,22 @@ public class PcrEventLogIncludes extends PcrRule {
     public int hashCode() {
         return expected.hashCode();
     }
+
+    @Override
+    public String getRuleKey() {
+        return pcrIndex == null ? "" : pcrBank + ":" + pcrIndex.toInteger();
+    }
+
+    @Override
+    public String[] getDependencyKeys() {
+        if (pcrIndex == null) {
+            return NO_DEPENDENCIES;
+        }
+        return new String[] { eventLogKey(pcrBank, pcrIndex) };
+    }
+
+    @Override
+    public String[] getManifestSections() {
+        return new String[] { eventLogKey(pcrBank, pcrIndex) };
+    }
 }
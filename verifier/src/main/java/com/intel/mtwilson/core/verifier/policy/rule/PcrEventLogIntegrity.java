@@ -7,21 +7,24 @@ package com.intel.mtwilson.core.verifier.policy.rule;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
-import com.intel.dcsg.cpg.crypto.AbstractDigest;
 import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
-import com.intel.dcsg.cpg.crypto.Sha1Digest;
-import com.intel.dcsg.cpg.crypto.Sha256Digest;
 
 import com.intel.mtwilson.core.common.model.*;
+import com.intel.mtwilson.core.verifier.crypto.CryptoProvider;
 import com.intel.mtwilson.core.verifier.policy.PcrRule;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
 import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogInvalid;
 import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogMissing;
 import com.intel.mtwilson.core.verifier.policy.fault.PcrManifestMissing;
 import com.intel.mtwilson.core.verifier.policy.fault.PcrValueMissing;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
 
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Objects;
+import org.apache.commons.codec.binary.Hex;
 
 /**
  * The PcrMatchesConstant policy enforces that a specific PCR contains a
@@ -46,7 +49,6 @@ import java.util.Objects;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class PcrEventLogIntegrity extends PcrRule {
     private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PcrEventLogIntegrity.class);
-    private DigestAlgorithm pcrBank;
     protected PcrIndex pcrIndex;
 
     protected PcrEventLogIntegrity() {
@@ -73,10 +75,8 @@ public class PcrEventLogIntegrity extends PcrRule {
                 } else {
                     List<Measurement> measurements = eventLog.getEventLog();
                     if (measurements != null) {
-                        AbstractDigest expectedValue = computeHistory(measurements, expected.getPcrBank()); // calculate expected' based on history
-                        log.debug("PcrEventLogIntegrity: About to compare {} with {}.", actualValue.getValue().toString(), expectedValue.toString());
-                        // make sure the expected pcr value matches the actual pcr value
-                        if (!expectedValue.equals(actualValue.getValue())) {
+                        // calculate expected' based on history and make sure it matches the actual pcr value
+                        if (!MessageDigest.isEqual(computeHistory(measurements, expected.getPcrBank()), actualValue.getValue().toByteArray())) {
                             report.fault(new PcrEventLogInvalid(expected.getIndex()));
                         }
                     }
@@ -86,36 +86,79 @@ public class PcrEventLogIntegrity extends PcrRule {
         return report;
     }
 
-    private AbstractDigest computeHistory(List<Measurement> list, DigestAlgorithm bank) {
+    /**
+     * Replays the event log into a PCR buffer that is reused for every
+     * extend, instead of creating a digest object per measurement.
+     *
+     * @return the PCR value after extending all measurements
+     */
+    private byte[] computeHistory(List<Measurement> list, DigestAlgorithm bank) {
         // start with a default value of zero...  that should be the initial value of every PCR ..  if a pcr is reset after boot the tpm usually sets its starting value at -1 so the end result is different , which we could then catch here when the hashes don't match
-        AbstractDigest result = bank == DigestAlgorithm.SHA256 ? new Sha256Digest(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}) : Sha1Digest.ZERO;
-        for (Measurement m : list) {
-            log.debug("computeHistory: About to extend {} with {}.", result.toString(), m.getValue().toString());
-            //result = result.extend(m.getValue());
-            if (bank == DigestAlgorithm.SHA256) {
-                result = ((Sha256Digest) result).extend(m.getValue().toByteArray());
-            } else {
-                result = ((Sha1Digest) result).extend(m.getValue().toByteArray());
+        CryptoProvider crypto = CryptoProvider.getDefault();
+        MessageDigest digest;
+        try {
+            digest = crypto.acquireMessageDigest(bank == DigestAlgorithm.SHA256 ? "SHA-256" : "SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot replay PCR event log", e);
+        }
+        byte[] result = new byte[digest.getDigestLength()];
+        try {
+            for (int i = 0; i < list.size(); i++) {
+                Measurement m = list.get(i);
+                if (log.isDebugEnabled()) {
+                    log.debug("computeHistory: About to extend {} with {}.", Hex.encodeHexString(result), m.getValue());
+                }
+                digest.update(result);
+                digest.update(m.getValue().toByteArray());
+                digest.digest(result, 0, result.length);
             }
-            log.debug("computeHistory: Result of extension is {}.", result.toString());
+        } catch (DigestException e) {
+            throw new IllegalStateException("Cannot replay PCR event log", e);
+        } finally {
+            crypto.release(digest);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("computeHistory: Result of extension is {}.", Hex.encodeHexString(result));
         }
         return result;
     }
     
+    /**
+     * The rule replays the host event log against the host PCR value, so two
+     * rules for the same bank and index have the same result whatever their
+     * markers or expected value.
+     */
     @Override
     public boolean equals(Object o) {
         if (o == this) return true;
-        if (!(o instanceof PcrEventLogIntegrity)) {
+        if (o == null || o.getClass() != getClass()) {
             return false;
         }
         PcrEventLogIntegrity rule = (PcrEventLogIntegrity) o;
-        return Objects.equals(markers, rule.markers)
-                && Objects.equals(expected.getPcrBank(), rule.pcrBank)
-                && Objects.equals(expected.getIndex(), rule.pcrIndex);
+        return Objects.equals(expected.getPcrBank(), rule.expected.getPcrBank())
+                && Objects.equals(expected.getIndex(), rule.expected.getIndex());
     }
     
     @Override
     public int hashCode() {
-        return Objects.hash(markers, pcrBank, pcrIndex);
+        return Objects.hash(expected.getPcrBank(), expected.getIndex());
+    }
+
+    @Override
+    public boolean isFlavorIndependent() {
+        return true;
+    }
+
+    @Override
+    public String getIntegrityKey() {
+        if (expected == null) {
+            return null;
+        }
+        return eventLogKey(expected.getPcrBank(), expected.getIndex());
+    }
+
+    @Override
+    public String[] getManifestSections() {
+        return new String[] { ManifestFingerprint.pcrKey(expected.getPcrBank(), expected.getIndex()), eventLogKey(expected.getPcrBank(), expected.getIndex()) };
     }
 }
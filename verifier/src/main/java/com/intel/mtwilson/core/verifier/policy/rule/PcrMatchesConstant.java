@@ -11,9 +11,12 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import com.intel.mtwilson.core.verifier.policy.PcrRule;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
 import com.intel.mtwilson.core.verifier.policy.fault.PcrManifestMissing;
 import com.intel.mtwilson.core.verifier.policy.fault.PcrValueMismatch;
 import com.intel.mtwilson.core.verifier.policy.fault.PcrValueMissing;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
 
 import com.intel.mtwilson.core.common.model.HostManifest;
 import com.intel.mtwilson.core.common.model.Pcr;
@@ -31,6 +34,7 @@ import java.util.Objects;
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 @JsonIgnoreProperties(ignoreUnknown=true)
 public class PcrMatchesConstant extends PcrRule {
+    private DigestKey expectedKey;
     
     @JsonCreator
     public PcrMatchesConstant(@JsonProperty("expected_pcr") Pcr expected) {
@@ -45,11 +49,12 @@ public class PcrMatchesConstant extends PcrRule {
         }
         else {
             Pcr actual = hostManifest.getPcrManifest().getPcr(expected.getPcrBank(), expected.getIndex().toInteger());
-            if( actual == null ) {
+            if( actual == null || actual.getValue() == null ) {
                 report.fault(new PcrValueMissing(expected.getIndex()));
             }
             else {
-                if( !expected.equals(actual) ) {
+                // the bank and index already match, so only the value is compared
+                if( !getExpectedKey().matches(actual.getValue()) ) {
                     report.fault(PcrValueMismatch.newInstance(expected.getPcrBank(), expected.getIndex(), expected.getValue(), actual.getValue()) );
                 }
             }
@@ -57,6 +62,22 @@ public class PcrMatchesConstant extends PcrRule {
         return report;
     }
     
+    @Override
+    public void setExpectedPcr(Pcr expected) {
+        super.setExpectedPcr(expected);
+        this.expectedKey = null;
+    }
+
+    /**
+     * The expected value is decoded once per rule into a DigestKey.
+     */
+    DigestKey getExpectedKey() {
+        if( expectedKey == null ) {
+            expectedKey = DigestKey.valueOf(expected.getValue());
+        }
+        return expectedKey;
+    }
+    
     @Override
     public String toString() {
         return String.format("PCR %s, %s", expected.getIndex().toString(), expected.getValue().toString());
@@ -77,4 +98,14 @@ public class PcrMatchesConstant extends PcrRule {
     public int hashCode() {
         return Objects.hash(expected, markers);
     }
+
+    @Override
+    public RuleCost getCost() {
+        return RuleCost.CONSTANT;
+    }
+
+    @Override
+    public String[] getManifestSections() {
+        return new String[] { ManifestFingerprint.pcrKey(expected.getPcrBank(), expected.getIndex()) };
+    }
 }
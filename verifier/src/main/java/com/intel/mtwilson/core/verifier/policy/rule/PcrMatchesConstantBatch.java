@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy.rule;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Pcr;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrManifestMissing;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrValueMismatch;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrValueMissing;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import com.intel.mtwilson.core.verifier.policy.utils.PcrMatrix;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The PcrMatchesConstant rules of a policy folded into one expected PcrMatrix
+ * per bank and a bitmask of the PCRs to check. Applying the batch reads the
+ * checked PCRs of the host into a matrix and compares all of them in one
+ * pass; the Pcr objects of the host are only used again to report the faults
+ * of mismatched PCRs. Each rule gets the same result it would get from its
+ * own apply method.
+ * <p>
+ * A rule is left out of the batch, and applied on its own, if another rule
+ * of the batch checks the same PCR or if its expected value does not have
+ * the digest length of the other values of its bank.
+ */
+public class PcrMatchesConstantBatch {
+    private final Map<DigestAlgorithm, Bank> banks;
+    private final int size;
+
+    private PcrMatchesConstantBatch(Map<DigestAlgorithm, Bank> banks, int size) {
+        this.banks = banks;
+        this.size = size;
+    }
+
+    /**
+     * @param rules  rules of a policy; rules other than PcrMatchesConstant
+     * are ignored
+     */
+    public static PcrMatchesConstantBatch compile(Collection<Rule> rules) {
+        Map<DigestAlgorithm, Bank> banks = new LinkedHashMap<>();
+        int size = 0;
+        for (Rule rule : rules) {
+            if (rule.getClass() != PcrMatchesConstant.class) {
+                continue;
+            }
+            PcrMatchesConstant constant = (PcrMatchesConstant) rule;
+            Pcr expected = constant.getExpectedPcr();
+            if (expected == null || expected.getPcrBank() == null || expected.getIndex() == null || expected.getValue() == null) {
+                continue;
+            }
+            DigestKey key = constant.getExpectedKey();
+            Bank bank = banks.get(expected.getPcrBank());
+            if (bank == null) {
+                bank = new Bank(expected.getPcrBank(), key.length());
+                banks.put(expected.getPcrBank(), bank);
+            }
+            if (bank.add(constant, key)) {
+                size++;
+            }
+        }
+        return new PcrMatchesConstantBatch(banks, size);
+    }
+
+    /**
+     * @return true if the rule is evaluated by this batch
+     */
+    public boolean contains(Rule rule) {
+        if (rule.getClass() != PcrMatchesConstant.class) {
+            return false;
+        }
+        Pcr expected = ((PcrMatchesConstant) rule).getExpectedPcr();
+        Bank bank = expected == null ? null : banks.get(expected.getPcrBank());
+        return bank != null && expected.getIndex() != null && bank.rules[expected.getIndex().toInteger()] == rule;
+    }
+
+    /**
+     * @return number of rules in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the result of each rule of the batch
+     */
+    public Map<Rule, RuleResult> apply(HostManifest hostManifest) {
+        IdentityHashMap<Rule, RuleResult> results = new IdentityHashMap<>(size * 2);
+        PcrManifest pcrManifest = hostManifest.getPcrManifest();
+        for (Bank bank : banks.values()) {
+            int missing;
+            int mismatched;
+            if (pcrManifest == null) {
+                missing = 0;
+                mismatched = 0;
+            } else {
+                PcrMatrix actual = PcrMatrix.of(pcrManifest, bank.bank, bank.length, bank.mask);
+                missing = bank.mask & ~actual.getPresent();
+                mismatched = bank.expected.mismatches(actual, bank.mask);
+            }
+            for (int remaining = bank.mask; remaining != 0; remaining &= remaining - 1) {
+                int index = Integer.numberOfTrailingZeros(remaining);
+                PcrMatchesConstant rule = bank.rules[index];
+                Pcr expected = rule.getExpectedPcr();
+                RuleResult report = new RuleResult(rule);
+                if (pcrManifest == null) {
+                    report.fault(new PcrManifestMissing());
+                } else if ((missing & (1 << index)) != 0) {
+                    report.fault(new PcrValueMissing(expected.getIndex()));
+                } else if ((mismatched & (1 << index)) != 0) {
+                    // a PCR reported without a value is in the matrix, as invalid
+                    Pcr actual = pcrManifest.getPcr(bank.bank, index);
+                    if (actual == null || actual.getValue() == null) {
+                        report.fault(new PcrValueMissing(expected.getIndex()));
+                    } else {
+                        report.fault(PcrValueMismatch.newInstance(bank.bank, expected.getIndex(), expected.getValue(), actual.getValue()));
+                    }
+                }
+                results.put(rule, report);
+            }
+        }
+        return results;
+    }
+
+    private static class Bank {
+        private final DigestAlgorithm bank;
+        private final int length;
+        private final PcrMatrix expected;
+        private final PcrMatchesConstant[] rules = new PcrMatchesConstant[PcrMatrix.PCR_COUNT];
+        private int mask;
+
+        Bank(DigestAlgorithm bank, int length) {
+            this.bank = bank;
+            this.length = length;
+            this.expected = new PcrMatrix(bank, length);
+        }
+
+        boolean add(PcrMatchesConstant rule, DigestKey key) {
+            int index = rule.getExpectedPcr().getIndex().toInteger();
+            if (key.length() != length || index < 0 || index >= PcrMatrix.PCR_COUNT || rules[index] != null) {
+                return false;
+            }
+            rules[index] = rule;
+            expected.set(index, key);
+            mask |= 1 << index;
+            return true;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 
 import com.intel.mtwilson.core.verifier.policy.BaseRule;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
 import com.intel.mtwilson.core.verifier.policy.fault.TagCertificateExpired;
 import com.intel.mtwilson.core.verifier.policy.fault.TagCertificateMissing;
 import com.intel.mtwilson.core.verifier.policy.fault.TagCertificateNotTrusted;
@@ -18,6 +19,7 @@ import com.intel.mtwilson.core.common.model.HostManifest;
 import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
 
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Date;
 
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
@@ -90,4 +92,60 @@ public class TagCertificateTrusted extends BaseRule {
     public String toString() {
         return "AIK certificate is signed by trusted authority";
     }
+
+    @Override
+    public RuleCost getCost() {
+        return RuleCost.CERTIFICATE;
+    }
+
+    @Override
+    public boolean isFlavorIndependent() {
+        return true;
+    }
+
+    /**
+     * The tag certificate is part of the flavor; the asset tag of the host is
+     * checked by AssetTagMatches.
+     */
+    @Override
+    public String[] getManifestSections() {
+        return new String[0];
+    }
+
+    /**
+     * The result changes when the tag certificate becomes valid or expires.
+     * The expiry of the trusted authority certificates is included so a
+     * result is not kept past the life of its trust anchors.
+     */
+    @Override
+    public Date getResultExpiry(HostManifest hostManifest, Date now) {
+        if (x509AttributeCertificate == null) {
+            return null;
+        }
+        Date expiry = earliestAfter(now, x509AttributeCertificate.getNotBefore(), x509AttributeCertificate.getNotAfter());
+        for (X509Certificate ca : trustedAuthorityCerts) {
+            expiry = earliestAfter(now, expiry, ca.getNotAfter());
+        }
+        return expiry;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof TagCertificateTrusted)) {
+            return false;
+        }
+        TagCertificateTrusted rule = (TagCertificateTrusted) o;
+        return Arrays.equals(trustedAuthorityCerts, rule.trustedAuthorityCerts)
+                && Arrays.equals(getEncodedTagCertificate(), rule.getEncodedTagCertificate());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(trustedAuthorityCerts) + Arrays.hashCode(getEncodedTagCertificate());
+    }
+
+    private byte[] getEncodedTagCertificate() {
+        return x509AttributeCertificate == null ? null : x509AttributeCertificate.getEncoded();
+    }
 }
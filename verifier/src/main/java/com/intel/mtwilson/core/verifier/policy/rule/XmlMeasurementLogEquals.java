@@ -10,8 +10,11 @@ import com.intel.mtwilson.core.common.model.HostManifest;
 import com.intel.mtwilson.core.flavor.model.Flavor;
 import com.intel.mtwilson.core.verifier.policy.BaseRule;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
 import com.intel.mtwilson.core.verifier.policy.fault.*;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
 import com.intel.mtwilson.core.verifier.policy.utils.HostManifestUtils;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
 import com.intel.wml.measurement.xml.MeasurementType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,8 +23,10 @@ import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -38,6 +43,8 @@ public class XmlMeasurementLogEquals extends BaseRule {
     private String flavorId;
     private String flavorName;
     private List<MeasurementType> expectedMeasurements;
+    private DigestKey[] expectedKeys;
+    private Set<DigestKey> expectedKeySet;
 
     protected XmlMeasurementLogEquals() {
     }
@@ -46,6 +53,7 @@ public class XmlMeasurementLogEquals extends BaseRule {
         this.flavorId = expected.getMeta().getId();
         this.flavorName = expected.getMeta().getDescription().getLabel();
         this.expectedMeasurements = new ArrayList<>(expected.getSoftware().getMeasurements().values());
+        getExpectedKeys();
     }
 
     public List<MeasurementType> getExpectedMeasurements() {
@@ -82,13 +90,20 @@ public class XmlMeasurementLogEquals extends BaseRule {
                 if (actualModules.isEmpty()) {
                     report.fault(new XmlMeasurementLogMissing(flavorId));
                 } else {
-                    ArrayList<MeasurementType> hostActualUnexpected = new ArrayList<>(actualModules);
-                    hostActualUnexpected = removeAll(hostActualUnexpected, expectedMeasurements);
+                    DigestKey[] actualKeys;
+                    try {
+                        actualKeys = decode(actualModules);
+                    } catch (IllegalArgumentException e) {
+                        log.debug("XmlMeasurementLogEquals: Invalid module value in the XML Measurement log.", e);
+                        report.fault(new XmlMeasurementLogInvalid());
+                        report.setFlavorId(flavorId);
+                        return report;
+                    }
+                    ArrayList<MeasurementType> hostActualUnexpected = removeAll(actualModules, actualKeys, getExpectedKeySet());
 
-                    ArrayList<MeasurementType> hostActualMissing = new ArrayList<>(expectedMeasurements);
                     log.debug("XmlMeasurementLogEquals: About to check host entries {} against the whitelist which has {} entries.",
-                            actualModules.size(), hostActualMissing.size());
-                    hostActualMissing = removeAll(hostActualMissing, actualModules);
+                            actualModules.size(), expectedMeasurements.size());
+                    ArrayList<MeasurementType> hostActualMissing = removeAll(expectedMeasurements, getExpectedKeys(), new HashSet<>(Arrays.asList(actualKeys)));
 
                     raiseFaultForModifiedEntries(hostActualUnexpected, hostActualMissing, report);
 
@@ -142,24 +157,62 @@ public class XmlMeasurementLogEquals extends BaseRule {
         }
     }
 
-    private ArrayList<MeasurementType> removeAll(List<MeasurementType> firstList, List<MeasurementType> secondList) {
+    /**
+     * @return the entries of the list whose key is not in the set
+     */
+    private ArrayList<MeasurementType> removeAll(List<MeasurementType> list, DigestKey[] keys, Set<DigestKey> set) {
         ArrayList<MeasurementType> result = new ArrayList<>();
-        for(MeasurementType f :firstList) {
-            boolean present = false;
-            for(MeasurementType s:secondList) {
-                if(equalMeasurementTypes(f,s)) {
-                    present = true;
-                    break;
-                }
-            }
-            if(!present) {
-                result.add(f);
+        for (int i = 0; i < keys.length; i++) {
+            if (!set.contains(keys[i])) {
+                result.add(list.get(i));
             }
         }
         return result;
     }
 
-    private boolean equalMeasurementTypes(MeasurementType first, MeasurementType second) {
-        return first.getValue().equals(second.getValue());
+    private static DigestKey[] decode(List<MeasurementType> measurements) {
+        DigestKey[] keys = new DigestKey[measurements.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = DigestKey.valueOfHex(measurements.get(i).getValue());
+        }
+        return keys;
+    }
+
+    /**
+     * The expected module values are decoded once per rule; rules read from
+     * a serialized policy decode them on first use.
+     */
+    private DigestKey[] getExpectedKeys() {
+        if (expectedKeys == null) {
+            DigestKey[] keys = decode(expectedMeasurements);
+            expectedKeySet = new HashSet<>(Arrays.asList(keys));
+            expectedKeys = keys;
+        }
+        return expectedKeys;
+    }
+
+    private Set<DigestKey> getExpectedKeySet() {
+        getExpectedKeys();
+        return expectedKeySet;
+    }
+
+    @Override
+    public RuleCost getCost() {
+        return RuleCost.PARSE;
+    }
+
+    @Override
+    public String getRuleKey() {
+        return String.valueOf(flavorId);
+    }
+
+    @Override
+    public String[] getDependencyKeys() {
+        return new String[] { XmlMeasurementLogIntegrity.measurementLogKey(flavorId) };
+    }
+
+    @Override
+    public String[] getManifestSections() {
+        return new String[] { ManifestFingerprint.MEASUREMENT_XMLS };
     }
-}
\ No newline at end of file
+}
@@ -15,21 +15,30 @@ import com.intel.mtwilson.core.common.model.Measurement;
 import com.intel.mtwilson.core.common.model.PcrEventLog;
 import com.intel.mtwilson.core.common.model.PcrIndex;
 import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.verifier.crypto.CryptoProvider;
 import com.intel.mtwilson.core.verifier.policy.BaseRule;
+import com.intel.mtwilson.core.verifier.policy.PcrRule;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
 
 import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogMissing;
 import com.intel.mtwilson.core.verifier.policy.fault.XmlMeasurementLogInvalid;
 import com.intel.mtwilson.core.verifier.policy.fault.XmlMeasurementLogMissing;
 import com.intel.mtwilson.core.verifier.policy.fault.XmlMeasurementValueMismatch;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
 import com.intel.mtwilson.core.verifier.policy.utils.HostManifestUtils;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
 import com.intel.wml.measurement.xml.MeasurementType;
+import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -52,6 +61,8 @@ public class XmlMeasurementLogIntegrity extends BaseRule {
     private String flavorId;
     private String flavorName;
     private String expectedValue;
+    private DigestKey expectedKey;
+    private DigestKey expectedSha1Key;
 
     protected XmlMeasurementLogIntegrity() {
     }
@@ -60,6 +71,7 @@ public class XmlMeasurementLogIntegrity extends BaseRule {
         this.flavorId = expected.getMeta().getId();
         this.flavorName = expected.getMeta().getDescription().getLabel();
         this.expectedValue = expected.getSoftware().getCumulativeHash();
+        this.expectedKey = DigestKey.valueOfHex(expectedValue);
     }
 
     public String getFlavorId() {
@@ -94,14 +106,20 @@ public class XmlMeasurementLogIntegrity extends BaseRule {
                 log.debug("XmlMeasurementLogIntegrity: Retrieved #{} of measurements from the log.", measurements.size());
                 if (measurements.size() > 0) {
                     DigestAlgorithm finalDigestAlgorithm = DigestAlgorithm.SHA384;
-                    AbstractDigest expectedValueDigest = Sha384Digest.valueOfHex(expectedValue);
-                    AbstractDigest actualDigestInMeasurement = Sha384Digest.valueOfHex(measurement.getCumulativeHash().getValue());
-                    AbstractDigest actualValue = computeHistory(measurements);
+                    DigestKey expectedKey = getExpectedKey();
+                    DigestKey actualKeyInMeasurement;
+                    try {
+                        actualKeyInMeasurement = DigestKey.valueOfHex(measurement.getCumulativeHash().getValue());
+                    } catch (IllegalArgumentException e) {
+                        log.debug("XmlMeasurementLogIntegrity: Invalid cumulative hash in the XML Measurement log.", e);
+                        report.fault(new XmlMeasurementLogInvalid());
+                        return report;
+                    }
 
                     try {
-                        if (!expectedDigestMatchesWithDigestInEventLog(expectedValueDigest, hostManifest)) {
+                        if (!expectedDigestMatchesWithDigestInEventLog(expectedKey, hostManifest)) {
                             log.info("XmlMeasurementLogIntegrity: Mismatch in the expected cumulative hash value present in flavor and the value present in the PCR Event log.");
-                            report.fault(XmlMeasurementValueMismatch.newInstance(finalDigestAlgorithm, expectedValueDigest, actualDigestInMeasurement));
+                            report.fault(XmlMeasurementValueMismatch.newInstance(finalDigestAlgorithm, toDigest(expectedKey), toDigest(actualKeyInMeasurement)));
                             return report;
                         }
                     } catch (RuntimeException re) {
@@ -110,14 +128,22 @@ public class XmlMeasurementLogIntegrity extends BaseRule {
                             return report;
                         }
                     }
-                    if (!expectedValueDigest.equals(actualDigestInMeasurement)) {
+                    if (!expectedKey.equals(actualKeyInMeasurement)) {
                         log.info("XmlMeasurementLogIntegrity: Mismatch in the expected cumulative hash value present in flavor and the cumulative value present in the XML Measurement log.");
-                        report.fault(XmlMeasurementValueMismatch.newInstance(finalDigestAlgorithm, expectedValueDigest, actualDigestInMeasurement));
+                        report.fault(XmlMeasurementValueMismatch.newInstance(finalDigestAlgorithm, toDigest(expectedKey), toDigest(actualKeyInMeasurement)));
+                        return report;
+                    }
+                    DigestKey actualValue;
+                    try {
+                        actualValue = computeHistory(measurements);
+                    } catch (IllegalArgumentException e) {
+                        log.debug("XmlMeasurementLogIntegrity: Invalid module value in the XML Measurement log.", e);
+                        report.fault(new XmlMeasurementLogInvalid());
                         return report;
                     }
-                    if (!expectedValueDigest.equals(actualValue)) {
+                    if (!expectedKey.equals(actualValue)) {
                         log.info("XmlMeasurementLogIntegrity: Mismatch in the expected cumulative hash value present in flavor and final evaluated cumulative hash value from the XML Measurement log.");
-                        report.fault(XmlMeasurementValueMismatch.newInstance(finalDigestAlgorithm, expectedValueDigest, actualValue));
+                        report.fault(XmlMeasurementValueMismatch.newInstance(finalDigestAlgorithm, toDigest(expectedKey), toDigest(actualValue)));
                         return report;
                     }
                     log.debug("Verified the integrity of the XML measurement log successfully.");
@@ -128,7 +154,7 @@ public class XmlMeasurementLogIntegrity extends BaseRule {
         return report;
     }
 
-    private boolean expectedDigestMatchesWithDigestInEventLog(AbstractDigest expectedValueDigest, HostManifest hostManifest) {
+    private boolean expectedDigestMatchesWithDigestInEventLog(DigestKey expectedKey, HostManifest hostManifest) {
         AbstractDigest actualDigestInEventLog = getMeasurementFromEventlog(flavorId, flavorName, hostManifest);
         if(actualDigestInEventLog == null) {
             return false;
@@ -136,20 +162,65 @@ public class XmlMeasurementLogIntegrity extends BaseRule {
 
         String tpmVersion = hostManifest.getHostInfo().getTpmVersion();
         if (tpmVersion != null && tpmVersion.equals("1.2")) {
-            expectedValueDigest = Sha1Digest.digestOf(expectedValueDigest.toByteArray());
+            // TPM 1.2 extends the SHA1 of the cumulative hash into PCR 15
+            if (expectedSha1Key == null) {
+                expectedSha1Key = DigestKey.valueOf(Sha1Digest.digestOf(expectedKey.toByteArray()));
+            }
+            return expectedSha1Key.matches(actualDigestInEventLog);
         }
-        return expectedValueDigest.equals(actualDigestInEventLog);
+        return expectedKey.matches(actualDigestInEventLog);
     }
 
-    private Sha384Digest computeHistory(List<MeasurementType> list) {
-        Sha384Digest result = Sha384Digest.ZERO;
-        for (MeasurementType m : list) {
-            if (m.getValue() != null) {
-                log.debug("XmlMeasurementLogIntegrity-computeHistory: Extending value [{}] to current value [{}]", m.getValue(), result.toString());
-                result = result.extend(Sha384Digest.valueOfHex(m.getValue()));
+    /**
+     * Replays the XML measurement log into one reused buffer, decoding each
+     * module value in place instead of creating a digest object per module.
+     *
+     * @return the cumulative hash after extending all modules
+     */
+    private DigestKey computeHistory(List<MeasurementType> list) {
+        CryptoProvider crypto = CryptoProvider.getDefault();
+        MessageDigest digest;
+        try {
+            digest = crypto.acquireMessageDigest("SHA-384");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot replay XML measurement log", e);
+        }
+        byte[] result = new byte[digest.getDigestLength()];
+        byte[] value = new byte[DigestKey.MAX_LENGTH];
+        try {
+            for (int i = 0; i < list.size(); i++) {
+                MeasurementType m = list.get(i);
+                if (m.getValue() != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("XmlMeasurementLogIntegrity-computeHistory: Extending value [{}] to current value [{}]", m.getValue(), Hex.encodeHexString(result));
+                    }
+                    int length = DigestKey.decodeHex(m.getValue(), value);
+                    digest.update(result);
+                    digest.update(value, 0, length);
+                    digest.digest(result, 0, result.length);
+                }
             }
+        } catch (DigestException e) {
+            throw new IllegalStateException("Cannot replay XML measurement log", e);
+        } finally {
+            crypto.release(digest);
         }
-        return result;
+        return DigestKey.valueOf(result);
+    }
+
+    /**
+     * The expected cumulative hash is decoded once per rule; rules read from
+     * a serialized policy decode it on first use.
+     */
+    private DigestKey getExpectedKey() {
+        if (expectedKey == null) {
+            expectedKey = DigestKey.valueOfHex(expectedValue);
+        }
+        return expectedKey;
+    }
+
+    private static Sha384Digest toDigest(DigestKey key) {
+        return new Sha384Digest(key.toByteArray());
     }
 
     private AbstractDigest getMeasurementFromEventlog(String flavorId, String flavorLabel, HostManifest hostManifest) {
@@ -195,4 +266,39 @@ public class XmlMeasurementLogIntegrity extends BaseRule {
         }
         return digestAlgorithm;
     }
+
+    @Override
+    public RuleCost getCost() {
+        return RuleCost.PARSE;
+    }
+
+    @Override
+    public String getRuleKey() {
+        return String.valueOf(flavorId);
+    }
+
+    @Override
+    public String getIntegrityKey() {
+        return measurementLogKey(flavorId);
+    }
+
+    /**
+     * @return the integrity key of the measurement log of one software flavor
+     */
+    public static String measurementLogKey(String flavorId) {
+        return "xml_measurement_log:" + flavorId;
+    }
+
+    /**
+     * The PCR 15 event log is read from the bank of the host TPM version.
+     */
+    @Override
+    public String[] getManifestSections() {
+        return new String[] {
+            ManifestFingerprint.MEASUREMENT_XMLS,
+            ManifestFingerprint.HOST_INFO,
+            PcrRule.eventLogKey(DigestAlgorithm.SHA1, PcrIndex.PCR15),
+            PcrRule.eventLogKey(DigestAlgorithm.SHA256, PcrIndex.PCR15)
+        };
+    }
 }
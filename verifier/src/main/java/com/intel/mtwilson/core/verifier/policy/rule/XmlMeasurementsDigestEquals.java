@@ -12,11 +12,13 @@ import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
 import com.intel.mtwilson.core.flavor.model.Flavor;
 import com.intel.mtwilson.core.verifier.policy.BaseRule;
 import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
 
 import com.intel.mtwilson.core.common.model.HostManifest;
 
 import com.intel.mtwilson.core.verifier.policy.fault.*;
 import com.intel.mtwilson.core.verifier.policy.utils.HostManifestUtils;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
 import com.intel.mtwilson.core.common.utils.MeasurementUtils;
 import com.intel.wml.measurement.xml.Measurement;
 import org.slf4j.Logger;
@@ -83,4 +85,19 @@ public class XmlMeasurementsDigestEquals extends BaseRule {
     public String toString() {
         return "Expected XML measurements digest algorithms should match with flavor";
     }
+
+    @Override
+    public RuleCost getCost() {
+        return RuleCost.PARSE;
+    }
+
+    @Override
+    public String getRuleKey() {
+        return expected == null ? "" : String.valueOf(expected.getMeta().getId());
+    }
+
+    @Override
+    public String[] getManifestSections() {
+        return new String[] { ManifestFingerprint.MEASUREMENT_XMLS };
+    }
 }
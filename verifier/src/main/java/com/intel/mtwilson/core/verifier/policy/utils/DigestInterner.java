@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy.utils;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.flavor.model.PcrEx;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEquals;
+import com.intel.mtwilson.core.verifier.policy.rule.XmlMeasurementLogEquals;
+import com.intel.wml.measurement.xml.MeasurementType;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional pools that let flavors and host manifests held in memory share one
+ * instance of each distinct event log measurement, XML measurement value and
+ * path, and DigestKey. The same kernel modules, ACMs and software flavor files
+ * appear in thousands of flavors, so a flavor cache or manifest cache can call
+ * intern on each object before storing it. FlavorIndex, CompiledPolicyStore
+ * and Verifier do so for the flavors and policies they keep when an interner
+ * is set.
+ * <p>
+ * Interning only replaces values with equal values, so it does not change
+ * serialization or flavor signatures. The pools hold their values weakly and
+ * are safe to share between threads. The bytes saved are estimated for a
+ * 64-bit JVM with compressed references and count each duplicate that was
+ * replaced by a pooled instance.
+ */
+public class DigestInterner {
+    private static final DigestAlgorithm[] PCR_BANKS = { DigestAlgorithm.SHA1, DigestAlgorithm.SHA256 };
+    // object header, eight lanes, length and hash, 8 byte aligned
+    private static final long DIGEST_KEY_SIZE = 88;
+
+    private final WeakInterner<String> strings = new WeakInterner<>();
+    private final WeakInterner<Measurement> measurements = new WeakInterner<>();
+    private final WeakInterner<DigestKey> keys = new WeakInterner<>();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Replaces the event log measurements of every PCR and the values and
+     * paths of the XML measurements of a software flavor with pooled
+     * instances.
+     */
+    public void intern(Flavor flavor) {
+        if (flavor.getPcrs() != null) {
+            for (Map<PcrIndex, PcrEx> pcrs : flavor.getPcrs().values()) {
+                for (PcrEx pcr : pcrs.values()) {
+                    if (pcr != null && pcr.getEvent() != null) {
+                        internAll(pcr.getEvent());
+                    }
+                }
+            }
+        }
+        if (flavor.getSoftware() != null && flavor.getSoftware().getMeasurements() != null) {
+            for (MeasurementType measurement : flavor.getSoftware().getMeasurements().values()) {
+                intern(measurement);
+            }
+        }
+    }
+
+    /**
+     * Replaces the entries of the SHA1 and SHA256 PCR event logs of the host
+     * manifest with pooled instances.
+     */
+    public void intern(HostManifest hostManifest) {
+        if (hostManifest.getPcrManifest() == null) {
+            return;
+        }
+        for (DigestAlgorithm bank : PCR_BANKS) {
+            for (PcrIndex index : PcrIndex.values()) {
+                PcrEventLog eventLog = hostManifest.getPcrManifest().getPcrEventLog(bank, index);
+                if (eventLog != null && eventLog.getEventLog() != null) {
+                    internAll(eventLog.getEventLog());
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the expected event log entries and XML measurements of the
+     * rules of a compiled policy with pooled instances.
+     */
+    public void intern(Policy policy) {
+        for (Rule rule : policy.getRules()) {
+            if (rule instanceof PcrEventLogEquals) {
+                PcrEventLog expected = ((PcrEventLogEquals) rule).getExpected();
+                if (expected != null && expected.getEventLog() != null) {
+                    internAll(expected.getEventLog());
+                }
+            } else if (rule instanceof XmlMeasurementLogEquals) {
+                List<MeasurementType> expected = ((XmlMeasurementLogEquals) rule).getExpectedMeasurements();
+                if (expected != null) {
+                    for (MeasurementType measurement : expected) {
+                        intern(measurement);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the value and path of the XML measurement with pooled strings.
+     */
+    public void intern(MeasurementType measurement) {
+        measurement.setValue(intern(measurement.getValue()));
+        measurement.setPath(intern(measurement.getPath()));
+    }
+
+    public Measurement intern(Measurement measurement) {
+        Measurement canonical = measurements.intern(measurement);
+        if (canonical != measurement) {
+            bytesSaved.addAndGet(sizeOf(measurement));
+        }
+        return canonical;
+    }
+
+    public DigestKey intern(DigestKey key) {
+        DigestKey canonical = keys.intern(key);
+        if (canonical != key) {
+            bytesSaved.addAndGet(DIGEST_KEY_SIZE);
+        }
+        return canonical;
+    }
+
+    public String intern(String value) {
+        String canonical = strings.intern(value);
+        if (canonical != value) {
+            bytesSaved.addAndGet(sizeOf(value));
+        }
+        return canonical;
+    }
+
+    /**
+     * Lists that cannot be modified are left as they are.
+     */
+    private void internAll(List<Measurement> eventLog) {
+        try {
+            for (ListIterator<Measurement> iterator = eventLog.listIterator(); iterator.hasNext();) {
+                Measurement measurement = iterator.next();
+                Measurement canonical = intern(measurement);
+                if (canonical != measurement) {
+                    iterator.set(canonical);
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            // an unmodifiable event log keeps its own instances
+        }
+    }
+
+    /**
+     * @return number of distinct values currently pooled
+     */
+    public int size() {
+        return strings.size() + measurements.size() + keys.size();
+    }
+
+    public long getLookups() {
+        return strings.getLookups() + measurements.getLookups() + keys.getLookups();
+    }
+
+    /**
+     * @return number of values that were replaced by a pooled instance
+     */
+    public long getHits() {
+        return strings.getHits() + measurements.getHits() + keys.getHits();
+    }
+
+    /**
+     * @return estimated bytes of the duplicates replaced by pooled instances
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d pooled values, %d of %d lookups shared, about %d KB saved",
+                size(), getHits(), getLookups(), getBytesSaved() / 1024);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static long sizeOf(String value) {
+        return value == null ? 0 : 24 + align(16 + 2L * value.length());
+    }
+
+    /**
+     * The measurement with its label, digest and info map.
+     */
+    private static long sizeOf(Measurement measurement) {
+        long size = 24 + sizeOf(measurement.getLabel());
+        if (measurement.getValue() != null) {
+            size += 16 + align(16 + measurement.getValue().toByteArray().length);
+        }
+        Map<String, String> info = measurement.getInfo();
+        if (info != null) {
+            size += 48 + align(16 + 4L * Math.max(16, info.size() * 2));
+            for (Map.Entry<String, String> entry : info.entrySet()) {
+                size += 32 + sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy.utils;
+
+import com.intel.dcsg.cpg.crypto.AbstractDigest;
+
+/**
+ * An immutable digest value of up to 64 bytes packed into eight long lanes,
+ * big-endian, with the hash code computed once. Rules decode expected values
+ * into a DigestKey when they are created and host values once per manifest,
+ * so comparing two digests is a few long comparisons instead of decoding hex
+ * strings or comparing byte arrays of AbstractDigest objects.
+ * <p>
+ * Two keys are equal when they have the same length and the same bytes; the
+ * digest algorithm is not part of the key, as it is implied by the length for
+ * the algorithms a TPM reports.
+ */
+public final class DigestKey {
+    /**
+     * The longest supported digest, SHA-512.
+     */
+    public static final int MAX_LENGTH = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long l0, l1, l2, l3, l4, l5, l6, l7;
+    private final int length;
+    private final int hash;
+
+    private DigestKey(int length, long l0, long l1, long l2, long l3, long l4, long l5, long l6, long l7) {
+        this.length = length;
+        this.l0 = l0;
+        this.l1 = l1;
+        this.l2 = l2;
+        this.l3 = l3;
+        this.l4 = l4;
+        this.l5 = l5;
+        this.l6 = l6;
+        this.l7 = l7;
+        long h = length;
+        h = 31 * h + l0;
+        h = 31 * h + l1;
+        h = 31 * h + l2;
+        h = 31 * h + l3;
+        h = 31 * h + l4;
+        h = 31 * h + l5;
+        h = 31 * h + l6;
+        h = 31 * h + l7;
+        this.hash = (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @param bytes digest value of at most 64 bytes
+     * @return the key for the bytes, or null if bytes is null
+     * @throws IllegalArgumentException if the value is longer than 64 bytes
+     */
+    public static DigestKey valueOf(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        int length = checkLength(bytes.length);
+        return new DigestKey(length,
+                lane(bytes, 0, length), lane(bytes, 1, length), lane(bytes, 2, length), lane(bytes, 3, length),
+                lane(bytes, 4, length), lane(bytes, 5, length), lane(bytes, 6, length), lane(bytes, 7, length));
+    }
+
+    /**
+     * @return the key for the digest value, or null if digest is null
+     */
+    public static DigestKey valueOf(AbstractDigest digest) {
+        return digest == null ? null : valueOf(digest.toByteArray());
+    }
+
+    /**
+     * Decodes a hex string directly into the lanes of the key, without an
+     * intermediate byte array. Upper and lower case digits are accepted.
+     *
+     * @param hex digest value of at most 128 hex digits
+     * @return the key for the value, or null if hex is null
+     * @throws IllegalArgumentException if the value is not an even number of
+     * hex digits or is longer than 64 bytes
+     */
+    public static DigestKey valueOfHex(String hex) {
+        if (hex == null) {
+            return null;
+        }
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Digest hex value has odd length " + hex.length());
+        }
+        int length = checkLength(hex.length() / 2);
+        return new DigestKey(length,
+                hexLane(hex, 0, length), hexLane(hex, 1, length), hexLane(hex, 2, length), hexLane(hex, 3, length),
+                hexLane(hex, 4, length), hexLane(hex, 5, length), hexLane(hex, 6, length), hexLane(hex, 7, length));
+    }
+
+    /**
+     * Decodes a hex string into the start of a reused buffer, for callers
+     * that feed many values into a MessageDigest.
+     *
+     * @return number of bytes written to the buffer
+     * @throws IllegalArgumentException if the value is not an even number of
+     * hex digits or does not fit in the buffer
+     */
+    public static int decodeHex(String hex, byte[] buffer) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Digest hex value has odd length " + hex.length());
+        }
+        int length = hex.length() / 2;
+        if (length > buffer.length) {
+            throw new IllegalArgumentException("Digest value of " + length + " bytes is longer than " + buffer.length);
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) ((hexDigit(hex, 2 * i) << 4) | hexDigit(hex, 2 * i + 1));
+        }
+        return length;
+    }
+
+    private static int checkLength(int length) {
+        if (length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Digest value of " + length + " bytes is longer than " + MAX_LENGTH);
+        }
+        return length;
+    }
+
+    private static long lane(byte[] bytes, int index, int length) {
+        long value = 0;
+        int offset = index * 8;
+        for (int i = 0; i < 8; i++) {
+            value <<= 8;
+            if (offset + i < length) {
+                value |= bytes[offset + i] & 0xff;
+            }
+        }
+        return value;
+    }
+
+    private static long hexLane(String hex, int index, int length) {
+        long value = 0;
+        int offset = index * 8;
+        for (int i = 0; i < 8; i++) {
+            value <<= 8;
+            if (offset + i < length) {
+                int position = (offset + i) * 2;
+                value |= (hexDigit(hex, position) << 4) | hexDigit(hex, position + 1);
+            }
+        }
+        return value;
+    }
+
+    private static int hexDigit(String hex, int position) {
+        char c = hex.charAt(position);
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        throw new IllegalArgumentException("Digest hex value has invalid character at position " + position);
+    }
+
+    /**
+     * @return eight bytes of the value, big-endian, zero padded after the end
+     */
+    long lane(int index) {
+        switch (index) {
+            case 0: return l0;
+            case 1: return l1;
+            case 2: return l2;
+            case 3: return l3;
+            case 4: return l4;
+            case 5: return l5;
+            case 6: return l6;
+            default: return l7;
+        }
+    }
+
+    /**
+     * @return number of bytes in the digest value
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Compares the key with a digest value without creating a key for it.
+     *
+     * @return true if bytes has the same length and value as this key
+     */
+    public boolean matches(byte[] bytes) {
+        if (bytes == null || bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != (byte) (lane(i / 8) >>> (56 - 8 * (i % 8)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the digest has the same length and value as this key
+     */
+    public boolean matches(AbstractDigest digest) {
+        return digest != null && matches(digest.toByteArray());
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (lane(i / 8) >>> (56 - 8 * (i % 8)));
+        }
+        return bytes;
+    }
+
+    public String toHexString() {
+        char[] text = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int b = (int) (lane(i / 8) >>> (56 - 8 * (i % 8))) & 0xff;
+            text[2 * i] = HEX[b >>> 4];
+            text[2 * i + 1] = HEX[b & 0xf];
+        }
+        return new String(text);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof DigestKey)) {
+            return false;
+        }
+        DigestKey other = (DigestKey) o;
+        return hash == other.hash && length == other.length
+                && l0 == other.l0 && l1 == other.l1 && l2 == other.l2 && l3 == other.l3
+                && l4 == other.l4 && l5 == other.l5 && l6 == other.l6 && l7 == other.l7;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return toHexString();
+    }
+}
@@ -5,6 +5,7 @@
 package com.intel.mtwilson.core.verifier.policy.utils;
 
 import com.intel.dcsg.cpg.x509.X509Util;
+import com.intel.mtwilson.core.verifier.crypto.CryptoProvider;
 import com.intel.mtwilson.core.flavor.model.Flavor;
 import com.intel.mtwilson.util.ResourceFinder;
 import org.apache.commons.io.IOUtils;
@@ -51,15 +52,40 @@ public class FlavorUtils {
     }
 
     private static boolean verifyFlavorTrust(String flavor, String signatureString, X509Certificate flavorSigningCertificate) {
+        CryptoProvider crypto = CryptoProvider.getDefault();
+        Signature signature = null;
         try {
-            Signature signature = Signature.getInstance("SHA384withRSA");
+            signature = crypto.acquireSignature("SHA384withRSA");
             signature.initVerify(flavorSigningCertificate);
             signature.update(flavor.getBytes());
             return signature.verify(Base64.getDecoder().decode(signatureString));
         } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException exc) {
             log.error("Error verifying signature: ", exc.fillInStackTrace());
             return false;
+        } finally {
+            crypto.release(signature);
+        }
+    }
+
+    /**
+     * @return the flavor signing certificate, the intermediate CAs that follow
+     * it in its file, and the root CA, in that order
+     */
+    public static List<X509Certificate> getCertificateChain(String flavorSigningCertPath, String flavorCaCertPath) throws IOException, CertificateException {
+        List<X509Certificate> chain = new ArrayList<>();
+        InputStream signingCert = new FileInputStream(ResourceFinder.getFile(flavorSigningCertPath));
+        try {
+            chain.addAll(X509Util.decodePemCertificates(IOUtils.toString(signingCert)));
+        } finally {
+            signingCert.close();
+        }
+        InputStream rootCert = new FileInputStream(ResourceFinder.getFile(flavorCaCertPath));
+        try {
+            chain.add(X509Util.decodePemCertificates(IOUtils.toString(rootCert)).get(0));
+        } finally {
+            rootCert.close();
         }
+        return chain;
     }
 
     private static X509Certificate getFlavorSigningCertificate(String flavorSigningCertPath) throws IOException, CertificateException {
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy.utils;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.Pcr;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.verifier.crypto.CryptoProvider;
+import com.intel.mtwilson.core.verifier.policy.BaseRule;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SHA-256 fingerprints of the sections of a host manifest that rules read,
+ * computed on first use. A section is named by a key:
+ * <pre>
+ * pcr:{bank}:{index}            value of one PCR
+ * pcr_event_log:{bank}:{index}  event log of one PCR
+ * aik_certificate               AIK certificate
+ * asset_tag                     asset tag digest
+ * measurement_xmls              measurement XMLs
+ * host_info                     OS name and TPM version
+ * </pre>
+ * A missing section has its own fingerprint, so a section that appears or
+ * disappears is a change. An unknown key is never equal to an earlier
+ * fingerprint.
+ *
+ * @see BaseRule#getManifestSections()
+ */
+public class ManifestFingerprint {
+    public static final String AIK_CERTIFICATE = "aik_certificate";
+    public static final String ASSET_TAG = "asset_tag";
+    public static final String MEASUREMENT_XMLS = "measurement_xmls";
+    public static final String HOST_INFO = "host_info";
+
+    private static final DigestKey MISSING = DigestKey.valueOf(new byte[0]);
+
+    private final HostManifest hostManifest;
+    private final Map<String, DigestKey> sections = new HashMap<>();
+
+    public ManifestFingerprint(HostManifest hostManifest) {
+        this.hostManifest = hostManifest;
+    }
+
+    /**
+     * @return key of the section holding the value of one PCR
+     */
+    public static String pcrKey(DigestAlgorithm pcrBank, PcrIndex pcrIndex) {
+        return "pcr:" + pcrBank + ":" + pcrIndex.toInteger();
+    }
+
+    /**
+     * @return the manifest sections the rule reads, or null if the rule must
+     * always be evaluated
+     */
+    public static String[] sectionsOf(Rule rule) {
+        return rule instanceof BaseRule ? ((BaseRule) rule).getManifestSections() : null;
+    }
+
+    /**
+     * @return fingerprint of the section, or null for an unknown key
+     */
+    public DigestKey get(String section) {
+        if (!sections.containsKey(section)) {
+            sections.put(section, compute(section));
+        }
+        return sections.get(section);
+    }
+
+    private DigestKey compute(String section) {
+        CryptoProvider crypto = CryptoProvider.getDefault();
+        MessageDigest digest = sha256(crypto);
+        try {
+            return compute(section, digest);
+        } finally {
+            crypto.release(digest);
+        }
+    }
+
+    private DigestKey compute(String section, MessageDigest digest) {
+        switch (section) {
+            case AIK_CERTIFICATE:
+                if (hostManifest.getAikCertificate() == null) {
+                    return MISSING;
+                }
+                try {
+                    digest.update(hostManifest.getAikCertificate().getEncoded());
+                } catch (CertificateEncodingException e) {
+                    return null;
+                }
+                break;
+            case ASSET_TAG:
+                if (hostManifest.getAssetTagDigest() == null) {
+                    return MISSING;
+                }
+                digest.update(hostManifest.getAssetTagDigest());
+                break;
+            case MEASUREMENT_XMLS:
+                // rules check for the PCR manifest before reading the XMLs
+                digest.update((byte) (hostManifest.getPcrManifest() == null ? 0 : 1));
+                if (hostManifest.getMeasurementXmls() == null) {
+                    return MISSING;
+                }
+                for (String measurementXml : hostManifest.getMeasurementXmls()) {
+                    update(digest, measurementXml);
+                }
+                break;
+            case HOST_INFO:
+                if (hostManifest.getHostInfo() == null) {
+                    return MISSING;
+                }
+                update(digest, hostManifest.getHostInfo().getOsName());
+                update(digest, hostManifest.getHostInfo().getTpmVersion());
+                break;
+            default:
+                return computePcrSection(section, digest);
+        }
+        return DigestKey.valueOf(digest.digest());
+    }
+
+    private DigestKey computePcrSection(String section, MessageDigest digest) {
+        String[] parts = section.split(":");
+        if (parts.length != 3 || !("pcr".equals(parts[0]) || "pcr_event_log".equals(parts[0]))) {
+            return null;
+        }
+        DigestAlgorithm bank;
+        PcrIndex index;
+        try {
+            bank = DigestAlgorithm.valueOf(parts[1]);
+            index = PcrIndex.valueOf(Integer.parseInt(parts[2]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (hostManifest.getPcrManifest() == null) {
+            return MISSING;
+        }
+        if ("pcr".equals(parts[0])) {
+            Pcr pcr = hostManifest.getPcrManifest().getPcr(bank, index.toInteger());
+            if (pcr == null || pcr.getValue() == null) {
+                return MISSING;
+            }
+            digest.update(pcr.getValue().toByteArray());
+        } else {
+            PcrEventLog eventLog = hostManifest.getPcrManifest().getPcrEventLog(bank, index);
+            if (eventLog == null || eventLog.getEventLog() == null) {
+                return MISSING;
+            }
+            List<Measurement> measurements = eventLog.getEventLog();
+            for (int i = 0; i < measurements.size(); i++) {
+                Measurement measurement = measurements.get(i);
+                byte[] value = measurement.getValue() == null ? new byte[0] : measurement.getValue().toByteArray();
+                digest.update(ByteBuffer.allocate(4).putInt(value.length).array());
+                digest.update(value);
+                update(digest, measurement.getLabel());
+                if (measurement.getInfo() != null) {
+                    for (Map.Entry<String, String> entry : new TreeMap<>(measurement.getInfo()).entrySet()) {
+                        update(digest, entry.getKey());
+                        update(digest, entry.getValue());
+                    }
+                }
+                digest.update((byte) 0);
+            }
+        }
+        return DigestKey.valueOf(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // length prefix so adjacent fields cannot run into each other
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(5).put((byte) (value == null ? 0 : 1)).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256(CryptoProvider crypto) {
+        try {
+            return crypto.acquireMessageDigest("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
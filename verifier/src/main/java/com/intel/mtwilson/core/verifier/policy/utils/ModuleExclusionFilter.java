@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The component names of event log entries that PcrEventLogEqualsExcluding
+ * does not compare with the flavor. A pattern ending with {@code *} matches
+ * the names starting with the rest of the pattern, as {@code commandLine.*}
+ * matches every boot command line; any other pattern matches one name
+ * exactly. The patterns are compiled once into a hash set of exact names and
+ * a short list of prefixes, so checking an entry is one hash lookup and a
+ * few prefix comparisons instead of a scan of the pattern list.
+ * <p>
+ * Filters are immutable and can be shared by any number of rules.
+ */
+public final class ModuleExclusionFilter {
+    /**
+     * The host specific modules excluded by default. The names are matched
+     * exactly, as in earlier releases.
+     */
+    public static final ModuleExclusionFilter HOST_SPECIFIC = compile(Arrays.asList("commandLine.", "LCP_CONTROL_HASH", "initrd", "vmlinuz", "componentName.imgdb.tgz", "componentName.onetime.tgz"));
+
+    /**
+     * A filter that excludes nothing.
+     */
+    public static final ModuleExclusionFilter NONE = compile(Collections.<String>emptyList());
+
+    private final List<String> patterns;
+    private final Set<String> names;
+    private final String[] prefixes;
+
+    private ModuleExclusionFilter(List<String> patterns, Set<String> names, String[] prefixes) {
+        this.patterns = patterns;
+        this.names = names;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * @param patterns  component names, or prefixes followed by {@code *}
+     * @return filter matching any of the patterns
+     */
+    public static ModuleExclusionFilter compile(Collection<String> patterns) {
+        List<String> list = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        List<String> prefixes = new ArrayList<>();
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                if (pattern == null || pattern.isEmpty() || list.contains(pattern)) {
+                    continue;
+                }
+                list.add(pattern);
+                if (pattern.endsWith("*")) {
+                    prefixes.add(pattern.substring(0, pattern.length() - 1));
+                } else {
+                    names.add(pattern);
+                }
+            }
+        }
+        return new ModuleExclusionFilter(Collections.unmodifiableList(list), names, prefixes.toArray(new String[prefixes.size()]));
+    }
+
+    /**
+     * @param componentName  component name of an event log entry, or null
+     * @return true if the entry is excluded from the comparison
+     */
+    public boolean matches(String componentName) {
+        if (componentName == null) {
+            return false;
+        }
+        if (names.contains(componentName)) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (componentName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the patterns of the filter, without duplicates, in the order
+     * they were given
+     */
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        ModuleExclusionFilter other = (ModuleExclusionFilter) obj;
+        return names.equals(other.names) && new HashSet<>(Arrays.asList(prefixes)).equals(new HashSet<>(Arrays.asList(other.prefixes)));
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashSet<>(patterns).hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return patterns.toString();
+    }
+}
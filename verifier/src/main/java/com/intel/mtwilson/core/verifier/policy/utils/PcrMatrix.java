@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy.utils;
+
+import com.intel.dcsg.cpg.crypto.AbstractDigest;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.Pcr;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+
+/**
+ * The values of the 24 PCRs of one bank packed into a single long array, one
+ * row of digest width per PCR. Two matrices of the same bank are compared
+ * lane by lane, for all PCRs selected by a bitmask in one loop, instead of
+ * comparing Pcr objects one at a time.
+ * <p>
+ * A PCR is present when a value was set for it. A value of a different length
+ * than the matrix width cannot equal any value of the matrix; it is recorded
+ * as present but invalid.
+ */
+public final class PcrMatrix {
+    public static final int PCR_COUNT = 24;
+
+    private final DigestAlgorithm bank;
+    private final int length;
+    private final int width;
+    private final long[] lanes;
+    private int present;
+    private int invalid;
+
+    /**
+     * @param bank  PCR bank of the values
+     * @param length  digest length of the bank in bytes
+     */
+    public PcrMatrix(DigestAlgorithm bank, int length) {
+        if (length <= 0 || length > DigestKey.MAX_LENGTH) {
+            throw new IllegalArgumentException("Unsupported digest length " + length);
+        }
+        this.bank = bank;
+        this.length = length;
+        this.width = (length + 7) / 8;
+        this.lanes = new long[PCR_COUNT * width];
+    }
+
+    /**
+     * Read the PCRs selected by the mask from the host PCR manifest.
+     *
+     * @param mask  bit i selects PCR i
+     */
+    public static PcrMatrix of(PcrManifest pcrManifest, DigestAlgorithm bank, int length, int mask) {
+        PcrMatrix matrix = new PcrMatrix(bank, length);
+        for (int index = 0; index < PCR_COUNT; index++) {
+            if ((mask & (1 << index)) != 0) {
+                Pcr pcr = pcrManifest.getPcr(bank, index);
+                if (pcr != null) {
+                    matrix.set(index, pcr.getValue());
+                }
+            }
+        }
+        return matrix;
+    }
+
+    public DigestAlgorithm getBank() {
+        return bank;
+    }
+
+    /**
+     * @return digest length of the bank in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    public void set(int index, AbstractDigest value) {
+        set(index, value == null ? null : value.toByteArray());
+    }
+
+    public void set(int index, byte[] value) {
+        int bit = 1 << checkIndex(index);
+        present |= bit;
+        if (value == null || value.length != length) {
+            invalid |= bit;
+            return;
+        }
+        invalid &= ~bit;
+        int row = index * width;
+        for (int lane = 0; lane < width; lane++) {
+            long packed = 0;
+            for (int i = lane * 8; i < lane * 8 + 8; i++) {
+                packed = (packed << 8) | (i < length ? value[i] & 0xff : 0);
+            }
+            lanes[row + lane] = packed;
+        }
+    }
+
+    public void set(int index, DigestKey value) {
+        int bit = 1 << checkIndex(index);
+        present |= bit;
+        if (value == null || value.length() != length) {
+            invalid |= bit;
+            return;
+        }
+        invalid &= ~bit;
+        int row = index * width;
+        for (int lane = 0; lane < width; lane++) {
+            lanes[row + lane] = value.lane(lane);
+        }
+    }
+
+    /**
+     * @return bitmask of the PCRs that have a value
+     */
+    public int getPresent() {
+        return present;
+    }
+
+    /**
+     * Compare the PCRs selected by the mask that are present in both
+     * matrices. PCRs missing from either matrix are not reported.
+     *
+     * @param other  matrix of the same bank and length
+     * @param mask  bit i selects PCR i
+     * @return bitmask of the selected PCRs whose values differ
+     */
+    public int mismatches(PcrMatrix other, int mask) {
+        if (other.bank != bank || other.length != length) {
+            throw new IllegalArgumentException("Cannot compare PCRs of different banks");
+        }
+        int selected = mask & present & other.present;
+        int result = selected & (invalid | other.invalid);
+        long[] theirs = other.lanes;
+        for (int index = 0; index < PCR_COUNT; index++) {
+            int bit = 1 << index;
+            if ((selected & bit) == 0 || (result & bit) != 0) {
+                continue;
+            }
+            long difference = 0;
+            for (int lane = index * width, end = lane + width; lane < end; lane++) {
+                difference |= lanes[lane] ^ theirs[lane];
+            }
+            if (difference != 0) {
+                result |= bit;
+            }
+        }
+        return result;
+    }
+
+    private static int checkIndex(int index) {
+        if (index < 0 || index >= PCR_COUNT) {
+            throw new IllegalArgumentException("PCR index out of range: " + index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.policy.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe pool of canonical instances that holds them weakly: an
+ * instance stays in the pool only while something outside the pool refers to
+ * it, so the pool never keeps flavors or manifests alive on its own.
+ *
+ * @param <T> type of the pooled values, with value-based equals and hashCode
+ */
+public class WeakInterner<T> {
+    private final ConcurrentHashMap<Entry<T>, Entry<T>> pool = new ConcurrentHashMap<>();
+    private final ReferenceQueue<T> cleared = new ReferenceQueue<>();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @return the pooled instance equal to value, or value itself after
+     * adding it to the pool; null if value is null
+     */
+    public T intern(T value) {
+        if (value == null) {
+            return null;
+        }
+        expungeCleared();
+        lookups.incrementAndGet();
+        Entry<T> entry = new Entry<>(value, cleared);
+        while (true) {
+            Entry<T> existing = pool.putIfAbsent(entry, entry);
+            if (existing == null) {
+                return value;
+            }
+            T canonical = existing.get();
+            if (canonical != null) {
+                hits.incrementAndGet();
+                return canonical;
+            }
+            // collected between the lookup and now, replace the stale entry
+            pool.remove(existing, existing);
+        }
+    }
+
+    /**
+     * @return number of values in the pool, including values collected but
+     * not yet removed
+     */
+    public int size() {
+        expungeCleared();
+        return pool.size();
+    }
+
+    /**
+     * @return number of intern calls with a non-null value
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * @return number of intern calls that returned an instance already in
+     * the pool
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    private void expungeCleared() {
+        Object reference;
+        while ((reference = cleared.poll()) != null) {
+            pool.remove(reference);
+        }
+    }
+
+    /**
+     * The hash code is kept so a cleared entry can still be removed from the
+     * map; a cleared entry is only equal to itself.
+     */
+    private static final class Entry<T> extends WeakReference<T> {
+        private final int hash;
+
+        Entry(T value, ReferenceQueue<T> queue) {
+            super(value, queue);
+            this.hash = value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?> other = (Entry<?>) o;
+            if (hash != other.hash) {
+                return false;
+            }
+            Object value = get();
+            return value != null && value.equals(other.get());
+        }
+    }
+}
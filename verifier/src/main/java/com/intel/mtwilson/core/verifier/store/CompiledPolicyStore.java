@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.store;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.crypto.CryptoProvider;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.rule.AikCertificateTrusted;
+import com.intel.mtwilson.core.verifier.policy.rule.FlavorTrusted;
+import com.intel.mtwilson.core.verifier.policy.rule.TagCertificateTrusted;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestInterner;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * A read-only store of compiled policies, opened by mapping its file into
+ * memory. Opening the store only checks the header; the index is binary
+ * searched in place and an entry is decoded the first time it is used, so a
+ * restarted verifier can serve from the store immediately while the pages it
+ * needs are loaded on demand. Processes that map the same file share its
+ * pages in the page cache.
+ * <p>
+ * Entries are keyed by a SHA-256 digest of the vendor key, the serialized
+ * flavor, its signature and whether signature verification is skipped, so a
+ * flavor that changed in any way is not found and is compiled as usual. The
+ * store also records a fingerprint of the CA and flavor signing certificates
+ * it was written with; a Verifier refuses a store written for different
+ * certificates.
+ * <p>
+ * Threat model: the file may be written by anyone who can reach the
+ * directory it is kept in, while the entries hold every rule of a policy,
+ * including the Privacy CA and tag CA certificates of the AIK and tag
+ * certificate rules. Each entry is therefore authenticated with
+ * HMAC-SHA256 under a secret store key, over the certificate fingerprint,
+ * the entry key and the entry. The writer and the verifiers share the key;
+ * it is not kept in the store. Without the key, a changed file cannot add,
+ * change, drop or move rules or certificates: an entry that does not
+ * authenticate is not used and its flavor is compiled as usual, and
+ * deleting entries only makes the verifier compile those flavors. Anyone
+ * holding the key can write any policy, so protect the key like the
+ * certificates of the verifier.
+ * <p>
+ * The flavor signature is still not taken from the store: when an entry is
+ * decoded, the signature of the flavor being verified is checked once
+ * against the flavor signing certificates of the verifier, and the policy
+ * reports that result from then on. An entry of a flavor whose signature is
+ * verified but that has no signature rule is not used.
+ * <p>
+ * File layout, version 2, all integers big-endian:
+ * <pre>
+ * magic        4 bytes "MTCP"
+ * version      int
+ * fingerprint  32 bytes, SHA-256 of the certificate files
+ * count        int
+ * index        count entries sorted by key: key 32 bytes, offset long, length int, mac 32 bytes
+ * data         one UTF-8 JSON StoredPolicy per entry, at the offset of its index entry
+ * </pre>
+ * A store is limited to 2 GB, the size of one mapped buffer.
+ * <p>
+ * The entries are JSON rather than a binary layout of the rules, so a rule
+ * class only needs the Jackson annotations it already has for trust reports
+ * to be stored. The index, the lookup and the page sharing do not depend on
+ * the payload format. The cost is paid when an entry is first used: it is
+ * parsed with Jackson, about as expensive as reading the flavor, and the
+ * flavor signature is verified. The decoded policy is kept, so each entry is
+ * decoded once per process.
+ *
+ * @see CompiledPolicyStoreWriter
+ */
+public class CompiledPolicyStore {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CompiledPolicyStore.class);
+    static final int MAGIC = 0x4d544350; // "MTCP"
+    static final int VERSION = 2;
+    static final int KEY_LENGTH = 32;
+    static final int MAC_LENGTH = 32;
+    static final int MIN_STORE_KEY_LENGTH = 16;
+    static final int HEADER_LENGTH = 4 + 4 + KEY_LENGTH + 4;
+    static final int INDEX_ENTRY_LENGTH = KEY_LENGTH + 8 + 4 + MAC_LENGTH;
+    private static final int MAX_FLAVOR_DIGESTS = 4096;
+    // flavor digests by flavor id and signature, checked against the instance
+    private static final ConcurrentHashMap<String, FlavorDigest> flavorDigests = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer buffer;
+    private final byte[] storeKey;
+    private final byte[] fingerprint;
+    private final int count;
+    private final ObjectMapper mapper = createMapper();
+    private final ConcurrentHashMap<String, Policy> decoded = new ConcurrentHashMap<>();
+    private volatile DigestInterner interner;
+
+    private CompiledPolicyStore(MappedByteBuffer buffer, byte[] storeKey) throws IOException {
+        this.buffer = buffer;
+        this.storeKey = storeKey;
+        if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a compiled policy store");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported compiled policy store version " + version);
+        }
+        this.fingerprint = new byte[KEY_LENGTH];
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            fingerprint[i] = buffer.get(8 + i);
+        }
+        this.count = buffer.getInt(8 + KEY_LENGTH);
+        if (count < 0 || HEADER_LENGTH + (long) count * INDEX_ENTRY_LENGTH > buffer.capacity()) {
+            throw new IOException("Compiled policy store index is truncated");
+        }
+    }
+
+    /**
+     * Map a store written by CompiledPolicyStoreWriter. The file can be
+     * replaced by a new store while it is mapped; the mapping keeps the old
+     * content until the store is no longer referenced.
+     *
+     * @param storeKey  secret key the store was written with, at least 16
+     * bytes
+     */
+    public static CompiledPolicyStore open(File file, byte[] storeKey) throws IOException {
+        checkStoreKey(storeKey);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Compiled policy store is larger than 2 GB: " + file);
+            }
+            return new CompiledPolicyStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), storeKey.clone());
+        }
+    }
+
+    /**
+     * @return number of policies in the store
+     */
+    public int size() {
+        return count;
+    }
+
+    public byte[] getFingerprint() {
+        return fingerprint.clone();
+    }
+
+    /**
+     * @return true if the store was written with the same certificate files
+     * as the given fingerprint
+     */
+    public boolean matches(byte[] certificateFingerprint) {
+        return MessageDigest.isEqual(fingerprint, certificateFingerprint);
+    }
+
+    public DigestInterner getDigestInterner() {
+        return interner;
+    }
+
+    /**
+     * @param interner  pool the expected measurements of policies decoded
+     * afterwards are shared through, or null to keep them as decoded
+     */
+    public void setDigestInterner(DigestInterner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * Find the compiled policy of a signed flavor. Policies are decoded once
+     * and shared by all callers; the rules are reusable, so the same policy
+     * can be applied to different hosts concurrently.
+     *
+     * @param flavorSigningCertPath  flavor signing certificate of the verifier
+     * @param flavorCaCertPath  flavor CA certificate of the verifier
+     * @return the policy, or null if the store has no policy for this flavor
+     * or its entry cannot be read or does not authenticate
+     */
+    public Policy getPolicy(String vendorKey, SignedFlavor signedFlavor, boolean skipFlavorSignatureVerification, String flavorSigningCertPath, String flavorCaCertPath) throws IOException {
+        byte[] key = keyOf(vendorKey, signedFlavor, skipFlavorSignatureVerification);
+        String hexKey = Hex.encodeHexString(key);
+        Policy policy = decoded.get(hexKey);
+        if (policy != null) {
+            return policy;
+        }
+        int entry = find(key);
+        if (entry < 0) {
+            return null;
+        }
+        int position = HEADER_LENGTH + entry * INDEX_ENTRY_LENGTH + KEY_LENGTH;
+        long offset = buffer.getLong(position);
+        int length = buffer.getInt(position + 8);
+        if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+            log.warn("Compiled policy store entry {} is outside the file", hexKey);
+            return null;
+        }
+        byte[] json = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.get(json);
+        byte[] storedMac = new byte[MAC_LENGTH];
+        view.position(position + 8 + 4);
+        view.get(storedMac);
+        if (!MessageDigest.isEqual(storedMac, mac(storeKey, fingerprint, key, json))) {
+            log.warn("Compiled policy store entry {} does not authenticate, compiling the flavor instead", hexKey);
+            return null;
+        }
+        try {
+            policy = toPolicy(mapper.readValue(new String(json, StandardCharsets.UTF_8), StoredPolicy.class), signedFlavor, skipFlavorSignatureVerification, flavorSigningCertPath, flavorCaCertPath);
+        } catch (IOException e) {
+            log.warn("Cannot read compiled policy store entry {}, compiling the flavor instead", hexKey, e);
+            return null;
+        }
+        if (policy == null) {
+            log.warn("Compiled policy store entry {} does not verify the flavor signature, compiling the flavor instead", hexKey);
+            return null;
+        }
+        DigestInterner interner = this.interner;
+        if (interner != null) {
+            interner.intern(policy);
+        }
+        Policy existing = decoded.putIfAbsent(hexKey, policy);
+        return existing == null ? policy : existing;
+    }
+
+    /**
+     * Replace the stored signature rule with one for the signed flavor being
+     * verified, and verify the signature now, so the decoded policy does not
+     * verify it again on each use.
+     *
+     * @return the policy, or null if the signature is verified and the
+     * stored rules do not include the signature rule
+     */
+    private static Policy toPolicy(StoredPolicy stored, SignedFlavor signedFlavor, boolean skipFlavorSignatureVerification, String flavorSigningCertPath, String flavorCaCertPath) {
+        HashSet<Rule> rules = new HashSet<>();
+        boolean signatureVerified = false;
+        for (Rule rule : stored.getRules()) {
+            if (rule instanceof FlavorTrusted) {
+                FlavorTrusted flavorTrusted = new FlavorTrusted(signedFlavor, flavorSigningCertPath, flavorCaCertPath);
+                flavorTrusted.setMarkers(rule.getMarkers());
+                // the signature check does not depend on the host manifest
+                flavorTrusted.setVerdict(new ArrayList<>(flavorTrusted.apply(null).getFaults()));
+                rule = flavorTrusted;
+                signatureVerified = true;
+            }
+            rules.add(rule);
+        }
+        if (!skipFlavorSignatureVerification && !signatureVerified) {
+            return null;
+        }
+        return new Policy(stored.getName(), rules);
+    }
+
+    /**
+     * Binary search of the index in the mapped file.
+     *
+     * @return position of the key in the index, or -1
+     */
+    private int find(byte[] key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compareKeyAt(HEADER_LENGTH + middle * INDEX_ENTRY_LENGTH, key);
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compareKeyAt(int position, byte[] key) {
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            int result = Integer.compare(buffer.get(position + i) & 0xff, key[i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The rules that check certificates keep the certificates in private
+     * fields, which are not part of their JSON in trust reports. The store
+     * serializes those fields as well, through this mix-in, so trust reports
+     * are unchanged. The flavor signature rule is stored with its markers
+     * only; it is created again for the flavor when the entry is decoded.
+     */
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
+    private abstract static class PrivateFieldsMixIn {
+    }
+
+    /**
+     * @return mapper for store entries; X509 certificates are serialized by
+     * the Jackson modules registered for reading trust reports
+     */
+    static ObjectMapper createMapper() {
+        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+        mapper.addMixIn(AikCertificateTrusted.class, PrivateFieldsMixIn.class);
+        mapper.addMixIn(TagCertificateTrusted.class, PrivateFieldsMixIn.class);
+        return mapper;
+    }
+
+    static void checkStoreKey(byte[] storeKey) {
+        if (storeKey == null || storeKey.length < MIN_STORE_KEY_LENGTH) {
+            throw new IllegalArgumentException("Store key must have at least " + MIN_STORE_KEY_LENGTH + " bytes");
+        }
+    }
+
+    /**
+     * @return HMAC-SHA256 of an entry under the store key
+     */
+    static byte[] mac(byte[] storeKey, byte[] fingerprint, byte[] key, byte[] entry) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(storeKey, "HmacSHA256"));
+            mac.update(fingerprint);
+            mac.update(key);
+            return mac.doFinal(entry);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /**
+     * @return the store key of a signed flavor
+     */
+    public static byte[] keyOf(String vendorKey, SignedFlavor signedFlavor, boolean skipFlavorSignatureVerification) throws IOException {
+        return keyOf(vendorKey, signedFlavor, skipFlavorSignatureVerification, null);
+    }
+
+    /**
+     * The serialized flavor is hashed once per Flavor instance, so verifying
+     * the same flavor objects again costs a hash over a few short fields.
+     * Flavors must not be changed once they have been verified.
+     *
+     * @param settings  verifier settings the key also depends on, or null
+     * for the store key
+     * @return key of a signed flavor verified with the given settings
+     */
+    public static byte[] keyOf(String vendorKey, SignedFlavor signedFlavor, boolean skipFlavorSignatureVerification, String settings) throws IOException {
+        byte[] flavorDigest = digestOf(signedFlavor);
+        CryptoProvider crypto = CryptoProvider.getDefault();
+        MessageDigest digest = sha256(crypto);
+        try {
+            update(digest, vendorKey);
+            digest.update(flavorDigest);
+            update(digest, signedFlavor.getSignature());
+            digest.update((byte) (skipFlavorSignatureVerification ? 1 : 0));
+            if (settings != null) {
+                update(digest, settings);
+            }
+            return digest.digest();
+        } finally {
+            crypto.release(digest);
+        }
+    }
+
+    /**
+     * @return SHA-256 of the serialized flavor, remembered for the instance
+     */
+    private static byte[] digestOf(SignedFlavor signedFlavor) throws IOException {
+        Flavor flavor = signedFlavor.getFlavor();
+        String id = flavor.getMeta() == null ? null : flavor.getMeta().getId();
+        String memoKey = id + "\n" + signedFlavor.getSignature();
+        FlavorDigest memo = flavorDigests.get(memoKey);
+        if (memo != null && memo.flavor.get() == flavor) {
+            return memo.digest;
+        }
+        CryptoProvider crypto = CryptoProvider.getDefault();
+        MessageDigest digest = sha256(crypto);
+        try {
+            update(digest, Flavor.serialize(flavor));
+            memo = new FlavorDigest(flavor, digest.digest());
+        } finally {
+            crypto.release(digest);
+        }
+        if (flavorDigests.size() >= MAX_FLAVOR_DIGESTS) {
+            flavorDigests.clear();
+        }
+        flavorDigests.put(memoKey, memo);
+        return memo.digest;
+    }
+
+    /**
+     * @return SHA-256 over the content of the certificate files, in order
+     */
+    public static byte[] fingerprint(String... certificatePaths) throws IOException {
+        CryptoProvider crypto = CryptoProvider.getDefault();
+        MessageDigest digest = sha256(crypto);
+        try {
+            for (String path : certificatePaths) {
+                byte[] content = path == null ? new byte[0] : Files.readAllBytes(Paths.get(path));
+                digest.update(ByteBuffer.allocate(4).putInt(content.length).array());
+                digest.update(content);
+            }
+            return digest.digest();
+        } finally {
+            crypto.release(digest);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // length prefix so adjacent fields cannot run into each other
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(5).put((byte) (value == null ? 0 : 1)).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256(CryptoProvider crypto) {
+        try {
+            return crypto.acquireMessageDigest("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * The digest of one Flavor instance. The flavor is weakly referenced, so
+     * flavors that are no longer verified can be collected.
+     */
+    private static final class FlavorDigest {
+        private final WeakReference<Flavor> flavor;
+        private final byte[] digest;
+
+        FlavorDigest(Flavor flavor, byte[] digest) {
+            this.flavor = new WeakReference<>(flavor);
+            this.digest = digest;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("compiled policy store with %d policies, fingerprint %s", count, Hex.encodeHexString(Arrays.copyOf(fingerprint, 8)));
+    }
+}
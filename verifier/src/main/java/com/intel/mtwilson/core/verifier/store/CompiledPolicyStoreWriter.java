@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Collects compiled policies and writes them as a CompiledPolicyStore file.
+ * Use Verifier.compile to add the policy of each signed flavor as verify
+ * would load it. The store does not record whether the flavor signature is
+ * trusted; the verifier reading the store verifies it. Each entry is
+ * authenticated with the store key, which verifiers need to open the store.
+ *
+ * @see CompiledPolicyStore
+ */
+public class CompiledPolicyStoreWriter {
+    private final byte[] fingerprint;
+    private final byte[] storeKey;
+    private final ObjectMapper mapper = CompiledPolicyStore.createMapper();
+    // hex keys sort in the same order as the unsigned key bytes
+    private final TreeMap<String, byte[]> entries = new TreeMap<>();
+
+    /**
+     * @param fingerprint  fingerprint of the certificates the policies are
+     * compiled with, see CompiledPolicyStore.fingerprint
+     * @param storeKey  secret key authenticating the entries, at least 16
+     * bytes
+     */
+    public CompiledPolicyStoreWriter(byte[] fingerprint, byte[] storeKey) {
+        if (fingerprint == null || fingerprint.length != CompiledPolicyStore.KEY_LENGTH) {
+            throw new IllegalArgumentException("Fingerprint must be a SHA-256 digest");
+        }
+        CompiledPolicyStore.checkStoreKey(storeKey);
+        this.fingerprint = fingerprint.clone();
+        this.storeKey = storeKey.clone();
+    }
+
+    /**
+     * Add the policy a vendor policy reader created for the signed flavor. A
+     * later policy for the same flavor replaces the earlier one.
+     */
+    public void add(String vendorKey, SignedFlavor signedFlavor, boolean skipFlavorSignatureVerification, Policy policy) throws IOException {
+        StoredPolicy stored = new StoredPolicy(policy.getName(), vendorKey, new ArrayList<>(policy.getRules()));
+        byte[] key = CompiledPolicyStore.keyOf(vendorKey, signedFlavor, skipFlavorSignatureVerification);
+        entries.put(Hex.encodeHexString(key), mapper.writeValueAsString(stored).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Write the store to a temporary file next to the target and move it into
+     * place, so a verifier never maps a partially written store.
+     */
+    public void write(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(CompiledPolicyStore.MAGIC);
+                out.writeInt(CompiledPolicyStore.VERSION);
+                out.write(fingerprint);
+                out.writeInt(entries.size());
+                long offset = CompiledPolicyStore.HEADER_LENGTH + (long) entries.size() * CompiledPolicyStore.INDEX_ENTRY_LENGTH;
+                byte[] key = new byte[CompiledPolicyStore.KEY_LENGTH];
+                for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                    DigestKey.decodeHex(entry.getKey(), key);
+                    out.write(key);
+                    out.writeLong(offset);
+                    out.writeInt(entry.getValue().length);
+                    out.write(CompiledPolicyStore.mac(storeKey, fingerprint, key, entry.getValue()));
+                    offset += entry.getValue().length;
+                }
+                if (offset > Integer.MAX_VALUE) {
+                    throw new IOException("Compiled policy store would be larger than 2 GB");
+                }
+                for (byte[] json : entries.values()) {
+                    out.write(json);
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+}
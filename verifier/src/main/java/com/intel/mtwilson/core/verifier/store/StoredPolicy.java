@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.verifier.store;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One entry of a compiled policy store: the rules a vendor policy reader
+ * created for a signed flavor.
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StoredPolicy {
+    private String name;
+    private String vendorKey;
+    private List<Rule> rules = new ArrayList<>();
+
+    public StoredPolicy() { } // for desearializing jackson
+
+    public StoredPolicy(String name, String vendorKey, List<Rule> rules) {
+        this.name = name;
+        this.vendorKey = vendorKey;
+        this.rules = rules;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getVendorKey() {
+        return vendorKey;
+    }
+
+    public void setVendorKey(String vendorKey) {
+        this.vendorKey = vendorKey;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<Rule> rules) {
+        this.rules = rules;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.dcsg.cpg.extensions.Extensions;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.MeasurementSha1;
+import com.intel.mtwilson.core.common.model.MeasurementSha256;
+import com.intel.mtwilson.core.common.model.Pcr;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrEventLogFactory;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
+import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.jackson.bouncycastle.BouncyCastleModule;
+import com.intel.mtwilson.jackson.validation.ValidationModule;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Generates synthetic hosts for scale testing from one of the test fixtures.
+ * <p>
+ * Each host is a copy of the fixture host manifest with its own name and
+ * hardware UUID, random values for PCRs 0 to 7, and eventLogSize synthetic
+ * entries in every PCR event log of the fixture. The reported PCR values are
+ * the replay of the event logs, so PcrEventLogIntegrity holds for every host.
+ * Hosts also report measurementXmlCount measurement XMLs, each matching one of
+ * the shared software flavors, with the cumulative hashes extended into PCR 15.
+ * <p>
+ * Flavors describe the host before mismatches are applied. Each event log
+ * entry and each file measurement of a host is then replaced with a random
+ * digest with probability mismatchRatio, and the PCR values and cumulative
+ * hashes are recomputed from the modified logs, as a changed host would report
+ * them.
+ * <p>
+ * The same seed and settings always produce the same hosts, software flavors
+ * and signing key, and host i does not depend on the hosts generated before
+ * it. Platform flavors are created by the flavor library, which assigns them
+ * random flavor ids. Flavors are signed with a key generated by this class,
+ * which is not issued by the fixture CA: verify with
+ * skipFlavorSignatureVerification, or check signatures against
+ * {@link #getSigningKeyPair()}.
+ * <p>
+ * Software flavors are extended into the SHA1 PCR 15 event log, so use a
+ * TPM 1.2 fixture such as intel-host when measurement XMLs are generated.
+ */
+public class SyntheticHostGenerator {
+    public static final String SOFTWARE_FLAVOR_LABEL_PREFIX = "synthetic_software_flavor_";
+    private static final String SIGNATURE_ALGORITHM = "SHA384withRSA";
+
+    private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+    private final long seed;
+    private final String templateManifestAsJson;
+    private final X509AttributeCertificate tagCertificate;
+    private final KeyPair signingKeyPair;
+    private final Map<Integer, SignedFlavor> softwareFlavors = new HashMap<>();
+    private int eventLogSize = 50;
+    private int measurementXmlCount = 0;
+    private int measurementsPerXml = 100;
+    private double mismatchRatio = 0.0;
+
+    static {
+        Extensions.register(Module.class, BouncyCastleModule.class);
+        Extensions.register(Module.class, ValidationModule.class);
+    }
+
+    /**
+     * @param seed  seed of all generated values
+     * @param pathPrefix  test fixture to use as template, for example
+     * "intel-host"
+     */
+    public SyntheticHostGenerator(long seed, String pathPrefix) throws IOException, GeneralSecurityException {
+        this.seed = seed;
+        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        String manifestName = getClass().getClassLoader().getResource(pathPrefix + "/RHEL_Manifest.json") != null ? "RHEL_Manifest.json" : "hostmanifest.json";
+        templateManifestAsJson = Resources.toString(Resources.getResource(pathPrefix + "/" + manifestName), Charsets.UTF_8);
+        tagCertificate = mapper.readValue(Resources.toString(Resources.getResource(pathPrefix + "/tagcer.json"), Charsets.UTF_8), X509AttributeCertificate.class);
+        SecureRandom keyRandom = SecureRandom.getInstance("SHA1PRNG");
+        keyRandom.setSeed(seed);
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048, keyRandom);
+        signingKeyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    public void setEventLogSize(int eventLogSize) {
+        this.eventLogSize = eventLogSize;
+    }
+
+    public void setMeasurementXmlCount(int measurementXmlCount) {
+        this.measurementXmlCount = measurementXmlCount;
+    }
+
+    public void setMeasurementsPerXml(int measurementsPerXml) {
+        this.measurementsPerXml = measurementsPerXml;
+    }
+
+    /**
+     * @param mismatchRatio  probability, from 0 to 1, that a host event log
+     * entry or file measurement differs from the flavor
+     */
+    public void setMismatchRatio(double mismatchRatio) {
+        this.mismatchRatio = mismatchRatio;
+    }
+
+    public KeyPair getSigningKeyPair() {
+        return signingKeyPair;
+    }
+
+    public X509AttributeCertificate getTagCertificate() {
+        return tagCertificate;
+    }
+
+    /**
+     * @param hostIndex  index of the host, hosts with the same index are equal
+     */
+    public SyntheticHost getHost(int hostIndex) throws IOException, GeneralSecurityException {
+        Random random = new Random(seed * 31 + hostIndex);
+        HostManifest hostManifest = mapper.readValue(templateManifestAsJson, HostManifest.class);
+        hostManifest.getHostInfo().setHostName("synthetic-host-" + hostIndex);
+        hostManifest.getHostInfo().setHardwareUuid(newUuid(random).toUpperCase());
+
+        PcrManifest pcrManifest = hostManifest.getPcrManifest();
+        for (DigestAlgorithm pcrBank : new DigestAlgorithm[] { DigestAlgorithm.SHA1, DigestAlgorithm.SHA256 }) {
+            for (PcrIndex pcrIndex : PcrIndex.values()) {
+                Pcr pcr = pcrManifest.getPcr(pcrBank, pcrIndex);
+                PcrEventLog eventLog = pcrManifest.getPcrEventLog(pcrBank, pcrIndex);
+                if (pcr == null || pcrIndex == PcrIndex.PCR15) {
+                    continue;
+                }
+                if (eventLog != null && eventLog.getEventLog() != null && !eventLog.getEventLog().isEmpty()) {
+                    ArrayList<Measurement> measurements = new ArrayList<>(eventLogSize);
+                    for (int i = 0; i < eventLogSize; i++) {
+                        String label = String.format("synthetic-module-%d-%d", pcrIndex.toInteger(), i);
+                        measurements.add(newMeasurement(pcrBank, nextDigest(random, pcrBank), label));
+                    }
+                    setEventLog(pcrManifest, pcrBank, pcrIndex, measurements);
+                } else if (pcrIndex.toInteger() < 8) {
+                    pcrManifest.setPcr(PcrFactory.newInstance(pcrBank, pcrIndex, Hex.encodeHexString(nextDigest(random, pcrBank))));
+                }
+            }
+        }
+
+        ArrayList<Integer> softwareFlavorIndexes = new ArrayList<>(measurementXmlCount);
+        for (int j = 0; j < measurementXmlCount; j++) {
+            softwareFlavorIndexes.add(j);
+        }
+        setMeasurementXmls(hostManifest, softwareFlavorIndexes, random, false);
+        String flavorManifestAsJson = mapper.writeValueAsString(hostManifest);
+
+        int mismatches = 0;
+        if (mismatchRatio > 0) {
+            for (DigestAlgorithm pcrBank : new DigestAlgorithm[] { DigestAlgorithm.SHA1, DigestAlgorithm.SHA256 }) {
+                for (PcrIndex pcrIndex : PcrIndex.values()) {
+                    PcrEventLog eventLog = pcrManifest.getPcrEventLog(pcrBank, pcrIndex);
+                    if (eventLog == null || eventLog.getEventLog() == null || pcrIndex == PcrIndex.PCR15) {
+                        continue;
+                    }
+                    ArrayList<Measurement> measurements = new ArrayList<>(eventLog.getEventLog());
+                    for (int i = 0; i < measurements.size(); i++) {
+                        if (random.nextDouble() < mismatchRatio) {
+                            measurements.set(i, newMeasurement(pcrBank, nextDigest(random, pcrBank), measurements.get(i).getLabel()));
+                            mismatches++;
+                        }
+                    }
+                    setEventLog(pcrManifest, pcrBank, pcrIndex, measurements);
+                }
+            }
+            mismatches += setMeasurementXmls(hostManifest, softwareFlavorIndexes, random, true);
+        }
+        return new SyntheticHost(hostIndex, hostManifest, flavorManifestAsJson, softwareFlavorIndexes, mismatches);
+    }
+
+    /**
+     * @param softwareFlavorIndex  index of the software flavor, software
+     * flavors are shared by all hosts
+     * @return software flavor with measurementsPerXml file measurements
+     */
+    public synchronized SignedFlavor getSoftwareFlavor(int softwareFlavorIndex) throws IOException, GeneralSecurityException {
+        SignedFlavor signedFlavor = softwareFlavors.get(softwareFlavorIndex);
+        if (signedFlavor == null) {
+            Random random = new Random(softwareFlavorSeed(softwareFlavorIndex));
+            String flavorId = newUuid(random);
+            StringBuilder json = new StringBuilder();
+            json.append("{\"meta\":{\"schema\":{\"uri\":\"lib:wml:measurements:1.0\"},\"id\":\"").append(flavorId)
+                    .append("\",\"description\":{\"flavor_part\":\"SOFTWARE\",\"label\":\"").append(SOFTWARE_FLAVOR_LABEL_PREFIX).append(softwareFlavorIndex)
+                    .append("\",\"digest_algorithm\":\"SHA384\"}},\"software\":{\"measurements\":{");
+            byte[] cumulativeHash = new byte[48];
+            for (int i = 0; i < measurementsPerXml; i++) {
+                String path = filePath(softwareFlavorIndex, i);
+                byte[] value = nextBytes(random, 48);
+                cumulativeHash = extend("SHA-384", cumulativeHash, value);
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append('"').append(path).append("\":{\"type\":\"fileMeasurementType\",\"value\":\"")
+                        .append(Hex.encodeHexString(value)).append("\",\"Path\":\"").append(path).append("\"}");
+            }
+            json.append("},\"cumulative_hash\":\"").append(Hex.encodeHexString(cumulativeHash)).append("\"}}");
+            signedFlavor = sign(Flavor.deserialize(json.toString()));
+            softwareFlavors.put(softwareFlavorIndex, signedFlavor);
+        }
+        return signedFlavor;
+    }
+
+    /**
+     * Create signed flavors for one flavor part of a host, from the host
+     * manifest before mismatches were applied.
+     *
+     * @return the signed flavors, empty if the flavor library does not create
+     * the flavor part for this host
+     */
+    public List<SignedFlavor> getPlatformFlavors(SyntheticHost host, String flavorPart) throws Exception {
+        HostManifest flavorManifest = mapper.readValue(host.flavorManifestAsJson, HostManifest.class);
+        PlatformFlavor platformFlavor = new PlatformFlavorFactory().getPlatformFlavor(flavorManifest, tagCertificate);
+        if (!platformFlavor.getFlavorPartNames().contains(flavorPart)) {
+            return Collections.emptyList();
+        }
+        List<SignedFlavor> signedFlavors = platformFlavor.getFlavorPartWithSignature(flavorPart, signingKeyPair.getPrivate());
+        return signedFlavors == null ? Collections.<SignedFlavor>emptyList() : signedFlavors;
+    }
+
+    /**
+     * Sign a flavor the same way the flavor library does, with the key of this
+     * generator.
+     */
+    public SignedFlavor sign(Flavor flavor) throws IOException, GeneralSecurityException {
+        Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signature.initSign(signingKeyPair.getPrivate());
+        signature.update(Flavor.serialize(flavor).getBytes());
+        return new SignedFlavor(flavor, Base64.getEncoder().encodeToString(signature.sign()));
+    }
+
+    /**
+     * @return true if the signature of the flavor was made with the key of this
+     * generator
+     */
+    public boolean verify(SignedFlavor signedFlavor) throws IOException, GeneralSecurityException {
+        Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signature.initVerify(signingKeyPair.getPublic());
+        signature.update(Flavor.serialize(signedFlavor.getFlavor()).getBytes());
+        return signature.verify(Base64.getDecoder().decode(signedFlavor.getSignature()));
+    }
+
+    private int setMeasurementXmls(HostManifest hostManifest, List<Integer> softwareFlavorIndexes, Random random, boolean applyMismatches) throws IOException, GeneralSecurityException {
+        if (softwareFlavorIndexes.isEmpty()) {
+            return 0;
+        }
+        int mismatches = 0;
+        ArrayList<String> measurementXmls = new ArrayList<>(softwareFlavorIndexes.size());
+        ArrayList<Measurement> pcr15 = new ArrayList<>(softwareFlavorIndexes.size());
+        for (int softwareFlavorIndex : softwareFlavorIndexes) {
+            Flavor flavor = getSoftwareFlavor(softwareFlavorIndex).getFlavor();
+            String flavorId = flavor.getMeta().getId();
+            String label = flavor.getMeta().getDescription().getLabel();
+            // replay the flavor values, which are generated from the software flavor seed
+            Random flavorRandom = new Random(softwareFlavorSeed(softwareFlavorIndex));
+            newUuid(flavorRandom);
+            StringBuilder xml = new StringBuilder();
+            xml.append("<?xml version='1.0'?><Measurement xmlns='lib:wml:measurements:1.0' Label='").append(label)
+                    .append("' Uuid='").append(flavorId).append("' DigestAlg='SHA384'>");
+            byte[] cumulativeHash = new byte[48];
+            for (int i = 0; i < measurementsPerXml; i++) {
+                byte[] value = nextBytes(flavorRandom, 48);
+                if (applyMismatches && random.nextDouble() < mismatchRatio) {
+                    value = nextBytes(random, 48);
+                    mismatches++;
+                }
+                cumulativeHash = extend("SHA-384", cumulativeHash, value);
+                xml.append("<File Path='").append(filePath(softwareFlavorIndex, i)).append("'>")
+                        .append(Hex.encodeHexString(value)).append("</File>");
+            }
+            xml.append("<CumulativeHash>").append(Hex.encodeHexString(cumulativeHash)).append("</CumulativeHash></Measurement>");
+            measurementXmls.add(xml.toString());
+            pcr15.add(newMeasurement(DigestAlgorithm.SHA1, MessageDigest.getInstance("SHA-1").digest(cumulativeHash), label + "-" + flavorId));
+        }
+        hostManifest.setMeasurementXmls(measurementXmls);
+        setEventLog(hostManifest.getPcrManifest(), DigestAlgorithm.SHA1, PcrIndex.PCR15, pcr15);
+        return mismatches;
+    }
+
+    /**
+     * Replace the event log of a PCR and set the PCR to the replay of the log.
+     */
+    private static void setEventLog(PcrManifest pcrManifest, DigestAlgorithm pcrBank, PcrIndex pcrIndex, List<Measurement> measurements) throws GeneralSecurityException {
+        String algorithm = pcrBank == DigestAlgorithm.SHA256 ? "SHA-256" : "SHA-1";
+        byte[] value = new byte[pcrBank == DigestAlgorithm.SHA256 ? 32 : 20];
+        for (Measurement measurement : measurements) {
+            value = extend(algorithm, value, measurement.getValue().toByteArray());
+        }
+        pcrManifest.setPcrEventLog(PcrEventLogFactory.newInstance(pcrBank, pcrIndex, measurements));
+        pcrManifest.setPcr(PcrFactory.newInstance(pcrBank, pcrIndex, Hex.encodeHexString(value)));
+    }
+
+    private static Measurement newMeasurement(DigestAlgorithm pcrBank, byte[] digest, String label) {
+        Map<String, String> info = new HashMap<>();
+        info.put("ComponentName", label);
+        info.put("EventName", "OpenSource.EventName");
+        info.put("PackageName", "");
+        info.put("PackageVendor", "");
+        info.put("PackageVersion", "");
+        if (pcrBank == DigestAlgorithm.SHA256) {
+            return new MeasurementSha256(new Sha256Digest(digest), label, info);
+        }
+        return new MeasurementSha1(new Sha1Digest(digest), label, info);
+    }
+
+    private static byte[] extend(String algorithm, byte[] current, byte[] value) throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance(algorithm);
+        digest.update(current);
+        digest.update(value);
+        return digest.digest();
+    }
+
+    private static byte[] nextDigest(Random random, DigestAlgorithm pcrBank) {
+        return nextBytes(random, pcrBank == DigestAlgorithm.SHA256 ? 32 : 20);
+    }
+
+    private static byte[] nextBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String newUuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private static String filePath(int softwareFlavorIndex, int fileIndex) {
+        return String.format("/opt/synthetic-%d/file-%d", softwareFlavorIndex, fileIndex);
+    }
+
+    private long softwareFlavorSeed(int softwareFlavorIndex) {
+        return seed * 17 + softwareFlavorIndex + 1;
+    }
+
+    /**
+     * A generated host: the host manifest as reported by the host, and what
+     * its flavors were created from.
+     */
+    public static class SyntheticHost {
+        private final int hostIndex;
+        private final HostManifest hostManifest;
+        private final String flavorManifestAsJson;
+        private final List<Integer> softwareFlavorIndexes;
+        private final int mismatchCount;
+
+        SyntheticHost(int hostIndex, HostManifest hostManifest, String flavorManifestAsJson, List<Integer> softwareFlavorIndexes, int mismatchCount) {
+            this.hostIndex = hostIndex;
+            this.hostManifest = hostManifest;
+            this.flavorManifestAsJson = flavorManifestAsJson;
+            this.softwareFlavorIndexes = softwareFlavorIndexes;
+            this.mismatchCount = mismatchCount;
+        }
+
+        public int getHostIndex() {
+            return hostIndex;
+        }
+
+        public HostManifest getHostManifest() {
+            return hostManifest;
+        }
+
+        /**
+         * @return indexes of the software flavors whose measurement XMLs the
+         * host reports
+         */
+        public List<Integer> getSoftwareFlavorIndexes() {
+            return softwareFlavorIndexes;
+        }
+
+        /**
+         * @return number of event log entries and file measurements that
+         * differ from the flavors
+         */
+        public int getMismatchCount() {
+            return mismatchCount;
+        }
+    }
+}
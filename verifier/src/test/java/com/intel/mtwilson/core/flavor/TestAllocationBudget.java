@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.intel.dcsg.cpg.extensions.Extensions;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.metrics.VerificationListener;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.jackson.bouncycastle.BouncyCastleModule;
+import com.intel.mtwilson.jackson.validation.ValidationModule;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import com.intel.mtwilson.util.crypto.keystore.PrivateKeyStore;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures the bytes allocated by one Verifier.verify call for each flavor
+ * part of the canonical fixtures, and fails when a configured budget is
+ * exceeded. The allocation of each phase is printed so a regression can be
+ * traced to the policy reader, a rule class, or report assembly.
+ * <p>
+ * Budgets are in bytes per verify call, one for each flavor part of each
+ * fixture, set a little above the allocation the test prints so that a
+ * regression in one flavor part is not hidden by the headroom of another.
+ * Lower a budget when an optimization lands. A flavor part without a budget
+ * fails the test. A budget can be overridden for all flavor parts with
+ * -Dverifier.allocationBudget=bytes, or for one flavor part with
+ * -Dverifier.allocationBudget.intel-host.PLATFORM=bytes.
+ */
+public class TestAllocationBudget {
+    private static final long KB = 1024;
+    private static final long INTEL_HOST_PLATFORM_BUDGET = 768 * KB;
+    private static final long INTEL_HOST_OS_BUDGET = 1024 * KB;
+    private static final long INTEL_HOST_HOST_UNIQUE_BUDGET = 1024 * KB;
+    private static final long INTEL_HOST_ASSET_TAG_BUDGET = 512 * KB;
+    private static final long INTEL_HOST_SOFTWARE_BUDGET = 1536 * KB;
+    private static final long ESXI_HOST_PLATFORM_BUDGET = 512 * KB;
+    private static final long ESXI_HOST_OS_BUDGET = 512 * KB;
+    private static final long ESXI_HOST_HOST_UNIQUE_BUDGET = 512 * KB;
+    private static final long ESXI_HOST_ASSET_TAG_BUDGET = 512 * KB;
+    private static final Map<String, Long> BUDGETS = new HashMap<>();
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int MEASURED_ITERATIONS = 20;
+    private static final String KEYSTORE_PASSWORD = "H6mpW8iKFOzytOFoAquvbw==";
+
+    static {
+        BUDGETS.put("intel-host.PLATFORM", INTEL_HOST_PLATFORM_BUDGET);
+        BUDGETS.put("intel-host.OS", INTEL_HOST_OS_BUDGET);
+        BUDGETS.put("intel-host.HOST_UNIQUE", INTEL_HOST_HOST_UNIQUE_BUDGET);
+        BUDGETS.put("intel-host.ASSET_TAG", INTEL_HOST_ASSET_TAG_BUDGET);
+        BUDGETS.put("intel-host.SOFTWARE", INTEL_HOST_SOFTWARE_BUDGET);
+        BUDGETS.put("esxi-host.PLATFORM", ESXI_HOST_PLATFORM_BUDGET);
+        BUDGETS.put("esxi-host.OS", ESXI_HOST_OS_BUDGET);
+        BUDGETS.put("esxi-host.HOST_UNIQUE", ESXI_HOST_HOST_UNIQUE_BUDGET);
+        BUDGETS.put("esxi-host.ASSET_TAG", ESXI_HOST_ASSET_TAG_BUDGET);
+    }
+
+    private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+
+    @BeforeClass
+    public static void registerJacksonModules() {
+        Extensions.register(Module.class, BouncyCastleModule.class);
+        Extensions.register(Module.class, ValidationModule.class);
+    }
+
+    @Test
+    public void testIntelHostAllocationBudget() throws Exception {
+        checkFixture("intel-host", "RHEL_Manifest.json");
+    }
+
+    @Test
+    public void testEsxiHostAllocationBudget() throws Exception {
+        checkFixture("esxi-host", "hostmanifest.json");
+    }
+
+    private void checkFixture(String pathPrefix, String manifestName) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Thread allocation accounting is not supported by this JVM, skipping " + pathPrefix);
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        List<File> tempFiles = new ArrayList<>();
+        try {
+            File privacyCa = copyToTempFile(pathPrefix, "PrivacyCA.pem", tempFiles);
+            File tagCa = copyToTempFile(pathPrefix, "tag-cacerts.pem", tempFiles);
+            File flavorSigningCert = copyToTempFile(pathPrefix, "flavor-signer.crt.pem", tempFiles);
+            File flavorCaCert = copyToTempFile(pathPrefix, "cms-ca.crt.pem", tempFiles);
+            File keystore = copyToTempFile(pathPrefix, "mtwilson-flavor-signing-cert.p12", tempFiles);
+            PrivateKey privateKey = new PrivateKeyStore("PKCS12", keystore, KEYSTORE_PASSWORD.toCharArray()).getPrivateKey("flavor-signing-key");
+
+            X509AttributeCertificate tagCer = mapper.readValue(Resources.toString(Resources.getResource(pathPrefix + "/tagcer.json"), Charsets.UTF_8), X509AttributeCertificate.class);
+            HostManifest hostManifest = mapper.readValue(Resources.toString(Resources.getResource(pathPrefix + "/" + manifestName), Charsets.UTF_8), HostManifest.class);
+            PlatformFlavor platformFlavor = new PlatformFlavorFactory().getPlatformFlavor(hostManifest, tagCer);
+
+            Verifier verifier = new Verifier(privacyCa.getPath(), tagCa.getPath(), flavorSigningCert.getPath(), flavorCaCert.getPath());
+            AllocationRecorder recorder = new AllocationRecorder(threads);
+            verifier.setVerificationListener(recorder);
+
+            StringBuilder overBudget = new StringBuilder();
+            for (String flavorPart : platformFlavor.getFlavorPartNames()) {
+                SignedFlavor signedFlavor = platformFlavor.getFlavorPartWithSignature(flavorPart, privateKey).get(0);
+                for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                    verifier.verify(hostManifest, signedFlavor, false);
+                }
+                recorder.reset();
+                for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                    recorder.start();
+                    verifier.verify(hostManifest, signedFlavor, false);
+                    recorder.finish();
+                }
+                Map<String, Long> phases = recorder.getPhases();
+                long perCall = 0;
+                for (long bytes : phases.values()) {
+                    perCall += bytes;
+                }
+                perCall /= MEASURED_ITERATIONS;
+                Long budget = getBudget(pathPrefix, flavorPart);
+                System.out.println(String.format("%s %s: %d bytes per verify, budget %s", pathPrefix, flavorPart, perCall, budget));
+                for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                    System.out.println(String.format("    %-40s %10d", phase.getKey(), phase.getValue() / MEASURED_ITERATIONS));
+                }
+                if (budget == null) {
+                    overBudget.append(String.format("%n%s %s allocates %d bytes per verify and has no budget", pathPrefix, flavorPart, perCall));
+                } else if (perCall > budget) {
+                    overBudget.append(String.format("%n%s %s allocates %d bytes per verify, budget is %d", pathPrefix, flavorPart, perCall, budget));
+                }
+            }
+            if (overBudget.length() > 0) {
+                fail("Allocation budget check failed:" + overBudget);
+            }
+            assertTrue(recorder.getPhases().containsKey("policy"));
+        } finally {
+            for (File file : tempFiles) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return budget in bytes per verify call, or null if the flavor part
+     * has none
+     */
+    private static Long getBudget(String pathPrefix, String flavorPart) {
+        String budget = System.getProperty("verifier.allocationBudget." + pathPrefix + "." + flavorPart);
+        if (budget == null) {
+            budget = System.getProperty("verifier.allocationBudget");
+        }
+        return budget == null ? BUDGETS.get(pathPrefix + "." + flavorPart) : Long.valueOf(budget);
+    }
+
+    private static File copyToTempFile(String pathPrefix, String name, List<File> tempFiles) throws Exception {
+        try (InputStream fi = TestAllocationBudget.class.getClassLoader().getResourceAsStream(pathPrefix + "/" + name)) {
+            File file = File.createTempFile("temp_allocation_budget", "");
+            tempFiles.add(file);
+            Files.copy(fi, file.toPath(), REPLACE_EXISTING);
+            return file;
+        }
+    }
+
+    /**
+     * Attributes the bytes allocated by the verifying thread to the phase that
+     * ended at each listener event. The allocation of a rule includes the
+     * bookkeeping since the previous event, and for the first rule also the
+     * compilation of the execution plan. What the recorder allocates itself is
+     * not charged to any phase.
+     */
+    private static class AllocationRecorder implements VerificationListener {
+        private final com.sun.management.ThreadMXBean threads;
+        private final Map<Object, long[]> phases = new HashMap<>();
+        private long checkpoint;
+
+        AllocationRecorder(com.sun.management.ThreadMXBean threads) {
+            this.threads = threads;
+        }
+
+        void reset() {
+            phases.clear();
+        }
+
+        void start() {
+            checkpoint = allocatedBytes();
+        }
+
+        void finish() {
+            add("return");
+        }
+
+        /**
+         * @return bytes allocated per phase, over all calls since the last
+         * reset
+         */
+        Map<String, Long> getPhases() {
+            TreeMap<String, Long> named = new TreeMap<>();
+            for (Map.Entry<Object, long[]> phase : phases.entrySet()) {
+                Object key = phase.getKey();
+                named.put(key instanceof Class ? "rule " + ((Class<?>) key).getSimpleName() : key.toString(), phase.getValue()[0]);
+            }
+            return named;
+        }
+
+        @Override
+        public void policyLoaded(String vendorKey, String flavorId, String policyName, int ruleCount, long nanos) {
+            add("policy");
+        }
+
+        @Override
+        public void ruleApplied(Rule rule, String vendorKey, String flavorId, long nanos, int faultCount) {
+            add(rule.getClass());
+        }
+
+        @Override
+        public void reportAssembled(String vendorKey, String flavorId, int resultCount, boolean trusted, long nanos) {
+            add("report");
+        }
+
+        private void add(Object phase) {
+            long now = allocatedBytes();
+            long[] total = phases.get(phase);
+            if (total == null) {
+                total = new long[1];
+                phases.put(phase, total);
+            }
+            total[0] += now - checkpoint;
+            // read again so the map update above is not charged to the next phase
+            checkpoint = allocatedBytes();
+        }
+
+        private long allocatedBytes() {
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
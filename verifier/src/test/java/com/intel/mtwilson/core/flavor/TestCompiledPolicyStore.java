@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.intel.dcsg.cpg.extensions.Extensions;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.policy.Fault;
+import com.intel.mtwilson.core.verifier.policy.HostTrustPolicyManager;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.policy.fault.FlavorSignatureNotTrusted;
+import com.intel.mtwilson.core.verifier.store.CompiledPolicyStore;
+import com.intel.mtwilson.core.verifier.store.CompiledPolicyStoreWriter;
+import com.intel.mtwilson.jackson.bouncycastle.BouncyCastleModule;
+import com.intel.mtwilson.jackson.validation.ValidationModule;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import com.intel.mtwilson.util.crypto.keystore.PrivateKeyStore;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Writes the compiled policies of the intel-host fixture to a store, and
+ * checks that a verifier using the mapped store produces the same trust
+ * reports as one compiling the flavors.
+ */
+public class TestCompiledPolicyStore {
+    private static final String PATH_PREFIX = "intel-host";
+    private static final String KEYSTORE_PASSWORD = "H6mpW8iKFOzytOFoAquvbw==";
+    private static final byte[] STORE_KEY = "compiled policy store test key".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+    private final List<File> tempFiles = new ArrayList<>();
+    private HostManifest hostManifest;
+    private PlatformFlavor platformFlavor;
+    private PrivateKey privateKey;
+    private Verifier verifier;
+
+    @BeforeClass
+    public static void registerJacksonModules() {
+        Extensions.register(Module.class, BouncyCastleModule.class);
+        Extensions.register(Module.class, ValidationModule.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File privacyCa = copyToTempFile("PrivacyCA.pem");
+        File tagCa = copyToTempFile("tag-cacerts.pem");
+        File flavorSigningCert = copyToTempFile("flavor-signer.crt.pem");
+        File flavorCaCert = copyToTempFile("cms-ca.crt.pem");
+        File keystore = copyToTempFile("mtwilson-flavor-signing-cert.p12");
+        privateKey = new PrivateKeyStore("PKCS12", keystore, KEYSTORE_PASSWORD.toCharArray()).getPrivateKey("flavor-signing-key");
+        X509AttributeCertificate tagCer = mapper.readValue(Resources.toString(Resources.getResource(PATH_PREFIX + "/tagcer.json"), Charsets.UTF_8), X509AttributeCertificate.class);
+        hostManifest = mapper.readValue(Resources.toString(Resources.getResource(PATH_PREFIX + "/RHEL_Manifest.json"), Charsets.UTF_8), HostManifest.class);
+        platformFlavor = new PlatformFlavorFactory().getPlatformFlavor(hostManifest, tagCer);
+        verifier = new Verifier(privacyCa.getPath(), tagCa.getPath(), flavorSigningCert.getPath(), flavorCaCert.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : tempFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStoredPoliciesGiveSameReports() throws Exception {
+        CompiledPolicyStoreWriter writer = new CompiledPolicyStoreWriter(verifier.getCertificateFingerprint(), STORE_KEY);
+        List<SignedFlavor> signedFlavors = new ArrayList<>();
+        for (String flavorPart : platformFlavor.getFlavorPartNames()) {
+            SignedFlavor signedFlavor = platformFlavor.getFlavorPartWithSignature(flavorPart, privateKey).get(0);
+            signedFlavors.add(signedFlavor);
+            verifier.compile(hostManifest, signedFlavor, false, writer);
+        }
+        File storeFile = File.createTempFile("temp_compiled_policies", ".store");
+        tempFiles.add(storeFile);
+        writer.write(storeFile);
+
+        CompiledPolicyStore store = CompiledPolicyStore.open(storeFile, STORE_KEY);
+        assertEquals(signedFlavors.size(), store.size());
+        Verifier storeVerifier = new Verifier(tempFiles.get(0).getPath(), tempFiles.get(1).getPath(), tempFiles.get(2).getPath(), tempFiles.get(3).getPath());
+        storeVerifier.setCompiledPolicyStore(store);
+        for (SignedFlavor signedFlavor : signedFlavors) {
+            String vendorKey = new HostTrustPolicyManager(signedFlavor, hostManifest, null, null, null, null, false).getVendorKey();
+            assertNotNull(store.getPolicy(vendorKey, signedFlavor, false, tempFiles.get(2).getPath(), tempFiles.get(3).getPath()));
+            assertNull(store.getPolicy(vendorKey, signedFlavor, true, tempFiles.get(2).getPath(), tempFiles.get(3).getPath()));
+            TrustReport expected = verifier.verify(hostManifest, signedFlavor, false);
+            TrustReport actual = storeVerifier.verify(hostManifest, signedFlavor, false);
+            assertEquals(expected.isTrusted(), actual.isTrusted());
+            assertEquals(mapper.writeValueAsString(expected), mapper.writeValueAsString(actual));
+        }
+    }
+
+    /**
+     * The store is written for a flavor with the signature of another flavor
+     * part and the policy of the correctly signed flavor. The signature is
+     * verified when the entry is decoded, so the store cannot make the
+     * forged signature trusted.
+     */
+    @Test
+    public void testStoredPolicyVerifiesSignatureOfFlavor() throws Exception {
+        SignedFlavor signedFlavor = platformFlavor.getFlavorPartWithSignature("PLATFORM", privateKey).get(0);
+        SignedFlavor otherFlavor = platformFlavor.getFlavorPartWithSignature("OS", privateKey).get(0);
+        SignedFlavor forgedFlavor = new SignedFlavor(signedFlavor.getFlavor(), otherFlavor.getSignature());
+        HostTrustPolicyManager policyManager = new HostTrustPolicyManager(signedFlavor, hostManifest, tempFiles.get(0).getPath(), tempFiles.get(1).getPath(), tempFiles.get(2).getPath(), tempFiles.get(3).getPath(), false);
+        Policy policy = policyManager.getVendorTrustPolicyReader().loadTrustRules();
+        CompiledPolicyStoreWriter writer = new CompiledPolicyStoreWriter(verifier.getCertificateFingerprint(), STORE_KEY);
+        writer.add(policyManager.getVendorKey(), forgedFlavor, false, policy);
+        File storeFile = File.createTempFile("temp_compiled_policies", ".store");
+        tempFiles.add(storeFile);
+        writer.write(storeFile);
+
+        verifier.setCompiledPolicyStore(CompiledPolicyStore.open(storeFile, STORE_KEY));
+        TrustReport report = verifier.verify(hostManifest, forgedFlavor, false);
+        assertFalse(report.isTrusted());
+        boolean notTrusted = false;
+        for (RuleResult result : report.getResults()) {
+            for (Fault fault : result.getFaults()) {
+                notTrusted = notTrusted || fault instanceof FlavorSignatureNotTrusted;
+            }
+        }
+        assertTrue(notTrusted);
+    }
+
+    @Test
+    public void testStoredPolicyWithoutSignatureRuleIsNotUsed() throws Exception {
+        SignedFlavor signedFlavor = platformFlavor.getFlavorPartWithSignature("PLATFORM", privateKey).get(0);
+        HostTrustPolicyManager policyManager = new HostTrustPolicyManager(signedFlavor, hostManifest, tempFiles.get(0).getPath(), tempFiles.get(1).getPath(), tempFiles.get(2).getPath(), tempFiles.get(3).getPath(), true);
+        CompiledPolicyStoreWriter writer = new CompiledPolicyStoreWriter(verifier.getCertificateFingerprint(), STORE_KEY);
+        writer.add(policyManager.getVendorKey(), signedFlavor, false, policyManager.getVendorTrustPolicyReader().loadTrustRules());
+        File storeFile = File.createTempFile("temp_compiled_policies", ".store");
+        tempFiles.add(storeFile);
+        writer.write(storeFile);
+
+        CompiledPolicyStore store = CompiledPolicyStore.open(storeFile, STORE_KEY);
+        assertNull(store.getPolicy(policyManager.getVendorKey(), signedFlavor, false, tempFiles.get(2).getPath(), tempFiles.get(3).getPath()));
+    }
+
+    /**
+     * A store written without the store key, here with a key of its own,
+     * has the right certificate fingerprint and entry keys but is not used.
+     */
+    @Test
+    public void testStoreWrittenWithOtherKeyIsNotUsed() throws Exception {
+        SignedFlavor signedFlavor = platformFlavor.getFlavorPartWithSignature("PLATFORM", privateKey).get(0);
+        String vendorKey = new HostTrustPolicyManager(signedFlavor, hostManifest, null, null, null, null, false).getVendorKey();
+        CompiledPolicyStoreWriter writer = new CompiledPolicyStoreWriter(verifier.getCertificateFingerprint(), "another compiled policy store key".getBytes(StandardCharsets.UTF_8));
+        verifier.compile(hostManifest, signedFlavor, false, writer);
+        File storeFile = File.createTempFile("temp_compiled_policies", ".store");
+        tempFiles.add(storeFile);
+        writer.write(storeFile);
+
+        CompiledPolicyStore store = CompiledPolicyStore.open(storeFile, STORE_KEY);
+        assertEquals(1, store.size());
+        assertNull(store.getPolicy(vendorKey, signedFlavor, false, tempFiles.get(2).getPath(), tempFiles.get(3).getPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStoreForOtherCertificatesIsRefused() throws Exception {
+        File storeFile = File.createTempFile("temp_compiled_policies", ".store");
+        tempFiles.add(storeFile);
+        new CompiledPolicyStoreWriter(new byte[32], STORE_KEY).write(storeFile);
+        verifier.setCompiledPolicyStore(CompiledPolicyStore.open(storeFile, STORE_KEY));
+    }
+
+    private File copyToTempFile(String name) throws Exception {
+        try (InputStream fi = getClass().getClassLoader().getResourceAsStream(PATH_PREFIX + "/" + name)) {
+            File file = File.createTempFile("temp_compiled_policy_store", "");
+            tempFiles.add(file);
+            Files.copy(fi, file.toPath(), REPLACE_EXISTING);
+            return file;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.mtwilson.core.verifier.crypto.CryptoProvider;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that pooled digests and signatures are reused on the same thread
+ * only and are returned in their initial state.
+ */
+public class TestCryptoProvider {
+
+    @Test
+    public void testDigestReusedAfterReset() throws Exception {
+        CryptoProvider crypto = new CryptoProvider();
+        MessageDigest digest = crypto.acquireMessageDigest("SHA-256");
+        digest.update("partial".getBytes(StandardCharsets.UTF_8));
+        crypto.release(digest);
+        MessageDigest reused = crypto.acquireMessageDigest("SHA-256");
+        assertSame(digest, reused);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(), reused.digest());
+        assertNotSame(reused, crypto.acquireMessageDigest("SHA-256"));
+    }
+
+    @Test
+    public void testDigestNotSharedBetweenThreads() throws Exception {
+        final CryptoProvider crypto = new CryptoProvider();
+        MessageDigest digest = crypto.acquireMessageDigest("SHA-384");
+        crypto.release(digest);
+        final AtomicReference<MessageDigest> other = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    other.set(crypto.acquireMessageDigest("SHA-384"));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotSame(digest, other.get());
+        assertSame(digest, crypto.acquireMessageDigest("SHA-384"));
+    }
+
+    @Test
+    public void testSignatureReused() throws Exception {
+        CryptoProvider crypto = new CryptoProvider();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        byte[] data = "flavor".getBytes(StandardCharsets.UTF_8);
+        Signature signer = Signature.getInstance("SHA384withRSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(data);
+        byte[] signature = signer.sign();
+        for (int i = 0; i < 2; i++) {
+            Signature verifier = crypto.acquireSignature("SHA384withRSA");
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(data);
+            assertTrue(verifier.verify(signature));
+            crypto.release(verifier);
+        }
+    }
+
+    @Test
+    public void testNamedProvider() throws Exception {
+        CryptoProvider crypto = CryptoProvider.forName("SUN");
+        assertEquals("SUN", crypto.acquireMessageDigest("SHA-1").getProvider().getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProvider() {
+        CryptoProvider.forName("no-such-provider");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.MeasurementSha256;
+import com.intel.mtwilson.core.common.model.PcrEventLogFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEquals;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestInterner;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import com.intel.mtwilson.core.verifier.policy.utils.WeakInterner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that equal values share one pooled instance and that the interner
+ * counts the duplicates it replaced.
+ */
+public class TestDigestInterner {
+
+    @Test
+    public void testEqualValuesShareOneInstance() {
+        WeakInterner<String> interner = new WeakInterner<>();
+        String first = new String("d2a84f4b8b650937ec8f73cd8be2c74add5a911ba64df27458ed8229da804a26");
+        String second = new String(first);
+        assertSame(first, interner.intern(first));
+        assertSame(first, interner.intern(second));
+        assertNull(interner.intern(null));
+        assertEquals(2, interner.getLookups());
+        assertEquals(1, interner.getHits());
+        assertEquals(1, interner.size());
+    }
+
+    @Test
+    public void testBytesSavedCountsDuplicates() {
+        DigestInterner interner = new DigestInterner();
+        DigestKey key = DigestKey.valueOf(new byte[48]);
+        assertSame(key, interner.intern(key));
+        assertSame(key, interner.intern(DigestKey.valueOf(new byte[48])));
+        String value = new String("0123456789abcdef");
+        assertSame(value, interner.intern(value));
+        assertSame(value, interner.intern(new String(value)));
+        assertEquals(2, interner.getHits());
+        assertEquals(4, interner.getLookups());
+        assertTrue(interner.getBytesSaved() > 0);
+    }
+
+    @Test
+    public void testPoliciesShareExpectedEntries() {
+        DigestInterner interner = new DigestInterner();
+        PcrEventLogEquals first = eventLogRule();
+        PcrEventLogEquals second = eventLogRule();
+        interner.intern(new Policy("first", first));
+        interner.intern(new Policy("second", second));
+        assertSame(first.getExpected().getEventLog().get(0), second.getExpected().getEventLog().get(0));
+        assertEquals(1, interner.getHits());
+    }
+
+    private static PcrEventLogEquals eventLogRule() {
+        List<Measurement> eventLog = new ArrayList<>(Arrays.<Measurement>asList(
+                new MeasurementSha256(Sha256Digest.digestOf("vmlinuz".getBytes()), "vmlinuz", new HashMap<String, String>())));
+        return new PcrEventLogEquals(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, eventLog));
+    }
+}
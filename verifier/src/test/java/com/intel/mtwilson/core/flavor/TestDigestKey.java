@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import java.security.MessageDigest;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that DigestKey round-trips digest values of every supported length
+ * and compares them by length and value.
+ */
+public class TestDigestKey {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String algorithm : new String[] { "SHA-1", "SHA-256", "SHA-384", "SHA-512" }) {
+            byte[] digest = MessageDigest.getInstance(algorithm).digest(algorithm.getBytes("UTF-8"));
+            DigestKey key = DigestKey.valueOf(digest);
+            assertEquals(digest.length, key.length());
+            assertArrayEquals(digest, key.toByteArray());
+            assertTrue(key.matches(digest));
+            assertEquals(key, DigestKey.valueOfHex(key.toHexString()));
+            assertEquals(key, DigestKey.valueOfHex(key.toHexString().toUpperCase()));
+            assertEquals(key.hashCode(), DigestKey.valueOfHex(key.toHexString()).hashCode());
+        }
+    }
+
+    @Test
+    public void testLengthIsPartOfKey() {
+        DigestKey short1 = DigestKey.valueOf(new byte[20]);
+        DigestKey long1 = DigestKey.valueOf(new byte[32]);
+        assertNotEquals(short1, long1);
+        assertFalse(short1.matches(new byte[32]));
+    }
+
+    @Test
+    public void testValueMismatchInLastByte() {
+        byte[] value = new byte[48];
+        DigestKey key = DigestKey.valueOf(value);
+        value[47] = 1;
+        assertFalse(key.matches(value));
+        assertNotEquals(key, DigestKey.valueOf(value));
+    }
+
+    @Test
+    public void testDecodeHexIntoBuffer() {
+        byte[] buffer = new byte[DigestKey.MAX_LENGTH];
+        assertEquals(2, DigestKey.decodeHex("0aFf", buffer));
+        assertEquals(0x0a, buffer[0]);
+        assertEquals((byte) 0xff, buffer[1]);
+    }
+
+    @Test
+    public void testNullAndInvalidValues() {
+        assertNull(DigestKey.valueOfHex(null));
+        assertNull(DigestKey.valueOf((byte[]) null));
+        for (String invalid : new String[] { "abc", "zz", new String(new char[130]).replace('\0', '0') }) {
+            try {
+                DigestKey.valueOfHex(invalid);
+                throw new AssertionError("expected IllegalArgumentException for " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
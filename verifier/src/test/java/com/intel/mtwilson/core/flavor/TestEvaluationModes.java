@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.extensions.Extensions;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.policy.BaseRule;
+import com.intel.mtwilson.core.verifier.policy.EvaluationMode;
+import com.intel.mtwilson.core.verifier.policy.Fault;
+import com.intel.mtwilson.core.verifier.policy.HostTrustPolicyManager;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.policy.fault.RuleNotEvaluated;
+import com.intel.mtwilson.core.verifier.policy.fault.RuleSuperseded;
+import com.intel.mtwilson.core.verifier.policy.rule.AikCertificateTrusted;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEquals;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEqualsExcluding;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstant;
+import com.intel.mtwilson.core.verifier.policy.vendor.VendorTrustPolicyRules;
+import com.intel.mtwilson.core.verifier.store.CompiledPolicyStore;
+import com.intel.mtwilson.core.verifier.store.CompiledPolicyStoreWriter;
+import com.intel.mtwilson.jackson.bouncycastle.BouncyCastleModule;
+import com.intel.mtwilson.jackson.validation.ValidationModule;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import com.intel.mtwilson.util.crypto.keystore.PrivateKeyStore;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies the intel-host and esxi-host fixtures in each evaluation mode, and
+ * checks which rules the Verifier skips. Policies written for a test are
+ * loaded from a compiled policy store, which is how a policy other than the
+ * one of the vendor policy reader reaches Verifier.verify.
+ */
+public class TestEvaluationModes {
+    private static final String PATH_PREFIX = "intel-host";
+    private static final String KEYSTORE_PASSWORD = "H6mpW8iKFOzytOFoAquvbw==";
+    private static final byte[] STORE_KEY = "compiled policy store test key".getBytes(StandardCharsets.UTF_8);
+    private static final String ZERO_SHA1 = "0000000000000000000000000000000000000000";
+
+    private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+    private final List<File> tempFiles = new ArrayList<>();
+    private HostManifest hostManifest;
+    private SignedFlavor signedFlavor;
+    private File privacyCa;
+    private PrivateKey privateKey;
+    private Verifier verifier;
+
+    @BeforeClass
+    public static void registerJacksonModules() {
+        Extensions.register(Module.class, BouncyCastleModule.class);
+        Extensions.register(Module.class, ValidationModule.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        privacyCa = copyToTempFile("PrivacyCA.pem");
+        File tagCa = copyToTempFile("tag-cacerts.pem");
+        File flavorSigningCert = copyToTempFile("flavor-signer.crt.pem");
+        File flavorCaCert = copyToTempFile("cms-ca.crt.pem");
+        File keystore = copyToTempFile("mtwilson-flavor-signing-cert.p12");
+        privateKey = new PrivateKeyStore("PKCS12", keystore, KEYSTORE_PASSWORD.toCharArray()).getPrivateKey("flavor-signing-key");
+        X509AttributeCertificate tagCer = mapper.readValue(Resources.toString(Resources.getResource(PATH_PREFIX + "/tagcer.json"), Charsets.UTF_8), X509AttributeCertificate.class);
+        hostManifest = mapper.readValue(Resources.toString(Resources.getResource(PATH_PREFIX + "/RHEL_Manifest.json"), Charsets.UTF_8), HostManifest.class);
+        PlatformFlavor platformFlavor = new PlatformFlavorFactory().getPlatformFlavor(hostManifest, tagCer);
+        signedFlavor = platformFlavor.getFlavorPartWithSignature("PLATFORM", privateKey).get(0);
+        verifier = new Verifier(privacyCa.getPath(), tagCa.getPath(), flavorSigningCert.getPath(), flavorCaCert.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : tempFiles) {
+            file.delete();
+        }
+    }
+
+    /**
+     * The host PCR 0 and PCR 17 values do not match the PLATFORM flavor.
+     * Every rule of the flavor only contributes to PLATFORM, so the rules
+     * that follow the first failed PCR rule are not evaluated, and the report
+     * still lists all of them.
+     */
+    @Test
+    public void testFailFastSkipsRulesOfFailedFlavor() throws Exception {
+        hostManifest.getPcrManifest().setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, ZERO_SHA1));
+        hostManifest.getPcrManifest().setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, ZERO_SHA1));
+        TrustReport full = verifier.verify(hostManifest, signedFlavor, true);
+        assertFalse(full.isTrusted());
+        assertEquals(0, countNotEvaluated(full));
+
+        verifier.setEvaluationMode(EvaluationMode.FAIL_FAST);
+        TrustReport report = verifier.verify(hostManifest, signedFlavor, true);
+        assertFalse(report.isTrusted());
+        assertEquals(full.getResults().size(), report.getResults().size());
+        assertTrue(countNotEvaluated(report) > 0);
+        for (RuleResult result : report.getResults()) {
+            assertEquals(Arrays.asList("PLATFORM"), Arrays.asList(result.getRule().getMarkers()));
+        }
+    }
+
+    /**
+     * The esxi-host PCR 19 value does not match its event log, so the
+     * integrity rule of the VMware OS flavor fails, and the rule comparing
+     * the event log with the flavor is superseded.
+     */
+    @Test
+    public void testSkipSupersededSkipsEventLogOfFailedIntegrityRule() throws Exception {
+        X509AttributeCertificate tagCer = mapper.readValue(Resources.toString(Resources.getResource("esxi-host/tagcer.json"), Charsets.UTF_8), X509AttributeCertificate.class);
+        HostManifest esxiManifest = mapper.readValue(Resources.toString(Resources.getResource("esxi-host/hostmanifest.json"), Charsets.UTF_8), HostManifest.class);
+        SignedFlavor osFlavor = new PlatformFlavorFactory().getPlatformFlavor(esxiManifest, tagCer).getFlavorPartWithSignature("OS", privateKey).get(0);
+        esxiManifest.getPcrManifest().setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR19, ZERO_SHA1));
+        TrustReport full = verifier.verify(esxiManifest, osFlavor, true);
+        assertFalse(find(full, PcrEventLogIntegrity.class, "OS").isTrusted());
+        for (Fault fault : find(full, PcrEventLogEqualsExcluding.class, "OS").getFaults()) {
+            assertFalse(fault instanceof RuleSuperseded);
+        }
+
+        verifier.setEvaluationMode(EvaluationMode.SKIP_SUPERSEDED);
+        TrustReport report = verifier.verify(esxiManifest, osFlavor, true);
+        assertFalse(report.isTrusted());
+        assertEquals(full.getResults().size(), report.getResults().size());
+        RuleResult integrity = find(report, PcrEventLogIntegrity.class, "OS");
+        assertFalse(integrity.isTrusted());
+        assertFalse(integrity.getFaults().get(0) instanceof RuleSuperseded);
+        RuleResult equals = find(report, PcrEventLogEqualsExcluding.class, "OS");
+        assertEquals(1, equals.getFaults().size());
+        assertTrue(equals.getFaults().get(0) instanceof RuleSuperseded);
+    }
+
+    /**
+     * The PLATFORM and OS PCRs of the policy do not match the host. The
+     * batched PCR rules are evaluated first, so every other rule that only
+     * contributes to PLATFORM or OS is skipped, and a rule for a marker that
+     * is still trusted is evaluated.
+     */
+    @Test
+    public void testFailFastSkipsRulesOfUntrustedMarkers() throws Exception {
+        Rule platformPcr = withMarkers(new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, ZERO_SHA1)), "PLATFORM");
+        Rule osPcr = withMarkers(new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR18, ZERO_SHA1)), "OS");
+        Rule platformLog = withMarkers(new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, ZERO_SHA1)), "PLATFORM");
+        Rule platformAndOsLog = withMarkers(new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR18, ZERO_SHA1)), "PLATFORM", "OS");
+        Rule hostUniqueAik = withMarkers(VendorTrustPolicyRules.createAikCertificateTrustedRules("HOST_UNIQUE", privacyCa.getPath()).iterator().next(), "HOST_UNIQUE");
+        useStoredPolicy(new Policy("fail fast", platformPcr, osPcr, platformLog, platformAndOsLog, hostUniqueAik));
+        verifier.setEvaluationMode(EvaluationMode.FAIL_FAST);
+
+        TrustReport report = verifier.verify(hostManifest, signedFlavor, true);
+        assertFalse(report.isTrusted());
+        assertEquals(5, report.getResults().size());
+        assertFalse(isNotEvaluated(find(report, PcrMatchesConstant.class, "PLATFORM")));
+        assertFalse(isNotEvaluated(find(report, PcrMatchesConstant.class, "OS")));
+        assertEquals(Arrays.asList("PLATFORM"), notEvaluatedMarkers(find(report, PcrEventLogIntegrity.class, "PLATFORM")));
+        assertEquals(Arrays.asList("PLATFORM", "OS"), notEvaluatedMarkers(find(report, PcrEventLogIntegrity.class, "PLATFORM", "OS")));
+        assertFalse(isNotEvaluated(find(report, AikCertificateTrusted.class, "HOST_UNIQUE")));
+
+        verifier.setEvaluationMode(EvaluationMode.FULL_REPORT);
+        TrustReport full = verifier.verify(hostManifest, signedFlavor, true);
+        for (RuleResult result : full.getResults()) {
+            assertFalse(isNotEvaluated(result));
+        }
+    }
+
+    /**
+     * The host PCR 17 value does not match its event log, so the integrity
+     * rule of the event log fails and the rule comparing the event log with
+     * the flavor is superseded, whether the rules are evaluated on the
+     * calling thread or on an executor.
+     */
+    @Test
+    public void testSkipSupersededSkipsRulesOfFailedIntegrityRule() throws Exception {
+        useSupersededPolicy();
+        verifier.setEvaluationMode(EvaluationMode.SKIP_SUPERSEDED);
+        assertSuperseded(verifier.verify(hostManifest, signedFlavor, true));
+    }
+
+    @Test
+    public void testSkipSupersededWithExecutor() throws Exception {
+        useSupersededPolicy();
+        verifier.setEvaluationMode(EvaluationMode.SKIP_SUPERSEDED);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            verifier.setExecutorService(executor);
+            for (int i = 0; i < 10; i++) {
+                assertSuperseded(verifier.verify(hostManifest, signedFlavor, true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullReportEvaluatesRulesOfFailedIntegrityRule() throws Exception {
+        useSupersededPolicy();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            verifier.setExecutorService(executor);
+            TrustReport report = verifier.verify(hostManifest, signedFlavor, true);
+            assertFalse(find(report, PcrEventLogIntegrity.class, "PLATFORM").isTrusted());
+            assertTrue(find(report, PcrEventLogEquals.class, "PLATFORM").isTrusted());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void useSupersededPolicy() throws Exception {
+        Rule integrity = withMarkers(new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, ZERO_SHA1)), "PLATFORM");
+        Rule equals = withMarkers(new PcrEventLogEquals(hostManifest.getPcrManifest().getPcrEventLog(DigestAlgorithm.SHA1, PcrIndex.PCR17)), "PLATFORM");
+        Rule aik = withMarkers(VendorTrustPolicyRules.createAikCertificateTrustedRules("PLATFORM", privacyCa.getPath()).iterator().next(), "PLATFORM");
+        useStoredPolicy(new Policy("skip superseded", integrity, equals, aik));
+        hostManifest.getPcrManifest().setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, ZERO_SHA1));
+    }
+
+    private static void assertSuperseded(TrustReport report) {
+        assertFalse(report.isTrusted());
+        assertEquals(3, report.getResults().size());
+        RuleResult integrity = find(report, PcrEventLogIntegrity.class, "PLATFORM");
+        assertFalse(integrity.isTrusted());
+        assertFalse(integrity.getFaults().get(0) instanceof RuleSuperseded);
+        RuleResult equals = find(report, PcrEventLogEquals.class, "PLATFORM");
+        assertEquals(1, equals.getFaults().size());
+        assertTrue(equals.getFaults().get(0) instanceof RuleSuperseded);
+        assertEquals(PcrEventLogIntegrity.class.getName(), ((RuleSuperseded) equals.getFaults().get(0)).getPrerequisiteRuleName());
+        for (Fault fault : find(report, AikCertificateTrusted.class, "PLATFORM").getFaults()) {
+            assertFalse(fault instanceof RuleSuperseded);
+        }
+    }
+
+    private static Rule withMarkers(Rule rule, String... markers) {
+        ((BaseRule) rule).setMarkers(markers);
+        return rule;
+    }
+
+    /**
+     * Write the policy to a compiled policy store as the policy of the signed
+     * flavor without signature verification, and load it into the verifier.
+     */
+    private void useStoredPolicy(Policy policy) throws Exception {
+        CompiledPolicyStoreWriter writer = new CompiledPolicyStoreWriter(verifier.getCertificateFingerprint(), STORE_KEY);
+        writer.add(HostTrustPolicyManager.getVendorKey(hostManifest), signedFlavor, true, policy);
+        File storeFile = File.createTempFile("temp_evaluation_modes", ".store");
+        tempFiles.add(storeFile);
+        writer.write(storeFile);
+        verifier.setCompiledPolicyStore(CompiledPolicyStore.open(storeFile, STORE_KEY));
+    }
+
+    private static RuleResult find(TrustReport report, Class<? extends Rule> ruleClass, String... markers) {
+        for (RuleResult result : report.getResults()) {
+            if (result.getRule().getClass() == ruleClass && Arrays.equals(markers, result.getRule().getMarkers())) {
+                return result;
+            }
+        }
+        throw new AssertionError("No result for " + ruleClass.getSimpleName() + " " + Arrays.toString(markers));
+    }
+
+    private static int countNotEvaluated(TrustReport report) {
+        int count = 0;
+        for (RuleResult result : report.getResults()) {
+            if (isNotEvaluated(result)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isNotEvaluated(RuleResult result) {
+        return notEvaluatedMarkers(result) != null;
+    }
+
+    private static List<String> notEvaluatedMarkers(RuleResult result) {
+        for (Fault fault : result.getFaults()) {
+            if (fault instanceof RuleNotEvaluated) {
+                assertEquals(1, result.getFaults().size());
+                return ((RuleNotEvaluated) fault).getMarkers();
+            }
+        }
+        return null;
+    }
+
+    private File copyToTempFile(String name) throws Exception {
+        try (InputStream fi = getClass().getClassLoader().getResourceAsStream(PATH_PREFIX + "/" + name)) {
+            File file = File.createTempFile("temp_evaluation_modes", "");
+            tempFiles.add(file);
+            Files.copy(fi, file.toPath(), REPLACE_EXISTING);
+            return file;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.core.verifier.policy.Fault;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogMissing;
+import com.intel.mtwilson.core.verifier.policy.fault.RuleNotEvaluated;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that fault descriptions are formatted lazily from the fault
+ * parameters and serialized as before.
+ */
+public class TestFault {
+
+    @Test
+    public void testDescriptionIsFormattedFromParameters() {
+        RuleNotEvaluated fault = new RuleNotEvaluated("PLATFORM");
+        assertEquals("RuleNotEvaluated", fault.getCode());
+        assertEquals(Arrays.<Object>asList("PLATFORM"), fault.getParameters());
+        assertEquals("Rule was not evaluated because marker PLATFORM is already untrusted", fault.getDescription());
+        assertEquals(fault.getDescription(), fault.toString());
+    }
+
+    @Test
+    public void testFixedDescriptionHasNoParameters() {
+        Fault fault = new Fault("AssetTag Reported is null");
+        assertTrue(fault.getParameters().isEmpty());
+        assertEquals("AssetTag Reported is null", fault.getDescription());
+        assertEquals("Fault", fault.getCode());
+    }
+
+    @Test
+    public void testSerializedFaultIsUnchanged() throws Exception {
+        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+        String json = mapper.writeValueAsString(new PcrEventLogMissing(PcrIndex.PCR17));
+        assertTrue(json.contains("\"description\":\"Host report does not include a PCR Event Log for PCR 17\""));
+        assertFalse(json.contains("code"));
+        assertFalse(json.contains("parameters"));
+        Fault copy = mapper.readValue(json, Fault.class);
+        assertEquals("Host report does not include a PCR Event Log for PCR 17", copy.getDescription());
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.extensions.Extensions;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.index.FlavorIndex;
+import com.intel.mtwilson.core.verifier.policy.HostTrustPolicyManager;
+import com.intel.mtwilson.core.verifier.policy.PcrBankSelection;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstant;
+import com.intel.mtwilson.jackson.bouncycastle.BouncyCastleModule;
+import com.intel.mtwilson.jackson.validation.ValidationModule;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import com.intel.mtwilson.util.crypto.keystore.PrivateKeyStore;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Indexes the flavors of the intel-host fixture and checks that every flavor
+ * the host is trusted against is a candidate.
+ */
+public class TestFlavorIndex {
+    private static final String PATH_PREFIX = "intel-host";
+    private static final String KEYSTORE_PASSWORD = "H6mpW8iKFOzytOFoAquvbw==";
+    private static final String SHA1_VALUE = "1111111111111111111111111111111111111111";
+    private static final String OTHER_SHA1_VALUE = "2222222222222222222222222222222222222222";
+    private static final String SHA256_VALUE = "1111111111111111111111111111111111111111111111111111111111111111";
+    private static final String OTHER_SHA256_VALUE = "2222222222222222222222222222222222222222222222222222222222222222";
+
+    private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+    private final List<File> tempFiles = new ArrayList<>();
+    private HostManifest hostManifest;
+    private List<SignedFlavor> signedFlavors;
+    private Verifier verifier;
+
+    @BeforeClass
+    public static void registerJacksonModules() {
+        Extensions.register(Module.class, BouncyCastleModule.class);
+        Extensions.register(Module.class, ValidationModule.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File privacyCa = copyToTempFile("PrivacyCA.pem");
+        File tagCa = copyToTempFile("tag-cacerts.pem");
+        File flavorSigningCert = copyToTempFile("flavor-signer.crt.pem");
+        File flavorCaCert = copyToTempFile("cms-ca.crt.pem");
+        File keystore = copyToTempFile("mtwilson-flavor-signing-cert.p12");
+        PrivateKey privateKey = new PrivateKeyStore("PKCS12", keystore, KEYSTORE_PASSWORD.toCharArray()).getPrivateKey("flavor-signing-key");
+        X509AttributeCertificate tagCer = mapper.readValue(Resources.toString(Resources.getResource(PATH_PREFIX + "/tagcer.json"), Charsets.UTF_8), X509AttributeCertificate.class);
+        hostManifest = mapper.readValue(Resources.toString(Resources.getResource(PATH_PREFIX + "/RHEL_Manifest.json"), Charsets.UTF_8), HostManifest.class);
+        PlatformFlavor platformFlavor = new PlatformFlavorFactory().getPlatformFlavor(hostManifest, tagCer);
+        signedFlavors = new ArrayList<>();
+        for (String flavorPart : platformFlavor.getFlavorPartNames()) {
+            signedFlavors.add(platformFlavor.getFlavorPartWithSignature(flavorPart, privateKey).get(0));
+        }
+        verifier = new Verifier(privacyCa.getPath(), tagCa.getPath(), flavorSigningCert.getPath(), flavorCaCert.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : tempFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTrustedFlavorsAreCandidates() throws Exception {
+        FlavorIndex index = new FlavorIndex();
+        for (SignedFlavor signedFlavor : signedFlavors) {
+            verifier.index(signedFlavor, index);
+        }
+        assertEquals(signedFlavors.size(), index.size());
+        List<SignedFlavor> candidates = index.getCandidates(hostManifest);
+        for (SignedFlavor signedFlavor : signedFlavors) {
+            TrustReport report = verifier.verify(hostManifest, signedFlavor, false);
+            if (report.isTrusted()) {
+                assertTrue(candidates.contains(signedFlavor));
+            }
+            String flavorPart = signedFlavor.getFlavor().getMeta().getDescription().getFlavorPart();
+            assertEquals(candidates.contains(signedFlavor), index.getCandidates(hostManifest, flavorPart).contains(signedFlavor));
+        }
+    }
+
+    @Test
+    public void testRemovedFlavorIsNotCandidate() throws Exception {
+        FlavorIndex index = new FlavorIndex();
+        SignedFlavor signedFlavor = signedFlavors.get(0);
+        verifier.index(signedFlavor, index);
+        verifier.index(signedFlavor, index);
+        assertEquals(1, index.size());
+        assertTrue(index.remove(signedFlavor.getFlavor().getMeta().getId()));
+        assertFalse(index.remove(signedFlavor.getFlavor().getMeta().getId()));
+        assertTrue(index.getCandidates(hostManifest).isEmpty());
+    }
+
+    @Test
+    public void testSelectedBankIsIndexed() throws Exception {
+        SignedFlavor signedFlavor = signedFlavors.get(0);
+        String flavorPart = signedFlavor.getFlavor().getMeta().getDescription().getFlavorPart();
+        String vendorKey = HostTrustPolicyManager.getVendorKey(hostManifest);
+        Policy policy = new Policy("dual bank",
+                new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, SHA1_VALUE)),
+                new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR0, SHA256_VALUE)));
+        FlavorIndex all = new FlavorIndex();
+        FlavorIndex strongest = new FlavorIndex(PcrBankSelection.STRONGEST);
+        FlavorIndex requiredSha1 = new FlavorIndex(PcrBankSelection.required(DigestAlgorithm.SHA1));
+        all.add(vendorKey, signedFlavor, policy);
+        strongest.add(vendorKey, signedFlavor, policy);
+        requiredSha1.add(vendorKey, signedFlavor, policy);
+
+        setPcr0(null, SHA256_VALUE);
+        assertFalse(all.getCandidates(hostManifest, flavorPart).contains(signedFlavor));
+        assertTrue(strongest.getCandidates(hostManifest, flavorPart).contains(signedFlavor));
+        assertFalse(requiredSha1.getCandidates(hostManifest, flavorPart).contains(signedFlavor));
+
+        // only the SHA256 bank is verified when the host reports both
+        setPcr0(OTHER_SHA1_VALUE, SHA256_VALUE);
+        assertFalse(all.getCandidates(hostManifest, flavorPart).contains(signedFlavor));
+        assertEquals(1, strongest.getCandidates(hostManifest, flavorPart).size());
+
+        setPcr0(SHA1_VALUE, OTHER_SHA256_VALUE);
+        assertTrue(strongest.getCandidates(hostManifest, flavorPart).isEmpty());
+        assertTrue(requiredSha1.getCandidates(hostManifest, flavorPart).contains(signedFlavor));
+
+        setPcr0(SHA1_VALUE, null);
+        assertTrue(strongest.getCandidates(hostManifest, flavorPart).contains(signedFlavor));
+        assertTrue(strongest.remove(signedFlavor.getFlavor().getMeta().getId()));
+        assertTrue(strongest.getCandidates(hostManifest).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIndexOfOtherBankSelectionIsRejected() throws Exception {
+        verifier.index(signedFlavors.get(0), new FlavorIndex(PcrBankSelection.STRONGEST));
+    }
+
+    private void setPcr0(String sha1Value, String sha256Value) {
+        PcrManifest pcrManifest = new PcrManifest();
+        if (sha1Value != null) {
+            pcrManifest.setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, sha1Value));
+        }
+        if (sha256Value != null) {
+            pcrManifest.setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR0, sha256Value));
+        }
+        hostManifest.setPcrManifest(pcrManifest);
+    }
+
+    private File copyToTempFile(String name) throws Exception {
+        try (InputStream fi = getClass().getClassLoader().getResourceAsStream(PATH_PREFIX + "/" + name)) {
+            File file = File.createTempFile("temp_flavor_index", "");
+            tempFiles.add(file);
+            Files.copy(fi, file.toPath(), REPLACE_EXISTING);
+            return file;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.intel.dcsg.cpg.extensions.Extensions;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.Verifier;
+import com.intel.mtwilson.core.verifier.policy.PcrBankSelection;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.policy.VerificationBaseline;
+import com.intel.mtwilson.jackson.bouncycastle.BouncyCastleModule;
+import com.intel.mtwilson.jackson.validation.ValidationModule;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import com.intel.mtwilson.util.crypto.keystore.PrivateKeyStore;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies the intel-host fixture again with baselines and checks that the
+ * reports equal full verifications while unchanged rules are reused.
+ */
+public class TestIncrementalVerification {
+    private static final String PATH_PREFIX = "intel-host";
+    private static final String KEYSTORE_PASSWORD = "H6mpW8iKFOzytOFoAquvbw==";
+
+    private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+    private final List<File> tempFiles = new ArrayList<>();
+    private HostManifest hostManifest;
+    private List<SignedFlavor> signedFlavors;
+    private Verifier verifier;
+
+    @BeforeClass
+    public static void registerJacksonModules() {
+        Extensions.register(Module.class, BouncyCastleModule.class);
+        Extensions.register(Module.class, ValidationModule.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File privacyCa = copyToTempFile("PrivacyCA.pem");
+        File tagCa = copyToTempFile("tag-cacerts.pem");
+        File flavorSigningCert = copyToTempFile("flavor-signer.crt.pem");
+        File flavorCaCert = copyToTempFile("cms-ca.crt.pem");
+        File keystore = copyToTempFile("mtwilson-flavor-signing-cert.p12");
+        PrivateKey privateKey = new PrivateKeyStore("PKCS12", keystore, KEYSTORE_PASSWORD.toCharArray()).getPrivateKey("flavor-signing-key");
+        X509AttributeCertificate tagCer = mapper.readValue(Resources.toString(Resources.getResource(PATH_PREFIX + "/tagcer.json"), Charsets.UTF_8), X509AttributeCertificate.class);
+        hostManifest = readManifest();
+        PlatformFlavor platformFlavor = new PlatformFlavorFactory().getPlatformFlavor(hostManifest, tagCer);
+        signedFlavors = new ArrayList<>();
+        for (String flavorPart : platformFlavor.getFlavorPartNames()) {
+            signedFlavors.add(platformFlavor.getFlavorPartWithSignature(flavorPart, privateKey).get(0));
+        }
+        verifier = new Verifier(privacyCa.getPath(), tagCa.getPath(), flavorSigningCert.getPath(), flavorCaCert.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : tempFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testUnchangedManifestReusesResults() throws Exception {
+        for (SignedFlavor signedFlavor : signedFlavors) {
+            VerificationBaseline baseline = new VerificationBaseline();
+            verifier.reverify(hostManifest, signedFlavor, false, baseline);
+            assertEquals(0, baseline.getReused());
+            // a manifest read again has the same content in new objects
+            HostManifest again = readManifest();
+            TrustReport report = verifier.reverify(again, signedFlavor, false, baseline);
+            assertTrue(baseline.getReused() > 0);
+            assertEquals(mapper.writeValueAsString(verifier.verify(again, signedFlavor, false)), mapper.writeValueAsString(report));
+        }
+    }
+
+    @Test
+    public void testChangedSectionIsEvaluated() throws Exception {
+        for (SignedFlavor signedFlavor : signedFlavors) {
+            VerificationBaseline baseline = new VerificationBaseline();
+            verifier.reverify(hostManifest, signedFlavor, false, baseline);
+            HostManifest retagged = readManifest();
+            retagged.setAssetTagDigest(new byte[32]);
+            TrustReport report = verifier.reverify(retagged, signedFlavor, false, baseline);
+            TrustReport expected = verifier.verify(retagged, signedFlavor, false);
+            assertEquals(expected.isTrusted(), report.isTrusted());
+            assertEquals(mapper.writeValueAsString(expected), mapper.writeValueAsString(report));
+        }
+    }
+
+    @Test
+    public void testBaselineOfOtherBankSelectionIsNotReused() throws Exception {
+        for (SignedFlavor signedFlavor : signedFlavors) {
+            VerificationBaseline baseline = new VerificationBaseline();
+            verifier.setPcrBankSelection(PcrBankSelection.ALL);
+            verifier.reverify(hostManifest, signedFlavor, false, baseline);
+            verifier.setPcrBankSelection(PcrBankSelection.STRONGEST);
+            TrustReport report = verifier.reverify(hostManifest, signedFlavor, false, baseline);
+            assertEquals(0, baseline.getReused());
+            assertEquals(mapper.writeValueAsString(verifier.verify(hostManifest, signedFlavor, false)), mapper.writeValueAsString(report));
+        }
+    }
+
+    private HostManifest readManifest() throws Exception {
+        return mapper.readValue(Resources.toString(Resources.getResource(PATH_PREFIX + "/RHEL_Manifest.json"), Charsets.UTF_8), HostManifest.class);
+    }
+
+    private File copyToTempFile(String name) throws Exception {
+        try (InputStream fi = getClass().getClassLoader().getResourceAsStream(PATH_PREFIX + "/" + name)) {
+            File file = File.createTempFile("temp_incremental_verification", "");
+            tempFiles.add(file);
+            Files.copy(fi, file.toPath(), REPLACE_EXISTING);
+            return file;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.mtwilson.core.verifier.metrics.LatencyHistogram;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBucketBoundsCoverEveryValue() {
+        long[] counts = new LatencyHistogram().getCounts();
+        for (int i = 1; i < counts.length; i++) {
+            assertEquals(LatencyHistogram.getUpperBound(i - 1) + 1, LatencyHistogram.getLowerBound(i));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getUpperBound(counts.length - 1));
+    }
+
+    @Test
+    public void testPercentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue(Math.abs(median - 50000000L) <= 50000000L / 32);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(Math.abs(p99 - 99000000L) <= 99000000L / 32);
+        assertEquals(100000000L, histogram.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.mtwilson.core.verifier.policy.utils.ModuleExclusionFilter;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks exact and prefix matching of compiled module exclusion filters.
+ */
+public class TestModuleExclusionFilter {
+
+    @Test
+    public void testExactAndPrefixPatterns() {
+        ModuleExclusionFilter filter = ModuleExclusionFilter.compile(Arrays.asList("commandLine.*", "vmlinuz"));
+        assertTrue(filter.matches("vmlinuz"));
+        assertFalse(filter.matches("vmlinuz-4.18"));
+        assertTrue(filter.matches("commandLine."));
+        assertTrue(filter.matches("commandLine./b.b00 bootUUID=76318446acdf557319907ab65a749906"));
+        assertFalse(filter.matches("componentName.commandLine."));
+        assertFalse(filter.matches(null));
+    }
+
+    @Test
+    public void testHostSpecificMatchesExactly() {
+        assertTrue(ModuleExclusionFilter.HOST_SPECIFIC.matches("commandLine."));
+        assertTrue(ModuleExclusionFilter.HOST_SPECIFIC.matches("componentName.imgdb.tgz"));
+        assertFalse(ModuleExclusionFilter.HOST_SPECIFIC.matches("commandLine./b.b00"));
+        assertFalse(ModuleExclusionFilter.NONE.matches("vmlinuz"));
+    }
+
+    @Test
+    public void testPatternsWithoutDuplicates() {
+        ModuleExclusionFilter filter = ModuleExclusionFilter.compile(Arrays.asList("initrd", "commandLine.*", "initrd", "", null));
+        assertEquals(Arrays.asList("initrd", "commandLine.*"), filter.getPatterns());
+        assertEquals(filter, ModuleExclusionFilter.compile(Arrays.asList("commandLine.*", "initrd")));
+        assertEquals(filter.hashCode(), ModuleExclusionFilter.compile(Arrays.asList("commandLine.*", "initrd")).hashCode());
+        assertFalse(filter.equals(ModuleExclusionFilter.compile(Arrays.asList("commandLine.", "initrd"))));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.core.verifier.policy.Fault;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrManifestMissing;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstant;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that the GraalVM native-image configuration registers every rule
+ * and fault class for reflection, so trust reports can be deserialized from
+ * their rule_name and fault_name class names in a native executable.
+ */
+public class TestNativeImageConfig {
+    private static final String REFLECT_CONFIG = "META-INF/native-image/com.intel.mtwilson.core/lib-verifier/reflect-config.json";
+
+    private static Set<String> readRegisteredClasses() throws Exception {
+        Set<String> names = new HashSet<>();
+        try (InputStream in = Rule.class.getClassLoader().getResourceAsStream(REFLECT_CONFIG)) {
+            assertNotNull(REFLECT_CONFIG, in);
+            for (JsonNode entry : new ObjectMapper().readTree(in)) {
+                names.add(entry.get("name").asText());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the concrete classes of the package of the given class that
+     * extend or implement the given type
+     */
+    private static Set<String> findClasses(Class<?> member, Class<?> type) throws Exception {
+        File dir = new File(member.getResource(".").toURI());
+        Set<String> names = new HashSet<>();
+        for (String file : dir.list()) {
+            if (!file.endsWith(".class") || file.contains("$")) {
+                continue;
+            }
+            Class<?> clazz = Class.forName(member.getPackage().getName() + "." + file.substring(0, file.length() - ".class".length()));
+            if (type.isAssignableFrom(clazz) && !Modifier.isAbstract(clazz.getModifiers())) {
+                names.add(clazz.getName());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testRulesRegistered() throws Exception {
+        Set<String> registered = readRegisteredClasses();
+        Set<String> rules = findClasses(PcrMatchesConstant.class, Rule.class);
+        assertTrue(rules.contains(PcrMatchesConstant.class.getName()));
+        for (String rule : rules) {
+            assertTrue(rule + " is not in " + REFLECT_CONFIG, registered.contains(rule));
+        }
+    }
+
+    @Test
+    public void testFaultsRegistered() throws Exception {
+        Set<String> registered = readRegisteredClasses();
+        Set<String> faults = findClasses(PcrManifestMissing.class, Fault.class);
+        assertTrue(faults.contains(PcrManifestMissing.class.getName()));
+        for (String fault : faults) {
+            assertTrue(fault + " is not in " + REFLECT_CONFIG, registered.contains(fault));
+        }
+    }
+
+    @Test
+    public void testVerifierClassesExist() throws Exception {
+        for (String name : readRegisteredClasses()) {
+            if (name.startsWith("com.intel.mtwilson.core.verifier.")) {
+                Class.forName(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.verifier.policy.PcrBankSelection;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstant;
+import java.util.Arrays;
+import java.util.HashSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Checks which PCR rules of a dual bank policy each bank selection keeps.
+ */
+public class TestPcrBankSelection {
+    private static final String SHA1_VALUE = "0000000000000000000000000000000000000000";
+    private static final String SHA256_VALUE = "0000000000000000000000000000000000000000000000000000000000000000";
+
+    private final Rule sha1Pcr0 = new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, SHA1_VALUE));
+    private final Rule sha256Pcr0 = new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR0, SHA256_VALUE));
+    private final Rule sha1Pcr17 = new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, SHA1_VALUE));
+    private final Rule sha256Pcr17 = new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, SHA256_VALUE));
+    private final Rule sha1Pcr18 = new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR18, SHA1_VALUE));
+    private final Policy policy = new Policy("test", sha1Pcr0, sha256Pcr0, sha1Pcr17, sha256Pcr17, sha1Pcr18);
+
+    private static HostManifest host(DigestAlgorithm... banks) {
+        PcrManifest pcrManifest = new PcrManifest();
+        for (DigestAlgorithm bank : banks) {
+            String value = bank == DigestAlgorithm.SHA1 ? SHA1_VALUE : SHA256_VALUE;
+            for (PcrIndex pcrIndex : new PcrIndex[] { PcrIndex.PCR0, PcrIndex.PCR17, PcrIndex.PCR18 }) {
+                pcrManifest.setPcr(PcrFactory.newInstance(bank, pcrIndex, value));
+            }
+        }
+        HostManifest hostManifest = new HostManifest();
+        hostManifest.setPcrManifest(pcrManifest);
+        return hostManifest;
+    }
+
+    @Test
+    public void testAllKeepsPolicy() {
+        assertSame(policy, PcrBankSelection.ALL.apply(policy, host(DigestAlgorithm.SHA1, DigestAlgorithm.SHA256)));
+    }
+
+    @Test
+    public void testStrongestReportedBank() {
+        Policy selected = PcrBankSelection.STRONGEST.apply(policy, host(DigestAlgorithm.SHA1, DigestAlgorithm.SHA256));
+        assertEquals(new HashSet<>(Arrays.asList(sha256Pcr0, sha256Pcr17, sha1Pcr18)), selected.getRules());
+        assertEquals(policy.getName(), selected.getName());
+    }
+
+    @Test
+    public void testStrongestFallsBackToReportedBank() {
+        Policy selected = PcrBankSelection.STRONGEST.apply(policy, host(DigestAlgorithm.SHA1));
+        assertEquals(new HashSet<>(Arrays.asList(sha1Pcr0, sha1Pcr17, sha1Pcr18)), selected.getRules());
+    }
+
+    @Test
+    public void testSelectionIsKeptPerReportedBanks() {
+        Policy sha256 = PcrBankSelection.STRONGEST.apply(policy, host(DigestAlgorithm.SHA1, DigestAlgorithm.SHA256));
+        assertSame(sha256, PcrBankSelection.STRONGEST.apply(policy, host(DigestAlgorithm.SHA256)));
+        Policy sha1 = PcrBankSelection.STRONGEST.apply(policy, host(DigestAlgorithm.SHA1));
+        assertNotSame(sha256, sha1);
+        assertSame(sha1, PcrBankSelection.STRONGEST.apply(policy, host(DigestAlgorithm.SHA1)));
+    }
+
+    @Test
+    public void testRequiredBanks() {
+        Policy selected = PcrBankSelection.required(DigestAlgorithm.SHA256).apply(policy, host(DigestAlgorithm.SHA1));
+        // PCR 18 is not defined in the SHA256 bank and keeps its SHA1 rule
+        assertEquals(new HashSet<>(Arrays.asList(sha256Pcr0, sha256Pcr17, sha1Pcr18)), selected.getRules());
+        assertSame(policy, PcrBankSelection.required(DigestAlgorithm.SHA1, DigestAlgorithm.SHA256).apply(policy, host(DigestAlgorithm.SHA256)));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.mtwilson.core.common.model.HostInfo;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.MeasurementSha256;
+import com.intel.mtwilson.core.common.model.PcrEventLogFactory;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogContainsUnexpectedEntries;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogInvalid;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogMissing;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogMissingExpectedEntries;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrValueMissing;
+import com.intel.mtwilson.core.verifier.policy.rule.Pcr15EventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEquals;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogEqualsExcluding;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIncludes;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.utils.ModuleExclusionFilter;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks the faults of the PCR event log rules for matching, reordered,
+ * modified and excluded host entries.
+ */
+public class TestPcrEventLogRules {
+
+    private static Measurement measurement(String label, String packageName) {
+        Map<String, String> info = new HashMap<>();
+        info.put("ComponentName", label);
+        info.put("PackageName", packageName);
+        info.put("PackageVendor", packageName);
+        return new MeasurementSha256(Sha256Digest.digestOf(label.getBytes()), label, info);
+    }
+
+    private static HostManifest host(List<Measurement> eventLog) {
+        PcrManifest pcrManifest = new PcrManifest();
+        pcrManifest.setPcrEventLog(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, eventLog));
+        HostManifest hostManifest = new HostManifest();
+        hostManifest.setPcrManifest(pcrManifest);
+        return hostManifest;
+    }
+
+    private static RuleResult equals(List<Measurement> expected, List<Measurement> actual) {
+        return new PcrEventLogEquals(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, expected)).apply(host(actual));
+    }
+
+    @Test
+    public void testEqualsInAnyOrder() {
+        Measurement a = measurement("a", "p");
+        Measurement b = measurement("b", "p");
+        assertTrue(equals(Arrays.asList(a, b), Arrays.asList(a, b)).getFaults().isEmpty());
+        assertTrue(equals(Arrays.asList(a, b), Arrays.asList(b, a)).getFaults().isEmpty());
+    }
+
+    @Test
+    public void testEqualsReportsUnexpectedAndMissing() {
+        Measurement a = measurement("a", "p");
+        Measurement b = measurement("b", "p");
+        Measurement c = measurement("c", "p");
+        RuleResult result = equals(Arrays.asList(a, b), Arrays.asList(a, c));
+        assertEquals(2, result.getFaults().size());
+        PcrEventLogContainsUnexpectedEntries unexpected = (PcrEventLogContainsUnexpectedEntries) result.getFaults().get(0);
+        assertEquals(Arrays.asList(c), unexpected.getUnexpectedEntries());
+        assertTrue(result.getFaults().get(1) instanceof PcrEventLogMissingExpectedEntries);
+    }
+
+    @Test
+    public void testEqualsIgnoresUnexpected0x4feEntries() {
+        Measurement a = measurement("a", "p");
+        Measurement b = measurement("b", "p");
+        Measurement ignored = measurement("0x4fe", "p");
+        Measurement c = measurement("c", "p");
+        RuleResult result = equals(Arrays.asList(a, b), Arrays.asList(ignored, c, a, b));
+        assertEquals(1, result.getFaults().size());
+        assertEquals(Arrays.asList(c), ((PcrEventLogContainsUnexpectedEntries) result.getFaults().get(0)).getUnexpectedEntries());
+    }
+
+    @Test
+    public void testEqualsExcludingSkipsDynamicModules() {
+        Measurement a = measurement("a", "p");
+        Measurement dynamic = measurement("dynamic", "");
+        Measurement vmlinuz = measurement("vmlinuz", "p");
+        PcrEventLogEqualsExcluding rule = new PcrEventLogEqualsExcluding(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, Arrays.asList(a)));
+        assertTrue(rule.apply(host(Arrays.asList(dynamic, a, vmlinuz))).getFaults().isEmpty());
+        RuleResult onlyExcluded = rule.apply(host(Arrays.asList(dynamic, vmlinuz)));
+        assertEquals(1, onlyExcluded.getFaults().size());
+        assertTrue(onlyExcluded.getFaults().get(0) instanceof PcrEventLogMissing);
+    }
+
+    @Test
+    public void testEqualsExcludingWithPrefixFilter() {
+        Measurement a = measurement("a", "p");
+        Measurement commandLine = measurement("commandLine./b.b00 bootUUID=1", "p");
+        PcrEventLogEqualsExcluding rule = new PcrEventLogEqualsExcluding(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, Arrays.asList(a)));
+        assertEquals(1, rule.apply(host(Arrays.asList(commandLine, a))).getFaults().size());
+        rule.setExclusionFilter(ModuleExclusionFilter.compile(Arrays.asList("commandLine.*")));
+        assertTrue(rule.apply(host(Arrays.asList(commandLine, a))).getFaults().isEmpty());
+        assertEquals(Arrays.asList("commandLine.*"), rule.getExcludedModules());
+    }
+
+    @Test
+    public void testEqualsExcludingKeepsEmptyFilterInJson() throws Exception {
+        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+        PcrEventLogEqualsExcluding rule = new PcrEventLogEqualsExcluding(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, Arrays.asList(measurement("a", "p"))));
+        rule.setExclusionFilter(ModuleExclusionFilter.NONE);
+        PcrEventLogEqualsExcluding read = (PcrEventLogEqualsExcluding) mapper.readValue(mapper.writeValueAsString(rule), Rule.class);
+        assertEquals(ModuleExclusionFilter.NONE, read.getExclusionFilter());
+    }
+
+    @Test
+    public void testIncludesReportsOnlyMissing() {
+        Measurement a = measurement("a", "p");
+        Measurement b = measurement("b", "p");
+        Measurement c = measurement("c", "p");
+        PcrEventLogIncludes rule = new PcrEventLogIncludes(DigestAlgorithm.SHA256, PcrIndex.PCR17, new HashSet<>(Arrays.asList(a, b)));
+        assertTrue(rule.apply(host(Arrays.asList(c, b, a))).getFaults().isEmpty());
+        RuleResult result = rule.apply(host(Arrays.asList(a, c)));
+        assertEquals(1, result.getFaults().size());
+        assertEquals(new HashSet<>(Arrays.asList(b)), ((PcrEventLogMissingExpectedEntries) result.getFaults().get(0)).getMissingEntries());
+    }
+
+    @Test
+    public void testIntegrityReplaysEventLog() {
+        Measurement a = measurement("a", "p");
+        Measurement b = measurement("b", "p");
+        HostManifest hostManifest = host(new ArrayList<>(Arrays.asList(a, b)));
+        Sha256Digest replay = new Sha256Digest(new byte[32]).extend(a.getValue().toByteArray()).extend(b.getValue().toByteArray());
+        hostManifest.getPcrManifest().setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, replay.toHexString()));
+        PcrEventLogIntegrity rule = new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, replay.toHexString()));
+        assertTrue(rule.apply(hostManifest).getFaults().isEmpty());
+
+        hostManifest.getPcrManifest().setPcrEventLog(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, Arrays.asList(b, a)));
+        RuleResult reordered = rule.apply(hostManifest);
+        assertEquals(1, reordered.getFaults().size());
+        assertTrue(reordered.getFaults().get(0) instanceof PcrEventLogInvalid);
+    }
+
+    @Test
+    public void testPcr15IntegrityDoesNotChangeSharedRule() {
+        Measurement a = measurement("a", "p");
+        List<Measurement> eventLog = new ArrayList<>(Arrays.asList(a));
+        HostManifest tpm2Host = new HostManifest();
+        tpm2Host.setPcrManifest(new PcrManifest());
+        tpm2Host.getPcrManifest().setPcrEventLog(PcrEventLogFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR15, eventLog));
+        Sha256Digest replay = new Sha256Digest(new byte[32]).extend(a.getValue().toByteArray());
+        tpm2Host.getPcrManifest().setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR15, replay.toHexString()));
+        tpm2Host.setHostInfo(new HostInfo());
+        tpm2Host.getHostInfo().setTpmVersion("2.0");
+        HostManifest tpm12Host = host(eventLog);
+        tpm12Host.setHostInfo(new HostInfo());
+        tpm12Host.getHostInfo().setTpmVersion("1.2");
+
+        Pcr15EventLogIntegrity rule = new Pcr15EventLogIntegrity();
+        RuleResult tpm2Result = rule.apply(tpm2Host);
+        assertTrue(tpm2Result.getFaults().isEmpty());
+        assertEquals(DigestAlgorithm.SHA256, ((Pcr15EventLogIntegrity) tpm2Result.getRule()).getExpectedPcr().getPcrBank());
+        assertNull(rule.getExpectedPcr());
+
+        RuleResult tpm12Result = rule.apply(tpm12Host);
+        assertEquals(1, tpm12Result.getFaults().size());
+        assertTrue(tpm12Result.getFaults().get(0) instanceof PcrValueMissing);
+        assertNull(rule.getExpectedPcr());
+    }
+}
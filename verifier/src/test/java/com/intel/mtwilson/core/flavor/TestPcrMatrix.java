@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Pcr;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrValueMissing;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstant;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstantBatch;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import com.intel.mtwilson.core.verifier.policy.utils.PcrMatrix;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks the packed PCR comparison and that a batch of PcrMatchesConstant
+ * rules reports the same faults as applying each rule.
+ */
+public class TestPcrMatrix {
+    private static final String PCR0 = "3f3ac2d0e4d9a8e5d0f6c8a5b7e4c1d2a3b4c5d6";
+    private static final String PCR17 = "b4c5d6e7f8091a2b3c4d5e6f708192a3b4c5d6e7";
+    private static final String PCR18 = "0000000000000000000000000000000000000000";
+    private static final String OTHER = "ffffffffffffffffffffffffffffffffffffffff";
+
+    @Test
+    public void testMismatchesComparesSelectedPcrs() {
+        PcrMatrix expected = new PcrMatrix(DigestAlgorithm.SHA1, 20);
+        expected.set(0, DigestKey.valueOfHex(PCR0));
+        expected.set(17, DigestKey.valueOfHex(PCR17));
+        expected.set(18, DigestKey.valueOfHex(PCR18));
+        PcrMatrix actual = new PcrMatrix(DigestAlgorithm.SHA1, 20);
+        actual.set(0, DigestKey.valueOfHex(PCR0).toByteArray());
+        actual.set(17, DigestKey.valueOfHex(OTHER).toByteArray());
+        actual.set(18, new byte[32]);
+        int mask = (1 << 0) | (1 << 17) | (1 << 18) | (1 << 19);
+        assertEquals((1 << 17) | (1 << 18), expected.mismatches(actual, mask));
+        assertEquals(0, expected.mismatches(actual, 1));
+        assertEquals((1 << 0) | (1 << 17) | (1 << 18), actual.getPresent());
+    }
+
+    @Test
+    public void testBatchReportsSameFaultsAsRules() throws Exception {
+        PcrManifest pcrManifest = new PcrManifest();
+        pcrManifest.setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, PCR0));
+        pcrManifest.setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, OTHER));
+        HostManifest hostManifest = new HostManifest();
+        hostManifest.setPcrManifest(pcrManifest);
+
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, PCR0)));
+        rules.add(new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, PCR17)));
+        rules.add(new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR18, PCR18)));
+        PcrMatchesConstantBatch batch = PcrMatchesConstantBatch.compile(rules);
+        assertEquals(3, batch.size());
+
+        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+        Map<Rule, RuleResult> results = batch.apply(hostManifest);
+        for (Rule rule : rules) {
+            assertTrue(batch.contains(rule));
+            assertEquals(mapper.writeValueAsString(rule.apply(hostManifest)), mapper.writeValueAsString(results.get(rule)));
+        }
+        assertTrue(results.get(rules.get(0)).isTrusted());
+        assertEquals(1, results.get(rules.get(1)).getFaults().size());
+        assertEquals(1, results.get(rules.get(2)).getFaults().size());
+    }
+
+    @Test
+    public void testPcrWithoutValueIsMissing() throws Exception {
+        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+        // as in a host manifest that reports the PCR without a value
+        Pcr withoutValue = mapper.readValue("{\"digest_type\":\"com.intel.mtwilson.core.common.model.PcrSha1\",\"index\":\"17\",\"pcr_bank\":\"SHA1\"}", Pcr.class);
+        PcrManifest pcrManifest = new PcrManifest();
+        pcrManifest.setPcr(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, PCR0));
+        pcrManifest.setPcr(withoutValue);
+        HostManifest hostManifest = new HostManifest();
+        hostManifest.setPcrManifest(pcrManifest);
+
+        Rule rule = new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, PCR17));
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, PCR0)));
+        rules.add(rule);
+        RuleResult result = PcrMatchesConstantBatch.compile(rules).apply(hostManifest).get(rule);
+        assertEquals(1, result.getFaults().size());
+        assertTrue(result.getFaults().get(0) instanceof PcrValueMissing);
+        assertEquals(mapper.writeValueAsString(rule.apply(hostManifest)), mapper.writeValueAsString(result));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.verifier.policy.BaseRule;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.RuleCost;
+import com.intel.mtwilson.core.verifier.policy.RuleCostModel;
+import com.intel.mtwilson.core.verifier.policy.RuleExecutionPlan;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Checks that execution plans are ordered by cost, respect rule dependencies,
+ * and do not depend on the iteration order of the policy rule set.
+ */
+public class TestRuleExecutionPlan {
+
+    private static class TestRule extends BaseRule {
+        private final RuleCost cost;
+        private final String key;
+        private String integrityKey;
+        private String[] dependencyKeys = new String[0];
+
+        TestRule(RuleCost cost, String key, String marker) {
+            this.cost = cost;
+            this.key = key;
+            setMarkers(marker);
+        }
+
+        @Override
+        public RuleResult apply(HostManifest hostManifest) {
+            return new RuleResult(this);
+        }
+
+        @Override
+        public RuleCost getCost() {
+            return cost;
+        }
+
+        @Override
+        public String getRuleKey() {
+            return key;
+        }
+
+        @Override
+        public String getIntegrityKey() {
+            return integrityKey;
+        }
+
+        @Override
+        public String[] getDependencyKeys() {
+            return dependencyKeys;
+        }
+    }
+
+    @Test
+    public void testExecutionOrderIsCheapestFirst() {
+        TestRule signature = new TestRule(RuleCost.SIGNATURE, "flavor", "PLATFORM");
+        TestRule constant = new TestRule(RuleCost.CONSTANT, "SHA256:0", "PLATFORM");
+        TestRule certificate = new TestRule(RuleCost.CERTIFICATE, "", "PLATFORM");
+        TestRule linear = new TestRule(RuleCost.LINEAR, "SHA256:17", "PLATFORM");
+        RuleExecutionPlan plan = RuleExecutionPlan.compile(new Policy("test", signature, constant, certificate, linear), new RuleCostModel());
+        List<Rule> order = plan.getExecutionOrder();
+        assertSame(constant, order.get(0));
+        assertSame(linear, order.get(1));
+        assertSame(certificate, order.get(2));
+        assertSame(signature, order.get(3));
+        assertSame(signature, plan.getParallelOrder().get(0));
+    }
+
+    @Test
+    public void testReportOrderIsStable() {
+        TestRule a = new TestRule(RuleCost.CONSTANT, "SHA1:0", "PLATFORM");
+        TestRule b = new TestRule(RuleCost.CONSTANT, "SHA1:17", "OS");
+        TestRule c = new TestRule(RuleCost.CONSTANT, "SHA1:18", "PLATFORM");
+        RuleExecutionPlan first = RuleExecutionPlan.compile(new Policy("test", a, b, c), new RuleCostModel());
+        RuleExecutionPlan second = RuleExecutionPlan.compile(new Policy("test", c, b, a), new RuleCostModel());
+        assertEquals(first.getReportOrder(), second.getReportOrder());
+        assertSame(b, first.getReportOrder().get(0));
+        assertSame(a, first.getReportOrder().get(1));
+        assertSame(c, first.getReportOrder().get(2));
+    }
+
+    @Test
+    public void testMeasuredLatencyOrdersRulesWithinCostClass() {
+        RuleCostModel costModel = new RuleCostModel();
+        TestRule slow = new TestRule(RuleCost.LINEAR, "a", "PLATFORM");
+        Rule fast = new BaseRule() {
+            @Override
+            public RuleResult apply(HostManifest hostManifest) {
+                return new RuleResult(this);
+            }
+        };
+        for (int i = 0; i < 32; i++) {
+            costModel.record(slow.getClass(), 1000000L);
+            costModel.record(fast.getClass(), 1000L);
+        }
+        RuleExecutionPlan plan = RuleExecutionPlan.compile(new Policy("test", slow, fast), costModel);
+        assertSame(fast, plan.getExecutionOrder().get(0));
+        assertSame(slow, plan.getExecutionOrder().get(1));
+    }
+
+    @Test
+    public void testPrerequisitesRunBeforeDependentRules() {
+        TestRule integrity = new TestRule(RuleCost.SIGNATURE, "SHA256:17", "PLATFORM");
+        integrity.integrityKey = "log:17";
+        TestRule content = new TestRule(RuleCost.CONSTANT, "SHA256:17", "PLATFORM");
+        content.dependencyKeys = new String[] { "log:17" };
+        TestRule unrelated = new TestRule(RuleCost.LINEAR, "SHA256:18", "PLATFORM");
+        unrelated.dependencyKeys = new String[] { "log:18" };
+        RuleExecutionPlan plan = RuleExecutionPlan.compile(new Policy("test", content, integrity, unrelated), new RuleCostModel());
+        List<Rule> order = plan.getExecutionOrder();
+        assertSame(unrelated, order.get(0));
+        assertSame(integrity, order.get(1));
+        assertSame(content, order.get(2));
+        assertEquals(1, plan.getPrerequisites(content).size());
+        assertSame(integrity, plan.getPrerequisites(content).get(0));
+        assertEquals(0, plan.getPrerequisites(unrelated).size());
+    }
+
+    @Test
+    public void testPlanIsKeptByPolicyUntilLatencyBucketChanges() {
+        RuleCostModel costModel = new RuleCostModel();
+        TestRule slow = new TestRule(RuleCost.LINEAR, "a", "PLATFORM");
+        Rule fast = new BaseRule() {
+            @Override
+            public RuleResult apply(HostManifest hostManifest) {
+                return new RuleResult(this);
+            }
+        };
+        Policy policy = new Policy("test", slow, fast);
+        RuleExecutionPlan first = RuleExecutionPlan.of(policy, costModel);
+        assertSame(first, RuleExecutionPlan.of(policy, costModel));
+
+        for (int i = 0; i < 32; i++) {
+            costModel.record(slow.getClass(), 1000000L);
+            costModel.record(fast.getClass(), 1000L);
+        }
+        RuleExecutionPlan second = RuleExecutionPlan.of(policy, costModel);
+        assertNotSame(first, second);
+        assertSame(fast, second.getExecutionOrder().get(0));
+        assertSame(first.getReportOrder(), second.getReportOrder());
+        assertSame(first.getPcrConstants(), second.getPcrConstants());
+        assertSame(second, RuleExecutionPlan.of(policy, costModel));
+        assertNotSame(second, RuleExecutionPlan.of(policy, new RuleCostModel()));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.PcrFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.verifier.policy.Rule;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.RuleResultMemo;
+import com.intel.mtwilson.core.verifier.policy.TrustMarker;
+import com.intel.mtwilson.core.verifier.policy.fault.PcrEventLogInvalid;
+import com.intel.mtwilson.core.verifier.policy.rule.Pcr15EventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrMatchesConstant;
+import com.intel.mtwilson.core.verifier.policy.vendor.VendorTrustPolicyRules;
+import java.util.List;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that equal flavor independent rules of different flavor parts share
+ * one result, reported under their own markers.
+ */
+public class TestRuleResultMemo {
+    private static final String PLATFORM_VALUE = "3f3ac2d0e4d9a8e5d0f6c8a5b7e4c1d2a3b4c5d6";
+    private static final String OS_VALUE = "0000000000000000000000000000000000000000";
+
+    @Test
+    public void testIntegrityRulesOfDifferentFlavorsShareResult() {
+        RuleResultMemo memo = new RuleResultMemo(new HostManifest());
+        PcrEventLogIntegrity platform = new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, PLATFORM_VALUE));
+        platform.setMarkers(TrustMarker.PLATFORM.name());
+        PcrEventLogIntegrity os = new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, OS_VALUE));
+        os.setMarkers(TrustMarker.OS.name());
+        assertTrue(RuleResultMemo.isMemoizable(platform));
+        assertEquals(platform, os);
+
+        assertNull(memo.get(platform));
+        RuleResult platformResult = new RuleResult(platform);
+        platformResult.fault(new PcrEventLogInvalid(PcrIndex.PCR17));
+        memo.put(platformResult);
+
+        RuleResult osResult = memo.get(os);
+        assertSame(os, osResult.getRule());
+        assertEquals(1, osResult.getFaults().size());
+        assertSame(platformResult.getFaults().get(0), osResult.getFaults().get(0));
+        assertEquals(1, memo.getHits());
+        assertEquals(1, memo.getMisses());
+    }
+
+    @Test
+    public void testRulesOfOtherPcrsAreNotShared() {
+        RuleResultMemo memo = new RuleResultMemo(new HostManifest());
+        PcrEventLogIntegrity pcr17 = new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR17, PLATFORM_VALUE));
+        PcrEventLogIntegrity pcr18 = new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR18, PLATFORM_VALUE));
+        PcrEventLogIntegrity sha256 = new PcrEventLogIntegrity(PcrFactory.newInstance(DigestAlgorithm.SHA256, PcrIndex.PCR17, PLATFORM_VALUE + "000000000000000000000000"));
+        memo.put(new RuleResult(pcr17));
+        assertNull(memo.get(pcr18));
+        assertNull(memo.get(sha256));
+        assertTrue(memo.get(pcr17).isTrusted());
+        assertFalse(RuleResultMemo.isMemoizable(new PcrMatchesConstant(PcrFactory.newInstance(DigestAlgorithm.SHA1, PcrIndex.PCR0, PLATFORM_VALUE))));
+    }
+
+    /**
+     * Pcr15EventLogIntegrity takes its expected PCR from the host manifest, so
+     * software policies can be built before it is set, and its result names
+     * the flavor it was created for.
+     */
+    @Test
+    public void testSoftwareFlavorsDoNotShareResults() throws Exception {
+        SyntheticHostGenerator generator = new SyntheticHostGenerator(42, "intel-host");
+        generator.setMeasurementXmlCount(2);
+        generator.setMeasurementsPerXml(5);
+        SyntheticHostGenerator.SyntheticHost host = generator.getHost(0);
+        HostManifest hostManifest = host.getHostManifest();
+        List<Integer> softwareFlavorIndexes = host.getSoftwareFlavorIndexes();
+        assertEquals(2, softwareFlavorIndexes.size());
+
+        RuleResultMemo memo = new RuleResultMemo(hostManifest);
+        for (int softwareFlavorIndex : softwareFlavorIndexes) {
+            Flavor flavor = generator.getSoftwareFlavor(softwareFlavorIndex).getFlavor();
+            Set<Rule> rules = VendorTrustPolicyRules.createSoftwareRules(flavor);
+            assertEquals(4, rules.size());
+            for (Rule rule : rules) {
+                boolean memoizable = RuleResultMemo.isMemoizable(rule);
+                RuleResult result = memoizable ? memo.get(rule) : null;
+                if (result == null) {
+                    result = rule.apply(hostManifest);
+                    if (memoizable) {
+                        memo.put(result);
+                    }
+                }
+                if (rule instanceof Pcr15EventLogIntegrity) {
+                    assertFalse(memoizable);
+                    assertEquals(flavor.getMeta().getId(), result.getFlavorId());
+                }
+            }
+        }
+        assertEquals(0, memo.size());
+        assertEquals(0, memo.getHits());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.flavor.model.Flavor;
+import com.intel.mtwilson.core.flavor.model.SignedFlavor;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.rule.PcrEventLogIntegrity;
+import com.intel.mtwilson.core.verifier.policy.rule.XmlMeasurementLogEquals;
+import com.intel.mtwilson.core.verifier.policy.rule.XmlMeasurementLogIntegrity;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that synthetic hosts are reproducible, replay to their PCR values and
+ * match their software flavors unless mismatches are requested.
+ */
+public class TestSyntheticHostGenerator {
+    private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+
+    private SyntheticHostGenerator newGenerator(double mismatchRatio) throws Exception {
+        SyntheticHostGenerator generator = new SyntheticHostGenerator(42, "intel-host");
+        generator.setEventLogSize(200);
+        generator.setMeasurementXmlCount(3);
+        generator.setMeasurementsPerXml(20);
+        generator.setMismatchRatio(mismatchRatio);
+        return generator;
+    }
+
+    @Test
+    public void testSameSeedGeneratesSameHost() throws Exception {
+        String first = mapper.writeValueAsString(newGenerator(0.1).getHost(7).getHostManifest());
+        String second = mapper.writeValueAsString(newGenerator(0.1).getHost(7).getHostManifest());
+        assertEquals(first, second);
+        assertFalse(first.equals(mapper.writeValueAsString(newGenerator(0.1).getHost(8).getHostManifest())));
+    }
+
+    @Test
+    public void testHostMatchesSoftwareFlavors() throws Exception {
+        SyntheticHostGenerator generator = newGenerator(0);
+        SyntheticHostGenerator.SyntheticHost host = generator.getHost(0);
+        HostManifest hostManifest = host.getHostManifest();
+        assertEquals(0, host.getMismatchCount());
+        assertEquals(3, hostManifest.getMeasurementXmls().size());
+
+        RuleResult integrity = new PcrEventLogIntegrity(hostManifest.getPcrManifest().getPcr(DigestAlgorithm.SHA1, PcrIndex.PCR17)).apply(hostManifest);
+        assertTrue(integrity.getFaults().isEmpty());
+        for (int softwareFlavorIndex : host.getSoftwareFlavorIndexes()) {
+            SignedFlavor signedFlavor = generator.getSoftwareFlavor(softwareFlavorIndex);
+            assertTrue(generator.verify(signedFlavor));
+            Flavor flavor = signedFlavor.getFlavor();
+            assertTrue(new XmlMeasurementLogIntegrity(flavor).apply(hostManifest).getFaults().isEmpty());
+            assertTrue(new XmlMeasurementLogEquals(flavor).apply(hostManifest).getFaults().isEmpty());
+        }
+    }
+
+    @Test
+    public void testMismatchesKeepEventLogIntegrity() throws Exception {
+        SyntheticHostGenerator generator = newGenerator(1);
+        SyntheticHostGenerator.SyntheticHost host = generator.getHost(0);
+        HostManifest hostManifest = host.getHostManifest();
+        assertTrue(host.getMismatchCount() > 0);
+
+        RuleResult integrity = new PcrEventLogIntegrity(hostManifest.getPcrManifest().getPcr(DigestAlgorithm.SHA1, PcrIndex.PCR17)).apply(hostManifest);
+        assertTrue(integrity.getFaults().isEmpty());
+        Flavor flavor = generator.getSoftwareFlavor(host.getSoftwareFlavorIndexes().get(0)).getFlavor();
+        assertFalse(new XmlMeasurementLogEquals(flavor).apply(hostManifest).getFaults().isEmpty());
+    }
+}
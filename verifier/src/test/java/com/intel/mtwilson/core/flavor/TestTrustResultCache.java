@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.verifier.cache.TrustResultCache;
+import com.intel.mtwilson.core.verifier.policy.BaseRule;
+import com.intel.mtwilson.core.verifier.policy.Policy;
+import com.intel.mtwilson.core.verifier.policy.RuleResult;
+import com.intel.mtwilson.core.verifier.policy.TrustReport;
+import com.intel.mtwilson.core.verifier.policy.rule.FlavorTrusted;
+import com.intel.mtwilson.core.verifier.policy.utils.DigestKey;
+import com.intel.mtwilson.core.verifier.policy.utils.ManifestFingerprint;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that cached trust reports are returned only while the manifest
+ * sections are unchanged and never past the time a rule result can change.
+ */
+public class TestTrustResultCache {
+    private static final DigestKey FLAVOR_A = DigestKey.valueOfHex("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+    private static final DigestKey FLAVOR_B = DigestKey.valueOfHex("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+    private static final DigestKey ANCHORS = DigestKey.valueOfHex("cccccccccccccccccccccccccccccccccccccccc");
+
+    private final List<File> tempFiles = new ArrayList<>();
+    private ManualClockCache cache;
+    private HostManifest hostManifest;
+    private TrustResultCache.Key key;
+
+    @Before
+    public void setUp() {
+        cache = new ManualClockCache();
+        hostManifest = new HostManifest();
+        hostManifest.setAssetTagDigest(new byte[32]);
+        key = new TrustResultCache.Key("host-1", Arrays.asList(FLAVOR_A, FLAVOR_B), ANCHORS);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : tempFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testKeyIgnoresFlavorOrder() {
+        assertEquals(key, new TrustResultCache.Key("host-1", Arrays.asList(FLAVOR_B, FLAVOR_A), ANCHORS));
+        assertFalse(key.equals(new TrustResultCache.Key("host-2", Arrays.asList(FLAVOR_A, FLAVOR_B), ANCHORS)));
+        assertFalse(key.equals(new TrustResultCache.Key("host-1", Arrays.asList(FLAVOR_A, FLAVOR_B), FLAVOR_A)));
+        assertFalse(key.equals(new TrustResultCache.Key("host-1", Arrays.asList(FLAVOR_A, FLAVOR_B), ANCHORS, "FAIL_FAST")));
+    }
+
+    @Test
+    public void testReportIsReturnedUntilTimeToLive() {
+        TrustReport report = new TrustReport(hostManifest, "policy");
+        assertTrue(cache.put(key, hostManifest, new Policy("policy", new AssetTagRule(null)), report));
+        cache.now = 59999;
+        assertEquals("policy", cache.get(key, hostManifest).getPolicyName());
+        cache.now = 60000;
+        assertNull(cache.get(key, hostManifest));
+        assertEquals(1, cache.getExpired());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTimeToLiveIsCappedByResultExpiry() {
+        TrustReport report = new TrustReport(hostManifest, "policy");
+        assertTrue(cache.put(key, hostManifest, new Policy("policy", new AssetTagRule(new Date(10000))), report));
+        cache.now = 9999;
+        assertEquals("policy", cache.get(key, hostManifest).getPolicyName());
+        cache.now = 10000;
+        assertNull(cache.get(key, hostManifest));
+    }
+
+    @Test
+    public void testCallersCannotChangeCachedReport() {
+        AssetTagRule rule = new AssetTagRule(null);
+        TrustReport report = new TrustReport(hostManifest, "policy");
+        RuleResult result = new RuleResult(rule);
+        result.fault("asset tag mismatch");
+        report.getResults().add(result);
+        assertTrue(cache.put(key, hostManifest, new Policy("policy", rule), report));
+        result.fault("changed after put");
+        TrustReport first = cache.get(key, hostManifest);
+        assertNotSame(report, first);
+        assertSame(hostManifest, first.getHostManifest());
+        assertEquals(1, first.getResults().get(0).getFaults().size());
+        first.getResults().get(0).fault("changed after get");
+        first.getResults().clear();
+        TrustReport second = cache.get(key, hostManifest);
+        assertNotSame(first, second);
+        assertEquals(1, second.getResults().size());
+        assertEquals(1, second.getResults().get(0).getFaults().size());
+        assertSame(rule, second.getResults().get(0).getRule());
+    }
+
+    @Test
+    public void testReportExpiresWithFlavorSigningCertificate() throws Exception {
+        File flavorSigningCert = copyToTempFile("intel-host/flavor-signer.crt.pem");
+        File flavorCaCert = copyToTempFile("intel-host/cms-ca.crt.pem");
+        long certificateExpiry = Long.MAX_VALUE;
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        for (File file : Arrays.asList(flavorSigningCert, flavorCaCert)) {
+            try (InputStream in = new FileInputStream(file)) {
+                for (Certificate certificate : certificateFactory.generateCertificates(in)) {
+                    certificateExpiry = Math.min(certificateExpiry, ((X509Certificate) certificate).getNotAfter().getTime());
+                }
+            }
+        }
+        FlavorTrusted rule = new FlavorTrusted(null, flavorSigningCert.getPath(), flavorCaCert.getPath());
+        cache.now = certificateExpiry - 1000;
+        assertTrue(cache.put(key, hostManifest, new Policy("policy", new AssetTagRule(null), rule), new TrustReport(hostManifest, "policy")));
+        cache.now = certificateExpiry - 1;
+        assertTrue(cache.get(key, hostManifest) != null);
+        cache.now = certificateExpiry;
+        assertNull(cache.get(key, hostManifest));
+        assertEquals(1, cache.getExpired());
+    }
+
+    @Test
+    public void testChangedSectionIsMiss() {
+        assertTrue(cache.put(key, hostManifest, new Policy("policy", new AssetTagRule(null)), new TrustReport(hostManifest, "policy")));
+        HostManifest retagged = new HostManifest();
+        byte[] tag = new byte[32];
+        tag[0] = 1;
+        retagged.setAssetTagDigest(tag);
+        assertNull(cache.get(key, retagged));
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testRuleWithoutSectionsIsNotCached() {
+        Policy policy = new Policy("policy", new AssetTagRule(null), new UndeclaredRule());
+        assertFalse(cache.put(key, hostManifest, policy, new TrustReport(hostManifest, "policy")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidateDropsHost() {
+        TrustResultCache.Key other = new TrustResultCache.Key("host-2", Arrays.asList(FLAVOR_A), ANCHORS);
+        Policy policy = new Policy("policy", new AssetTagRule(null));
+        cache.put(key, hostManifest, policy, new TrustReport(hostManifest, "policy"));
+        cache.put(other, hostManifest, policy, new TrustReport(hostManifest, "policy"));
+        cache.invalidate("host-1");
+        assertNull(cache.get(key, hostManifest));
+        assertTrue(cache.get(other, hostManifest) != null);
+    }
+
+    private File copyToTempFile(String resource) throws Exception {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(resource)) {
+            File file = File.createTempFile("temp_trust_result_cache", ".pem");
+            tempFiles.add(file);
+            Files.copy(in, file.toPath(), REPLACE_EXISTING);
+            return file;
+        }
+    }
+
+    private static class ManualClockCache extends TrustResultCache {
+        private long now;
+
+        ManualClockCache() {
+            super(60, TimeUnit.SECONDS, 10);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static class AssetTagRule extends BaseRule {
+        private final Date expiry;
+
+        AssetTagRule(Date expiry) {
+            this.expiry = expiry;
+        }
+
+        @Override
+        public RuleResult apply(HostManifest hostManifest) {
+            return new RuleResult(this);
+        }
+
+        @Override
+        public String[] getManifestSections() {
+            return new String[] { ManifestFingerprint.ASSET_TAG };
+        }
+
+        @Override
+        public Date getResultExpiry(HostManifest hostManifest, Date now) {
+            return expiry;
+        }
+    }
+
+    private static class UndeclaredRule extends BaseRule {
+        @Override
+        public RuleResult apply(HostManifest hostManifest) {
+            return new RuleResult(this);
+        }
+    }
+}
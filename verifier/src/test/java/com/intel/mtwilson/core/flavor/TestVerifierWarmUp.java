@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.flavor;
+
+import com.intel.mtwilson.core.verifier.VerifierWarmUp;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that the warm-up runs once per JVM, whether it is started in the
+ * background or run on the calling thread.
+ */
+public class TestVerifierWarmUp {
+
+    @Test
+    public void testWarmUpRunsOnce() throws Exception {
+        long started = VerifierWarmUp.start().get();
+        assertTrue(started > 0);
+        assertEquals(started, VerifierWarmUp.run());
+        assertEquals(started, VerifierWarmUp.run());
+        assertEquals(started, (long) VerifierWarmUp.start().get());
+    }
+}